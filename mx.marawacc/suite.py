@@ -124,6 +124,20 @@ suite = {
       "workingSets" : "Graal,HotSpot",
     },
 
+    "uk.ac.ed.jpai.benchmarks" : {
+      "subDir" : "src",
+      "sourceDirs" : ["src"],
+      "dependencies" : [
+		"uk.ac.ed.datastructures",
+		"uk.ac.ed.jpai",
+		"mx:JMH",
+			],
+      "annotationProcessors" : ["mx:JMH"],
+      "checkstyle" : "com.oracle.graal.graph",
+      "javaCompliance" : "1.8",
+      "workingSets" : "Graal,HotSpot",
+    },
+
     "uk.ac.ed.replacements" : {
       "subDir" : "src",
       "sourceDirs" : ["src"],
@@ -2947,7 +2947,7 @@ public class GraalOpenCLGenerator extends AbstractOpenCLGenerator {
     @SuppressWarnings("rawtypes")
     private String handleOptimizationSequence(int i, String realOCLType, String indexVar, String arrayStart) {
         String codeOpenCL = null;
-        PArray parray = (PArray) parametersDirection.get(Direction.INPUT)[0];
+        PArray parray = ((PArray) parametersDirection.get(Direction.INPUT)[0]).getSequenceDescriptor();
 
         if (parray.get(i) instanceof Tuple2) {
             // XXX: For now we allow two arrays in sequence format
@@ -23,14 +23,22 @@ package uk.ac.ed.accelerator.ocl.runtime;
 import java.lang.reflect.Method;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 import uk.ac.ed.accelerator.common.ParallelSkeleton;
+import uk.ac.ed.datastructures.tuples.Tuple2;
 
 public class FunctionalPatternTemplate {
 
     @SuppressWarnings("rawtypes") private Function function;
     @SuppressWarnings("rawtypes") private BiFunction bifunction;
 
+    // Read by zipWithFunction. The load is replaced by the user function when the graph is built
+    @SuppressWarnings("rawtypes") private static BiFunction zipFunction;
+
+    // Read by filterFlagFunction. The load is replaced by the user predicate as for zipFunction
+    @SuppressWarnings("rawtypes") private static Predicate filterPredicate;
+
     @SuppressWarnings("unchecked")
     public <T> void lambdaComputation(T[] input, T[] output) {
         for (int i = 0; i < input.length; i++) {
@@ -48,6 +56,51 @@ public class FunctionalPatternTemplate {
         }
     }
 
+    /**
+     * Function compiled for the zipWith skeleton: the binary function receives the two fields of
+     * the tuple. It is compiled as the lambda of a map over the {@link Tuple2} input, so the kernel
+     * receives one buffer per input array.
+     *
+     * @see GraalIRConversion#getOptimizedGraalIRZipLambda(BiFunction)
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static Object zipWithFunction(Tuple2 tuple) {
+        return zipFunction.apply(tuple._1(), tuple._2());
+    }
+
+    /**
+     * @return Method for the function of the zipWith skeleton
+     */
+    public static Method getZipWithMethod() {
+        try {
+            return FunctionalPatternTemplate.class.getMethod("zipWithFunction", Tuple2.class);
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Function compiled for the filter skeleton: the flag of each element, 1 if the predicate keeps
+     * it and 0 otherwise. The positions of the elements kept are the scan of the flags.
+     *
+     * @see GraalIRConversion#getOptimizedGraalIRFilterLambda(Predicate)
+     */
+    @SuppressWarnings("unchecked")
+    public static Integer filterFlagFunction(Object value) {
+        return filterPredicate.test(value) ? 1 : 0;
+    }
+
+    /**
+     * @return Method for the function of the filter skeleton
+     */
+    public static Method getFilterFlagMethod() {
+        try {
+            return FunctionalPatternTemplate.class.getMethod("filterFlagFunction", Object.class);
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * @param skeleton which is used to build the CFG for OCL Graal backend.
      * @return Method string name in order to get the Method class.
@@ -22,7 +22,12 @@ package uk.ac.ed.accelerator.ocl.runtime;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
 
 import com.oracle.graal.compiler.target.Backend;
 import com.oracle.graal.debug.internal.DebugScope;
@@ -31,9 +36,16 @@ import com.oracle.graal.graph.iterators.NodeIterable;
 import com.oracle.graal.graphbuilderconf.GraphBuilderConfiguration;
 import com.oracle.graal.graphbuilderconf.GraphBuilderConfiguration.Plugins;
 import com.oracle.graal.graphbuilderconf.InvocationPlugins;
+import com.oracle.graal.hotspot.meta.HotSpotProviders;
 import com.oracle.graal.java.GraphBuilderPhase;
+import com.oracle.graal.nodes.ConstantNode;
+import com.oracle.graal.nodes.FixedNode;
+import com.oracle.graal.nodes.FixedWithNextNode;
+import com.oracle.graal.nodes.ParameterNode;
+import com.oracle.graal.nodes.ReturnNode;
 import com.oracle.graal.nodes.StructuredGraph;
 import com.oracle.graal.nodes.StructuredGraph.AllowAssumptions;
+import com.oracle.graal.nodes.java.LoadFieldNode;
 import com.oracle.graal.nodes.java.MethodCallTargetNode;
 import com.oracle.graal.phases.OptimisticOptimizations;
 import com.oracle.graal.phases.PhaseSuite;
@@ -42,8 +54,10 @@ import com.oracle.graal.phases.util.Providers;
 import com.oracle.graal.printer.GraphPrinterDumpHandler;
 
 import jdk.vm.ci.hotspot.HotSpotMetaAccessProvider;
+import jdk.vm.ci.meta.JavaConstant;
 import jdk.vm.ci.meta.MetaAccessProvider;
 import jdk.vm.ci.meta.ResolvedJavaMethod;
+import jdk.vm.ci.meta.ResolvedJavaType;
 import uk.ac.ed.accelerator.common.GraalAcceleratorOptions;
 import uk.ac.ed.accelerator.common.ParallelSkeleton;
 import uk.ac.ed.accelerator.ocl.GraalOpenCLRuntime;
@@ -91,10 +105,19 @@ public class GraalIRConversion implements GraalIRUtilities {
         return false;
     }
 
-    public static StructuredGraph optimiseGraph(ResolvedJavaMethod lambdaMethod) {
-
+    private static StructuredGraph buildLambdaGraph(ResolvedJavaMethod lambdaMethod) {
         StructuredGraph graph = new StructuredGraph(lambdaMethod, AllowAssumptions.NO);
         GraalOCLBackendConnector.apply(graph);
+        return graph;
+    }
+
+    public static StructuredGraph optimiseGraph(ResolvedJavaMethod lambdaMethod) {
+        return optimiseGraph(buildLambdaGraph(lambdaMethod));
+    }
+
+    public static StructuredGraph optimiseGraph(StructuredGraph lambdaGraph) {
+
+        StructuredGraph graph = lambdaGraph;
 
         if (GraalAcceleratorOptions.dumpGraalIR) {
             GraalIRUtilities.dumpGraph(graph, "Non-Optimal");
@@ -146,6 +169,119 @@ public class GraalIRConversion implements GraalIRUtilities {
         return graph;
     }
 
+    /**
+     * It builds the Graal IR for the composition of lambda expressions, <code>fn(...f1(f0(x)))</code>,
+     * used to generate one OpenCL kernel for adjacent maps. The graph of each lambda is duplicated
+     * after the return of the previous one and its parameter is replaced by the value returned. The
+     * fused graph keeps the method and the parameter of the first lambda.
+     *
+     * @param functions classes of the lambda expressions in order of application
+     * @return optimised graph of the fused lambda
+     * @throws KernelOffloadException if the lambda expressions can not be fused
+     */
+    public static StructuredGraph getOptimizedGraalIRFusedLambda(List<Class<?>> functions) throws KernelOffloadException {
+        StructuredGraph fused = null;
+        for (Class<?> function : functions) {
+            StructuredGraph graph = buildLambdaGraph(getResolvedJavaMethodForUserFunction(function));
+            if (fused == null) {
+                fused = graph;
+            } else {
+                appendLambdaGraph(fused, graph);
+            }
+        }
+        return optimiseGraph(fused);
+    }
+
+    /**
+     * It builds the Graal IR of a map over a {@link uk.ac.ed.datastructures.tuples.Tuple2} that
+     * applies a binary function to the fields of the tuple (see
+     * {@link FunctionalPatternTemplate#zipWithFunction}). The function is a constant in the graph,
+     * so its lambda expression is inlined, and the kernel receives the two fields of the input as
+     * separate buffers.
+     *
+     * @param function lambda expression without captured variables
+     * @return optimised graph of the zipWith function
+     * @throws KernelOffloadException if the lambda expression can not be inlined
+     */
+    public static StructuredGraph getOptimizedGraalIRZipLambda(BiFunction<?, ?, ?> function) throws KernelOffloadException {
+        return getOptimizedGraalIRWithConstantFunction(FunctionalPatternTemplate.getZipWithMethod(), "zipFunction", function, BiFunction.class, "zipWith");
+    }
+
+    /**
+     * It builds the Graal IR of the flag of the filter skeleton (see
+     * {@link FunctionalPatternTemplate#filterFlagFunction}): 1 if the predicate keeps the element and
+     * 0 otherwise. As for the zipWith, the predicate is a constant in the graph and its lambda
+     * expression is inlined.
+     *
+     * @param predicate lambda expression without captured variables
+     * @return optimised graph of the flag function
+     * @throws KernelOffloadException if the lambda expression can not be inlined
+     */
+    public static StructuredGraph getOptimizedGraalIRFilterLambda(Predicate<?> predicate) throws KernelOffloadException {
+        return getOptimizedGraalIRWithConstantFunction(FunctionalPatternTemplate.getFilterFlagMethod(), "filterPredicate", predicate, Predicate.class, "filter");
+    }
+
+    /**
+     * Graph of a template method of {@link FunctionalPatternTemplate} in which the static field with
+     * the user function is replaced by the function as a constant, so the calls to it are inlined.
+     */
+    private static StructuredGraph getOptimizedGraalIRWithConstantFunction(Method template, String fieldName, Object function, Class<?> functionalInterface, String skeleton)
+                    throws KernelOffloadException {
+        Providers providers = GraalOCLBackendConnector.getProviders();
+        MetaAccessProvider metaAccess = providers.getMetaAccess();
+        StructuredGraph graph = buildLambdaGraph(metaAccess.lookupJavaMethod(template));
+
+        JavaConstant constant = ((HotSpotProviders) providers).getSnippetReflection().forObject(function);
+        for (LoadFieldNode load : graph.getNodes(LoadFieldNode.TYPE).snapshot()) {
+            if (load.isStatic() && load.field().getName().equals(fieldName)) {
+                graph.replaceFixedWithFloating(load, ConstantNode.forConstant(constant, metaAccess, graph));
+            }
+        }
+
+        StructuredGraph optimised = optimiseGraph(graph);
+
+        ResolvedJavaType functionType = metaAccess.lookupJavaType(function.getClass());
+        ResolvedJavaType interfaceType = metaAccess.lookupJavaType(functionalInterface);
+        for (MethodCallTargetNode call : optimised.getNodes(MethodCallTargetNode.TYPE)) {
+            ResolvedJavaType holder = call.targetMethod().getDeclaringClass();
+            if (holder.equals(functionType) || holder.equals(interfaceType) || call.targetMethod().isSynthetic()) {
+                throw new KernelOffloadException("The function of the " + skeleton + " can not be inlined: " + call.targetName());
+            }
+        }
+        return optimised;
+    }
+
+    private static void appendLambdaGraph(StructuredGraph fused, StructuredGraph next) throws KernelOffloadException {
+        NodeIterable<ParameterNode> parameters = next.getNodes(ParameterNode.TYPE);
+        if (parameters.count() != 1) {
+            throw new KernelOffloadException("Lambda with " + parameters.count() + " parameters can not be fused");
+        }
+        NodeIterable<ReturnNode> returns = fused.getNodes(ReturnNode.TYPE);
+        if (returns.count() != 1) {
+            throw new KernelOffloadException("Lambda with " + returns.count() + " return nodes can not be fused");
+        }
+        ReturnNode previousReturn = returns.first();
+
+        // The parameter of the next lambda is the value returned by the previous one
+        Map<Node, Node> replacements = new HashMap<>();
+        replacements.put(parameters.first(), previousReturn.result());
+        replacements.put(next.start(), fused.start());
+
+        ArrayList<Node> nodes = new ArrayList<>();
+        for (Node node : next.getNodes()) {
+            if (!replacements.containsKey(node)) {
+                nodes.add(node);
+            }
+        }
+        Map<Node, Node> duplicates = fused.addDuplicates(nodes, next, nodes.size(), replacements);
+
+        // Control flow: the body of the next lambda replaces the previous return
+        FixedWithNextNode last = (FixedWithNextNode) previousReturn.predecessor();
+        last.setNext(null);
+        previousReturn.safeDelete();
+        last.setNext((FixedNode) duplicates.get(next.start().next()));
+    }
+
     public static StructuredGraph createCFGGraalIR(ResolvedJavaMethod method) {
         StructuredGraph graph = new StructuredGraph(method, AllowAssumptions.YES);
         GraalOCLBackendConnector.apply(graph);
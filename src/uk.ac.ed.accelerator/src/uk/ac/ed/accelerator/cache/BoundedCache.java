@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+package uk.ac.ed.accelerator.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread-safe map bounded by the number of entries and, optionally, by the total weight of the
+ * values (e.g. bytes of OpenCL binaries or buffers). When a limit is exceeded, the least recently
+ * used entries are evicted. The entry inserted last is never evicted, even if it exceeds the
+ * limits on its own.
+ *
+ * The {@link RemovalListener} is called for each value that leaves the cache (eviction, removal,
+ * replacement by a different value or clear), so the values can release their OpenCL resources. It
+ * counts the hits, misses and evictions, which can be printed with {@link #getStatistics()}.
+ *
+ * @param <K> key
+ * @param <V> value
+ */
+public class BoundedCache<K, V> {
+
+    /**
+     * Called with the lock of the cache held.
+     */
+    @FunctionalInterface
+    public interface RemovalListener<K, V> {
+        void removed(K key, V value);
+    }
+
+    @FunctionalInterface
+    public interface Weigher<V> {
+        long weight(V value);
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long weight;
+
+        Entry(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private final String name;
+    private final int maxEntries;
+    private final long maxWeight;
+    private final Weigher<V> weigher;
+    private final RemovalListener<K, V> listener;
+
+    // Access order: the first entry is the least recently used one
+    private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long totalWeight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param name name of the cache in the statistics
+     * @param maxEntries maximum number of entries (&lt;= 0 means no limit)
+     */
+    public BoundedCache(String name, int maxEntries) {
+        this(name, maxEntries, 0, null, null);
+    }
+
+    /**
+     * @param name name of the cache in the statistics
+     * @param maxEntries maximum number of entries (&lt;= 0 means no limit)
+     * @param maxWeight maximum total weight (&lt;= 0 means no limit)
+     * @param weigher weight of a value (null if all values weigh 0)
+     * @param listener called for the values removed from the cache (can be null)
+     */
+    public BoundedCache(String name, int maxEntries, long maxWeight, Weigher<V> weigher, RemovalListener<K, V> listener) {
+        this.name = name;
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.listener = listener;
+    }
+
+    /**
+     * @return the value of the key, or null if it is not in the cache. It counts a hit or a miss.
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = map.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Like {@link #get(Object)}, but it does not count a hit or a miss (internal updates of an
+     * entry).
+     */
+    public synchronized V peek(K key) {
+        Entry<V> entry = map.get(key);
+        return (entry == null) ? null : entry.value;
+    }
+
+    /**
+     * It inserts or replaces the value of the key. The weight of the value is computed again, so
+     * values that grow can be inserted again to update it.
+     */
+    public synchronized void put(K key, V value) {
+        long weight = (weigher == null) ? 0 : weigher.weight(value);
+        Entry<V> old = map.put(key, new Entry<>(value, weight));
+        totalWeight += weight;
+        if (old != null) {
+            totalWeight -= old.weight;
+            if (old.value != value) {
+                notifyRemoval(key, old.value);
+            }
+        }
+        evict(key);
+    }
+
+    public synchronized V remove(K key) {
+        Entry<V> entry = map.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        totalWeight -= entry.weight;
+        notifyRemoval(key, entry.value);
+        return entry.value;
+    }
+
+    /**
+     * It does not count a hit or a miss and does not change the order of eviction.
+     */
+    public synchronized boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    private boolean isOverLimit() {
+        return (maxEntries > 0 && map.size() > maxEntries) || (maxWeight > 0 && totalWeight > maxWeight);
+    }
+
+    private void evict(K lastInserted) {
+        Iterator<Map.Entry<K, Entry<V>>> iterator = map.entrySet().iterator();
+        while (isOverLimit() && iterator.hasNext()) {
+            Map.Entry<K, Entry<V>> eldest = iterator.next();
+            if (eldest.getKey().equals(lastInserted)) {
+                break;
+            }
+            iterator.remove();
+            totalWeight -= eldest.getValue().weight;
+            evictions++;
+            notifyRemoval(eldest.getKey(), eldest.getValue().value);
+        }
+    }
+
+    private void notifyRemoval(K key, V value) {
+        if (listener != null) {
+            listener.removed(key, value);
+        }
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public synchronized long getWeight() {
+        return totalWeight;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * It removes all the entries (they are passed to the {@link RemovalListener}).
+     */
+    public synchronized void clear() {
+        ArrayList<Map.Entry<K, Entry<V>>> entries = new ArrayList<>(map.entrySet());
+        map.clear();
+        totalWeight = 0;
+        for (Map.Entry<K, Entry<V>> e : entries) {
+            notifyRemoval(e.getKey(), e.getValue().value);
+        }
+    }
+
+    public synchronized String getStatistics() {
+        StringBuilder statistics = new StringBuilder("[" + name + "] entries: " + map.size() + "/" + maxEntries);
+        if (weigher != null) {
+            statistics.append(", bytes: " + totalWeight + "/" + maxWeight);
+        }
+        return statistics.append(", hits: " + hits + ", misses: " + misses + ", evictions: " + evictions).toString();
+    }
+}
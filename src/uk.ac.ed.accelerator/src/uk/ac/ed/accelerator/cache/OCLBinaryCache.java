@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+package uk.ac.ed.accelerator.cache;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import uk.ac.ed.accelerator.common.GraalAcceleratorOptions;
+import uk.ac.ed.accelerator.utils.LoggerMarawacc;
+
+/**
+ * Persistent cache of OpenCL program binaries across JVM runs. Each binary is stored in one file
+ * of the cache directory (see {@link GraalAcceleratorOptions#binaryCacheDir}), named with a hash of
+ * the OpenCL source, the build options, the device name and the driver version, so a change in
+ * any of them produces a different entry.
+ *
+ * Errors reading or writing the cache are not fatal: the kernel is built from the source.
+ */
+public final class OCLBinaryCache {
+
+    private static final String EXTENSION = ".bin";
+
+    private static OCLBinaryCache instance = null;
+
+    private final Path directory;
+
+    public static synchronized OCLBinaryCache getInstance() {
+        if (instance == null) {
+            instance = new OCLBinaryCache(Paths.get(GraalAcceleratorOptions.binaryCacheDir));
+        }
+        return instance;
+    }
+
+    public OCLBinaryCache(Path directory) {
+        this.directory = directory;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Stable key of a program binary (SHA-256 in hexadecimal).
+     *
+     * @param source OpenCL source
+     * @param buildOptions options passed to clBuildProgram (can be null)
+     * @param deviceName
+     * @param driverVersion
+     * @return key
+     */
+    public static String computeKey(String source, String buildOptions, String deviceName, String driverVersion) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String s : new String[]{source, buildOptions, deviceName, driverVersion}) {
+                byte[] bytes = (s == null) ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+                // Length prefix, so the concatenation of the fields is not ambiguous
+                digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) ':');
+                digest.update(bytes);
+            }
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param key
+     * @return the binary stored with the key, or null if it is not in the cache
+     */
+    public byte[] load(String key) {
+        Path file = directory.resolve(key + EXTENSION);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            byte[] binary = Files.readAllBytes(file);
+            return (binary.length == 0) ? null : binary;
+        } catch (IOException e) {
+            LoggerMarawacc.warning("Cannot read the OpenCL binary " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * It stores the binary with the key. The file is written in a temporary file and then moved,
+     * so other processes never read a partial binary.
+     *
+     * @param key
+     * @param binary
+     */
+    public void store(String key, byte[] binary) {
+        if (binary == null || binary.length == 0) {
+            return;
+        }
+        Path tmp = null;
+        try {
+            Files.createDirectories(directory);
+            tmp = Files.createTempFile(directory, key, ".tmp");
+            Files.write(tmp, binary);
+            Files.move(tmp, directory.resolve(key + EXTENSION), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LoggerMarawacc.warning("Cannot write the OpenCL binary in " + directory + ": " + e.getMessage());
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e1) {
+                    // Nothing else to do
+                }
+            }
+        }
+    }
+
+    /**
+     * It removes the entry with the key (e.g. a binary rejected by the driver).
+     *
+     * @param key
+     */
+    public void remove(String key) {
+        try {
+            Files.deleteIfExists(directory.resolve(key + EXTENSION));
+        } catch (IOException e) {
+            LoggerMarawacc.warning("Cannot remove the OpenCL binary " + key + ": " + e.getMessage());
+        }
+    }
+}
@@ -19,40 +19,65 @@
  */
 package uk.ac.ed.accelerator.cache;
 
-import java.util.HashMap;
 import java.util.UUID;
 import java.util.Vector;
 
+import org.jocl.CL;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
 import org.jocl.cl_mem;
 
+import uk.ac.ed.accelerator.common.GraalAcceleratorOptions;
+
+/**
+ * Device buffers of each data set. The cache is bounded by
+ * {@link GraalAcceleratorOptions#bufferCacheSize} and by the size of the buffers
+ * ({@link GraalAcceleratorOptions#bufferCacheMaxMB}). The buffers of the evicted data sets are
+ * released and allocated again in their next use.
+ */
 public final class OCLBufferMemoryCache {
 
     // Data cache
-    private static HashMap<UUID, Vector<cl_mem[]>> buffersCache;
+    private static final BoundedCache<UUID, Vector<cl_mem[]>> buffersCache = new BoundedCache<>("OCLBufferMemoryCache", GraalAcceleratorOptions.bufferCacheSize,
+                    GraalAcceleratorOptions.bufferCacheMaxMB * 1024L * 1024L, OCLBufferMemoryCache::getSize, (uuid, buffers) -> release(buffers));
 
-    public static void put(UUID uuidData, Vector<cl_mem[]> buffers) {
-        if (buffersCache == null) {
-            buffersCache = new HashMap<>();
+    private static long getSize(Vector<cl_mem[]> buffers) {
+        long total = 0;
+        long[] size = new long[1];
+        for (cl_mem[] mems : buffers) {
+            for (cl_mem mem : mems) {
+                if (mem != null) {
+                    CL.clGetMemObjectInfo(mem, CL.CL_MEM_SIZE, Sizeof.size_t, Pointer.to(size), null);
+                    total += size[0];
+                }
+            }
         }
-        buffersCache.put(uuidData, buffers);
+        return total;
     }
 
-    public static Vector<cl_mem[]> get(UUID uuidData) {
-
-        if (buffersCache == null) {
-            return null;
+    private static void release(Vector<cl_mem[]> buffers) {
+        for (cl_mem[] mems : buffers) {
+            for (cl_mem mem : mems) {
+                if (mem != null) {
+                    try {
+                        CL.clReleaseMemObject(mem);
+                    } catch (Exception e) {
+                        // The context was already released
+                    }
+                }
+            }
         }
+    }
 
-        if (buffersCache.containsKey(uuidData)) {
-            return buffersCache.get(uuidData);
-        }
-        return null;
+    public static void put(UUID uuidData, Vector<cl_mem[]> buffers) {
+        buffersCache.put(uuidData, buffers);
+    }
+
+    public static Vector<cl_mem[]> get(UUID uuidData) {
+        return buffersCache.get(uuidData);
     }
 
     public static boolean isInCache(UUID uuidData) {
-        if (buffersCache == null) {
-            return false;
-        }
         return buffersCache.containsKey(uuidData);
     }
 
@@ -65,6 +90,10 @@ public final class OCLBufferMemoryCache {
         }
     }
 
+    public static String getStatistics() {
+        return buffersCache.getStatistics();
+    }
+
     private OCLBufferMemoryCache() {
         // No public instance
     }
@@ -24,61 +24,154 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.UUID;
 
+import org.jocl.CL;
+
+import uk.ac.ed.accelerator.common.GraalAcceleratorOptions;
+
+/**
+ * OpenCL kernels (one {@link OCLKernelPackage} per device) of each function. The cache is bounded
+ * by {@link GraalAcceleratorOptions#kernelCacheSize} and by the size of the binaries
+ * ({@link GraalAcceleratorOptions#kernelCacheMaxMB}). The kernels and programs of the evicted
+ * functions are released; they are generated again the next time they are used.
+ *
+ * A kernel obtained with {@link #pin} is not released until {@link #unpin} is called, so it can be
+ * enqueued even if the function is evicted or its kernel replaced by another thread meanwhile.
+ */
 public final class OCLKernelCache {
 
-    private static OCLKernelCache instance = null;
-    private HashMap<UUID, ArrayList<OCLKernelPackage>> cache;
+    private static final OCLKernelCache INSTANCE = new OCLKernelCache();
+    private final BoundedCache<UUID, ArrayList<OCLKernelPackage>> cache;
+
+    // Number of pins of each function and kernels removed from the cache while it was pinned
+    private final HashMap<UUID, Integer> pins = new HashMap<>();
+    private final HashMap<UUID, ArrayList<OCLKernelPackage>> retired = new HashMap<>();
 
     public static OCLKernelCache getInstance() {
-        if (instance == null) {
-            instance = new OCLKernelCache();
-        }
-        return instance;
+        return INSTANCE;
     }
 
     private OCLKernelCache() {
-        cache = new HashMap<>();
+        cache = new BoundedCache<>("OCLKernelCache", GraalAcceleratorOptions.kernelCacheSize, GraalAcceleratorOptions.kernelCacheMaxMB * 1024L * 1024L, OCLKernelCache::getBinarySize,
+                        this::retire);
     }
 
-    public void insert(UUID uuid, int cacheIndex, OCLKernelPackage object) {
-        if (cache.containsKey(uuid)) {
-            ArrayList<OCLKernelPackage> arrayList = cache.get(uuid);
-            if ((arrayList.size() - 1) < cacheIndex) {
-                int start = arrayList.size() - 1;
-                for (int i = start; i <= cacheIndex; i++) {
-                    arrayList.add(new OCLKernelPackage());
+    private static long getBinarySize(ArrayList<OCLKernelPackage> kernels) {
+        long size = 0;
+        for (OCLKernelPackage kernel : kernels) {
+            long[] sizes = kernel.getBinaryDataSize();
+            if (sizes != null) {
+                for (long s : sizes) {
+                    size += s;
                 }
             }
-            arrayList.set(cacheIndex, object);
-            cache.put(uuid, arrayList);
-        } else {
-            ArrayList<OCLKernelPackage> kernel = new ArrayList<>();
-            if (cacheIndex == 0) {
-                kernel.add(object);
-            } else {
-                for (int i = 0; i <= cacheIndex; i++) {
-                    kernel.add(new OCLKernelPackage());
+        }
+        return size;
+    }
+
+    private static void release(ArrayList<OCLKernelPackage> kernels) {
+        for (OCLKernelPackage kernel : kernels) {
+            try {
+                if (kernel.getKernelBinary() != null) {
+                    CL.clReleaseKernel(kernel.getKernelBinary());
                 }
-                kernel.set(cacheIndex, object);
+                if (kernel.getKernelProgram() != null) {
+                    CL.clReleaseProgram(kernel.getKernelProgram());
+                }
+            } catch (Exception e) {
+                // The context was already released
+            }
+        }
+    }
+
+    /**
+     * It releases the kernels removed from the cache, or keeps them until the function is unpinned.
+     * It is called with the lock of this cache held: every operation that can remove entries from
+     * {@link #cache} is synchronized.
+     */
+    private void retire(UUID uuid, ArrayList<OCLKernelPackage> kernels) {
+        if (pins.containsKey(uuid)) {
+            retired.computeIfAbsent(uuid, k -> new ArrayList<>()).addAll(kernels);
+        } else {
+            release(kernels);
+        }
+    }
+
+    public synchronized void insert(UUID uuid, int cacheIndex, OCLKernelPackage object) {
+        ArrayList<OCLKernelPackage> kernels = cache.peek(uuid);
+        if (kernels == null) {
+            kernels = new ArrayList<>();
+        }
+        while (kernels.size() <= cacheIndex) {
+            kernels.add(new OCLKernelPackage());
+        }
+        OCLKernelPackage old = kernels.set(cacheIndex, object);
+        if (old != object) {
+            // The OpenCL objects of the replaced package that the new one does not use
+            OCLKernelPackage replaced = new OCLKernelPackage();
+            if (old.getKernelBinary() != object.getKernelBinary()) {
+                replaced.setKernelBinary(old.getKernelBinary());
+            }
+            if (old.getKernelProgram() != object.getKernelProgram()) {
+                replaced.setKernelProgram(old.getKernelProgram());
             }
-            cache.put(uuid, kernel);
+            ArrayList<OCLKernelPackage> list = new ArrayList<>();
+            list.add(replaced);
+            retire(uuid, list);
         }
+        // Insert again to update the size of the binaries
+        cache.put(uuid, kernels);
     }
 
-    public OCLKernelPackage get(UUID uuid, int idxCache) {
-        try {
-            OCLKernelPackage oclKernelPackage = cache.get(uuid).get(idxCache);
-            return oclKernelPackage;
-        } catch (Exception e) {
+    public synchronized OCLKernelPackage get(UUID uuid, int idxCache) {
+        ArrayList<OCLKernelPackage> kernels = cache.get(uuid);
+        if (kernels == null || idxCache >= kernels.size()) {
             return null;
         }
+        return kernels.get(idxCache);
+    }
+
+    /**
+     * Like {@link #get}, but the kernels of the function are not released until {@link #unpin} is
+     * called, even if they are evicted or replaced meanwhile. Each call must be followed by one call
+     * to {@link #unpin}, also when it returns null.
+     */
+    public synchronized OCLKernelPackage pin(UUID uuid, int idxCache) {
+        pins.merge(uuid, 1, Integer::sum);
+        return get(uuid, idxCache);
+    }
+
+    /**
+     * It releases the pin taken with {@link #pin}. The kernels removed from the cache while the
+     * function was pinned are released with the last pin.
+     */
+    public synchronized void unpin(UUID uuid) {
+        Integer count = pins.get(uuid);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            pins.put(uuid, count - 1);
+        } else {
+            pins.remove(uuid);
+            ArrayList<OCLKernelPackage> kernels = retired.remove(uuid);
+            if (kernels != null) {
+                release(kernels);
+            }
+        }
     }
 
     public boolean isInCache(UUID uuid) {
         return cache.containsKey(uuid);
     }
 
-    public void clean() {
+    /**
+     * It removes all the kernels and releases their OpenCL resources.
+     */
+    public synchronized void clean() {
         cache.clear();
     }
+
+    public String getStatistics() {
+        return cache.getStatistics();
+    }
 }
@@ -44,6 +44,10 @@ public class OCLKernelPackage {
 
     private boolean binaryCreated;
 
+    // Persistent binary cache (see OCLBinaryCache)
+    private String binaryKey;
+    private boolean loadedFromBinary;
+
     public OCLKernelPackage() {
         this.oclCode = null;
         this.program = null;
@@ -121,6 +125,22 @@ public class OCLKernelPackage {
         return this.binaryCreated;
     }
 
+    public void setBinaryKey(String binaryKey) {
+        this.binaryKey = binaryKey;
+    }
+
+    public String getBinaryKey() {
+        return this.binaryKey;
+    }
+
+    public void setLoadedFromBinary(boolean loadedFromBinary) {
+        this.loadedFromBinary = loadedFromBinary;
+    }
+
+    public boolean isLoadedFromBinary() {
+        return this.loadedFromBinary;
+    }
+
     public void setKernelName(String kernelName) {
         this.kernelName = kernelName;
     }
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package uk.ac.ed.accelerator.common;
+
+import java.util.Arrays;
+
+/**
+ * Split of an index space [0, size) among several OpenCL devices and, optionally, the host Java
+ * threads as one more part after the devices.
+ *
+ * The split starts even. After each execution, {@link #update(int[], long[])} receives the time
+ * that every part needed for its elements and the shares are recomputed in proportion to the
+ * throughput (elements per nanosecond) of each part, smoothed across calls. The shares are only
+ * changed when one of them moves more than {@link #REBALANCE_THRESHOLD}, so small variations in
+ * the timers do not change the split (and the buffers) in every call.
+ */
+public class DevicePartitioner {
+
+    /**
+     * Weight of the last measurement in the throughput of a part.
+     */
+    private static final double SMOOTHING = 0.5;
+
+    /**
+     * Every part keeps a minimum share, so its throughput can still be measured.
+     */
+    private static final double MIN_SHARE = 0.02;
+
+    private static final double REBALANCE_THRESHOLD = 0.05;
+
+    private final int numDevices;
+    private final int numParts;
+
+    private double[] shares;
+    private final double[] throughput;
+
+    /**
+     * @param numDevices number of OpenCL devices
+     * @param useHost if true, the last part is computed by the host
+     */
+    public DevicePartitioner(int numDevices, boolean useHost) {
+        this.numDevices = numDevices;
+        this.numParts = useHost ? numDevices + 1 : numDevices;
+        this.shares = new double[numParts];
+        this.throughput = new double[numParts];
+        Arrays.fill(shares, 1.0 / numParts);
+    }
+
+    /**
+     * Even split of [0, size) in <code>numParts</code> parts. The last part also takes the
+     * remainder.
+     *
+     * @param size
+     * @param numParts
+     * @return bounds: part i is [bounds[i], bounds[i + 1])
+     */
+    public static int[] evenPartition(int size, int numParts) {
+        int[] bounds = new int[numParts + 1];
+        int chunk = size / numParts;
+        for (int i = 1; i < numParts; i++) {
+            bounds[i] = bounds[i - 1] + chunk;
+        }
+        bounds[numParts] = size;
+        return bounds;
+    }
+
+    public int getNumberOfDevices() {
+        return numDevices;
+    }
+
+    public int getNumberOfParts() {
+        return numParts;
+    }
+
+    public boolean usesHost() {
+        return numParts > numDevices;
+    }
+
+    public synchronized double[] getShares() {
+        return shares.clone();
+    }
+
+    /**
+     * Split of [0, size) with the current shares. The devices come first, in order, and the host
+     * (if it is used) takes the last part.
+     *
+     * @param size
+     * @return bounds: part i is [bounds[i], bounds[i + 1])
+     */
+    public synchronized int[] getPartition(int size) {
+        int[] bounds = new int[numParts + 1];
+        double accumulated = 0;
+        for (int i = 1; i < numParts; i++) {
+            accumulated += shares[i - 1];
+            bounds[i] = Math.max(bounds[i - 1], (int) Math.min(size, Math.round(accumulated * size)));
+        }
+        bounds[numParts] = size;
+        return bounds;
+    }
+
+    /**
+     * It updates the throughput of each part with the time of the last execution and rebalances
+     * the shares. Parts with no elements or no time (&lt;= 0) are not measured.
+     *
+     * @param bounds partition used in the execution (see {@link #getPartition(int)})
+     * @param times time of each part in nanoseconds
+     */
+    public synchronized void update(int[] bounds, long[] times) {
+        for (int i = 0; i < numParts; i++) {
+            int elements = bounds[i + 1] - bounds[i];
+            if (elements > 0 && times[i] > 0) {
+                double measured = (double) elements / times[i];
+                throughput[i] = (throughput[i] == 0) ? measured : (SMOOTHING * measured + (1 - SMOOTHING) * throughput[i]);
+            }
+        }
+
+        double total = 0;
+        for (int i = 0; i < numParts; i++) {
+            if (throughput[i] == 0) {
+                // Wait until every part has been measured once
+                return;
+            }
+            total += throughput[i];
+        }
+
+        double[] target = new double[numParts];
+        double sum = 0;
+        for (int i = 0; i < numParts; i++) {
+            target[i] = Math.max(MIN_SHARE, throughput[i] / total);
+            sum += target[i];
+        }
+
+        double change = 0;
+        for (int i = 0; i < numParts; i++) {
+            target[i] /= sum;
+            change = Math.max(change, Math.abs(target[i] - shares[i]));
+        }
+
+        if (change > REBALANCE_THRESHOLD) {
+            shares = target;
+            if (GraalAcceleratorOptions.debugMultiDevice) {
+                System.out.println("[MULTIDEVICE] New shares: " + Arrays.toString(shares));
+            }
+        }
+    }
+}
@@ -160,6 +160,141 @@ public final class GraalAcceleratorOptions {
      */
     public static int threadsGraalCompilationThreshold = getIntValue("marawacc.threadGraalCompilation", 10);
 
+    /**
+     * Number of worker threads in the shared pool used by the Java threads skeletons. By default
+     * it is the number of cores available at runtime.
+     */
+    public static int javaThreadsPoolSize = getIntValue("marawacc.javaThreads", Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Use work-stealing (adaptive chunking) instead of one fixed slice per thread in the Java
+     * threads map.
+     */
+    public static boolean javaThreadsWorkStealing = getBoolean("marawacc.javaThreadsWorkStealing", false);
+
+    /**
+     * Minimum number of elements per task in the work-stealing mode. If it is 0, the grain size is
+     * computed at runtime from the input size and the number of threads.
+     */
+    public static int javaThreadsGrainSize = getIntValue("marawacc.javaThreadsGrainSize", 0);
+
+    /**
+     * Minimum number of elements of a bulk copy between a PArray and a Java array
+     * (<code>copyFrom</code>/<code>copyTo</code>) to split it among javaThreads threads. If it is 0,
+     * the copies are sequential.
+     */
+    public static int parallelCopyThreshold = getIntValue("marawacc.parallelCopyThreshold", 1 << 20);
+
+    /**
+     * Capacity of the queues between pipeline stages. Each intermediate stage allocates
+     * depth + 2 output buffers: one written by the stage, one read by the next stage and the ones
+     * waiting in the queue.
+     */
+    public static int pipelineQueueDepth = getIntValue("marawacc.pipelineQueueDepth", 2);
+
+    /**
+     * Milliseconds that the worker threads of a pipeline wait for a chunk before exiting. If it is
+     * 0, the workers run until the pipeline is closed.
+     */
+    public static int pipelineIdleTimeout = getIntValue("marawacc.pipelineIdleTimeout", 5000);
+
+    /**
+     * Fuse adjacent accelerator maps (<code>mapAccelerator(f).mapAccelerator(g)</code>) into one
+     * OpenCL kernel that computes g(f(x)), with one copy to the device and one copy back.
+     */
+    public static boolean fuseMapKernels = getBoolean("marawacc.fuseKernels", true);
+
+    /**
+     * Keep the output of an accelerator map in the device when the next function is also an
+     * accelerator map, instead of copying it to the host and back to the device.
+     */
+    public static boolean deviceResidentMaps = getBoolean("marawacc.deviceResident", true);
+
+    /**
+     * Execute accelerator maps in chunks, overlapping the copy of chunk n+1 to the device, the
+     * kernel of chunk n and the copy of chunk n-1 to the host. Maps whose input and output do not
+     * fit in the device memory are always streamed.
+     */
+    public static boolean streamingMaps = getBoolean("marawacc.streaming", false);
+
+    /**
+     * Number of elements per chunk in the streaming mode. If it is 0, the chunk size is computed
+     * from the global memory of the device.
+     */
+    public static int streamingChunkSize = getIntValue("marawacc.streamingChunkSize", 0);
+
+    /**
+     * Track the writes of the host arrays, so a copy to the device only transfers the blocks
+     * modified since the previous copy of the same array (nothing for read-only inputs).
+     */
+    public static boolean dirtyTracking = getBoolean("marawacc.dirtyTracking", true);
+
+    /**
+     * With multiple devices, adapt the split of the input of the maps to the kernel time measured
+     * in each device in the previous calls, instead of splitting it evenly.
+     */
+    public static boolean adaptivePartition = getBoolean("marawacc.adaptivePartition", false);
+
+    /**
+     * With the adaptive partition, the host Java threads compute one more part of the input
+     * concurrently with the devices.
+     */
+    public static boolean hostAsDevice = getBoolean("marawacc.hostAsDevice", false);
+
+    /**
+     * Compile the kernels of the accelerator maps in a background thread. The maps run with Java
+     * threads until the kernel is ready.
+     */
+    public static boolean asyncCompilation = getBoolean("marawacc.asyncCompilation", false);
+
+    /**
+     * Store the binaries of the OpenCL programs on disk and load them in the next runs instead of
+     * compiling the OpenCL source again.
+     */
+    public static boolean binaryCache = getBoolean("marawacc.binaryCache", false);
+
+    /**
+     * Directory of the persistent OpenCL binary cache.
+     */
+    public static String binaryCacheDir = System.getProperty("marawacc.binaryCacheDir", System.getProperty("user.home") + "/.marawacc/kernels");
+
+    /**
+     * Maximum number of user functions (and graphs) in the function caches. The least recently used
+     * entries are evicted.
+     */
+    public static int functionCacheSize = getIntValue("marawacc.functionCacheSize", 1024);
+
+    /**
+     * Maximum number of functions with OpenCL kernels in the kernel cache.
+     */
+    public static int kernelCacheSize = getIntValue("marawacc.kernelCacheSize", 256);
+
+    /**
+     * Maximum size (MB) of the binaries in the kernel cache (0 means no limit).
+     */
+    public static int kernelCacheMaxMB = getIntValue("marawacc.kernelCacheMaxMB", 256);
+
+    /**
+     * Maximum number of data sets with buffers in the device buffer cache.
+     */
+    public static int bufferCacheSize = getIntValue("marawacc.bufferCacheSize", 64);
+
+    /**
+     * Maximum size (MB) of the buffers in the device buffer cache (0 means no limit).
+     */
+    public static int bufferCacheMaxMB = getIntValue("marawacc.bufferCacheMaxMB", 1024);
+
+    /**
+     * Allocate the device buffers from a pool per device that reuses the released buffers.
+     */
+    public static boolean bufferPool = getBoolean("marawacc.bufferPool", true);
+
+    /**
+     * Maximum size of the idle buffers kept in the pool, as a percentage of the device global
+     * memory.
+     */
+    public static int bufferPoolMaxPercent = getIntValue("marawacc.bufferPoolMaxPercent", 25);
+
     /**
      * Experimental option for function caching in JPAI (by name) to optimise kernel generation
      */
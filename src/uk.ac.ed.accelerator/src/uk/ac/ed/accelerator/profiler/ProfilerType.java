@@ -33,6 +33,8 @@ public enum ProfilerType {
     COPY_TO_DEVICE("CopyToDevice"),
     COMPUTE_MAP("ComputeMap"),
     COPY_TO_HOST("CopyToHost"),
+    STREAMING_MAP("StreamingMap"),
+    KERNEL_BACKGROUND_COMPILATION("KernelBackgroundCompilation"),
 
     // TRUFFLE R
     TRUFFLE_MARSHAL("ASTMarshal"),
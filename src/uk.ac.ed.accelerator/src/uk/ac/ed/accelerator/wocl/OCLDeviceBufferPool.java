@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+package uk.ac.ed.accelerator.wocl;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import org.jocl.CL;
+import org.jocl.cl_context;
+import org.jocl.cl_mem;
+
+import uk.ac.ed.accelerator.common.GraalAcceleratorOptions;
+
+/**
+ * Pool of device buffers of one OpenCL device. Buffers are allocated in size classes (four classes
+ * per power of two, so at most 25% of a buffer is wasted) and, when they are released, they are
+ * kept to serve the next allocation of the same class and flags instead of calling
+ * clCreateBuffer/clReleaseMemObject.
+ *
+ * It tracks the bytes in use (outstanding) and the bytes kept in the pool against the global memory
+ * of the device. Idle buffers are released if the pool exceeds
+ * {@link GraalAcceleratorOptions#bufferPoolMaxPercent} of the global memory, or if a new
+ * allocation would not fit in the device.
+ *
+ * A request whose size class is larger than the maximum size of one buffer of the device
+ * (CL_DEVICE_MAX_MEM_ALLOC_SIZE) is allocated with the exact size and released without pooling.
+ */
+public class OCLDeviceBufferPool {
+
+    private static final long MIN_SIZE_CLASS = 256;
+
+    private final cl_context context;
+    private final long globalMemorySize;
+    private final long maxAllocSize;
+    private final long maxPooledBytes;
+
+    // flags -> size class -> idle buffers
+    private final HashMap<Long, HashMap<Long, ArrayDeque<cl_mem>>> freeBuffers = new HashMap<>();
+
+    // Size class of the buffers allocated by the pool
+    private final HashMap<cl_mem, Long> sizes = new HashMap<>();
+
+    private long outstandingBytes;
+    private long pooledBytes;
+    private long peakOutstandingBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param context OpenCL context of the device
+     * @param globalMemorySize CL_DEVICE_GLOBAL_MEM_SIZE
+     * @param maxAllocSize CL_DEVICE_MAX_MEM_ALLOC_SIZE, or 0 if there is no limit
+     */
+    public OCLDeviceBufferPool(cl_context context, long globalMemorySize, long maxAllocSize) {
+        this.context = context;
+        this.globalMemorySize = globalMemorySize;
+        this.maxAllocSize = maxAllocSize;
+        this.maxPooledBytes = globalMemorySize / 100 * GraalAcceleratorOptions.bufferPoolMaxPercent;
+    }
+
+    /**
+     * Size of the buffer allocated for a request of <code>bytes</code>.
+     *
+     * @param bytes
+     * @return size class
+     */
+    public static long getSizeClass(long bytes) {
+        if (bytes <= MIN_SIZE_CLASS) {
+            return MIN_SIZE_CLASS;
+        }
+        int log = 63 - Long.numberOfLeadingZeros(bytes - 1);
+        long step = 1L << (log - 2);
+        return ((bytes + step - 1) / step) * step;
+    }
+
+    /**
+     * It returns a buffer of at least <code>bytes</code> bytes.
+     *
+     * @param flags OpenCL memory flags
+     * @param bytes
+     * @param status status of clCreateBuffer
+     * @return buffer
+     */
+    public synchronized cl_mem allocate(long flags, long bytes, int[] status) {
+        long sizeClass = getSizeClass(bytes);
+        if (maxAllocSize > 0 && sizeClass > maxAllocSize) {
+            // Not recorded in sizes: release() frees it
+            misses++;
+            if (globalMemorySize > 0 && outstandingBytes + pooledBytes + bytes > globalMemorySize) {
+                trim();
+            }
+            return createBuffer(flags, bytes, status);
+        }
+        ArrayDeque<cl_mem> free = getFreeList(flags, sizeClass);
+        cl_mem buffer = free.poll();
+        if (buffer != null) {
+            hits++;
+            pooledBytes -= sizeClass;
+            status[0] = CL.CL_SUCCESS;
+        } else {
+            misses++;
+            if (globalMemorySize > 0 && outstandingBytes + pooledBytes + sizeClass > globalMemorySize) {
+                trim();
+            }
+            buffer = createBuffer(flags, sizeClass, status);
+            if (status[0] != CL.CL_SUCCESS) {
+                return buffer;
+            }
+            sizes.put(buffer, sizeClass);
+        }
+        outstandingBytes += sizeClass;
+        peakOutstandingBytes = Math.max(peakOutstandingBytes, outstandingBytes);
+        return buffer;
+    }
+
+    /**
+     * It returns the buffer to the pool. Buffers that were not allocated by the pool are released.
+     *
+     * @param flags flags used to allocate the buffer
+     * @param buffer
+     */
+    public synchronized void release(long flags, cl_mem buffer) {
+        Long sizeClass = sizes.get(buffer);
+        if (sizeClass == null) {
+            releaseBuffer(buffer);
+            return;
+        }
+        outstandingBytes -= sizeClass;
+        if (pooledBytes + sizeClass > maxPooledBytes) {
+            sizes.remove(buffer);
+            releaseBuffer(buffer);
+            return;
+        }
+        getFreeList(flags, sizeClass).push(buffer);
+        pooledBytes += sizeClass;
+    }
+
+    protected cl_mem createBuffer(long flags, long size, int[] status) {
+        return CL.clCreateBuffer(context, flags, size, null, status);
+    }
+
+    protected void releaseBuffer(cl_mem buffer) {
+        CL.clReleaseMemObject(buffer);
+    }
+
+    private ArrayDeque<cl_mem> getFreeList(long flags, long sizeClass) {
+        HashMap<Long, ArrayDeque<cl_mem>> classes = freeBuffers.get(flags);
+        if (classes == null) {
+            classes = new HashMap<>();
+            freeBuffers.put(flags, classes);
+        }
+        ArrayDeque<cl_mem> free = classes.get(sizeClass);
+        if (free == null) {
+            free = new ArrayDeque<>();
+            classes.put(sizeClass, free);
+        }
+        return free;
+    }
+
+    /**
+     * It releases all the idle buffers of the pool.
+     */
+    public synchronized void trim() {
+        for (HashMap<Long, ArrayDeque<cl_mem>> classes : freeBuffers.values()) {
+            Iterator<ArrayDeque<cl_mem>> iterator = classes.values().iterator();
+            while (iterator.hasNext()) {
+                for (cl_mem buffer : iterator.next()) {
+                    sizes.remove(buffer);
+                    releaseBuffer(buffer);
+                }
+                iterator.remove();
+            }
+        }
+        pooledBytes = 0;
+    }
+
+    public synchronized long getOutstandingBytes() {
+        return outstandingBytes;
+    }
+
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    public synchronized long getPeakOutstandingBytes() {
+        return peakOutstandingBytes;
+    }
+
+    public long getGlobalMemorySize() {
+        return globalMemorySize;
+    }
+
+    /**
+     * @return fraction of the global memory of the device allocated by the pool (in use or idle)
+     */
+    public synchronized double getOccupancy() {
+        return (globalMemorySize == 0) ? 0 : (double) (outstandingBytes + pooledBytes) / globalMemorySize;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized String getStatistics() {
+        return String.format("[OCLDeviceBufferPool] in use: %d bytes (peak %d), pooled: %d bytes, occupancy: %.2f%%, hits: %d, misses: %d", outstandingBytes, peakOutstandingBytes, pooledBytes,
+                        getOccupancy() * 100, hits, misses);
+    }
+}
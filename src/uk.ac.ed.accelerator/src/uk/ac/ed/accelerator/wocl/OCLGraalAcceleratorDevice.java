@@ -36,6 +36,7 @@ import org.jocl.cl_mem;
 import org.jocl.cl_platform_id;
 import org.jocl.cl_program;
 
+import uk.ac.ed.accelerator.cache.OCLBinaryCache;
 import uk.ac.ed.accelerator.cache.OCLBufferMemoryCache;
 import uk.ac.ed.accelerator.cache.OCLKernelCache;
 import uk.ac.ed.accelerator.cache.OCLKernelPackage;
@@ -62,6 +63,7 @@ public class OCLGraalAcceleratorDevice extends GraalAcceleratorDevice {
     private cl_device_id device;
     private cl_platform_id platform;
     private OCLVendor vendor;
+    private String driverVersion;
 
     private boolean isBuildingProgram;
     @SuppressWarnings("unused") private boolean isCreatingProgram;
@@ -75,6 +77,11 @@ public class OCLGraalAcceleratorDevice extends GraalAcceleratorDevice {
 
     private OCLDeviceInfo deviceInfo;
 
+    private OCLDeviceBufferPool bufferPool;
+
+    // In-order queues of the streaming maps, shared by all of them
+    private cl_command_queue[] streamingQueues;
+
     public OCLGraalAcceleratorDevice(cl_platform_id platform, cl_device_id currentDevice, OCLVendor vendor, long deviceType, int id) {
         super(id);
         this.device = currentDevice;
@@ -91,6 +98,7 @@ public class OCLGraalAcceleratorDevice extends GraalAcceleratorDevice {
         this.name = OpenCLUtils.getString(device, CL.CL_DEVICE_NAME);
         this.vendorName = OpenCLUtils.getString(device, CL.CL_DEVICE_VENDOR);
         this.version = OpenCLUtils.getString(device, CL.CL_DEVICE_VERSION);
+        this.driverVersion = OpenCLUtils.getString(device, CL.CL_DRIVER_VERSION);
 
         // Flags
         this.isBuildingProgram = false;
@@ -145,6 +153,42 @@ public class OCLGraalAcceleratorDevice extends GraalAcceleratorDevice {
         return this.deviceInfo;
     }
 
+    /**
+     * Pool of the device buffers allocated in the context of this device.
+     */
+    public synchronized OCLDeviceBufferPool getBufferPool() {
+        if (bufferPool == null) {
+            bufferPool = new OCLDeviceBufferPool(context, deviceInfo.getGlobalMemSize(), deviceInfo.getMaxMemAllocSize());
+        }
+        return bufferPool;
+    }
+
+    /**
+     * Three in-order queues for the streaming mode of the maps, so the copies to the device, the
+     * kernels and the copies to the host of consecutive chunks overlap. They are created once per
+     * device and shared by all the maps, which order their commands with events.
+     *
+     * @return queues of the device
+     */
+    public synchronized cl_command_queue[] getStreamingQueues() {
+        if (context == null) {
+            createContext();
+        }
+        if (streamingQueues == null) {
+            long properties = GraalAcceleratorOptions.profileOffload ? CL.CL_QUEUE_PROFILING_ENABLE : 0;
+            cl_command_queue[] queues = new cl_command_queue[3];
+            for (int i = 0; i < queues.length; i++) {
+                int[] status = new int[1];
+                queues[i] = CL.clCreateCommandQueue(context, device, properties, status);
+                if (status[0] != CL.CL_SUCCESS) {
+                    throw new RuntimeException("[ERROR]: clCreateCommandQueue for streaming");
+                }
+            }
+            streamingQueues = queues;
+        }
+        return streamingQueues;
+    }
+
     // @formatter:off
     /**
      * OpenCL 1.2 specification: cl_device_type - bitfield.
@@ -253,11 +297,17 @@ public class OCLGraalAcceleratorDevice extends GraalAcceleratorDevice {
             String kernelSource = oclCache.getKernelCode();
             int[] status = new int[1];
 
-            program = CL.clCreateProgramWithSource(context, 1, new String[]{kernelSource}, null, status);
+            if (GraalAcceleratorOptions.binaryCache) {
+                program = createProgramWithCachedBinary(oclCache);
+            }
 
-            if (status[0] != CL.CL_SUCCESS) {
-                GraalAcceleratorError.printError("[ERROR]: clCreateProgramWithSource");
-                return null;
+            if (program == null) {
+                program = CL.clCreateProgramWithSource(context, 1, new String[]{kernelSource}, null, status);
+
+                if (status[0] != CL.CL_SUCCESS) {
+                    GraalAcceleratorError.printError("[ERROR]: clCreateProgramWithSource");
+                    return null;
+                }
             }
             oclCache.setKernelProgram(program);
             isProgramCreated = true;
@@ -271,6 +321,66 @@ public class OCLGraalAcceleratorDevice extends GraalAcceleratorDevice {
         return program;
     }
 
+    private static String getBuildOptions() {
+        return GraalAcceleratorOptions.relaxMathKernel ? "-cl-fast-relaxed-math" : null;
+    }
+
+    /**
+     * It creates the program with the binary stored in the persistent cache for the source of the
+     * kernel, the build options and this device.
+     *
+     * @return the program, or null if there is no binary or the driver rejects it
+     */
+    private cl_program createProgramWithCachedBinary(OCLKernelPackage oclCache) {
+        String key = OCLBinaryCache.computeKey(oclCache.getKernelCode(), getBuildOptions(), name, driverVersion);
+        oclCache.setBinaryKey(key);
+        byte[] binary = OCLBinaryCache.getInstance().load(key);
+        if (binary == null) {
+            return null;
+        }
+
+        int[] binaryStatus = new int[1];
+        int[] status = new int[1];
+        cl_program program = null;
+        try {
+            program = CL.clCreateProgramWithBinary(context, 1, new cl_device_id[]{device}, new long[]{binary.length}, new byte[][]{binary}, binaryStatus, status);
+        } catch (Exception e) {
+            status[0] = CL.CL_INVALID_BINARY;
+        }
+
+        if (status[0] != CL.CL_SUCCESS || binaryStatus[0] != CL.CL_SUCCESS) {
+            // Stale or corrupted entry: it will be replaced after compiling the source
+            OCLBinaryCache.getInstance().remove(key);
+            return null;
+        }
+
+        if (GraalAcceleratorOptions.printOCLInfo) {
+            System.out.println("[OpenCL] Kernel binary loaded from the cache -> " + oclCache.getKernelName());
+        }
+        oclCache.setLoadedFromBinary(true);
+        return program;
+    }
+
+    /**
+     * A program created with a binary still needs clBuildProgram. If the driver fails, the entry
+     * is removed from the persistent cache.
+     *
+     * @return true if the program was built
+     */
+    private boolean buildProgramWithCachedBinary(cl_program program, OCLKernelPackage oclCache) {
+        try {
+            if (CL.clBuildProgram(program, 1, new cl_device_id[]{device}, getBuildOptions(), null, null) == CL.CL_SUCCESS) {
+                return true;
+            }
+        } catch (Exception e) {
+            // Build from the source
+        }
+        OCLBinaryCache.getInstance().remove(oclCache.getBinaryKey());
+        CL.clReleaseProgram(program);
+        oclCache.setLoadedFromBinary(false);
+        return false;
+    }
+
     @Override
     public void buildProgram(UUID uuidKernel, int cacheIndex) throws Exception {
 
@@ -308,10 +418,15 @@ public class OCLGraalAcceleratorDevice extends GraalAcceleratorDevice {
 
             try {
                 long start = System.nanoTime();
-                if (GraalAcceleratorOptions.relaxMathKernel) {
-                    CL.clBuildProgram(program, 1, new cl_device_id[]{device}, "-cl-fast-relaxed-math", null, null);
-                } else {
-                    CL.clBuildProgram(program, 1, new cl_device_id[]{device}, null, null, null);
+                boolean built = false;
+                if (oclCache.isLoadedFromBinary()) {
+                    built = buildProgramWithCachedBinary(program, oclCache);
+                    if (!built) {
+                        program = CL.clCreateProgramWithSource(context, 1, new String[]{oclCache.getKernelCode()}, null, null);
+                    }
+                }
+                if (!built) {
+                    CL.clBuildProgram(program, 1, new cl_device_id[]{device}, getBuildOptions(), null, null);
                 }
                 long total = System.nanoTime() - start;
                 Profiler.getInstance().writeInBuffer(ProfilerType.OCL_DRIVER_COMPILE_KERNEL, "total", total);
@@ -331,6 +446,10 @@ public class OCLGraalAcceleratorDevice extends GraalAcceleratorDevice {
 
                 CL.clGetProgramInfo(program, CL.CL_PROGRAM_BINARIES, numDevices * Sizeof.POINTER, pointerToBinaryDataPointer, null);
 
+                if (GraalAcceleratorOptions.binaryCache && !oclCache.isLoadedFromBinary() && oclCache.getBinaryKey() != null) {
+                    OCLBinaryCache.getInstance().store(oclCache.getBinaryKey(), binaryDatas[0]);
+                }
+
                 oclCache.setBinaryData(binaryDatas);
                 oclCache.setBinaryDataSize(binaryDataSizes);
                 oclCache.setKernelProgram(program);
@@ -493,6 +612,11 @@ public class OCLGraalAcceleratorDevice extends GraalAcceleratorDevice {
         ArrayList<Pointer> pointerList = new ArrayList<>();
 
         cl_mem[] oclMemory = getOCLListMemory(uuidData, functionOperation);
+        if (oclMemory == null) {
+            // Evicted from the buffer cache by another thread
+            preAllocationPipeline(clParams, uuidData, functionOperation);
+            oclMemory = getOCLListMemory(uuidData, functionOperation);
+        }
 
         // Data-transfer (write)
         int i = 0;
@@ -22,6 +22,7 @@ package uk.ac.ed.datastructures.common;
 
 import java.nio.Buffer;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jocl.CL;
 import org.jocl.Pointer;
@@ -31,6 +32,7 @@ import org.jocl.cl_event;
 import org.jocl.cl_mem;
 
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
+import uk.ac.ed.accelerator.common.DevicePartitioner;
 import uk.ac.ed.accelerator.common.GraalAcceleratorOptions;
 import uk.ac.ed.accelerator.common.GraalAcceleratorPlatform;
 import uk.ac.ed.accelerator.common.GraalAcceleratorSystem;
@@ -66,6 +68,28 @@ public class AcceleratorPArray<T> extends PArray<T> {
     private boolean split = false;
     private int numDevices = 1;
 
+    /**
+     * True when the OpenCL buffers have been written by a kernel and the data has not been copied
+     * back to the host yet. The array stays in the device until {@link #get(int)} (or any other
+     * access to the host data) needs it.
+     */
+    private volatile boolean hostOutOfDate = false;
+    private static final AtomicInteger lazyCopyIdx = new AtomicInteger();
+
+    // Host array once it has the data of the device, published for the threads that read it
+    private volatile PArray<T> materialisedArray;
+
+    // Host arrays (one per buffer) copied to the device and their clean epoch at that moment
+    private PArray<?>[] copiedFields;
+    private long[] copiedEpochs;
+
+    // Elements of each device when the array is split: [deviceBounds[i], deviceBounds[i + 1])
+    private int[] deviceBounds;
+    // Elements allocated in each device
+    private int[] deviceCapacity;
+    // Flags of the data buffers, needed to return them to the buffer pool
+    private long bufferFlags;
+
     @TruffleBoundary
     public AcceleratorPArray(int size, RuntimeObjectTypeInfo type) {
         this(size, type, StorageMode.DEFAULT, true);
@@ -100,6 +124,7 @@ public class AcceleratorPArray<T> extends PArray<T> {
     public void setArray(PArray<T> array) {
         this.array = array;
         this.mode = array.mode;
+        this.materialisedArray = null;
     }
 
     @TruffleBoundary
@@ -107,11 +132,183 @@ public class AcceleratorPArray<T> extends PArray<T> {
         return array;
     }
 
+    /**
+     * It marks the host data as out of date. Called after a kernel writes the OpenCL buffers, so
+     * the next kernel can use them directly and the copy to the host is delayed until the data is
+     * accessed from Java.
+     */
+    public void setHostOutOfDate() {
+        this.materialisedArray = null;
+        this.hostOutOfDate = true;
+    }
+
+    public boolean isHostOutOfDate() {
+        return hostOutOfDate;
+    }
+
+    /**
+     * It copies the data from the device if the host is out of date. The host array is allocated
+     * the first time. Several threads (e.g. the workers of a Java skeleton) can read the array
+     * concurrently: the copy is done only once.
+     *
+     * @return host array with the data of the device
+     */
+    @TruffleBoundary
+    public PArray<T> materialise() {
+        PArray<T> host = materialisedArray;
+        if (host != null) {
+            return host;
+        }
+        synchronized (this) {
+            if (materialisedArray == null) {
+                copyIfOutOfDate();
+                materialisedArray = array;
+            }
+            return materialisedArray;
+        }
+    }
+
+    private void copyIfOutOfDate() {
+        if (array == null) {
+            PArray<T> hostArray;
+            if (isPrimitiveArray) {
+                hostArray = new PArray<>(size, type, mode, false);
+                linkPrimitiveArrays(hostArray, type, 0);
+                hostArray.setPrimitive(true);
+            } else {
+                hostArray = new PArray<>(size, type, mode, true);
+            }
+            setArray(hostArray);
+        }
+        if (hostOutOfDate) {
+            copyToHost(lazyCopyIdx.getAndIncrement());
+        }
+    }
+
+    /**
+     * The host array uses the same primitive arrays as this one.
+     *
+     * @param hostArray
+     * @param runtimeTypeInfo
+     * @param idx
+     */
+    @TruffleBoundary
+    public void linkPrimitiveArrays(PArray<T> hostArray, RuntimeObjectTypeInfo runtimeTypeInfo, int idx) {
+        if (runtimeTypeInfo.getClassObject() == Integer.class) {
+            hostArray.setIntArray(idx, asIntegerArray(idx));
+        } else if (runtimeTypeInfo.getClassObject() == Double.class) {
+            hostArray.setDoubleArray(idx, asDoubleArray(idx));
+        } else if (PArray.TUPLESET.contains(runtimeTypeInfo.getClassObject())) {
+            // Inspect nested types
+            RuntimeObjectTypeInfo[] nestedTypes = runtimeTypeInfo.getNestedTypes();
+            int i = idx;
+            for (RuntimeObjectTypeInfo r : nestedTypes) {
+                linkPrimitiveArrays(hostArray, r, i);
+                i++;
+            }
+        } else {
+            throw new RuntimeException("Data type not supported yet: " + runtimeTypeInfo.getClassObject());
+        }
+    }
+
     @TruffleBoundary
     public ArrayList<cl_mem> getOpenCLBuffersWithMetadata(int idx) {
         return listBuffers.getAcceleratorBuffer(idx).getOpenCLBuffersWithMetadata();
     }
 
+    /**
+     * OpenCL buffers of the data (one per field of the tuple), without the metadata.
+     */
+    @TruffleBoundary
+    public ArrayList<cl_mem> getOpenCLBuffers(int idx) {
+        return listBuffers.getAcceleratorBuffer(idx).getBuffer();
+    }
+
+    /**
+     * It sets the elements assigned to each OpenCL device when the array is split among several
+     * devices (see {@link DevicePartitioner}). By default the split is even. Elements after the
+     * last bound are not copied to any device (e.g. they are computed in the host). The buffers are
+     * allocated again only if a device needs more elements than it has.
+     *
+     * @param bounds device i gets [bounds[i], bounds[i + 1])
+     */
+    @TruffleBoundary
+    public void setDevicePartition(int[] bounds) {
+        if (bounds.length != numDevices + 1) {
+            throw new IllegalArgumentException("Partition for " + (bounds.length - 1) + " devices, but there are " + numDevices);
+        }
+        deviceBounds = bounds.clone();
+        if (openCLBufferAllocated && deviceCapacity != null) {
+            for (int i = 0; i < numDevices; i++) {
+                if (getDeviceSize(i) > deviceCapacity[i]) {
+                    releaseOpenCLBuffers();
+                    break;
+                }
+            }
+        }
+    }
+
+    @TruffleBoundary
+    public int[] getDevicePartition() {
+        return (deviceBounds == null) ? DevicePartitioner.evenPartition(size, numDevices) : deviceBounds.clone();
+    }
+
+    private boolean isSplitInDevices() {
+        return split && GraalAcceleratorOptions.multiOpenCLDevice;
+    }
+
+    /**
+     * First element of the array in the device <code>deviceIndex</code>.
+     */
+    @TruffleBoundary
+    public int getDeviceOffset(int deviceIndex) {
+        if (!isSplitInDevices()) {
+            return 0;
+        }
+        return (deviceBounds == null) ? DevicePartitioner.evenPartition(size, numDevices)[deviceIndex] : deviceBounds[deviceIndex];
+    }
+
+    /**
+     * Number of elements of the array in the device <code>deviceIndex</code>.
+     */
+    @TruffleBoundary
+    public int getDeviceSize(int deviceIndex) {
+        if (!isSplitInDevices()) {
+            return size;
+        }
+        int[] bounds = (deviceBounds == null) ? DevicePartitioner.evenPartition(size, numDevices) : deviceBounds;
+        return bounds[deviceIndex + 1] - bounds[deviceIndex];
+    }
+
+    /**
+     * It releases the OpenCL buffers of the array. With
+     * {@link GraalAcceleratorOptions#bufferPool} the buffers go back to the pool of the device
+     * and they are reused by the next allocation of the same size. The array allocates new buffers
+     * if it is used again in the device.
+     */
+    @TruffleBoundary
+    public void release() {
+        if (openCLBufferAllocated) {
+            releaseOpenCLBuffers();
+        }
+    }
+
+    private void releaseOpenCLBuffers() {
+        for (int i = 0; i < listBuffers.getTotalDevices(); i++) {
+            AcceleratorBuffer buffers = listBuffers.getAcceleratorBuffer(i);
+            for (cl_mem buffer : buffers.getBuffer()) {
+                releaseBuffer(buffers.getID(), bufferFlags, buffer);
+            }
+            for (cl_mem buffer : buffers.getMetadata()) {
+                releaseBuffer(buffers.getID(), CL.CL_MEM_READ_ONLY, buffer);
+            }
+        }
+        listBuffers.clean();
+        acceleratorBuffer = new AcceleratorBuffer(0);
+        openCLBufferAllocated = false;
+        copiedFields = null;
+    }
+
     @TruffleBoundary
     public int computeSizes() {
         computeTotalSize(type, 0, 0);
@@ -126,6 +323,12 @@ public class AcceleratorPArray<T> extends PArray<T> {
     public void allocateOpenCLBuffer(long flags) {
         if (!openCLBufferAllocated) {
 
+            bufferFlags = flags;
+            deviceCapacity = new int[numDevices];
+            for (int i = 0; i < numDevices; i++) {
+                deviceCapacity[i] = getDeviceSize(i);
+            }
+
             allocateOpenCLBuffer(flags, type, 0, 0);
             listBuffers.addAcceleratorBuffer(acceleratorBuffer);
 
@@ -161,22 +364,29 @@ public class AcceleratorPArray<T> extends PArray<T> {
         }
     }
 
-    private void createBuffer(cl_context context, long flags, int bufferSize, Class<?> klass) {
-        int[] status = new int[1];
-        cl_mem memoryObject = CL.clCreateBuffer(context, flags, bufferSize, null, status);
-        checkStatus(status, "openclCreateBuffer");
-        acceleratorBuffer.addCLMem(memoryObject);
-        acceleratorBuffer.addType(klass);  // Types for primitives
+    private static cl_mem createBuffer(int deviceIndex, long flags, int bufferSize, int[] status) {
+        if (GraalAcceleratorOptions.bufferPool) {
+            return getOpenCLDevice(deviceIndex).getBufferPool().allocate(flags, bufferSize, status);
+        }
+        return CL.clCreateBuffer(getContext(deviceIndex), flags, bufferSize, null, status);
     }
 
-    private static int getSizeForPartition(int totalSize, int totalPartitions, int partition) {
-        if (partition == (totalPartitions - 1)) {
-            return ((totalSize / totalPartitions) + (totalSize % totalPartitions));
+    private static void releaseBuffer(int deviceIndex, long flags, cl_mem buffer) {
+        if (GraalAcceleratorOptions.bufferPool) {
+            getOpenCLDevice(deviceIndex).getBufferPool().release(flags, buffer);
         } else {
-            return totalSize / totalPartitions;
+            CL.clReleaseMemObject(buffer);
         }
     }
 
+    private void createBuffer(int deviceIndex, long flags, int bufferSize, Class<?> klass) {
+        int[] status = new int[1];
+        cl_mem memoryObject = createBuffer(deviceIndex, flags, bufferSize, status);
+        checkStatus(status, "openclCreateBuffer");
+        acceleratorBuffer.addCLMem(memoryObject);
+        acceleratorBuffer.addType(klass);  // Types for primitives
+    }
+
     @TruffleBoundary
     private void computeTotalSize(RuntimeObjectTypeInfo t, int deviceIndex, int tupleIndex) {
         if (t.isScalarType()) {
@@ -210,13 +420,12 @@ public class AcceleratorPArray<T> extends PArray<T> {
             }
             int totalSize = t.getOCLSize() * sizeBuffer;
 
-            if (split && GraalAcceleratorOptions.multiOpenCLDevice) {
-                // Get the first size in the list
-                totalSize = getSizeForPartition(totalSize, numDevices, deviceIndex);
+            if (isSplitInDevices()) {
+                // Buffers can not be empty, even if the device has no elements
+                totalSize = t.getOCLSize() * Math.max(1, deviceCapacity[deviceIndex]);
             }
 
-            cl_context context = getContext(deviceIndex);
-            createBuffer(context, flags, totalSize, t.getClassObject());
+            createBuffer(deviceIndex, flags, totalSize, t.getClassObject());
 
         } else if (t.isTupleType()) {
             // Create as many buffers as primitive in the Tuple
@@ -236,17 +445,15 @@ public class AcceleratorPArray<T> extends PArray<T> {
 
         if (GraalAcceleratorOptions.multiOpenCLDevice) {
             for (int i = 0; i < numDevices; i++) {
-                cl_context context = getContext(i);
                 int[] status = new int[1];
-                cl_mem clCreateBuffer = CL.clCreateBuffer(context, CL.CL_MEM_READ_ONLY, JavaDataTypeSizes.INT.getOCLSize(), null, status);
+                cl_mem clCreateBuffer = createBuffer(i, CL.CL_MEM_READ_ONLY, JavaDataTypeSizes.INT.getOCLSize(), status);
                 listBuffers.getAcceleratorBuffer(i).addMetadata(clCreateBuffer);
                 checkStatus(status, "openclCreateBuffer for metadata");
             }
 
         } else {
-            cl_context context = getContext();
             int[] status = new int[1];
-            cl_mem clCreateBuffer = CL.clCreateBuffer(context, CL.CL_MEM_READ_ONLY, JavaDataTypeSizes.INT.getOCLSize(), null, status);
+            cl_mem clCreateBuffer = createBuffer(0, CL.CL_MEM_READ_ONLY, JavaDataTypeSizes.INT.getOCLSize(), status);
             listBuffers.getAcceleratorBuffer().addMetadata(clCreateBuffer);
             checkStatus(status, "openclCreateBuffer for metadata");
         }
@@ -300,25 +507,16 @@ public class AcceleratorPArray<T> extends PArray<T> {
                     basePtr = getPointer(listTypes.get(j), j);
                     this.isPrimitiveArray = true;
                 } else {
-                    basePtr = Pointer.to(getArrayReference(j));
-                }
-                Pointer pointer = basePtr.withByteOffset(dataTypesArrays[j].getOCLSize() * offset());
-                cl_event event = new cl_event();
-
-                int sizeBuffer = array.isSequence(j) ? this.size : array.size(j);
-                int totalSize = dataTypesArrays[j].getOCLSize() * sizeBuffer;
-
-                int ref = totalSize / numDevices;
-
-                if (devIndex > 0) {
-                    totalSize = (totalSize / numDevices) + (totalSize % numDevices);
-                } else {
-                    totalSize /= numDevices;
+                    basePtr = Pointer.to(array.getArrayReference(j));
                 }
-
-                if (devIndex != 0) {
-                    pointer = basePtr.withByteOffset(ref);
+                int elementSize = dataTypesArrays[j].getOCLSize();
+                int totalSize = elementSize * getDeviceSize(devIndex);
+                if (totalSize == 0) {
+                    // No elements for this device
+                    continue;
                 }
+                Pointer pointer = basePtr.withByteOffset((long) elementSize * (offset() + getDeviceOffset(devIndex)));
+                cl_event event = new cl_event();
 
                 if (GraalAcceleratorOptions.debugMultiDevice) {
                     System.out.println("\t copy from : " + pointer + " to ptr +" + totalSize);
@@ -355,23 +553,60 @@ public class AcceleratorPArray<T> extends PArray<T> {
                 basePtr = getPointer(listTypes.get(i), i);
                 this.isPrimitiveArray = true;
             } else {
-                basePtr = Pointer.to(getArrayReference(i));
+                basePtr = Pointer.to(array.getArrayReference(i));
             }
-            Pointer ptr = basePtr.withByteOffset(dataTypesArrays[i].getOCLSize() * offset);
-            cl_event event = new cl_event();
+            int elementSize = dataTypesArrays[i].getOCLSize();
             int sizeBuffer = array.isSequence(i) ? this.size : array.size(i);
 
-            int totalSize = dataTypesArrays[i].getOCLSize() * sizeBuffer;
+            int[] ranges = getRangesToCopy(i, clBuffers.size(), offset, sizeBuffer);
+            for (int r = 0; r < ranges.length; r += 2) {
+                int from = ranges[r];
+                long totalSize = (long) elementSize * (ranges[r + 1] - from);
+                Pointer ptr = basePtr.withByteOffset((long) elementSize * (offset + from));
+                cl_event event = new cl_event();
 
-            int status = CL.clEnqueueWriteBuffer(queue, clBuffer, CL.CL_FALSE, 0, totalSize, ptr, 0, null, event);
-            checkStatus(status, "clEnqueueWriteBuffer");
-            status = CL.clFlush(queue);
-            checkStatus(status, "clFlush");
+                int status = CL.clEnqueueWriteBuffer(queue, clBuffer, CL.CL_FALSE, (long) elementSize * from, totalSize, ptr, 0, null, event);
+                checkStatus(status, "clEnqueueWriteBuffer");
+                status = CL.clFlush(queue);
+                checkStatus(status, "clFlush");
 
-            if (GraalAcceleratorOptions.profileOffload) {
-                CL.clSetEventCallback(event, CL.CL_COMPLETE, OpenCLUtils.makeCallBackFunction(ProfilerType.OCL_WRITE_BUFFER, readIndex, 0), null);
+                if (GraalAcceleratorOptions.profileOffload) {
+                    CL.clSetEventCallback(event, CL.CL_COMPLETE, OpenCLUtils.makeCallBackFunction(ProfilerType.OCL_WRITE_BUFFER, readIndex, 0), null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Ranges of elements of the buffer <code>idx</code> to copy to the device, as pairs [from, to).
+     * If the host array is the one copied the last time and it has not been copied elsewhere since
+     * then, only the blocks written in between are copied (none for a read-only input). Otherwise,
+     * or if the writes of the host array are not tracked, the whole buffer is copied.
+     */
+    private int[] getRangesToCopy(int idx, int numBuffers, int offset, int sizeBuffer) {
+        PArray<?> field = (numBuffers > 1) ? array.getField(idx) : array;
+        if (!GraalAcceleratorOptions.dirtyTracking || field == null || offset != 0 || array.isPrimitiveArray(idx) || array.isSequence(idx) || !field.isWriteTracked() ||
+                        field.size() != sizeBuffer) {
+            if (copiedFields != null) {
+                copiedFields[idx] = null;
             }
+            return new int[]{0, sizeBuffer};
+        }
+        if (copiedFields == null || copiedFields.length != numBuffers) {
+            copiedFields = new PArray<?>[numBuffers];
+            copiedEpochs = new long[numBuffers];
+        }
+
+        int[] ranges;
+        if (copiedFields[idx] == field && copiedEpochs[idx] == field.getCleanEpoch()) {
+            ranges = field.getDirtyRanges();
+        } else {
+            ranges = new int[]{0, sizeBuffer};
         }
+        field.markClean();
+        copiedFields[idx] = field;
+        copiedEpochs[idx] = field.getCleanEpoch();
+        return ranges;
     }
 
     @TruffleBoundary
@@ -406,10 +641,14 @@ public class AcceleratorPArray<T> extends PArray<T> {
                 }
 
                 // Recompute the size
-                if (deviceIndex > 0) {
-                    auxiliarArray[0] = (auxiliarArray[0] / numDevices) + (auxiliarArray[0] % numDevices);
+                if (this.isSequence()) {
+                    if (deviceIndex > 0) {
+                        auxiliarArray[0] = (auxiliarArray[0] / numDevices) + (auxiliarArray[0] % numDevices);
+                    } else {
+                        auxiliarArray[0] /= numDevices;
+                    }
                 } else {
-                    auxiliarArray[0] /= numDevices;
+                    auxiliarArray[0] = getDeviceSize(deviceIndex);
                 }
 
                 if (GraalAcceleratorOptions.debugMultiDevice) {
@@ -470,6 +709,9 @@ public class AcceleratorPArray<T> extends PArray<T> {
             readEvents = copyToHostMonodevice(idx, offset);
         }
         OpenCLUtils.waitForEvents(readEvents);
+        hostOutOfDate = false;
+        // The host buffers are written directly, the copy is not tracked by put
+        array.markDirty(offset, offset + size);
     }
 
     public static class CopyThread extends Thread {
@@ -539,26 +781,19 @@ public class AcceleratorPArray<T> extends PArray<T> {
                 if (this.isPrimitiveArray(i)) {
                     basePointer = getPointer(listTypes.get(i), i);
                 } else {
-                    basePointer = Pointer.to(getArrayReference(i));
+                    basePointer = Pointer.to(array.getArrayReference(i));
                 }
 
-                Pointer pointer = basePointer.withByteOffset(types[i].getOCLSize() * offset());
+                int elementSize = types[i].getOCLSize();
+                int totalSize = elementSize * getDeviceSize(deviceIndex);
+                if (totalSize == 0) {
+                    continue;
+                }
+                Pointer pointer = basePointer.withByteOffset((long) elementSize * (offset() + getDeviceOffset(deviceIndex)));
 
                 cl_event event = new cl_event();
                 int status = 0;
 
-                int totalSize = types[i].getOCLSize() * this.size;
-                int reference = totalSize / numDevices;
-
-                if (split) {
-                    if (deviceIndex > 0) {
-                        pointer = basePointer.withByteOffset(reference);
-                        totalSize = (totalSize / numDevices) + (totalSize % numDevices);
-                    } else {
-                        totalSize /= numDevices;
-                    }
-                }
-
                 if (GraalAcceleratorOptions.debugMultiDevice) {
                     System.out.println("\t copy back from : " + pointer + " to ptr +" + totalSize);
                 }
@@ -607,7 +842,7 @@ public class AcceleratorPArray<T> extends PArray<T> {
             if (this.isPrimitiveArray(i)) {
                 basePointer = getPointer(listTypes.get(i), i);
             } else {
-                basePointer = Pointer.to(getArrayReference(i));
+                basePointer = Pointer.to(array.getArrayReference(i));
             }
 
             Pointer pointer = basePointer.withByteOffset(types[i].getOCLSize() * offset);
@@ -656,11 +891,6 @@ public class AcceleratorPArray<T> extends PArray<T> {
         }
     }
 
-    @TruffleBoundary
-    private static cl_context getContext() {
-        return getOpenCLDevice().getContext();
-    }
-
     private static cl_context getContext(int idx) {
         return getOpenCLDevice(idx).getContext();
     }
@@ -668,21 +898,114 @@ public class AcceleratorPArray<T> extends PArray<T> {
     @Override
     public void clear() {
         listBuffers.clean();
+        copiedFields = null;
+    }
+
+    @Override
+    public void markDirty(int from, int to) {
+        if (array != null) {
+            array.markDirty(from, to);
+        }
+    }
+
+    @Override
+    public boolean isWriteTracked() {
+        return false;
     }
 
     @Override
     public void put(int index, T e) {
-        array.put(index, e);
+        materialise().put(index, e);
     }
 
     @Override
     public T get(int index) {
-        return array.get(index);
+        return materialise().get(index);
+    }
+
+    @Override
+    public float getFloat(int index) {
+        return materialise().getFloat(index);
+    }
+
+    @Override
+    public void putFloat(int index, float value) {
+        materialise().putFloat(index, value);
+    }
+
+    @Override
+    public double getDouble(int index) {
+        return materialise().getDouble(index);
+    }
+
+    @Override
+    public void putDouble(int index, double value) {
+        materialise().putDouble(index, value);
+    }
+
+    @Override
+    public int getInt(int index) {
+        return materialise().getInt(index);
+    }
+
+    @Override
+    public void putInt(int index, int value) {
+        materialise().putInt(index, value);
+    }
+
+    @Override
+    public void copyFrom(float[] src, int srcOffset, int dstIndex, int length) {
+        materialise().copyFrom(src, srcOffset, dstIndex, length);
+    }
+
+    @Override
+    public void copyTo(int srcIndex, float[] dst, int dstOffset, int length) {
+        materialise().copyTo(srcIndex, dst, dstOffset, length);
+    }
+
+    @Override
+    public void copyFrom(double[] src, int srcOffset, int dstIndex, int length) {
+        materialise().copyFrom(src, srcOffset, dstIndex, length);
+    }
+
+    @Override
+    public void copyTo(int srcIndex, double[] dst, int dstOffset, int length) {
+        materialise().copyTo(srcIndex, dst, dstOffset, length);
+    }
+
+    @Override
+    public void copyFrom(int[] src, int srcOffset, int dstIndex, int length) {
+        materialise().copyFrom(src, srcOffset, dstIndex, length);
+    }
+
+    @Override
+    public void copyTo(int srcIndex, int[] dst, int dstOffset, int length) {
+        materialise().copyTo(srcIndex, dst, dstOffset, length);
+    }
+
+    @Override
+    public void copyFrom(long[] src, int srcOffset, int dstIndex, int length) {
+        materialise().copyFrom(src, srcOffset, dstIndex, length);
+    }
+
+    @Override
+    public void copyTo(int srcIndex, long[] dst, int dstOffset, int length) {
+        materialise().copyTo(srcIndex, dst, dstOffset, length);
+    }
+
+    @Override
+    public TupleCursor<T> cursor() {
+        return materialise().cursor();
+    }
+
+    @Override
+    public <F> PArray<F> getField(int idxField) {
+        return materialise().getField(idxField);
     }
 
     @Override
     public int offset() {
-        return array.offset();
+        return (array == null) ? 0 : array.offset();
     }
 
     @Override
@@ -692,22 +1015,22 @@ public class AcceleratorPArray<T> extends PArray<T> {
 
     @Override
     public Buffer getArrayReference() {
-        return array.getArrayReference();
+        return materialise().getArrayReference();
     }
 
     @Override
     public Buffer getArrayReference(int idxArray) {
-        return array.getArrayReference(idxArray);
+        return materialise().getArrayReference(idxArray);
     }
 
     @Override
     public boolean isSequence() {
-        return array.isSequence();
+        return (array == null) ? super.isSequence() : array.isSequence();
     }
 
     @Override
     public boolean isSequence(int idx) {
-        return array.isSequence(idx);
+        return (array == null) ? super.isSequence(idx) : array.isSequence(idx);
     }
 
     @Override
@@ -717,26 +1040,30 @@ public class AcceleratorPArray<T> extends PArray<T> {
 
     @Override
     public void setSequence(int idx, boolean sequence) {
+        if (array == null) {
+            super.setSequence(idx, sequence);
+            return;
+        }
         array.setSequence(idx, sequence);
     }
 
     @Override
     public int grade() {
-        return array.grade();
+        return (array == null) ? super.grade() : array.grade();
     }
 
     @Override
     public Class<?> getClassObject() {
-        return array.getClassObject();
+        return (array == null) ? super.getClassObject() : array.getClassObject();
     }
 
     @Override
     public ArraySlice<T>[] splitInChunksOfSize(int chunkSize) {
-        return array.splitInChunksOfSize(chunkSize);
+        return materialise().splitInChunksOfSize(chunkSize);
     }
 
     @Override
     public ArraySlice<T>[] splitInFixedNumberOfChunks(int numberOfChunks) {
-        return array.splitInFixedNumberOfChunks(numberOfChunks);
+        return materialise().splitInFixedNumberOfChunks(numberOfChunks);
     }
 }
@@ -44,6 +44,94 @@ public class ArraySlice<T> extends PArray<T> {
         return array.get(index + offset);
     }
 
+    @Override
+    public float getFloat(int index) {
+        return array.getFloat(index + offset);
+    }
+
+    @Override
+    public void putFloat(int index, float value) {
+        array.putFloat(index + offset, value);
+    }
+
+    @Override
+    public double getDouble(int index) {
+        return array.getDouble(index + offset);
+    }
+
+    @Override
+    public void putDouble(int index, double value) {
+        array.putDouble(index + offset, value);
+    }
+
+    @Override
+    public int getInt(int index) {
+        return array.getInt(index + offset);
+    }
+
+    @Override
+    public void putInt(int index, int value) {
+        array.putInt(index + offset, value);
+    }
+
+    @Override
+    public void copyFrom(float[] src, int srcOffset, int dstIndex, int length) {
+        checkCopyRange(src.length, srcOffset, size, dstIndex, length);
+        array.copyFrom(src, srcOffset, dstIndex + offset, length);
+    }
+
+    @Override
+    public void copyTo(int srcIndex, float[] dst, int dstOffset, int length) {
+        checkCopyRange(dst.length, dstOffset, size, srcIndex, length);
+        array.copyTo(srcIndex + offset, dst, dstOffset, length);
+    }
+
+    @Override
+    public void copyFrom(double[] src, int srcOffset, int dstIndex, int length) {
+        checkCopyRange(src.length, srcOffset, size, dstIndex, length);
+        array.copyFrom(src, srcOffset, dstIndex + offset, length);
+    }
+
+    @Override
+    public void copyTo(int srcIndex, double[] dst, int dstOffset, int length) {
+        checkCopyRange(dst.length, dstOffset, size, srcIndex, length);
+        array.copyTo(srcIndex + offset, dst, dstOffset, length);
+    }
+
+    @Override
+    public void copyFrom(int[] src, int srcOffset, int dstIndex, int length) {
+        checkCopyRange(src.length, srcOffset, size, dstIndex, length);
+        array.copyFrom(src, srcOffset, dstIndex + offset, length);
+    }
+
+    @Override
+    public void copyTo(int srcIndex, int[] dst, int dstOffset, int length) {
+        checkCopyRange(dst.length, dstOffset, size, srcIndex, length);
+        array.copyTo(srcIndex + offset, dst, dstOffset, length);
+    }
+
+    @Override
+    public void copyFrom(long[] src, int srcOffset, int dstIndex, int length) {
+        checkCopyRange(src.length, srcOffset, size, dstIndex, length);
+        array.copyFrom(src, srcOffset, dstIndex + offset, length);
+    }
+
+    @Override
+    public void copyTo(int srcIndex, long[] dst, int dstOffset, int length) {
+        checkCopyRange(dst.length, dstOffset, size, srcIndex, length);
+        array.copyTo(srcIndex + offset, dst, dstOffset, length);
+    }
+
+    @Override
+    public void markDirty(int from, int to) {
+        array.markDirty(from + offset, to + offset);
+    }
+
+    @Override
+    public boolean isWriteTracked() {
+        return false;
+    }
+
     @Override
     public int offset() {
         return this.offset;
@@ -64,6 +152,22 @@ public class ArraySlice<T> extends PArray<T> {
         return array.getArrayReference(idxArray);
     }
 
+    @Override
+    public int[] asIntegerArray(int idx) {
+        return array.asIntegerArray(idx);
+    }
+
+    @Override
+    public double[] asDoubleArray(int idx) {
+        return array.asDoubleArray(idx);
+    }
+
+    @Override
+    public <F> PArray<F> getField(int idxField) {
+        PArray<F> field = array.getField(idxField);
+        return (field == null) ? null : new ArraySlice<>(field, offset, size);
+    }
+
     @Override
     public int grade() {
         return array.grade();
@@ -74,6 +178,16 @@ public class ArraySlice<T> extends PArray<T> {
         return array.getClassObject();
     }
 
+    @Override
+    public RuntimeObjectTypeInfo getRuntimeObjectTypeInfo() {
+        return array.getRuntimeObjectTypeInfo();
+    }
+
+    @Override
+    public boolean isPrimitiveArray() {
+        return array.isPrimitiveArray();
+    }
+
     @Override
     public StorageMode getStorageMode() {
         return array.getStorageMode();
@@ -81,11 +195,22 @@ public class ArraySlice<T> extends PArray<T> {
 
     @Override
     public ArraySlice<T>[] splitInChunksOfSize(int chunkSize) {
-        return array.splitInChunksOfSize(chunkSize);
+        return toParentSlices(super.splitInChunksOfSize(chunkSize));
     }
 
     @Override
     public ArraySlice<T>[] splitInFixedNumberOfChunks(int numberOfChunks) {
-        return array.splitInFixedNumberOfChunks(numberOfChunks);
+        return toParentSlices(super.splitInFixedNumberOfChunks(numberOfChunks));
+    }
+
+    /**
+     * The slices of a slice cover only this slice. They point to the parent array with the offset
+     * shifted, so they do not nest.
+     */
+    private ArraySlice<T>[] toParentSlices(ArraySlice<T>[] slices) {
+        for (int i = 0; i < slices.length; ++i) {
+            slices[i] = new ArraySlice<>(array, offset + slices[i].offset(), slices[i].size());
+        }
+        return slices;
     }
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+package uk.ac.ed.datastructures.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import uk.ac.ed.datastructures.common.PArray.StorageMode;
+
+/**
+ * File that stores the elements of a {@link PArray} to be opened with
+ * {@link StorageMode#MAPPED_FILE}. Each field of the tuple is stored as a column: first the
+ * <code>length</code> values of the field 0, then the values of the field 1 and so on, in the
+ * native byte order and with the OpenCL size of each type.
+ *
+ * The file can be larger than the memory. {@link #map(long, int)} maps a range of elements as a
+ * {@link PArray} (zero-copy, the pages are read by the operating system when they are accessed),
+ * so it can be processed chunk by chunk by the skeletons or copied to the device from the mapped
+ * pages:
+ *
+ * <pre>
+ * try (MappedPArrayFile&lt;Float&gt; file = MappedPArrayFile.open(path, TypeFactory.Float(), true)) {
+ *     for (int i = 0; i &lt; file.numberOfChunks(chunkSize); i++) {
+ *         PArray&lt;Float&gt; chunk = file.chunk(i, chunkSize);
+ *         ...
+ *     }
+ * }
+ * </pre>
+ *
+ * @param <T>
+ */
+public class MappedPArrayFile<T> implements Closeable {
+
+    private final FileChannel channel;
+    private final RuntimeObjectTypeInfo type;
+    private final RuntimeObjectTypeInfo[] fieldTypes;
+    private final long length;
+    private final boolean readOnly;
+
+    private MappedPArrayFile(FileChannel channel, RuntimeObjectTypeInfo type, long length, boolean readOnly) {
+        this.channel = channel;
+        this.type = type;
+        this.fieldTypes = type.getNestedTypesOrSelf();
+        this.length = length;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * It creates (or opens for writing) a file for <code>length</code> elements. The file is
+     * extended if it is smaller.
+     */
+    public static <T> MappedPArrayFile<T> create(Path path, RuntimeObjectTypeInfo type, long length) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long bytes = length * bytesPerElement(type);
+        if (channel.size() < bytes) {
+            channel.write(ByteBuffer.allocate(1), bytes - 1);
+        }
+        return new MappedPArrayFile<>(channel, type, length, false);
+    }
+
+    /**
+     * It opens an existing file. The number of elements is computed from the size of the file.
+     */
+    public static <T> MappedPArrayFile<T> open(Path path, RuntimeObjectTypeInfo type, boolean readOnly) throws IOException {
+        FileChannel channel = readOnly ? FileChannel.open(path, StandardOpenOption.READ) : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new MappedPArrayFile<>(channel, type, channel.size() / bytesPerElement(type), readOnly);
+    }
+
+    private static long bytesPerElement(RuntimeObjectTypeInfo type) {
+        long bytes = 0;
+        for (RuntimeObjectTypeInfo t : type.getNestedTypesOrSelf()) {
+            bytes += t.getOCLSize();
+        }
+        return bytes;
+    }
+
+    /**
+     * Number of elements in the file.
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * It maps the elements [first, first + size) of the file as a {@link PArray} with the storage
+     * mode {@link StorageMode#MAPPED_FILE}. Writes in the array go to the file.
+     */
+    public PArray<T> map(long first, int size) throws IOException {
+        if (first < 0 || size < 0 || first + size > length) {
+            throw new IndexOutOfBoundsException("Elements [" + first + ", " + (first + size) + ") of a file with " + length);
+        }
+        PArray<T> array = new PArray<>(size, type, StorageMode.MAPPED_FILE, false);
+        long columnOffset = 0;
+        for (int i = 0; i < fieldTypes.length; i++) {
+            long elementSize = fieldTypes[i].getOCLSize();
+            if (size * elementSize > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("A mapped PArray can not be larger than 2GB per field, use smaller chunks");
+            }
+            MappedByteBuffer buffer = channel.map(readOnly ? MapMode.READ_ONLY : MapMode.READ_WRITE, columnOffset + first * elementSize, size * elementSize);
+            buffer.order(ByteOrder.nativeOrder());
+            array.setBuffer(i, buffer);
+            columnOffset += length * elementSize;
+        }
+        return array;
+    }
+
+    public int numberOfChunks(int chunkSize) {
+        return (int) ((length + chunkSize - 1) / chunkSize);
+    }
+
+    /**
+     * Chunk <code>index</code> of <code>chunkSize</code> elements (the last one can be smaller).
+     */
+    public PArray<T> chunk(int index, int chunkSize) throws IOException {
+        long first = (long) index * chunkSize;
+        return map(first, (int) Math.min(chunkSize, length - first));
+    }
+
+    /**
+     * It writes to the file the changes in the mapped array.
+     */
+    public static void force(PArray<?> array) {
+        for (int i = 0; i < array.grade(); i++) {
+            Buffer buffer = array.getArrayReference(i);
+            if (buffer instanceof MappedByteBuffer) {
+                ((MappedByteBuffer) buffer).force();
+            }
+        }
+    }
+
+    /**
+     * The arrays already mapped stay valid after closing the file.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Buffer mapped from a temporary file, used when a {@link PArray} with the storage mode
+     * {@link StorageMode#MAPPED_FILE} is allocated (e.g. the output of a skeleton). The file is
+     * deleted and the space is freed when the buffer is collected.
+     */
+    static ByteBuffer allocateTemporary(long bytes) {
+        try {
+            Path file = Files.createTempFile("marawacc", ".parray");
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                buffer = channel.map(MapMode.READ_WRITE, 0, bytes);
+            }
+            try {
+                Files.delete(file);
+            } catch (IOException e) {
+                // The mapping keeps the file open (e.g. on Windows)
+                file.toFile().deleteOnExit();
+            }
+            buffer.order(ByteOrder.nativeOrder());
+            return buffer;
+        } catch (IOException e) {
+            throw new RuntimeException("[MAPPED_FILE] Temporary file of " + bytes + " bytes could not be mapped", e);
+        }
+    }
+}
@@ -28,8 +28,11 @@ import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.LongBuffer;
 import java.nio.ShortBuffer;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.stream.IntStream;
 
+import uk.ac.ed.accelerator.common.GraalAcceleratorOptions;
 import uk.ac.ed.datastructures.interop.InteropTable;
 import uk.ac.ed.datastructures.tuples.Tuple;
 import uk.ac.ed.datastructures.tuples.Tuple1;
@@ -83,7 +86,8 @@ public class PArray<T> {
         JAVA_NATIVE_BUFFERS("JAVA_NATIVE_BUFFERS"),
         OPENCL_BYTE_BUFFER("OPENCL_BYTE_BUFFER"),
         JAVA_BYTE_BUFFER("JAVA_BYTE_BUFFER"),
-        JAVA_OBJECT("JAVA_OBJECT");             // Use marshal and un-marshal operations
+        JAVA_OBJECT("JAVA_OBJECT"),             // Use marshal and un-marshal operations
+        MAPPED_FILE("MAPPED_FILE");             // Memory-mapped files, see MappedPArrayFile
 
         private String mode;
 
@@ -102,6 +106,12 @@ public class PArray<T> {
     // Size when the sequence is passed
     private int totalSize;
 
+    // Write tracking: blocks of elements written since the last copy to the device (see
+    // markClean). One byte per block, so concurrent writers never lose an update.
+    private static final int DIRTY_BLOCK_SHIFT = 10;
+    private byte[] dirtyBlocks;
+    private long cleanEpoch;
+
     @CompilationFinal protected StorageMode mode;
     protected RuntimeObjectTypeInfo type;
 
@@ -146,6 +156,48 @@ public class PArray<T> {
         this(size, t, StorageMode.DEFAULT, op);
     }
 
+    /**
+     * It builds a {@link PArray} of {@link Tuple2} that uses the given arrays as the storage of its
+     * fields, without copying them. Writing into the zipped array writes into the inputs. Both
+     * arrays must have the same size.
+     *
+     * @param array0
+     * @param array1
+     * @return {@link PArray} of {@link Tuple2}
+     */
+    @TruffleBoundary
+    public static <T0, T1> PArray<Tuple2<T0, T1>> zip(PArray<T0> array0, PArray<T1> array1) {
+        if (array0.size() != array1.size()) {
+            throw new IllegalArgumentException("Zip of arrays with different sizes: " + array0.size() + " and " + array1.size());
+        }
+        PArray<Tuple2<T0, T1>> zipped = new PArray<>();
+        zipped.mode = array0.getStorageMode();
+        zipped.type = new RuntimeObjectTypeInfo(Tuple2.class, array0.getRuntimeObjectTypeInfo(), array1.getRuntimeObjectTypeInfo());
+        zipped.arrayImplementation = zipped.new Tuple2Array<>(array0, array1);
+        return zipped;
+    }
+
+    /**
+     * It builds a {@link PArray} of {@link Tuple3} that uses the given arrays as the storage of its
+     * fields, without copying them. All the arrays must have the same size.
+     *
+     * @param array0
+     * @param array1
+     * @param array2
+     * @return {@link PArray} of {@link Tuple3}
+     */
+    @TruffleBoundary
+    public static <T0, T1, T2> PArray<Tuple3<T0, T1, T2>> zip(PArray<T0> array0, PArray<T1> array1, PArray<T2> array2) {
+        if (array0.size() != array1.size() || array0.size() != array2.size()) {
+            throw new IllegalArgumentException("Zip of arrays with different sizes: " + array0.size() + ", " + array1.size() + " and " + array2.size());
+        }
+        PArray<Tuple3<T0, T1, T2>> zipped = new PArray<>();
+        zipped.mode = array0.getStorageMode();
+        zipped.type = new RuntimeObjectTypeInfo(Tuple3.class, array0.getRuntimeObjectTypeInfo(), array1.getRuntimeObjectTypeInfo(), array2.getRuntimeObjectTypeInfo());
+        zipped.arrayImplementation = zipped.new Tuple3Array<>(array0, array1, array2);
+        return zipped;
+    }
+
     @TruffleBoundary
     private static String printLineInfo() {
         StackTraceElement ste = Thread.currentThread().getStackTrace()[2];
@@ -207,6 +259,7 @@ public class PArray<T> {
             case DEFAULT:
             case OPENCL_BYTE_BUFFER:
             case JAVA_BYTE_BUFFER:
+            case MAPPED_FILE:
                 if (type.getClassObject() == Float.class) {
                     arrayImplementation = (ArrayImplementation<T>) new FloatByteBufferArray(size, mode, init);
                 } else if (type.getClassObject() == Double.class) {
@@ -293,6 +346,7 @@ public class PArray<T> {
     @TruffleBoundary
     public void put(int index, T e) {
         arrayImplementation.put(index, e);
+        markDirty(index);
     }
 
     @TruffleBoundary
@@ -300,15 +354,198 @@ public class PArray<T> {
         return arrayImplementation.get(index);
     }
 
+    /**
+     * Primitive accessors. If the PArray stores primitive values (Float, Double or Integer) they
+     * read and write the underlying buffer directly, without boxing the element.
+     */
+    @TruffleBoundary
+    public float getFloat(int index) {
+        return arrayImplementation.getFloat(index);
+    }
+
+    @TruffleBoundary
+    public void putFloat(int index, float value) {
+        arrayImplementation.putFloat(index, value);
+        markDirty(index);
+    }
+
+    @TruffleBoundary
+    public double getDouble(int index) {
+        return arrayImplementation.getDouble(index);
+    }
+
+    @TruffleBoundary
+    public void putDouble(int index, double value) {
+        arrayImplementation.putDouble(index, value);
+        markDirty(index);
+    }
+
+    @TruffleBoundary
+    public int getInt(int index) {
+        return arrayImplementation.getInt(index);
+    }
+
+    @TruffleBoundary
+    public void putInt(int index, int value) {
+        arrayImplementation.putInt(index, value);
+        markDirty(index);
+    }
+
+    /**
+     * Bulk copy of <code>length</code> values from <code>src[srcOffset]</code> to the positions
+     * starting at <code>dstIndex</code>. The storages in buffers use bulk buffer transfers instead
+     * of a put per element, and copies larger than
+     * {@link GraalAcceleratorOptions#parallelCopyThreshold} are split among threads. For arrays of
+     * tuples, use the array of the field (see {@link #getField(int)}).
+     */
+    @TruffleBoundary
+    public void copyFrom(float[] src, int srcOffset, int dstIndex, int length) {
+        checkCopyRange(src.length, srcOffset, size(), dstIndex, length);
+        if (arrayImplementation == null) {
+            for (int i = 0; i < length; i++) {
+                putFloat(dstIndex + i, src[srcOffset + i]);
+            }
+            return;
+        }
+        copyInChunks(length, (from, n) -> arrayImplementation.copyFrom(src, srcOffset + from, dstIndex + from, n));
+        markDirty(dstIndex, dstIndex + length);
+    }
+
+    /**
+     * Bulk copy of <code>length</code> values from the positions starting at
+     * <code>srcIndex</code> to <code>dst[dstOffset]</code> (see
+     * {@link #copyFrom(float[], int, int, int)}).
+     */
+    @TruffleBoundary
+    public void copyTo(int srcIndex, float[] dst, int dstOffset, int length) {
+        checkCopyRange(dst.length, dstOffset, size(), srcIndex, length);
+        if (arrayImplementation == null) {
+            for (int i = 0; i < length; i++) {
+                dst[dstOffset + i] = getFloat(srcIndex + i);
+            }
+            return;
+        }
+        copyInChunks(length, (from, n) -> arrayImplementation.copyTo(srcIndex + from, dst, dstOffset + from, n));
+    }
+
+    @TruffleBoundary
+    public void copyFrom(double[] src, int srcOffset, int dstIndex, int length) {
+        checkCopyRange(src.length, srcOffset, size(), dstIndex, length);
+        if (arrayImplementation == null) {
+            for (int i = 0; i < length; i++) {
+                putDouble(dstIndex + i, src[srcOffset + i]);
+            }
+            return;
+        }
+        copyInChunks(length, (from, n) -> arrayImplementation.copyFrom(src, srcOffset + from, dstIndex + from, n));
+        markDirty(dstIndex, dstIndex + length);
+    }
+
+    @TruffleBoundary
+    public void copyTo(int srcIndex, double[] dst, int dstOffset, int length) {
+        checkCopyRange(dst.length, dstOffset, size(), srcIndex, length);
+        if (arrayImplementation == null) {
+            for (int i = 0; i < length; i++) {
+                dst[dstOffset + i] = getDouble(srcIndex + i);
+            }
+            return;
+        }
+        copyInChunks(length, (from, n) -> arrayImplementation.copyTo(srcIndex + from, dst, dstOffset + from, n));
+    }
+
+    @TruffleBoundary
+    public void copyFrom(int[] src, int srcOffset, int dstIndex, int length) {
+        checkCopyRange(src.length, srcOffset, size(), dstIndex, length);
+        if (arrayImplementation == null) {
+            for (int i = 0; i < length; i++) {
+                putInt(dstIndex + i, src[srcOffset + i]);
+            }
+            return;
+        }
+        copyInChunks(length, (from, n) -> arrayImplementation.copyFrom(src, srcOffset + from, dstIndex + from, n));
+        markDirty(dstIndex, dstIndex + length);
+    }
+
+    @TruffleBoundary
+    public void copyTo(int srcIndex, int[] dst, int dstOffset, int length) {
+        checkCopyRange(dst.length, dstOffset, size(), srcIndex, length);
+        if (arrayImplementation == null) {
+            for (int i = 0; i < length; i++) {
+                dst[dstOffset + i] = getInt(srcIndex + i);
+            }
+            return;
+        }
+        copyInChunks(length, (from, n) -> arrayImplementation.copyTo(srcIndex + from, dst, dstOffset + from, n));
+    }
+
+    @SuppressWarnings("unchecked")
+    @TruffleBoundary
+    public void copyFrom(long[] src, int srcOffset, int dstIndex, int length) {
+        checkCopyRange(src.length, srcOffset, size(), dstIndex, length);
+        if (arrayImplementation == null) {
+            for (int i = 0; i < length; i++) {
+                put(dstIndex + i, (T) Long.valueOf(src[srcOffset + i]));
+            }
+            return;
+        }
+        copyInChunks(length, (from, n) -> arrayImplementation.copyFrom(src, srcOffset + from, dstIndex + from, n));
+        markDirty(dstIndex, dstIndex + length);
+    }
+
+    @TruffleBoundary
+    public void copyTo(int srcIndex, long[] dst, int dstOffset, int length) {
+        checkCopyRange(dst.length, dstOffset, size(), srcIndex, length);
+        if (arrayImplementation == null) {
+            for (int i = 0; i < length; i++) {
+                dst[dstOffset + i] = (Long) get(srcIndex + i);
+            }
+            return;
+        }
+        copyInChunks(length, (from, n) -> arrayImplementation.copyTo(srcIndex + from, dst, dstOffset + from, n));
+    }
+
+    static void checkCopyRange(int arrayLength, int arrayOffset, int size, int index, int length) {
+        if (length < 0 || arrayOffset < 0 || index < 0 || arrayOffset > arrayLength - length || index > size - length) {
+            throw new IndexOutOfBoundsException("Copy of " + length + " elements from/to position " + index + " (size " + size + ") and offset " + arrayOffset + " (length " +
+                            arrayLength + ")");
+        }
+    }
+
+    private interface RangeCopy {
+        void copy(int from, int length);
+    }
+
+    /**
+     * It runs the copy in one call, or in one call per thread for large copies. Each call only
+     * touches its own range, with its own view of the buffer.
+     */
+    private static void copyInChunks(int length, RangeCopy copy) {
+        int threshold = GraalAcceleratorOptions.parallelCopyThreshold;
+        int numThreads = GraalAcceleratorOptions.javaThreadsPoolSize;
+        if (threshold <= 0 || length < threshold || numThreads <= 1) {
+            copy.copy(0, length);
+            return;
+        }
+        int chunkSize = (length + numThreads - 1) / numThreads;
+        IntStream.range(0, numThreads).parallel().forEach(c -> {
+            int from = c * chunkSize;
+            if (from < length) {
+                copy.copy(from, Math.min(chunkSize, length - from));
+            }
+        });
+    }
+
     @TruffleBoundary
     public void setBuffer(int idx, Buffer buffer) {
         arrayImplementation.setArrayReference(idx, buffer);
+        markDirty();
     }
 
     @TruffleBoundary
     public void setBuffer(int idx, Buffer buffer, boolean sequence) {
         setSequence(idx, sequence);
         arrayImplementation.setArrayReference(idx, buffer);
+        markDirty();
     }
 
     @TruffleBoundary
@@ -316,6 +553,7 @@ public class PArray<T> {
         setSequence(idx, sequence);
         setFlag(idx, true);
         arrayImplementation.setArrayReference(idx, buffer);
+        markDirty();
     }
 
     @TruffleBoundary
@@ -323,11 +561,13 @@ public class PArray<T> {
         setSequence(idx, sequence);
         setCompass(idx, true);
         arrayImplementation.setArrayReference(idx, buffer);
+        markDirty();
     }
 
     @TruffleBoundary
     private void setBuffer(Buffer buffer) {
         arrayImplementation.setArrayReference(0, buffer);
+        markDirty();
     }
 
     @TruffleBoundary
@@ -335,16 +575,143 @@ public class PArray<T> {
         return arrayImplementation.getArrayReference(0);
     }
 
+    private void markDirty(int index) {
+        byte[] blocks = dirtyBlocks;
+        if (blocks != null) {
+            blocks[index >>> DIRTY_BLOCK_SHIFT] = 1;
+        }
+    }
+
+    /**
+     * It marks the elements [from, to) as modified. Writes with put are tracked automatically, but
+     * writes done directly in the buffer returned by {@link #getArrayReference()} (e.g. a copy from
+     * the device) must be notified with this method, otherwise a copy of the array in the device
+     * is not updated. For arrays of tuples, the range is marked in every field.
+     *
+     * @param from
+     * @param to
+     */
+    @TruffleBoundary
+    public void markDirty(int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        byte[] blocks = dirtyBlocks;
+        if (blocks != null) {
+            Arrays.fill(blocks, from >>> DIRTY_BLOCK_SHIFT, Math.min(blocks.length, ((to - 1) >>> DIRTY_BLOCK_SHIFT) + 1), (byte) 1);
+        }
+        if (arrayImplementation != null) {
+            for (int i = 0; i < arrayImplementation.grade(); i++) {
+                PArray<?> field = arrayImplementation.getField(i);
+                if (field != null && field != this) {
+                    field.markDirty(from, to);
+                }
+            }
+        }
+    }
+
+    /**
+     * It marks the whole array as modified (see {@link #markDirty(int, int)}).
+     */
+    @TruffleBoundary
+    public void markDirty() {
+        markDirty(0, size());
+    }
+
+    /**
+     * Writes through the {@link PArray} interface are tracked, so copies to the device can skip
+     * the parts that are not modified. Slices and primitive arrays are not tracked.
+     */
+    @TruffleBoundary
+    public boolean isWriteTracked() {
+        return arrayImplementation != null && !isPrimitiveArray();
+    }
+
+    /**
+     * Number of times {@link #markClean()} has been called. A copy in the device made at the same
+     * epoch only needs the blocks in {@link #getDirtyRanges()}; otherwise another copy has reset
+     * the blocks and the whole array must be copied.
+     */
+    long getCleanEpoch() {
+        return cleanEpoch;
+    }
+
+    /**
+     * Ranges of elements modified since the last {@link #markClean()}, as pairs [from, to) in
+     * consecutive positions. Consecutive modified blocks are merged in one range.
+     */
+    int[] getDirtyRanges() {
+        int size = size();
+        if (dirtyBlocks == null) {
+            return new int[]{0, size};
+        }
+        int[] ranges = new int[0];
+        int numRanges = 0;
+        int block = 0;
+        while (block < dirtyBlocks.length) {
+            if (dirtyBlocks[block] == 0) {
+                block++;
+                continue;
+            }
+            int first = block;
+            while (block < dirtyBlocks.length && dirtyBlocks[block] != 0) {
+                block++;
+            }
+            if (ranges.length == numRanges * 2) {
+                ranges = Arrays.copyOf(ranges, Math.max(4, ranges.length * 2));
+            }
+            ranges[numRanges * 2] = first << DIRTY_BLOCK_SHIFT;
+            ranges[numRanges * 2 + 1] = Math.min(size, block << DIRTY_BLOCK_SHIFT);
+            numRanges++;
+        }
+        return Arrays.copyOf(ranges, numRanges * 2);
+    }
+
+    /**
+     * It resets the modified blocks after a copy to the device.
+     */
+    void markClean() {
+        int numBlocks = (size() >>> DIRTY_BLOCK_SHIFT) + 1;
+        if (dirtyBlocks == null || dirtyBlocks.length != numBlocks) {
+            dirtyBlocks = new byte[numBlocks];
+        } else {
+            Arrays.fill(dirtyBlocks, (byte) 0);
+        }
+        cleanEpoch++;
+    }
+
     @TruffleBoundary
     public ArrayImplementation<T> getArrayImpl() {
         return this.arrayImplementation;
     }
 
+    /**
+     * For arrays of tuples, it returns the {@link PArray} that stores the field
+     * <code>idxField</code>. It returns null for other arrays.
+     *
+     * @param idxField
+     * @return {@link PArray}
+     */
+    @SuppressWarnings("unchecked")
+    @TruffleBoundary
+    public <F> PArray<F> getField(int idxField) {
+        return (PArray<F>) arrayImplementation.getField(idxField);
+    }
+
     @TruffleBoundary
     public Buffer getArrayReference(int idxArray) {
         return arrayImplementation.getArrayReference(idxArray);
     }
 
+    /**
+     * It returns a cursor to iterate the elements of the array without allocating a tuple per
+     * element (see {@link TupleCursor}).
+     */
+    @TruffleBoundary
+    public TupleCursor<T> cursor() {
+        return new TupleCursor<>(this);
+    }
+
     @SuppressWarnings("unchecked")
     @TruffleBoundary
     public double[] asDoubleArray() {
@@ -464,6 +831,7 @@ public class PArray<T> {
     @TruffleBoundary
     public void setIntArray(int idx, int[] inputArray) {
         arrayImplementation.setIntArray(idx, inputArray);
+        markDirty();
     }
 
     @TruffleBoundary
@@ -474,6 +842,7 @@ public class PArray<T> {
     @TruffleBoundary
     public void setDoubleArray(int idx, double[] inputArray) {
         arrayImplementation.setDoubleArray(idx, inputArray);
+        markDirty();
     }
 
     @TruffleBoundary
@@ -500,6 +869,15 @@ public class PArray<T> {
         return totalSize;
     }
 
+    /**
+     * Array copied to the device and read by the code generator. For a {@link SequencePArray} it
+     * is the array of three elements (start, stride, aux) that describes the sequence; for other
+     * arrays it is the array itself.
+     */
+    public PArray<T> getSequenceDescriptor() {
+        return this;
+    }
+
     @TruffleBoundary
     public int offset() {
         return 0;
@@ -646,6 +1024,88 @@ public class PArray<T> {
 
         E get(int index);
 
+        // Boxed fallback for the primitive accessors. Overridden by the primitive storages.
+        default float getFloat(int index) {
+            return (Float) get(index);
+        }
+
+        @SuppressWarnings("unchecked")
+        default void putFloat(int index, float value) {
+            put(index, (E) Float.valueOf(value));
+        }
+
+        default double getDouble(int index) {
+            return (Double) get(index);
+        }
+
+        @SuppressWarnings("unchecked")
+        default void putDouble(int index, double value) {
+            put(index, (E) Double.valueOf(value));
+        }
+
+        default int getInt(int index) {
+            return (Integer) get(index);
+        }
+
+        @SuppressWarnings("unchecked")
+        default void putInt(int index, int value) {
+            put(index, (E) Integer.valueOf(value));
+        }
+
+        default PArray<?> getField(@SuppressWarnings("unused") int idx) {
+            return null;
+        }
+
+        // Element by element fallback for the bulk copies. Overridden by the primitive storages.
+        default void copyFrom(float[] src, int srcOffset, int dstIndex, int length) {
+            for (int i = 0; i < length; i++) {
+                putFloat(dstIndex + i, src[srcOffset + i]);
+            }
+        }
+
+        default void copyTo(int srcIndex, float[] dst, int dstOffset, int length) {
+            for (int i = 0; i < length; i++) {
+                dst[dstOffset + i] = getFloat(srcIndex + i);
+            }
+        }
+
+        default void copyFrom(double[] src, int srcOffset, int dstIndex, int length) {
+            for (int i = 0; i < length; i++) {
+                putDouble(dstIndex + i, src[srcOffset + i]);
+            }
+        }
+
+        default void copyTo(int srcIndex, double[] dst, int dstOffset, int length) {
+            for (int i = 0; i < length; i++) {
+                dst[dstOffset + i] = getDouble(srcIndex + i);
+            }
+        }
+
+        default void copyFrom(int[] src, int srcOffset, int dstIndex, int length) {
+            for (int i = 0; i < length; i++) {
+                putInt(dstIndex + i, src[srcOffset + i]);
+            }
+        }
+
+        default void copyTo(int srcIndex, int[] dst, int dstOffset, int length) {
+            for (int i = 0; i < length; i++) {
+                dst[dstOffset + i] = getInt(srcIndex + i);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        default void copyFrom(long[] src, int srcOffset, int dstIndex, int length) {
+            for (int i = 0; i < length; i++) {
+                put(dstIndex + i, (E) Long.valueOf(src[srcOffset + i]));
+            }
+        }
+
+        default void copyTo(int srcIndex, long[] dst, int dstOffset, int length) {
+            for (int i = 0; i < length; i++) {
+                dst[dstOffset + i] = (Long) get(srcIndex + i);
+            }
+        }
+
         int size(int index);
 
         int grade();
@@ -724,6 +1184,30 @@ public class PArray<T> {
             return buffer.get(index);
         }
 
+        @Override
+        public float getFloat(int index) {
+            return buffer.get(index);
+        }
+
+        @Override
+        public void putFloat(int index, float value) {
+            buffer.put(index, value);
+        }
+
+        @Override
+        public void copyFrom(float[] src, int srcOffset, int dstIndex, int length) {
+            FloatBuffer view = buffer.duplicate();
+            view.position(dstIndex);
+            view.put(src, srcOffset, length);
+        }
+
+        @Override
+        public void copyTo(int srcIndex, float[] dst, int dstOffset, int length) {
+            FloatBuffer view = buffer.duplicate();
+            view.position(srcIndex);
+            view.get(dst, dstOffset, length);
+        }
+
         @Override
         public int grade() {
             return GRADE;
@@ -765,6 +1249,30 @@ public class PArray<T> {
             return buffer.get(index);
         }
 
+        @Override
+        public double getDouble(int index) {
+            return buffer.get(index);
+        }
+
+        @Override
+        public void putDouble(int index, double value) {
+            buffer.put(index, value);
+        }
+
+        @Override
+        public void copyFrom(double[] src, int srcOffset, int dstIndex, int length) {
+            DoubleBuffer view = buffer.duplicate();
+            view.position(dstIndex);
+            view.put(src, srcOffset, length);
+        }
+
+        @Override
+        public void copyTo(int srcIndex, double[] dst, int dstOffset, int length) {
+            DoubleBuffer view = buffer.duplicate();
+            view.position(srcIndex);
+            view.get(dst, dstOffset, length);
+        }
+
         @Override
         public int grade() {
             return GRADE;
@@ -806,6 +1314,30 @@ public class PArray<T> {
             return buffer.get(index);
         }
 
+        @Override
+        public int getInt(int index) {
+            return buffer.get(index);
+        }
+
+        @Override
+        public void putInt(int index, int value) {
+            buffer.put(index, value);
+        }
+
+        @Override
+        public void copyFrom(int[] src, int srcOffset, int dstIndex, int length) {
+            IntBuffer view = buffer.duplicate();
+            view.position(dstIndex);
+            view.put(src, srcOffset, length);
+        }
+
+        @Override
+        public void copyTo(int srcIndex, int[] dst, int dstOffset, int length) {
+            IntBuffer view = buffer.duplicate();
+            view.position(srcIndex);
+            view.get(dst, dstOffset, length);
+        }
+
         @Override
         public int grade() {
             return GRADE;
@@ -847,6 +1379,20 @@ public class PArray<T> {
             return buffer.get(index);
         }
 
+        @Override
+        public void copyFrom(long[] src, int srcOffset, int dstIndex, int length) {
+            LongBuffer view = buffer.duplicate();
+            view.position(dstIndex);
+            view.put(src, srcOffset, length);
+        }
+
+        @Override
+        public void copyTo(int srcIndex, long[] dst, int dstOffset, int length) {
+            LongBuffer view = buffer.duplicate();
+            view.position(srcIndex);
+            view.get(dst, dstOffset, length);
+        }
+
         @Override
         public int grade() {
             return GRADE;
@@ -964,6 +1510,8 @@ public class PArray<T> {
                     this.buffer = HeterogenousBufferAllocator.allocateBuffer(size, sizeofElement, javaType);
                 } else if (mode == StorageMode.JAVA_BYTE_BUFFER) {
                     this.buffer = ByteBuffer.allocateDirect(size * sizeofElement);
+                } else if (mode == StorageMode.MAPPED_FILE) {
+                    this.buffer = MappedPArrayFile.allocateTemporary((long) size * sizeofElement);
                 }
             }
         }
@@ -987,6 +1535,16 @@ public class PArray<T> {
             this.buffer = (ByteBuffer) data;
         }
 
+        /**
+         * View of the buffer from the element <code>index</code>, with its own position, for the
+         * bulk copies. The byte order of the buffer is kept.
+         */
+        protected ByteBuffer view(int index) {
+            ByteBuffer view = buffer.duplicate().order(buffer.order());
+            view.position(index * sizeofElement);
+            return view;
+        }
+
         @Override
         public void setSequence(int idx, boolean sequence) {
             this.sequence = sequence;
@@ -1052,6 +1610,26 @@ public class PArray<T> {
             return buffer.getFloat(index * sizeofElement);
         }
 
+        @Override
+        public float getFloat(int index) {
+            return buffer.getFloat(index * sizeofElement);
+        }
+
+        @Override
+        public void putFloat(int index, float value) {
+            buffer.putFloat(index * sizeofElement, value);
+        }
+
+        @Override
+        public void copyFrom(float[] src, int srcOffset, int dstIndex, int length) {
+            view(dstIndex).asFloatBuffer().put(src, srcOffset, length);
+        }
+
+        @Override
+        public void copyTo(int srcIndex, float[] dst, int dstOffset, int length) {
+            view(srcIndex).asFloatBuffer().get(dst, dstOffset, length);
+        }
+
         @Override
         public int grade() {
             return GRADE;
@@ -1104,6 +1682,24 @@ public class PArray<T> {
             }
         }
 
+        @Override
+        public double getDouble(int index) {
+            if (array != null) {
+                return array[index];
+            } else {
+                return buffer.getDouble(index * sizeofElement);
+            }
+        }
+
+        @Override
+        public void putDouble(int index, double value) {
+            if (array != null) {
+                array[index] = value;
+            } else {
+                buffer.putDouble(index * sizeofElement, value);
+            }
+        }
+
         /**
          * @see <a href=
          *      "http://stackoverflow.com/questions/12228152/java-convert-direct-bytebuffer-to-double">
@@ -1124,6 +1720,24 @@ public class PArray<T> {
             }
         }
 
+        @Override
+        public void copyFrom(double[] src, int srcOffset, int dstIndex, int length) {
+            if (array != null) {
+                System.arraycopy(src, srcOffset, array, dstIndex, length);
+            } else {
+                view(dstIndex).asDoubleBuffer().put(src, srcOffset, length);
+            }
+        }
+
+        @Override
+        public void copyTo(int srcIndex, double[] dst, int dstOffset, int length) {
+            if (array != null) {
+                System.arraycopy(array, srcIndex, dst, dstOffset, length);
+            } else {
+                view(srcIndex).asDoubleBuffer().get(dst, dstOffset, length);
+            }
+        }
+
         @Override
         @TruffleBoundary
         public int grade() {
@@ -1206,6 +1820,42 @@ public class PArray<T> {
             }
         }
 
+        @Override
+        public int getInt(int index) {
+            if (array != null) {
+                return array[index];
+            } else {
+                return buffer.getInt(index * sizeofElement);
+            }
+        }
+
+        @Override
+        public void putInt(int index, int value) {
+            if (array != null) {
+                array[index] = value;
+            } else {
+                buffer.putInt(index * sizeofElement, value);
+            }
+        }
+
+        @Override
+        public void copyFrom(int[] src, int srcOffset, int dstIndex, int length) {
+            if (array != null) {
+                System.arraycopy(src, srcOffset, array, dstIndex, length);
+            } else {
+                view(dstIndex).asIntBuffer().put(src, srcOffset, length);
+            }
+        }
+
+        @Override
+        public void copyTo(int srcIndex, int[] dst, int dstOffset, int length) {
+            if (array != null) {
+                System.arraycopy(array, srcIndex, dst, dstOffset, length);
+            } else {
+                view(srcIndex).asIntBuffer().get(dst, dstOffset, length);
+            }
+        }
+
         @Override
         public int grade() {
             return GRADE;
@@ -1263,6 +1913,16 @@ public class PArray<T> {
             return buffer.getLong(index * sizeofElement);
         }
 
+        @Override
+        public void copyFrom(long[] src, int srcOffset, int dstIndex, int length) {
+            view(dstIndex).asLongBuffer().put(src, srcOffset, length);
+        }
+
+        @Override
+        public void copyTo(int srcIndex, long[] dst, int dstOffset, int length) {
+            view(srcIndex).asLongBuffer().get(dst, dstOffset, length);
+        }
+
         @Override
         public int grade() {
             return GRADE;
@@ -1311,33 +1971,30 @@ public class PArray<T> {
 
         private final int GRADE = 1;
 
+        // One byte per element, as the OpenCL char
         public CharByteBufferArray(int size, StorageMode mode, boolean init) {
-            super(size, JavaDataTypeSizes.BYTE, mode, init);
+            super(size, JavaDataTypeSizes.CHAR, mode, init);
         }
 
         /**
-         * @see <a href=
-         *      "http://stackoverflow.com/questions/12228152/java-convert-direct-bytebuffer-to-double">
-         *      http://stackoverflow.com/questions/12228152/java-convert-direct-bytebuffer-to-double
-         *      </a>
-         *
          * @return char[]
          */
         public char[] array() {
-            CharBuffer b = buffer.asCharBuffer();
-            char output[] = new char[b.remaining()];
-            b.get(output);
+            char output[] = new char[buffer.capacity() / sizeofElement];
+            for (int i = 0; i < output.length; i++) {
+                output[i] = get(i);
+            }
             return output;
         }
 
         @Override
         public void put(int index, Character data) {
-            buffer.putChar(index * sizeofElement, data);
+            buffer.put(index * sizeofElement, (byte) data.charValue());
         }
 
         @Override
         public Character get(int index) {
-            return buffer.getChar(index * sizeofElement);
+            return (char) (buffer.get(index * sizeofElement) & 0xFF);
         }
 
         @Override
@@ -1450,6 +2107,24 @@ public class PArray<T> {
             array1 = new PArray<>(size, types[1], mode, init);
         }
 
+        @TruffleBoundary
+        public Tuple2Array(PArray<T0> array0, PArray<T1> array1) {
+            this.array0 = array0;
+            this.array1 = array1;
+        }
+
+        @Override
+        public PArray<?> getField(int idx) {
+            switch (idx) {
+                case 0:
+                    return array0;
+                case 1:
+                    return array1;
+                default:
+                    return null;
+            }
+        }
+
         @Override
         @TruffleBoundary
         public void put(int index, Tuple2<T0, T1> t) {
@@ -1662,6 +2337,26 @@ public class PArray<T> {
             array2 = new PArray<>(size, types[2], mode, init);
         }
 
+        public Tuple3Array(PArray<T0> array0, PArray<T1> array1, PArray<T2> array2) {
+            this.array0 = array0;
+            this.array1 = array1;
+            this.array2 = array2;
+        }
+
+        @Override
+        public PArray<?> getField(int idx) {
+            switch (idx) {
+                case 0:
+                    return array0;
+                case 1:
+                    return array1;
+                case 2:
+                    return array2;
+                default:
+                    return null;
+            }
+        }
+
         @Override
         public void put(int index, Tuple3<T0, T1, T2> t) {
             array0.put(index, t._1);
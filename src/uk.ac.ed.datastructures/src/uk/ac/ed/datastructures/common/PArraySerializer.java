@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+package uk.ac.ed.datastructures.common;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+import uk.ac.ed.datastructures.common.PArray.StorageMode;
+
+/**
+ * Binary file format for {@link PArray}. The file stores the type of the elements and the buffer of
+ * each field of the structure of arrays (the fields of nested tuples are flattened), so an array
+ * is loaded with one bulk read per field, or memory-mapped, instead of being parsed element by
+ * element.
+ *
+ * <pre>
+ * int    magic ("PARR")
+ * short  version
+ * byte   byte order of the data (0 little endian, 1 big endian)
+ * byte   reserved
+ * long   number of elements
+ * int    number of columns
+ * int    length of the type descriptor
+ * byte[] type descriptor in UTF-8, e.g. "Tuple2&lt;Float,Integer&gt;"
+ * byte[] columns, each one aligned to 8 bytes
+ * </pre>
+ *
+ * The header is big endian. The columns are written in the native byte order, and they are
+ * converted when they are loaded in a buffer with a different order.
+ */
+public final class PArraySerializer {
+
+    private static final int MAGIC = 0x50415252;
+    private static final short VERSION = 1;
+    private static final int ALIGNMENT = 8;
+
+    private static final Class<?>[] SCALAR_TYPES = new Class<?>[]{Float.class, Double.class, Integer.class, Long.class, Short.class, Byte.class, Character.class};
+
+    private PArraySerializer() {
+    }
+
+    /**
+     * It writes the array in the file <code>path</code>, replacing its content.
+     */
+    public static void write(PArray<?> array, Path path) throws IOException {
+        ArrayList<PArray<?>> columns = new ArrayList<>();
+        collectColumns(array, columns);
+        int size = array.size();
+        ByteOrder order = ByteOrder.nativeOrder();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = encodeHeader(array.getRuntimeObjectTypeInfo(), size, columns.size(), order);
+            writeFully(channel, header, 0);
+            long position = header.capacity();
+            for (PArray<?> column : columns) {
+                ByteBuffer data = columnData(column, order);
+                writeFully(channel, data, position);
+                position = align(position + data.capacity());
+            }
+            // the last column is padded too
+            if (channel.size() < position) {
+                writeFully(channel, ByteBuffer.allocate((int) (position - channel.size())), channel.size());
+            }
+        }
+    }
+
+    /**
+     * It loads the file in a new {@link PArray} with the storage {@link StorageMode#DEFAULT}, with
+     * one bulk read per column.
+     */
+    public static <T> PArray<T> read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Header header = readHeader(channel);
+            PArray<T> array = new PArray<>(header.size, header.type, StorageMode.DEFAULT, true);
+            ArrayList<PArray<?>> columns = new ArrayList<>();
+            collectColumns(array, columns);
+            checkColumns(header, columns, path);
+
+            long position = header.dataOffset;
+            for (PArray<?> column : columns) {
+                int elementSize = column.getRuntimeObjectTypeInfo().getOCLSize();
+                ByteBuffer target = (ByteBuffer) column.getArrayReference(0);
+                ByteBuffer data = (target.order() == header.order || elementSize == 1) ? target.duplicate() : ByteBuffer.allocateDirect(target.capacity());
+                data.clear();
+                readFully(channel, data, position);
+                if (data != target && data.capacity() > 0) {
+                    data.flip();
+                    convert(data.order(header.order), target.duplicate().order(target.order()), column.getClassObject());
+                }
+                position = align(position + (long) header.size * elementSize);
+            }
+            return array;
+        }
+    }
+
+    /**
+     * It maps the file as a {@link PArray} with the storage {@link StorageMode#MAPPED_FILE}. The
+     * data is not read: the pages are loaded by the operating system when they are accessed.
+     * Writes in a writable mapping go to the file.
+     */
+    public static <T> PArray<T> map(Path path, boolean readOnly) throws IOException {
+        try (FileChannel channel = readOnly ? FileChannel.open(path, StandardOpenOption.READ) : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            Header header = readHeader(channel);
+            PArray<T> array = new PArray<>(header.size, header.type, StorageMode.MAPPED_FILE, false);
+            ArrayList<PArray<?>> columns = new ArrayList<>();
+            collectColumns(array, columns);
+            checkColumns(header, columns, path);
+
+            long position = header.dataOffset;
+            for (PArray<?> column : columns) {
+                long bytes = (long) header.size * column.getRuntimeObjectTypeInfo().getOCLSize();
+                if (bytes > Integer.MAX_VALUE) {
+                    throw new IOException("Columns larger than 2GB can not be mapped: " + path);
+                }
+                MappedByteBuffer buffer = channel.map(readOnly ? MapMode.READ_ONLY : MapMode.READ_WRITE, position, bytes);
+                buffer.order(header.order);
+                column.setBuffer(0, buffer);
+                position = align(position + bytes);
+            }
+            return array;
+        }
+    }
+
+    /**
+     * Arrays of scalars (the leaves of the tuples) that store the data, in order.
+     */
+    private static void collectColumns(PArray<?> array, ArrayList<PArray<?>> columns) {
+        if (!PArray.TUPLESET.contains(array.getClassObject())) {
+            columns.add(array);
+            return;
+        }
+        int grade = array.getRuntimeObjectTypeInfo().getNestedTypes().length;
+        for (int i = 0; i < grade; i++) {
+            PArray<?> field = array.getField(i);
+            if (field == null) {
+                throw new IllegalArgumentException("Only arrays stored as structure of arrays can be serialized (storage " + array.getStorageMode() + ")");
+            }
+            collectColumns(field, columns);
+        }
+    }
+
+    private static void checkColumns(Header header, ArrayList<PArray<?>> columns, Path path) throws IOException {
+        if (columns.size() != header.numColumns) {
+            throw new IOException("Corrupted PArray file, " + header.numColumns + " columns for the type " + typeDescriptor(header.type) + ": " + path);
+        }
+    }
+
+    /**
+     * Data of a column in the given byte order. Buffers in that order are written without a copy,
+     * otherwise the values are converted.
+     */
+    private static ByteBuffer columnData(PArray<?> column, ByteOrder order) {
+        int size = column.size();
+        int elementSize = column.getRuntimeObjectTypeInfo().getOCLSize();
+        Buffer reference = column.isPrimitiveArray() ? null : column.getArrayReference(0);
+        if (reference instanceof ByteBuffer) {
+            ByteBuffer source = ((ByteBuffer) reference).duplicate().order(((ByteBuffer) reference).order());
+            source.limit((column.offset() + size) * elementSize);
+            source.position(column.offset() * elementSize);
+            if (source.order() == order || elementSize == 1) {
+                return source.slice();
+            }
+            ByteBuffer data = ByteBuffer.allocateDirect(size * elementSize).order(order);
+            convert(source.slice().order(source.order()), data.duplicate().order(order), column.getClassObject());
+            return data;
+        }
+
+        // Other storages: element by element
+        ByteBuffer data = ByteBuffer.allocateDirect(size * elementSize).order(order);
+        Class<?> klass = column.getClassObject();
+        for (int i = 0; i < size; i++) {
+            Object value = column.get(i);
+            if (klass == Float.class) {
+                data.putFloat((Float) value);
+            } else if (klass == Double.class) {
+                data.putDouble((Double) value);
+            } else if (klass == Integer.class) {
+                data.putInt((Integer) value);
+            } else if (klass == Long.class) {
+                data.putLong((Long) value);
+            } else if (klass == Short.class) {
+                data.putShort((Short) value);
+            } else if (klass == Byte.class) {
+                data.put((Byte) value);
+            } else {
+                data.put((byte) ((Character) value).charValue());
+            }
+        }
+        data.flip();
+        return data;
+    }
+
+    /**
+     * Bulk copy of the values from a buffer in one byte order to a buffer in another.
+     */
+    private static void convert(ByteBuffer from, ByteBuffer to, Class<?> klass) {
+        if (klass == Float.class) {
+            to.asFloatBuffer().put(from.asFloatBuffer());
+        } else if (klass == Double.class) {
+            to.asDoubleBuffer().put(from.asDoubleBuffer());
+        } else if (klass == Integer.class) {
+            to.asIntBuffer().put(from.asIntBuffer());
+        } else if (klass == Long.class) {
+            to.asLongBuffer().put(from.asLongBuffer());
+        } else if (klass == Short.class) {
+            to.asShortBuffer().put(from.asShortBuffer());
+        } else {
+            to.put(from);
+        }
+    }
+
+    private static ByteBuffer encodeHeader(RuntimeObjectTypeInfo type, int size, int numColumns, ByteOrder order) {
+        byte[] descriptor = typeDescriptor(type).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate((int) align(24 + descriptor.length));
+        header.putInt(MAGIC);
+        header.putShort(VERSION);
+        header.put((byte) (order == ByteOrder.LITTLE_ENDIAN ? 0 : 1));
+        header.put((byte) 0);
+        header.putLong(size);
+        header.putInt(numColumns);
+        header.putInt(descriptor.length);
+        header.put(descriptor);
+        header.clear();
+        return header;
+    }
+
+    private static final class Header {
+        RuntimeObjectTypeInfo type;
+        ByteOrder order;
+        int size;
+        int numColumns;
+        long dataOffset;
+    }
+
+    private static Header readHeader(FileChannel channel) throws IOException {
+        ByteBuffer fixed = ByteBuffer.allocate(24);
+        readFully(channel, fixed, 0);
+        fixed.flip();
+        if (fixed.getInt() != MAGIC) {
+            throw new IOException("Not a PArray file");
+        }
+        short version = fixed.getShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported PArray file version: " + version);
+        }
+        Header header = new Header();
+        header.order = (fixed.get() == 0) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        fixed.get();
+        long size = fixed.getLong();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("PArray file with " + size + " elements, the maximum is " + Integer.MAX_VALUE);
+        }
+        header.size = (int) size;
+        header.numColumns = fixed.getInt();
+        ByteBuffer descriptor = ByteBuffer.allocate(fixed.getInt());
+        readFully(channel, descriptor, 24);
+        header.type = parseTypeDescriptor(new String(descriptor.array(), StandardCharsets.UTF_8));
+        header.dataOffset = align(24 + descriptor.capacity());
+        return header;
+    }
+
+    /**
+     * Type descriptor of the file, e.g. "Float" or "Tuple2&lt;Float,Tuple2&lt;Integer,Long&gt;&gt;".
+     */
+    static String typeDescriptor(RuntimeObjectTypeInfo type) {
+        String name = type.getClassObject().getSimpleName();
+        if (type.getNestedTypes() == null) {
+            return name;
+        }
+        StringBuilder descriptor = new StringBuilder(name).append('<');
+        RuntimeObjectTypeInfo[] nested = type.getNestedTypes();
+        for (int i = 0; i < nested.length; i++) {
+            if (i > 0) {
+                descriptor.append(',');
+            }
+            descriptor.append(typeDescriptor(nested[i]));
+        }
+        return descriptor.append('>').toString();
+    }
+
+    static RuntimeObjectTypeInfo parseTypeDescriptor(String descriptor) throws IOException {
+        int[] position = new int[]{0};
+        RuntimeObjectTypeInfo type = parseType(descriptor, position);
+        if (position[0] != descriptor.length()) {
+            throw new IOException("Invalid type descriptor: " + descriptor);
+        }
+        return type;
+    }
+
+    private static RuntimeObjectTypeInfo parseType(String descriptor, int[] position) throws IOException {
+        int start = position[0];
+        while (position[0] < descriptor.length() && Character.isLetterOrDigit(descriptor.charAt(position[0]))) {
+            position[0]++;
+        }
+        String name = descriptor.substring(start, position[0]);
+        if (position[0] < descriptor.length() && descriptor.charAt(position[0]) == '<') {
+            ArrayList<RuntimeObjectTypeInfo> nested = new ArrayList<>();
+            do {
+                position[0]++;
+                nested.add(parseType(descriptor, position));
+            } while (position[0] < descriptor.length() && descriptor.charAt(position[0]) == ',');
+            if (position[0] >= descriptor.length() || descriptor.charAt(position[0]) != '>') {
+                throw new IOException("Invalid type descriptor: " + descriptor);
+            }
+            position[0]++;
+            return new RuntimeObjectTypeInfo(classFor(name, PArray.TUPLESET.toArray(new Class<?>[0]), descriptor), nested.toArray(new RuntimeObjectTypeInfo[0]));
+        }
+        return new RuntimeObjectTypeInfo(classFor(name, SCALAR_TYPES, descriptor));
+    }
+
+    private static Class<?> classFor(String name, Class<?>[] classes, String descriptor) throws IOException {
+        for (Class<?> klass : classes) {
+            if (klass.getSimpleName().equals(name)) {
+                return klass;
+            }
+        }
+        throw new IOException("Type " + name + " not supported in the descriptor: " + descriptor);
+    }
+
+    private static long align(long position) {
+        return (position + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer data, long position) throws IOException {
+        long offset = position;
+        while (data.hasRemaining()) {
+            offset += channel.write(data, offset);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer data, long position) throws IOException {
+        long offset = position;
+        while (data.hasRemaining()) {
+            int bytes = channel.read(data, offset);
+            if (bytes < 0) {
+                throw new IOException("Unexpected end of the PArray file");
+            }
+            offset += bytes;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+package uk.ac.ed.datastructures.common;
+
+import java.nio.Buffer;
+
+import uk.ac.ed.datastructures.tuples.Tuple2;
+
+/**
+ * Read-only {@link PArray} of an affine sequence. It does not store the elements: element
+ * <code>i</code> of each field is computed when it is read as
+ *
+ * <pre>
+ * start + stride * m,   where m = i, i / aux (flag) or i % aux (compass)
+ * </pre>
+ *
+ * so the array takes constant memory whatever its size. The Java skeletons read the elements as in
+ * any other {@link PArray}. In the OpenCL path only the three descriptor elements (start, stride,
+ * aux) are used: the code generator emits the computation of the index in the kernel (see
+ * {@link #getSequenceDescriptor()}).
+ *
+ * The elements can be Integer, Long, Float or Double, or a {@link Tuple2} of them (e.g. the indices
+ * of a 2D space, see {@link #indexSpace(int, int)}).
+ *
+ * @param <T>
+ */
+public class SequencePArray<T> extends PArray<T> {
+
+    private static final byte INT = 0;
+    private static final byte LONG = 1;
+    private static final byte FLOAT = 2;
+    private static final byte DOUBLE = 3;
+
+    private final int size;
+    private final PArray<T> descriptor;
+
+    // Per field: type, start, stride, aux and mode of the index
+    private final byte[] kinds;
+    private final long[] startLong;
+    private final long[] strideLong;
+    private final double[] startDouble;
+    private final double[] strideDouble;
+    private final int[] aux;
+    private final boolean[] div;
+    private final boolean[] mod;
+
+    private SequencePArray<?>[] fields;
+
+    /**
+     * Sequence of <code>size</code> elements. For tuples, each argument contains the value of every
+     * field. The mode of a field is set with {@link #setFlag(int, boolean)} (i / aux) or
+     * {@link #setCompass(int, boolean)} (i % aux).
+     *
+     * @param size number of elements
+     * @param type of the elements
+     * @param start first element
+     * @param stride
+     * @param aux divisor or modulus of the index
+     */
+    public SequencePArray(int size, RuntimeObjectTypeInfo type, T start, T stride, T aux) {
+        this.size = size;
+        this.type = type;
+        this.mode = StorageMode.DEFAULT;
+
+        RuntimeObjectTypeInfo[] types = type.getNestedTypesOrSelf();
+        if (type.isTupleType() && type.getClassObject() != Tuple2.class) {
+            throw new IllegalArgumentException("Sequences of " + type.getClassObject().getSimpleName() + " are not supported");
+        }
+        int grade = types.length;
+        this.kinds = new byte[grade];
+        this.startLong = new long[grade];
+        this.strideLong = new long[grade];
+        this.startDouble = new double[grade];
+        this.strideDouble = new double[grade];
+        this.aux = new int[grade];
+        this.div = new boolean[grade];
+        this.mod = new boolean[grade];
+        for (int i = 0; i < grade; i++) {
+            kinds[i] = kindOf(types[i].getClassObject());
+            startLong[i] = fieldOf(start, i).longValue();
+            strideLong[i] = fieldOf(stride, i).longValue();
+            startDouble[i] = fieldOf(start, i).doubleValue();
+            strideDouble[i] = fieldOf(stride, i).doubleValue();
+            this.aux[i] = fieldOf(aux, i).intValue();
+        }
+
+        // The three elements read by the OpenCL code generator
+        descriptor = new PArray<>(3, type, StorageMode.OPENCL_BYTE_BUFFER, true);
+        descriptor.enableSequence(start, stride, aux);
+        for (int i = 0; i < grade; i++) {
+            descriptor.setSequence(i, true);
+        }
+        descriptor.setTotalSize(size);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <F> SequencePArray<F> fieldSequence(int field, RuntimeObjectTypeInfo fieldType) {
+        F fieldStart = (F) fieldOf(descriptor.get(0), field);
+        F fieldStride = (F) fieldOf(descriptor.get(1), field);
+        F fieldAux = (F) fieldOf(descriptor.get(2), field);
+        SequencePArray<F> sequence = new SequencePArray<>(size, fieldType, fieldStart, fieldStride, fieldAux);
+        sequence.setFlag(div[field]);
+        sequence.setCompass(mod[field]);
+        return sequence;
+    }
+
+    /**
+     * Integers start, start + stride, start + 2 * stride...
+     */
+    public static SequencePArray<Integer> range(int start, int stride, int size) {
+        return new SequencePArray<>(size, TypeFactory.Integer(), start, stride, 0);
+    }
+
+    /**
+     * Integers 0, 1, ..., size - 1.
+     */
+    public static SequencePArray<Integer> range(int size) {
+        return range(0, 1, size);
+    }
+
+    /**
+     * Indices &lt;i, j&gt; of a <code>rows</code> x <code>columns</code> space in row-major order:
+     * element k is &lt;k / columns, k % columns&gt;.
+     */
+    public static SequencePArray<Tuple2<Integer, Integer>> indexSpace(int rows, int columns) {
+        SequencePArray<Tuple2<Integer, Integer>> space = new SequencePArray<>(rows * columns, TypeFactory.Tuple("Tuple2<Integer, Integer>"), new Tuple2<>(0, 0), new Tuple2<>(1, 1),
+                        new Tuple2<>(columns, columns));
+        space.setFlag(0, true);
+        space.setCompass(1, true);
+        return space;
+    }
+
+    private static byte kindOf(Class<?> klass) {
+        if (klass == Integer.class) {
+            return INT;
+        } else if (klass == Long.class) {
+            return LONG;
+        } else if (klass == Float.class) {
+            return FLOAT;
+        } else if (klass == Double.class) {
+            return DOUBLE;
+        }
+        throw new IllegalArgumentException("Sequences of " + klass.getSimpleName() + " are not supported");
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Number fieldOf(Object element, int field) {
+        if (element instanceof Tuple2) {
+            return (Number) ((field == 0) ? ((Tuple2) element)._1 : ((Tuple2) element)._2);
+        }
+        return (Number) element;
+    }
+
+    private long index(int field, int i) {
+        if (div[field]) {
+            return i / aux[field];
+        } else if (mod[field]) {
+            return i % aux[field];
+        }
+        return i;
+    }
+
+    private Number value(int field, int i) {
+        long m = index(field, i);
+        switch (kinds[field]) {
+            case INT:
+                return (int) startLong[field] + (int) strideLong[field] * (int) m;
+            case LONG:
+                return startLong[field] + strideLong[field] * m;
+            case FLOAT:
+                return (float) startDouble[field] + (float) strideDouble[field] * m;
+            default:
+                return startDouble[field] + strideDouble[field] * m;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T get(int index) {
+        if (kinds.length == 2) {
+            return (T) new Tuple2<>(value(0, index), value(1, index));
+        }
+        return (T) value(0, index);
+    }
+
+    @Override
+    public int getInt(int index) {
+        return (int) startLong[0] + (int) strideLong[0] * (int) index(0, index);
+    }
+
+    @Override
+    public float getFloat(int index) {
+        return (float) startDouble[0] + (float) strideDouble[0] * index(0, index);
+    }
+
+    @Override
+    public double getDouble(int index) {
+        return startDouble[0] + strideDouble[0] * index(0, index);
+    }
+
+    @Override
+    public void put(int index, T e) {
+        throw new UnsupportedOperationException("A SequencePArray is read-only");
+    }
+
+    @Override
+    public void putInt(int index, int value) {
+        throw new UnsupportedOperationException("A SequencePArray is read-only");
+    }
+
+    @Override
+    public void putFloat(int index, float value) {
+        throw new UnsupportedOperationException("A SequencePArray is read-only");
+    }
+
+    @Override
+    public void putDouble(int index, double value) {
+        throw new UnsupportedOperationException("A SequencePArray is read-only");
+    }
+
+    /**
+     * For sequences of tuples, the sequence of the field <code>idxField</code>.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public <F> PArray<F> getField(int idxField) {
+        if (kinds.length == 1) {
+            return null;
+        }
+        if (fields == null) {
+            RuntimeObjectTypeInfo[] types = type.getNestedTypes();
+            fields = new SequencePArray<?>[types.length];
+            for (int i = 0; i < types.length; i++) {
+                fields[i] = fieldSequence(i, types[i]);
+            }
+        }
+        return (PArray<F>) fields[idxField];
+    }
+
+    /**
+     * The three elements (start, stride, aux) that describe the sequence in the OpenCL path.
+     */
+    @Override
+    public PArray<T> getSequenceDescriptor() {
+        return descriptor;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int size(int index) {
+        return size;
+    }
+
+    @Override
+    public int grade() {
+        return kinds.length;
+    }
+
+    @Override
+    public int getTotalSizeWhenSequence() {
+        return size;
+    }
+
+    @Override
+    public boolean isSequence(int idx) {
+        return true;
+    }
+
+    @Override
+    public void setSequence(int idx, boolean sequence) {
+        if (!sequence) {
+            throw new UnsupportedOperationException("A SequencePArray is always a sequence");
+        }
+    }
+
+    @Override
+    public void setFlag(int idx, boolean flag) {
+        div[idx] = flag;
+        descriptor.setFlag(idx, flag);
+        fields = null;
+    }
+
+    @Override
+    public boolean isFlag(int idx) {
+        return div[idx];
+    }
+
+    @Override
+    public void setCompass(int idx, boolean compass) {
+        mod[idx] = compass;
+        descriptor.setCompass(idx, compass);
+        fields = null;
+    }
+
+    @Override
+    public boolean isCompass(int idx) {
+        return mod[idx];
+    }
+
+    @Override
+    public boolean isPrimitiveArray() {
+        return false;
+    }
+
+    @Override
+    public boolean isPrimitiveArray(int idx) {
+        return false;
+    }
+
+    @Override
+    public Buffer getArrayReference() {
+        return descriptor.getArrayReference();
+    }
+
+    @Override
+    public Buffer getArrayReference(int idxArray) {
+        return descriptor.getArrayReference(idxArray);
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+package uk.ac.ed.datastructures.common;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+
+/**
+ * Cursor over the elements of a {@link PArray}. For arrays of tuples it reads and writes the
+ * fields of the current element directly in the array of each field (structure of arrays), so
+ * iterating the array does not allocate a tuple and, with the primitive accessors, does not box the
+ * fields. For other arrays the cursor has one field, the array itself.
+ *
+ * <pre>
+ * TupleCursor&lt;Tuple2&lt;Float, Float&gt;&gt; c = array.cursor();
+ * while (c.next()) {
+ *     c.putFloat(1, c.getFloat(0) * 2.0f);
+ * }
+ * </pre>
+ *
+ * A cursor is a mutable view, it must not be shared among threads: each thread creates its own
+ * with {@link PArray#cursor()}.
+ *
+ * @param <T> type of the elements of the array
+ */
+public class TupleCursor<T> {
+
+    private static final byte FLOAT = 0;
+    private static final byte DOUBLE = 1;
+    private static final byte INT = 2;
+    private static final byte OBJECT = 3;
+
+    private final PArray<T> array;
+    private final PArray<Object>[] fields;
+    private final byte[] kinds;
+    private final int size;
+    private int index = -1;
+
+    @SuppressWarnings("unchecked")
+    @TruffleBoundary
+    TupleCursor(PArray<T> array) {
+        this.array = array;
+        this.size = array.size();
+        PArray<Object> field0 = PArray.TUPLESET.contains(array.getClassObject()) ? array.getField(0) : null;
+        if (field0 == null) {
+            // Scalars, or tuples stored as Java objects
+            fields = new PArray[]{array};
+        } else {
+            fields = new PArray[array.grade()];
+            fields[0] = field0;
+            for (int i = 1; i < fields.length; i++) {
+                fields[i] = array.getField(i);
+            }
+        }
+        kinds = new byte[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            kinds[i] = kindOf(fields[i].getClassObject());
+        }
+    }
+
+    private static byte kindOf(Class<?> klass) {
+        if (klass == Float.class) {
+            return FLOAT;
+        } else if (klass == Double.class) {
+            return DOUBLE;
+        } else if (klass == Integer.class) {
+            return INT;
+        }
+        return OBJECT;
+    }
+
+    /**
+     * True if the cursor accesses each field separately. It is false for tuples stored as Java
+     * objects ({@link PArray.StorageMode#JAVA_OBJECT}), where the only field is the tuple.
+     */
+    public boolean isFieldAccess() {
+        return fields[0] != array;
+    }
+
+    /**
+     * Number of fields of each element.
+     */
+    public int grade() {
+        return fields.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Position of the cursor. It is -1 before the first call to {@link #next()}.
+     */
+    public int index() {
+        return index;
+    }
+
+    /**
+     * It moves the cursor to the next element.
+     *
+     * @return false if there are no more elements
+     */
+    public boolean next() {
+        return ++index < size;
+    }
+
+    /**
+     * It moves the cursor to the element <code>idx</code>.
+     *
+     * @param idx
+     * @return this cursor
+     */
+    public TupleCursor<T> moveTo(int idx) {
+        this.index = idx;
+        return this;
+    }
+
+    /**
+     * It moves the cursor before the first element.
+     */
+    public void reset() {
+        index = -1;
+    }
+
+    public float getFloat(int field) {
+        return fields[field].getFloat(index);
+    }
+
+    public void putFloat(int field, float value) {
+        fields[field].putFloat(index, value);
+    }
+
+    public double getDouble(int field) {
+        return fields[field].getDouble(index);
+    }
+
+    public void putDouble(int field, double value) {
+        fields[field].putDouble(index, value);
+    }
+
+    public int getInt(int field) {
+        return fields[field].getInt(index);
+    }
+
+    public void putInt(int field, int value) {
+        fields[field].putInt(index, value);
+    }
+
+    /**
+     * Boxed value of a field of the current element.
+     */
+    @SuppressWarnings("unchecked")
+    public <F> F get(int field) {
+        return (F) fields[field].get(index);
+    }
+
+    public void put(int field, Object value) {
+        fields[field].put(index, value);
+    }
+
+    /**
+     * The current element. For arrays of tuples it allocates a new tuple.
+     */
+    public T get() {
+        return array.get(index);
+    }
+
+    public void put(T element) {
+        array.put(index, element);
+    }
+
+    /**
+     * It copies the current element into the current element of <code>target</code>, field by
+     * field. Float, Double and Integer fields are copied without boxing.
+     *
+     * @param target cursor of an array with the same element type
+     */
+    public void copyTo(TupleCursor<T> target) {
+        if (fields.length != target.fields.length || isFieldAccess() != target.isFieldAccess()) {
+            target.put(get());
+            return;
+        }
+        int to = target.index;
+        for (int i = 0; i < fields.length; i++) {
+            PArray<Object> dst = target.fields[i];
+            switch (kinds[i]) {
+                case FLOAT:
+                    dst.putFloat(to, fields[i].getFloat(index));
+                    break;
+                case DOUBLE:
+                    dst.putDouble(to, fields[i].getDouble(index));
+                    break;
+                case INT:
+                    dst.putInt(to, fields[i].getInt(index));
+                    break;
+                default:
+                    dst.put(to, fields[i].get(index));
+            }
+        }
+    }
+}
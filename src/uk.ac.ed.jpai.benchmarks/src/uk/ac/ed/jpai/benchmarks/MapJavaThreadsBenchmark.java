@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package uk.ac.ed.jpai.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.ed.datastructures.common.ArraySlice;
+import uk.ac.ed.datastructures.common.PArray;
+import uk.ac.ed.datastructures.common.TypeFactory;
+import uk.ac.ed.jpai.ArrayFunction;
+import uk.ac.ed.jpai.MapJavaThreads;
+
+/**
+ * Per-call latency of the {@link MapJavaThreads} skeleton (shared fork/join pool) compared with
+ * the previous strategy of spawning one {@link Thread} per slice on every call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class MapJavaThreadsBenchmark {
+
+    @Param({"1000", "100000", "10000000"}) public int size;
+
+    private int numberOfThreads;
+    private PArray<Float> input;
+    private PArray<Float> output;
+    private ArrayFunction<Float, Float> map;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        numberOfThreads = Runtime.getRuntime().availableProcessors();
+        input = new PArray<>(size, TypeFactory.Float());
+        output = new PArray<>(size, TypeFactory.Float());
+        for (int i = 0; i < size; i++) {
+            input.put(i, (float) i);
+        }
+        map = new MapJavaThreads<>(numberOfThreads, x -> x * 2.0f + 1.0f);
+        map.setOutput(output);
+        map.apply(input);
+    }
+
+    @Benchmark
+    public PArray<Float> mapSharedPool() {
+        return map.apply(input);
+    }
+
+    @Benchmark
+    public PArray<Float> mapNewThreads() throws InterruptedException {
+        ArraySlice<Float>[] inputSlices = input.splitInFixedNumberOfChunks(numberOfThreads);
+        ArraySlice<Float>[] outputSlices = output.splitInFixedNumberOfChunks(numberOfThreads);
+        Thread[] threads = new Thread[numberOfThreads];
+        for (int t = 0; t < numberOfThreads; t++) {
+            int j = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < inputSlices[j].size(); ++i) {
+                    outputSlices[j].put(i, inputSlices[j].get(i) * 2.0f + 1.0f);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return output;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package uk.ac.ed.jpai.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.ed.datastructures.common.PArray;
+import uk.ac.ed.datastructures.common.TypeFactory;
+import uk.ac.ed.jpai.ArrayFunction;
+import uk.ac.ed.jpai.MapArrayFunction;
+import uk.ac.ed.jpai.Pipeline;
+
+/**
+ * End-to-end throughput of a six-stage pipeline built with {@link Pipeline#builder} compared with
+ * the same stages expressed as nested pipelines of the fixed factories (two stages followed by a
+ * four-stage pipeline), which adds one more stage thread and queue.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PipelineBenchmark {
+
+    @Param({"100000", "1000000"}) public int size;
+
+    @Param({"4096", "65536"}) public int chunkSize;
+
+    private PArray<Float> input;
+    private Pipeline<Float, Float> flat;
+    private Pipeline<Float, Float> inner;
+    private Pipeline<Float, Float> nested;
+
+    private static ArrayFunction<Float, Float> stage(float factor) {
+        return new MapArrayFunction<>(x -> x * factor + 1.0f);
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        input = new PArray<>(size, TypeFactory.Float());
+        for (int i = 0; i < size; i++) {
+            input.put(i, (float) i);
+        }
+
+        flat = Pipeline.builder(chunkSize, stage(1.1f)).then(stage(1.2f)).then(stage(1.3f)).then(stage(1.4f)).then(stage(1.5f)).then(stage(1.6f)).build();
+
+        inner = Pipeline.create(chunkSize, stage(1.3f), stage(1.4f), stage(1.5f), stage(1.6f));
+        nested = Pipeline.create(chunkSize, stage(1.1f), stage(1.2f), inner);
+
+        flat.apply(input);
+        nested.apply(input);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        flat.shutdown();
+        nested.shutdown();
+        inner.shutdown();
+    }
+
+    @Benchmark
+    public PArray<Float> flatPipeline() {
+        return flat.apply(input);
+    }
+
+    @Benchmark
+    public PArray<Float> nestedPipeline() {
+        return nested.apply(input);
+    }
+}
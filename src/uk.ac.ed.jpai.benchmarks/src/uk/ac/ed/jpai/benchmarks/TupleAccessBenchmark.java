@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+package uk.ac.ed.jpai.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.ed.datastructures.common.PArray;
+import uk.ac.ed.datastructures.common.TupleCursor;
+import uk.ac.ed.datastructures.common.TypeFactory;
+import uk.ac.ed.datastructures.tuples.Tuple3;
+
+/**
+ * One pass over a {@link PArray} of <code>Tuple3&lt;Float, Float, Float&gt;</code>: reading and
+ * writing elements with get/put (a tuple and three boxed floats per read) compared with a
+ * {@link TupleCursor}. Run it with <code>-prof gc</code> to see the allocation rate of each
+ * version.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TupleAccessBenchmark {
+
+    @Param({"1000", "100000", "10000000"}) public int size;
+
+    private PArray<Tuple3<Float, Float, Float>> input;
+    private PArray<Tuple3<Float, Float, Float>> output;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        input = new PArray<>(size, TypeFactory.Tuple("Tuple3<Float, Float, Float>"));
+        output = new PArray<>(size, TypeFactory.Tuple("Tuple3<Float, Float, Float>"));
+        for (int i = 0; i < size; i++) {
+            input.put(i, new Tuple3<>((float) i, (float) (i % 10), 1.0f));
+        }
+    }
+
+    @Benchmark
+    public float sumGet() {
+        float sum = 0.0f;
+        for (int i = 0; i < size; i++) {
+            Tuple3<Float, Float, Float> t = input.get(i);
+            sum += t._1() * t._2() + t._3();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float sumCursor() {
+        float sum = 0.0f;
+        TupleCursor<Tuple3<Float, Float, Float>> c = input.cursor();
+        while (c.next()) {
+            sum += c.getFloat(0) * c.getFloat(1) + c.getFloat(2);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public PArray<Tuple3<Float, Float, Float>> copyGetPut() {
+        for (int i = 0; i < size; i++) {
+            output.put(i, input.get(i));
+        }
+        return output;
+    }
+
+    @Benchmark
+    public PArray<Tuple3<Float, Float, Float>> copyCursor() {
+        TupleCursor<Tuple3<Float, Float, Float>> from = input.cursor();
+        TupleCursor<Tuple3<Float, Float, Float>> to = output.cursor();
+        while (from.next()) {
+            from.copyTo(to.moveTo(from.index()));
+        }
+        return output;
+    }
+}
@@ -23,7 +23,7 @@ package uk.ac.ed.jpai.graphs;
 import java.util.Arrays;
 
 import uk.ac.ed.datastructures.common.PArray;
-import uk.ac.ed.datastructures.common.TypeFactory;
+import uk.ac.ed.datastructures.common.SequencePArray;
 import uk.ac.ed.datastructures.tuples.Tuple2;
 import uk.ac.ed.datastructures.tuples.Tuple5;
 import uk.ac.ed.jpai.MapAccelerator;
@@ -83,12 +83,8 @@ public class BFS {
             }
         }
 
-        PArray<Tuple2<Integer, Integer>> input = new PArray<>(numNodes * numNodes, TypeFactory.Tuple("Tuple2<Integer, Integer>"));
-        for (int i = 0; i < numNodes; i++) {
-            for (int j = 0; j < numNodes; j++) {
-                input.put(i * numNodes + j, new Tuple2<>(i, j));
-            }
-        }
+        // Pairs <i, j> of nodes, computed on the fly instead of stored
+        PArray<Tuple2<Integer, Integer>> input = SequencePArray.indexSpace(numNodes, numNodes);
 
         boolean done = false;
         int current = -1;
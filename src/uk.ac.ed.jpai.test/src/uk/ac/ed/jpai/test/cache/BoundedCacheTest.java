@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+package uk.ac.ed.jpai.test.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import uk.ac.ed.accelerator.cache.BoundedCache;
+
+public class BoundedCacheTest {
+
+    @Test
+    public void testLRUOrder() {
+        BoundedCache<Integer, String> cache = new BoundedCache<>("test", 3);
+        cache.put(1, "a");
+        cache.put(2, "b");
+        cache.put(3, "c");
+
+        // 1 is used, so 2 is the least recently used entry
+        assertEquals("a", cache.get(1));
+        cache.put(4, "d");
+        assertEquals(3, cache.size());
+        assertFalse(cache.containsKey(2));
+        assertTrue(cache.containsKey(1));
+
+        // containsKey does not change the order
+        assertTrue(cache.containsKey(3));
+        cache.put(5, "e");
+        assertFalse(cache.containsKey(3));
+        assertTrue(cache.containsKey(1));
+        assertTrue(cache.containsKey(4));
+        assertTrue(cache.containsKey(5));
+
+        assertEquals(2, cache.getEvictions());
+        assertEquals(1, cache.getHits());
+        assertNull(cache.get(2));
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testWeightBound() {
+        BoundedCache<Integer, long[]> cache = new BoundedCache<>("test", 0, 100, v -> v.length, null);
+        cache.put(1, new long[40]);
+        cache.put(2, new long[40]);
+        assertEquals(80, cache.getWeight());
+
+        cache.put(3, new long[40]);
+        assertEquals(2, cache.size());
+        assertEquals(80, cache.getWeight());
+        assertFalse(cache.containsKey(1));
+
+        // the weight of a value inserted again is computed again
+        cache.put(2, new long[10]);
+        assertEquals(50, cache.getWeight());
+
+        // the entry inserted last is kept even if it exceeds the limit on its own
+        cache.put(4, new long[200]);
+        assertEquals(1, cache.size());
+        assertEquals(200, cache.getWeight());
+        assertTrue(cache.containsKey(4));
+
+        cache.remove(4);
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void testEvictionListener() {
+        ArrayList<String> removed = new ArrayList<>();
+        BoundedCache<Integer, String> cache = new BoundedCache<>("test", 2, 0, null, (k, v) -> removed.add(k + "=" + v));
+        cache.put(1, "a");
+        cache.put(2, "b");
+        cache.put(3, "c");
+        assertEquals("[1=a]", removed.toString());
+
+        // the same value inserted again is not removed
+        String b = cache.peek(2);
+        cache.put(2, b);
+        assertEquals("[1=a]", removed.toString());
+
+        // replacement by a different value
+        cache.put(2, "B");
+        assertEquals("[1=a, 2=b]", removed.toString());
+
+        assertEquals("c", cache.remove(3));
+        assertNull(cache.remove(3));
+        assertEquals("[1=a, 2=b, 3=c]", removed.toString());
+
+        cache.put(4, "d");
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(5, removed.size());
+        assertTrue(removed.contains("2=B"));
+        assertTrue(removed.contains("4=d"));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+package uk.ac.ed.jpai.test.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.ed.accelerator.cache.OCLBinaryCache;
+
+public class OCLBinaryCacheTest {
+
+    private static final String SOURCE = "__kernel void k(__global int* a) { a[get_global_id(0)] = 1; }";
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("marawacc-binaries");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testComputeKey() {
+        String key = OCLBinaryCache.computeKey(SOURCE, "-cl-fast-relaxed-math", "device", "1.0");
+        assertEquals(key, OCLBinaryCache.computeKey(SOURCE, "-cl-fast-relaxed-math", "device", "1.0"));
+        // SHA-256 in hexadecimal, usable as a file name
+        assertTrue(key.matches("[0-9a-f]{64}"));
+
+        assertNotEquals(key, OCLBinaryCache.computeKey(SOURCE + " ", "-cl-fast-relaxed-math", "device", "1.0"));
+        assertNotEquals(key, OCLBinaryCache.computeKey(SOURCE, null, "device", "1.0"));
+        assertNotEquals(key, OCLBinaryCache.computeKey(SOURCE, "-cl-fast-relaxed-math", "other device", "1.0"));
+        assertNotEquals(key, OCLBinaryCache.computeKey(SOURCE, "-cl-fast-relaxed-math", "device", "1.1"));
+
+        // the fields are not ambiguous when they are concatenated
+        assertNotEquals(OCLBinaryCache.computeKey("ab", "c", "d", "e"), OCLBinaryCache.computeKey("a", "bc", "d", "e"));
+        assertEquals(OCLBinaryCache.computeKey(SOURCE, null, "device", "1.0"), OCLBinaryCache.computeKey(SOURCE, "", "device", "1.0"));
+    }
+
+    @Test
+    public void testStoreAndLoad() {
+        OCLBinaryCache cache = new OCLBinaryCache(directory.resolve("sub"));
+        String key = OCLBinaryCache.computeKey(SOURCE, null, "device", "1.0");
+        byte[] binary = new byte[]{1, 2, 3, 4, 5};
+
+        assertNull(cache.load(key));
+        cache.store(key, binary);
+        assertArrayEquals(binary, cache.load(key));
+
+        // a second cache over the same directory (e.g. another JVM run) reads the binary
+        assertArrayEquals(binary, new OCLBinaryCache(directory.resolve("sub")).load(key));
+
+        byte[] newBinary = new byte[]{6, 7};
+        cache.store(key, newBinary);
+        assertArrayEquals(newBinary, cache.load(key));
+
+        cache.remove(key);
+        assertNull(cache.load(key));
+    }
+
+    @Test
+    public void testMissingOrCorruptEntry() throws IOException {
+        OCLBinaryCache cache = new OCLBinaryCache(directory);
+        String key = OCLBinaryCache.computeKey(SOURCE, null, "device", "1.0");
+
+        // empty binaries are not stored
+        cache.store(key, new byte[0]);
+        assertNull(cache.load(key));
+        assertFalse(Files.exists(directory.resolve(key + ".bin")));
+
+        // a truncated file is a miss
+        Files.write(directory.resolve(key + ".bin"), new byte[0]);
+        assertNull(cache.load(key));
+
+        // an entry that is not a file is a miss
+        Files.delete(directory.resolve(key + ".bin"));
+        Files.createDirectory(directory.resolve(key + ".bin"));
+        assertNull(cache.load(key));
+
+        // the errors writing the cache are not thrown and no temporary file is left
+        cache.store(key, new byte[]{1});
+        assertNull(cache.load(key));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.count());
+        }
+
+        // removing a missing entry is not an error
+        cache.remove(OCLBinaryCache.computeKey("", null, null, null));
+    }
+}
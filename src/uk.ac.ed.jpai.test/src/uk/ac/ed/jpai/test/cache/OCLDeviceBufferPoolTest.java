@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+package uk.ac.ed.jpai.test.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.jocl.CL;
+import org.jocl.cl_mem;
+import org.junit.Test;
+
+import uk.ac.ed.accelerator.common.GraalAcceleratorOptions;
+import uk.ac.ed.accelerator.wocl.OCLDeviceBufferPool;
+
+public class OCLDeviceBufferPoolTest {
+
+    private static final long FLAGS = CL.CL_MEM_READ_WRITE;
+
+    /**
+     * Pool that counts the buffers instead of allocating them in a device.
+     */
+    private static class TestPool extends OCLDeviceBufferPool {
+
+        private final ArrayList<cl_mem> created = new ArrayList<>();
+        private final ArrayList<Long> createdSizes = new ArrayList<>();
+        private final ArrayList<cl_mem> released = new ArrayList<>();
+
+        TestPool(long globalMemorySize) {
+            this(globalMemorySize, globalMemorySize);
+        }
+
+        TestPool(long globalMemorySize, long maxAllocSize) {
+            super(null, globalMemorySize, maxAllocSize);
+        }
+
+        @Override
+        protected cl_mem createBuffer(long flags, long size, int[] status) {
+            cl_mem buffer = new cl_mem();
+            created.add(buffer);
+            createdSizes.add(size);
+            status[0] = CL.CL_SUCCESS;
+            return buffer;
+        }
+
+        @Override
+        protected void releaseBuffer(cl_mem buffer) {
+            released.add(buffer);
+        }
+    }
+
+    @Test
+    public void testSizeClass() {
+        assertEquals(256, OCLDeviceBufferPool.getSizeClass(0));
+        assertEquals(256, OCLDeviceBufferPool.getSizeClass(1));
+        assertEquals(256, OCLDeviceBufferPool.getSizeClass(256));
+        // four classes per power of two
+        assertEquals(320, OCLDeviceBufferPool.getSizeClass(257));
+        assertEquals(384, OCLDeviceBufferPool.getSizeClass(321));
+        assertEquals(448, OCLDeviceBufferPool.getSizeClass(400));
+        assertEquals(512, OCLDeviceBufferPool.getSizeClass(449));
+        assertEquals(512, OCLDeviceBufferPool.getSizeClass(512));
+        assertEquals(640, OCLDeviceBufferPool.getSizeClass(513));
+        assertEquals(1 << 20, OCLDeviceBufferPool.getSizeClass(1 << 20));
+        assertEquals(5L << 30, OCLDeviceBufferPool.getSizeClass((4L << 30) + 1));
+
+        for (long bytes = 1; bytes < 100000; bytes += 7) {
+            long sizeClass = OCLDeviceBufferPool.getSizeClass(bytes);
+            assertTrue(sizeClass >= bytes);
+            assertTrue(bytes <= 256 || sizeClass - bytes < sizeClass / 4);
+            assertEquals(sizeClass, OCLDeviceBufferPool.getSizeClass(sizeClass));
+        }
+    }
+
+    @Test
+    public void testReuse() {
+        TestPool pool = new TestPool(1 << 30);
+        int[] status = new int[1];
+
+        cl_mem a = pool.allocate(FLAGS, 1000, status);
+        assertEquals(CL.CL_SUCCESS, status[0]);
+        assertEquals(1024, pool.getOutstandingBytes());
+        pool.release(FLAGS, a);
+        assertEquals(0, pool.getOutstandingBytes());
+        assertEquals(1024, pool.getPooledBytes());
+
+        // same size class and flags: the idle buffer is reused
+        cl_mem b = pool.allocate(FLAGS, 900, status);
+        assertSame(a, b);
+        assertEquals(1, pool.getHits());
+        assertEquals(0, pool.getPooledBytes());
+
+        // another size class or other flags: a new buffer
+        cl_mem c = pool.allocate(FLAGS, 2000, status);
+        pool.release(FLAGS, c);
+        cl_mem d = pool.allocate(CL.CL_MEM_READ_ONLY, 2000, status);
+        assertNotSame(c, d);
+        assertEquals(3, pool.created.size());
+        assertEquals(3, pool.getMisses());
+        assertEquals(1024 + 2048, pool.getPeakOutstandingBytes());
+        assertTrue(pool.released.isEmpty());
+
+        // buffers that were not allocated by the pool are released
+        cl_mem external = new cl_mem();
+        pool.release(FLAGS, external);
+        assertEquals(1, pool.released.size());
+        assertSame(external, pool.released.get(0));
+    }
+
+    @Test
+    public void testTrim() {
+        TestPool pool = new TestPool(1 << 30);
+        int[] status = new int[1];
+        cl_mem a = pool.allocate(FLAGS, 1000, status);
+        cl_mem b = pool.allocate(FLAGS, 5000, status);
+        cl_mem c = pool.allocate(FLAGS, 5000, status);
+        pool.release(FLAGS, a);
+        pool.release(FLAGS, b);
+
+        pool.trim();
+        assertEquals(0, pool.getPooledBytes());
+        assertEquals(OCLDeviceBufferPool.getSizeClass(5000), pool.getOutstandingBytes());
+        assertEquals(2, pool.released.size());
+        assertTrue(pool.released.contains(a) && pool.released.contains(b));
+
+        // the buffers released by trim are not reused
+        assertNotSame(a, pool.allocate(FLAGS, 1000, status));
+
+        // the buffer in use is still returned to the pool
+        pool.release(FLAGS, c);
+        assertEquals(OCLDeviceBufferPool.getSizeClass(5000), pool.getPooledBytes());
+        assertEquals(2, pool.released.size());
+    }
+
+    @Test
+    public void testLimits() {
+        long globalMemory = 100 * 1024;
+        TestPool pool = new TestPool(globalMemory);
+        int[] status = new int[1];
+        long maxPooled = globalMemory / 100 * GraalAcceleratorOptions.bufferPoolMaxPercent;
+
+        // the pool keeps idle buffers up to its share of the global memory
+        ArrayList<cl_mem> buffers = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            buffers.add(pool.allocate(FLAGS, 4096, status));
+        }
+        for (cl_mem buffer : buffers) {
+            pool.release(FLAGS, buffer);
+        }
+        assertTrue(pool.getPooledBytes() <= maxPooled);
+        assertEquals(16 - maxPooled / 4096, pool.released.size());
+
+        // an allocation that does not fit in the device releases the idle buffers
+        pool.allocate(FLAGS, globalMemory - 4096, status);
+        assertEquals(0, pool.getPooledBytes());
+        assertEquals(16, pool.released.size());
+    }
+
+    @Test
+    public void testMaxAllocSize() {
+        long maxAlloc = 1 << 20;
+        TestPool pool = new TestPool(1 << 30, maxAlloc);
+        int[] status = new int[1];
+
+        // the size class fits in one buffer: it is pooled
+        cl_mem pooled = pool.allocate(FLAGS, maxAlloc, status);
+        assertEquals(maxAlloc, (long) pool.createdSizes.get(0));
+        pool.release(FLAGS, pooled);
+        assertEquals(maxAlloc, pool.getPooledBytes());
+
+        // the size class is larger than the maximum: exact size, not pooled
+        long bytes = maxAlloc + 1;
+        assertTrue(OCLDeviceBufferPool.getSizeClass(bytes) > maxAlloc);
+        cl_mem exact = pool.allocate(FLAGS, bytes, status);
+        assertEquals(CL.CL_SUCCESS, status[0]);
+        assertEquals(bytes, (long) pool.createdSizes.get(1));
+        assertEquals(0, pool.getOutstandingBytes());
+        assertEquals(2, pool.getMisses());
+
+        pool.release(FLAGS, exact);
+        assertEquals(1, pool.released.size());
+        assertSame(exact, pool.released.get(0));
+        assertEquals(maxAlloc, pool.getPooledBytes());
+    }
+}
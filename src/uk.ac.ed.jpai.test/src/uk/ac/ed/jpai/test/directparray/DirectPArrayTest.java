@@ -20,6 +20,7 @@
 package uk.ac.ed.jpai.test.directparray;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 
 import java.util.Arrays;
@@ -27,11 +28,13 @@ import java.util.stream.IntStream;
 
 import org.junit.Test;
 
+import uk.ac.ed.datastructures.common.ArraySlice;
 import uk.ac.ed.datastructures.common.PArray;
 import uk.ac.ed.datastructures.common.TypeFactory;
 import uk.ac.ed.datastructures.tuples.Tuple2;
 import uk.ac.ed.jpai.ArrayFunction;
 import uk.ac.ed.jpai.MapAccelerator;
+import uk.ac.ed.jpai.ScanAccelerator;
 import uk.ac.ed.jpai.test.base.MarawaccOpenCLTestBase;
 
 /**
@@ -184,4 +187,37 @@ public class DirectPArrayTest extends MarawaccOpenCLTestBase {
             assertEquals(result.get(i)._2, asDoubleArray2[i], 0.000000001);
         }
     }
+
+    @Test
+    public void scanDirectArrayPass() {
+        // more than one work-group of the scan
+        int size = 1000;
+        int[] inputArray = new int[size];
+        Arrays.fill(inputArray, 2);
+        PArray<Integer> inputPArray = new PArray<>(size, TypeFactory.Integer(), false);
+        inputPArray.setIntArray(inputArray);
+
+        double[] inputDoubleArray = new double[size];
+        Arrays.fill(inputDoubleArray, 0.5);
+        PArray<Double> inputDoublePArray = new PArray<>(size, TypeFactory.Double(), false);
+        inputDoublePArray.setDoubleArray(inputDoubleArray);
+
+        ScanAccelerator<Integer> scan = new ScanAccelerator.OfInt(ScanAccelerator.Operator.SUM, true);
+        ScanAccelerator<Double> scanDouble = new ScanAccelerator.OfDouble(ScanAccelerator.Operator.SUM, true);
+
+        PArray<Integer> output = scan.apply(inputPArray);
+        PArray<Double> outputDouble = scanDouble.apply(inputDoublePArray);
+        for (int i = 0; i < size; i++) {
+            assertEquals(2 * (i + 1), (int) output.get(i));
+            assertEquals(0.5 * (i + 1), outputDouble.get(i), 0.0);
+        }
+
+        // a slice reads the primitive array of its parent from its offset
+        PArray<Integer> outputSlice = scan.apply(new ArraySlice<>(inputPArray, 100, 300));
+        for (int i = 0; i < 300; i++) {
+            assertEquals(2 * (i + 1), (int) outputSlice.get(i));
+        }
+        assertFalse(scan.isDeoptimized());
+        assertFalse(scanDouble.isDeoptimized());
+    }
 }
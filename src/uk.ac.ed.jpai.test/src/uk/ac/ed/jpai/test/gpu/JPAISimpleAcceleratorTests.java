@@ -21,20 +21,36 @@
 package uk.ac.ed.jpai.test.gpu;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import org.junit.Ignore;
 import org.junit.Test;
 
+import uk.ac.ed.accelerator.common.GraalAcceleratorOptions;
+import uk.ac.ed.datastructures.common.AcceleratorPArray;
+import uk.ac.ed.datastructures.common.MappedPArrayFile;
 import uk.ac.ed.datastructures.common.PArray;
 import uk.ac.ed.datastructures.common.RuntimeObjectTypeInfo;
 import uk.ac.ed.datastructures.common.TypeFactory;
+import uk.ac.ed.datastructures.tuples.Tuple2;
 import uk.ac.ed.jpai.ArrayFunction;
+import uk.ac.ed.jpai.ArrayFunctionComposition;
+import uk.ac.ed.jpai.ChainedMapAccelerator;
 import uk.ac.ed.jpai.OpenCLMap;
 import uk.ac.ed.jpai.CopyToDevice;
 import uk.ac.ed.jpai.CopyToHost;
+import uk.ac.ed.jpai.FilterAccelerator;
+import uk.ac.ed.jpai.FusedMapAccelerator;
 import uk.ac.ed.jpai.MapAccelerator;
 import uk.ac.ed.jpai.Marawacc;
+import uk.ac.ed.jpai.ScanAccelerator;
+import uk.ac.ed.jpai.ZipWithAccelerator;
 import uk.ac.ed.jpai.test.base.MarawaccOpenCLTestBase;
 
 public class JPAISimpleAcceleratorTests extends MarawaccOpenCLTestBase {
@@ -59,6 +75,295 @@ public class JPAISimpleAcceleratorTests extends MarawaccOpenCLTestBase {
         }
     }
 
+    @Test
+    public void testFilterOCL() {
+
+        FilterAccelerator<Integer> gpuFilter = new FilterAccelerator<>(x -> x % 3 == 0);
+
+        // more than one work-group for the scan of the flags
+        int size = 1000;
+        PArray<Integer> input = new PArray<>(size, TypeFactory.Integer());
+        for (int i = 0; i < size; ++i) {
+            input.put(i, i);
+        }
+
+        PArray<Integer> output = gpuFilter.apply(input);
+
+        // the predicate, the positions and the compaction run on the device
+        assertTrue(gpuFilter.isKernelInUse());
+        assertFalse(gpuFilter.isDeoptimized());
+        assertEquals((size + 2) / 3, output.size());
+        for (int i = 0; i < output.size(); ++i) {
+            assertEquals(i * 3, (int) output.get(i));
+        }
+
+        // tuples are compacted field by field
+        FilterAccelerator<Tuple2<Integer, Double>> tupleFilter = new FilterAccelerator<>(t -> t._1() % 2 == 1);
+        PArray<Tuple2<Integer, Double>> tuples = new PArray<>(size, TypeFactory.Tuple("Tuple2<Integer, Double>"));
+        for (int i = 0; i < size; ++i) {
+            tuples.put(i, new Tuple2<>(i, i * 0.5));
+        }
+        PArray<Tuple2<Integer, Double>> odd = tupleFilter.apply(tuples);
+        assertEquals(size / 2, odd.size());
+        for (int i = 0; i < odd.size(); ++i) {
+            assertEquals(2 * i + 1, (int) odd.get(i)._1());
+            assertEquals((2 * i + 1) * 0.5, odd.get(i)._2(), 0.001);
+        }
+
+        // a predicate with captured variables runs with the Java threads
+        int divisor = 3;
+        FilterAccelerator<Integer> capturing = new FilterAccelerator<>(x -> x % divisor == 0);
+        PArray<Integer> outputCapturing = capturing.apply(input);
+        assertFalse(capturing.isKernelInUse());
+        assertEquals((size + 2) / 3, outputCapturing.size());
+    }
+
+    @Test
+    public void testScanOCL() {
+
+        ArrayFunction<Integer, Integer> gpuScan = new ScanAccelerator.OfInt(ScanAccelerator.Operator.SUM, true);
+        ArrayFunction<Integer, Integer> gpuExclusiveScan = new ScanAccelerator.OfInt(ScanAccelerator.Operator.SUM, false);
+
+        PArray<Integer> input = new PArray<>(SIZE, TypeFactory.Integer());
+        for (int i = 0; i < SIZE; ++i) {
+            input.put(i, i % 10);
+        }
+
+        PArray<Integer> output = gpuScan.apply(input);
+        PArray<Integer> outputExclusive = gpuExclusiveScan.apply(input);
+
+        int acc = 0;
+        for (int i = 0; i < SIZE; ++i) {
+            assertEquals(acc, (int) outputExclusive.get(i));
+            acc += i % 10;
+            assertEquals(acc, (int) output.get(i));
+        }
+    }
+
+    @Test
+    public void testZipWithOCL() {
+
+        ZipWithAccelerator<Integer, Integer, Integer> gpuZipWith = new ZipWithAccelerator<>((x, y) -> x * y);
+
+        PArray<Integer> input0 = new PArray<>(SIZE, TypeFactory.Integer());
+        PArray<Integer> input1 = new PArray<>(SIZE, TypeFactory.Integer());
+        for (int i = 0; i < SIZE; ++i) {
+            input0.put(i, i);
+            input1.put(i, i + 1);
+        }
+
+        PArray<Integer> output = gpuZipWith.apply(input0, input1);
+        assertTrue(gpuZipWith.isKernelInUse());
+
+        for (int i = 0; i < SIZE; ++i) {
+            assertEquals(i * (i + 1), (int) output.get(i));
+        }
+
+        // a function with captured variables runs with Java threads
+        int offset = 5;
+        ZipWithAccelerator<Integer, Integer, Integer> capturing = new ZipWithAccelerator<>((x, y) -> x + y + offset);
+        output = capturing.apply(input0, input1);
+        assertFalse(capturing.isKernelInUse());
+        for (int i = 0; i < SIZE; ++i) {
+            assertEquals(2 * i + 1 + offset, (int) output.get(i));
+        }
+    }
+
+    @Test
+    public void testFusedMapOCL() {
+
+        ArrayFunction<Integer, Double> gpuFunction = new MapAccelerator<Integer, Integer>(x -> x + 1).mapAccelerator(x -> x * 2.0);
+        assertTrue(((ArrayFunctionComposition<?, ?, ?>) gpuFunction).getLastFunction() instanceof FusedMapAccelerator);
+
+        // lambdas with captured variables are not fused, the kernels are chained in the device
+        double factor = 2.0;
+        ArrayFunction<Integer, Double> notFused = new MapAccelerator<Integer, Integer>(x -> x + 1).mapAccelerator(x -> x * factor);
+        assertTrue(((ArrayFunctionComposition<?, ?, ?>) notFused).getLastFunction() instanceof ChainedMapAccelerator);
+
+        PArray<Integer> input = new PArray<>(SIZE, TypeFactory.Integer());
+        for (int i = 0; i < SIZE; ++i) {
+            input.put(i, i);
+        }
+
+        PArray<Double> output = gpuFunction.apply(input);
+        PArray<Double> outputNotFused = notFused.apply(input);
+
+        for (int i = 0; i < SIZE; ++i) {
+            assertEquals((i + 1) * 2.0, output.get(i), 0.001);
+            assertEquals((i + 1) * 2.0, outputNotFused.get(i), 0.001);
+        }
+    }
+
+    @Test
+    public void testDeviceResidentMapOCL() {
+
+        int offset = 3;
+        OpenCLMap<Integer, Integer> first = new OpenCLMap<>(x -> x + offset);
+        OpenCLMap<Integer, Double> second = new OpenCLMap<>(x -> x * 0.5);
+        ArrayFunction<Integer, Double> chain = new CopyToDevice<Integer>().andThen(first).andThen(second).andThen(new CopyToHost<>());
+
+        PArray<Integer> input = new PArray<>(SIZE, TypeFactory.Integer());
+        for (int i = 0; i < SIZE; ++i) {
+            input.put(i, i);
+        }
+
+        for (int iteration = 0; iteration < 2; iteration++) {
+            PArray<Double> output = chain.apply(input);
+
+            // the output of the first kernel is copied to the host only when it is accessed
+            AcceleratorPArray<Integer> intermediate = (AcceleratorPArray<Integer>) first.apply(new CopyToDevice<Integer>().apply(input));
+            assertTrue(intermediate.isHostOutOfDate());
+            assertEquals(5 + offset, (int) intermediate.get(5));
+            assertFalse(intermediate.isHostOutOfDate());
+
+            // the primitive accessors also copy the data, read here from several Java threads
+            AcceleratorPArray<Integer> shared = (AcceleratorPArray<Integer>) first.apply(new CopyToDevice<Integer>().apply(input));
+            PArray<Integer> sum = Marawacc.reduceJavaThreadsInt((x, y) -> x + y, 0).apply(shared);
+            assertEquals(SIZE * (SIZE - 1) / 2 + SIZE * offset, (int) sum.get(0));
+            assertEquals(SIZE - 1 + offset, shared.getInt(SIZE - 1));
+
+            for (int i = 0; i < SIZE; ++i) {
+                assertEquals((i + offset) * 0.5, output.get(i), 0.001);
+            }
+        }
+    }
+
+    @Test
+    public void testStreamingMapOCL() throws IOException {
+
+        boolean streaming = GraalAcceleratorOptions.streamingMaps;
+        int chunkSize = GraalAcceleratorOptions.streamingChunkSize;
+        GraalAcceleratorOptions.streamingMaps = true;
+        // Four chunks, the last one smaller than the rest
+        GraalAcceleratorOptions.streamingChunkSize = 3;
+
+        try {
+            ArrayFunction<Integer, Double> function = new MapAccelerator<>(x -> x * 2.0);
+
+            PArray<Integer> input = new PArray<>(SIZE, TypeFactory.Integer());
+            for (int i = 0; i < SIZE; ++i) {
+                input.put(i, i);
+            }
+
+            for (int iteration = 0; iteration < 2; iteration++) {
+                PArray<Double> output = function.apply(input);
+                assertEquals(SIZE, output.size());
+                for (int i = 0; i < SIZE; ++i) {
+                    assertEquals(i * 2.0, output.get(i), 0.001);
+                }
+            }
+
+            // the chunks are copied to the device from the pages of a mapped file
+            Path path = Files.createTempFile("marawacc-test", ".parray");
+            try (MappedPArrayFile<Integer> file = MappedPArrayFile.create(path, TypeFactory.Integer(), SIZE)) {
+                PArray<Integer> mapped = file.map(0, SIZE);
+                for (int i = 0; i < SIZE; ++i) {
+                    mapped.put(i, i);
+                }
+                PArray<Double> output = new MapAccelerator<Integer, Double>(x -> x * 2.0).apply(mapped);
+                assertEquals(SIZE, output.size());
+                for (int i = 0; i < SIZE; ++i) {
+                    assertEquals(i * 2.0, output.get(i), 0.001);
+                }
+            } finally {
+                Files.delete(path);
+            }
+        } finally {
+            GraalAcceleratorOptions.streamingMaps = streaming;
+            GraalAcceleratorOptions.streamingChunkSize = chunkSize;
+        }
+    }
+
+    @Test
+    public void testAdaptivePartitionMapOCL() {
+
+        boolean adaptive = GraalAcceleratorOptions.adaptivePartition;
+        boolean host = GraalAcceleratorOptions.hostAsDevice;
+        GraalAcceleratorOptions.adaptivePartition = true;
+        GraalAcceleratorOptions.hostAsDevice = true;
+
+        try {
+            ArrayFunction<Integer, Double> function = new MapAccelerator<>(x -> x * 2.0);
+
+            PArray<Integer> input = new PArray<>(SIZE, TypeFactory.Integer());
+            for (int i = 0; i < SIZE; ++i) {
+                input.put(i, i);
+            }
+
+            // The split can change between iterations
+            for (int iteration = 0; iteration < 5; iteration++) {
+                PArray<Double> output = function.apply(input);
+                assertEquals(SIZE, output.size());
+                for (int i = 0; i < SIZE; ++i) {
+                    assertEquals(i * 2.0, output.get(i), 0.001);
+                }
+            }
+        } finally {
+            GraalAcceleratorOptions.adaptivePartition = adaptive;
+            GraalAcceleratorOptions.hostAsDevice = host;
+        }
+    }
+
+    @Test
+    public void testAsyncCompilationMapOCL() throws InterruptedException {
+
+        boolean async = GraalAcceleratorOptions.asyncCompilation;
+        GraalAcceleratorOptions.asyncCompilation = true;
+
+        try {
+            MapAccelerator<Integer, Double> function = new MapAccelerator<>(x -> x * 3.0);
+
+            PArray<Integer> input = new PArray<>(SIZE, TypeFactory.Integer());
+            for (int i = 0; i < SIZE; ++i) {
+                input.put(i, i);
+            }
+
+            // The first calls run with Java threads, the following ones in the device
+            int deviceCalls = 0;
+            for (int iteration = 0; iteration < 100 && deviceCalls < 3; iteration++) {
+                boolean compiled = function.isKernelInUse();
+                PArray<Double> output = function.apply(input);
+                for (int i = 0; i < SIZE; ++i) {
+                    assertEquals(i * 3.0, output.get(i), 0.001);
+                }
+                if (compiled) {
+                    deviceCalls++;
+                }
+                Thread.sleep(100);
+            }
+
+            // The compiled kernel has been used and the map was not deoptimized
+            assertEquals(3, deviceCalls);
+            assertTrue(function.isKernelInUse());
+        } finally {
+            GraalAcceleratorOptions.asyncCompilation = async;
+        }
+    }
+
+    @Test
+    public void testDirtyTrackingMapOCL() {
+
+        ArrayFunction<Integer, Integer> function = new MapAccelerator<>(x -> x + 1);
+
+        PArray<Integer> input = new PArray<>(SIZE, TypeFactory.Integer());
+        for (int i = 0; i < SIZE; ++i) {
+            input.put(i, i);
+        }
+
+        // The second iteration does not copy the input, the third one copies only the block of
+        // the modified element
+        for (int iteration = 0; iteration < 3; iteration++) {
+            if (iteration == 2) {
+                input.put(7, 100);
+            }
+            PArray<Integer> output = function.apply(input);
+            for (int i = 0; i < SIZE; ++i) {
+                int expected = (iteration == 2 && i == 7) ? 101 : i + 1;
+                assertEquals(expected, (int) output.get(i));
+            }
+        }
+    }
+
     @Test
     public void testPrepareKernelMapOCL() {
 
@@ -24,7 +24,9 @@ import org.junit.Test;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertEquals;
 
+import uk.ac.ed.datastructures.common.ArraySlice;
 import uk.ac.ed.datastructures.common.PArray;
+import uk.ac.ed.datastructures.common.TupleCursor;
 import uk.ac.ed.datastructures.common.TypeFactory;
 import uk.ac.ed.datastructures.tuples.Tuple2;
 import uk.ac.ed.jpai.test.base.MarawaccOpenCLTestBase;
@@ -76,4 +78,77 @@ public class PArraySetTests extends MarawaccOpenCLTestBase {
             assertEquals(asDoubleArray[i], inputB.get(i), 0.01);
         }
     }
+
+    @Test
+    public void testTupleCursor() {
+        int size = 100;
+        PArray<Tuple2<Float, Integer>> input = new PArray<>(size, TypeFactory.Tuple("Tuple2<Float, Integer>"));
+        TupleCursor<Tuple2<Float, Integer>> cursor = input.cursor();
+        assertEquals(2, cursor.grade());
+        while (cursor.next()) {
+            cursor.putFloat(0, cursor.index() * 0.5f);
+            cursor.putInt(1, cursor.index());
+        }
+        for (int i = 0; i < size; i++) {
+            assertEquals(i * 0.5f, input.get(i)._1, 0.001f);
+            assertEquals(i, input.get(i)._2.intValue());
+        }
+
+        // field by field copy into a slice
+        PArray<Tuple2<Float, Integer>> output = new PArray<>(size * 2, TypeFactory.Tuple("Tuple2<Float, Integer>"));
+        ArraySlice<Tuple2<Float, Integer>> slice = new ArraySlice<>(output, size, size);
+        TupleCursor<Tuple2<Float, Integer>> target = slice.cursor();
+        cursor.reset();
+        while (cursor.next()) {
+            cursor.copyTo(target.moveTo(cursor.index()));
+        }
+        for (int i = 0; i < size; i++) {
+            assertEquals(i * 0.5f, output.get(size + i)._1, 0.001f);
+            assertEquals(i, output.get(size + i)._2.intValue());
+        }
+    }
+
+    @Test
+    public void testBulkCopy() {
+        int size = 1000;
+        float[] floats = new float[size];
+        long[] longs = new long[size];
+        for (int i = 0; i < size; i++) {
+            floats[i] = i * 0.5f;
+            longs[i] = i * 3L;
+        }
+        PArray<Float> input = new PArray<>(size, TypeFactory.Float());
+        input.copyFrom(floats, 0, 0, size);
+        for (int i = 0; i < size; i++) {
+            assertEquals(i * 0.5f, input.get(i), 0.001f);
+        }
+
+        PArray<Long> longArray = new PArray<>(size, TypeFactory.Long());
+        longArray.copyFrom(longs, 0, 0, size);
+        long[] longOutput = new long[size];
+        longArray.copyTo(0, longOutput, 0, size);
+        for (int i = 0; i < size; i++) {
+            assertEquals(i * 3L, longOutput[i]);
+        }
+
+        // fields of a tuple array, with offsets
+        PArray<Tuple2<Float, Integer>> tuples = new PArray<>(size, TypeFactory.Tuple("Tuple2<Float, Integer>"));
+        int[] ints = new int[size];
+        for (int i = 0; i < size; i++) {
+            ints[i] = i;
+        }
+        tuples.getField(0).copyFrom(floats, 10, 0, size - 10);
+        tuples.<Integer> getField(1).copyFrom(ints, 0, 0, size);
+        for (int i = 0; i < size - 10; i++) {
+            assertEquals((i + 10) * 0.5f, tuples.get(i)._1, 0.001f);
+            assertEquals(i, tuples.get(i)._2.intValue());
+        }
+
+        // slice of the array
+        float[] output = new float[size];
+        new ArraySlice<>(input, 100, 50).copyTo(0, output, 1, 50);
+        for (int i = 0; i < 50; i++) {
+            assertEquals((i + 100) * 0.5f, output[i + 1], 0.001f);
+        }
+    }
 }
@@ -21,28 +21,53 @@
 package uk.ac.ed.jpai.test.threads;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.stream.IntStream;
 
 import org.junit.Ignore;
 import org.junit.Test;
 
+import uk.ac.ed.accelerator.common.GraalAcceleratorOptions;
 import uk.ac.ed.accelerator.math.ocl.OCLMath;
+import uk.ac.ed.datastructures.common.MappedPArrayFile;
 import uk.ac.ed.datastructures.common.PArray;
+import uk.ac.ed.datastructures.common.PArray.StorageMode;
+import uk.ac.ed.datastructures.common.PArraySerializer;
 import uk.ac.ed.datastructures.common.RuntimeObjectTypeInfo;
+import uk.ac.ed.datastructures.common.SequencePArray;
 import uk.ac.ed.datastructures.common.TypeFactory;
 import uk.ac.ed.datastructures.tuples.Tuple2;
+import uk.ac.ed.datastructures.tuples.Tuple3;
 import uk.ac.ed.datastructures.tuples.Tuple4;
 import uk.ac.ed.jpai.ArrayFunction;
+import uk.ac.ed.jpai.FilterJavaThreads;
+import uk.ac.ed.jpai.JavaThreadsExecutor;
 import uk.ac.ed.jpai.MapArrayFunction;
 import uk.ac.ed.jpai.MapJavaThreads;
+import uk.ac.ed.jpai.MapJavaThreads.Schedule;
 import uk.ac.ed.jpai.Marawacc;
+import uk.ac.ed.jpai.Pipeline;
+import uk.ac.ed.jpai.PrimitiveMapJavaThreads;
 import uk.ac.ed.jpai.Reduce;
 import uk.ac.ed.jpai.ReduceJavaThreads;
+import uk.ac.ed.jpai.ScanJavaThreads;
+import uk.ac.ed.jpai.ZipWith;
+import uk.ac.ed.jpai.ZipWithJavaThreads;
+import uk.ac.ed.jpai.cache.UserFunctionCache;
 
 public class JPAITestCPUandThreads {
 
@@ -128,7 +153,6 @@ public class JPAITestCPUandThreads {
         }
     }
 
-    @Ignore
     @Test
     public void testNestedPipeline() {
         // zip and nested pipeline
@@ -237,6 +261,131 @@ public class JPAITestCPUandThreads {
         }
     }
 
+    @Test
+    public void testJavaThreadMapReuse() {
+        ArrayFunction<Integer, Integer> mapTimesTwo = new MapJavaThreads<>(i -> i * 2);
+
+        int size = 1000;
+        PArray<Integer> input = new PArray<>(size, TypeFactory.Integer());
+
+        // The pool is shared across calls to apply
+        for (int iteration = 0; iteration < 10; iteration++) {
+            for (int i = 0; i < size; ++i) {
+                input.put(i, i + iteration);
+            }
+            PArray<Integer> output = mapTimesTwo.apply(input);
+            for (int i = 0; i < output.size(); ++i) {
+                assertEquals((i + iteration) * 2, (int) output.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testJavaThreadMapResizeExecutor() {
+        int nThreads = JavaThreadsExecutor.getInstance().getNumberOfThreads();
+        try {
+            JavaThreadsExecutor.getInstance().setNumberOfThreads(2);
+            assertEquals(2, JavaThreadsExecutor.getInstance().getNumberOfThreads());
+
+            ArrayFunction<Double, Double> mapTimesThree = new MapJavaThreads<>(8, f -> f * 3.0);
+            int size = 73;
+            PArray<Double> input = new PArray<>(size, TypeFactory.Double());
+            for (int i = 0; i < size; ++i) {
+                input.put(i, i * 2.5);
+            }
+            PArray<Double> output = mapTimesThree.apply(input);
+            for (int i = 0; i < output.size(); ++i) {
+                assertEquals(input.get(i) * 3.0, output.get(i), 0.001);
+            }
+        } finally {
+            JavaThreadsExecutor.getInstance().setNumberOfThreads(nThreads);
+        }
+    }
+
+    @Test
+    public void testJavaThreadsResizeWhileRunning() throws InterruptedException {
+        int nThreads = JavaThreadsExecutor.getInstance().getNumberOfThreads();
+        Thread resizer = new Thread(() -> {
+            for (int i = 0; i < 50; i++) {
+                JavaThreadsExecutor.getInstance().setNumberOfThreads(2 + (i % 2));
+            }
+        });
+        try {
+            ArrayFunction<Integer, Integer> mapPlusOne = new MapJavaThreads<>(4, x -> x + 1);
+            int size = 1000;
+            PArray<Integer> input = new PArray<>(size, TypeFactory.Integer());
+            for (int i = 0; i < size; ++i) {
+                input.put(i, i);
+            }
+            resizer.start();
+            // Calls that reach a retired pool are resubmitted to the new one
+            for (int iteration = 0; iteration < 200; iteration++) {
+                PArray<Integer> output = mapPlusOne.apply(input);
+                assertEquals(size, output.get(size - 1).intValue());
+            }
+        } finally {
+            resizer.join();
+            JavaThreadsExecutor.getInstance().setNumberOfThreads(nThreads);
+        }
+    }
+
+    @Test
+    public void testJavaThreadMapWorkStealing() {
+        // Irregular workload: the number of iterations depends on the row (Mandelbrot)
+        final int size = 512;
+        final int iterations = 1000;
+        Function<Integer, Integer> mandelbrotRow = index -> {
+            float space = 2.0f / size;
+            float Ci = index * space - 1.0f;
+            int sum = 0;
+            for (int j = 0; j < size; j++) {
+                float Cr = j * space - 1.5f;
+                float Zr = 0.0f;
+                float Zi = 0.0f;
+                float ZrN = 0.0f;
+                float ZiN = 0.0f;
+                int y = 0;
+                for (y = 0; y < iterations && ZiN + ZrN <= 4.0f; y++) {
+                    Zi = 2.0f * Zr * Zi + Ci;
+                    Zr = ZrN - ZiN + Cr;
+                    ZiN = Zi * Zi;
+                    ZrN = Zr * Zr;
+                }
+                sum += y;
+            }
+            return sum;
+        };
+
+        PArray<Integer> input = new PArray<>(size, TypeFactory.Integer());
+        for (int i = 0; i < size; ++i) {
+            input.put(i, i);
+        }
+
+        PArray<Integer> output = Marawacc.mapJavaThreadsWorkStealing(mandelbrotRow).apply(input);
+
+        assertEquals(size, output.size());
+        for (int i = 0; i < size; ++i) {
+            assertEquals((int) mandelbrotRow.apply(i), (int) output.get(i));
+        }
+    }
+
+    @Test
+    public void testJavaThreadMapWorkStealingGrainSize() {
+        MapJavaThreads<Integer, Integer> map = new MapJavaThreads<>(Schedule.WORK_STEALING, i -> i + 1);
+        map.setGrainSize(1);
+
+        int size = 1001;
+        PArray<Integer> input = new PArray<>(size, TypeFactory.Integer());
+        for (int i = 0; i < size; ++i) {
+            input.put(i, i);
+        }
+
+        PArray<Integer> output = map.apply(input);
+        for (int i = 0; i < size; ++i) {
+            assertEquals(i + 1, (int) output.get(i));
+        }
+    }
+
     @Test
     public void testCollections_ArrayList() {
 
@@ -583,4 +732,568 @@ public class JPAITestCPUandThreads {
             assertEquals(0, 1);
         }
     }
+
+    @Test
+    public void testParallelReduceReuse() {
+        int size = 1000;
+        PArray<Integer> input = new PArray<>(size, TypeFactory.Integer());
+        for (int i = 0; i < size; ++i) {
+            input.put(i, i);
+        }
+
+        ArrayFunction<Integer, Integer> reductionSequential = new Reduce<>((x, y) -> x + y, 0);
+        ArrayFunction<Integer, Integer> reductionParallel = new ReduceJavaThreads<>((x, y) -> x + y, 0);
+
+        // The neutral element is not modified, so the result is the same in every call
+        for (int iteration = 0; iteration < 3; iteration++) {
+            assertEquals(499500, (int) reductionSequential.apply(input).get(0));
+            assertEquals(499500, (int) reductionParallel.apply(input).get(0));
+        }
+
+        // A result already returned is not overwritten by the following calls
+        PArray<Integer> first = reductionParallel.apply(input);
+        input.put(0, 1000);
+        assertEquals(500500, (int) reductionParallel.apply(input).get(0));
+        assertEquals(499500, (int) first.get(0));
+    }
+
+    @Test
+    public void testParallelReduceNonCommutative() {
+        // Composition of affine functions x -> a * x + b: associative but not commutative
+        int size = 1031;
+        PArray<Tuple2<Long, Long>> input = new PArray<>(size, TypeFactory.Tuple("Tuple2<Long, Long>"));
+        Random r = new Random(31);
+        for (int i = 0; i < size; ++i) {
+            input.put(i, new Tuple2<>((long) r.nextInt(5) + 1, (long) r.nextInt(100)));
+        }
+
+        ArrayFunction<Tuple2<Long, Long>, Tuple2<Long, Long>> compose = new ReduceJavaThreads<>(7, (f, g) -> new Tuple2<>(f._1() * g._1(), g._1() * f._2() + g._2()),
+                        new Tuple2<>(1L, 0L));
+        PArray<Tuple2<Long, Long>> output = compose.apply(input);
+
+        long a = 1;
+        long b = 0;
+        for (int i = 0; i < size; ++i) {
+            long ai = input.get(i)._1();
+            long bi = input.get(i)._2();
+            b = ai * b + bi;
+            a = a * ai;
+        }
+        assertEquals(a, (long) output.get(0)._1());
+        assertEquals(b, (long) output.get(0)._2());
+    }
+
+    @Test
+    public void testParallelReduceCombiner() {
+        // Sum of squares: the elements are squared in each thread, partial results are added
+        int size = 1000;
+        PArray<Long> input = new PArray<>(size, TypeFactory.Long());
+        long expected = 0;
+        for (int i = 0; i < size; ++i) {
+            input.put(i, (long) i);
+            expected += (long) i * i;
+        }
+
+        ArrayFunction<Long, Long> sumOfSquares = Marawacc.reduceJavaThreads((acc, x) -> acc + x * x, (x, y) -> x + y, 0L);
+        PArray<Long> output = sumOfSquares.apply(input);
+        assertEquals(expected, (long) output.get(0));
+    }
+
+    @Test
+    public void testPrimitiveMapFloat() {
+        int size = 1000;
+        PArray<Float> input = new PArray<>(size, TypeFactory.Float());
+        for (int i = 0; i < size; ++i) {
+            input.put(i, (float) i);
+        }
+
+        ArrayFunction<Float, Float> boxed = new MapJavaThreads<>(x -> x * 2.0f + 1.0f);
+        ArrayFunction<Float, Float> primitive = Marawacc.mapJavaThreadsFloat(x -> x * 2.0f + 1.0f);
+        ArrayFunction<Float, Float> primitiveWS = new PrimitiveMapJavaThreads.OfFloat(3, Schedule.WORK_STEALING, x -> x * 2.0f + 1.0f);
+
+        PArray<Float> expected = boxed.apply(input);
+        PArray<Float> output = primitive.apply(input);
+        PArray<Float> outputWS = primitiveWS.apply(input);
+        for (int i = 0; i < size; ++i) {
+            assertEquals(expected.get(i), output.getFloat(i), 0.0001f);
+            assertEquals(expected.get(i), outputWS.getFloat(i), 0.0001f);
+        }
+    }
+
+    @Test
+    public void testPrimitiveMapDoubleAndInt() {
+        int size = 1000;
+        PArray<Double> inputDouble = new PArray<>(size, TypeFactory.Double());
+        PArray<Integer> inputInt = new PArray<>(size, TypeFactory.Integer());
+        for (int i = 0; i < size; ++i) {
+            inputDouble.putDouble(i, i);
+            inputInt.putInt(i, i);
+        }
+
+        PArray<Double> outputDouble = Marawacc.mapJavaThreadsDouble(Math::sqrt).apply(inputDouble);
+        PArray<Integer> outputInt = Marawacc.mapJavaThreadsInt(x -> x * x).apply(inputInt);
+        for (int i = 0; i < size; ++i) {
+            assertEquals(Math.sqrt(i), outputDouble.get(i), 0.0001);
+            assertEquals(i * i, (int) outputInt.get(i));
+        }
+    }
+
+    @Test
+    public void testPrimitiveReduce() {
+        int size = 1000;
+        PArray<Integer> inputInt = new PArray<>(size, TypeFactory.Integer());
+        PArray<Float> inputFloat = new PArray<>(size, TypeFactory.Float());
+        PArray<Double> inputDouble = new PArray<>(size, TypeFactory.Double());
+        for (int i = 0; i < size; ++i) {
+            inputInt.put(i, i);
+            inputFloat.put(i, (float) (i % 10));
+            inputDouble.put(i, (double) i);
+        }
+
+        assertEquals(499500, (int) Marawacc.reduceJavaThreadsInt((x, y) -> x + y, 0).apply(inputInt).get(0));
+        assertEquals(4500.0f, Marawacc.reduceJavaThreadsFloat((x, y) -> x + y, 0.0f).apply(inputFloat).get(0), 0.0001f);
+        assertEquals(999.0, Marawacc.reduceJavaThreadsDouble(Math::max, Double.NEGATIVE_INFINITY).apply(inputDouble).get(0), 0.0001);
+
+        // each call returns a new result
+        ArrayFunction<Integer, Integer> sum = Marawacc.reduceJavaThreadsInt((x, y) -> x + y, 0);
+        PArray<Integer> first = sum.apply(inputInt);
+        PArray<Integer> small = new PArray<>(10, TypeFactory.Integer());
+        for (int i = 0; i < 10; ++i) {
+            small.put(i, i);
+        }
+        PArray<Integer> second = sum.apply(small);
+        assertEquals(499500, (int) first.get(0));
+        assertEquals(45, (int) second.get(0));
+    }
+
+    @Test
+    public void testPipelineReuse() {
+        // the size is not a multiple of the chunk size and the stage workers are reused
+        int size = 1000;
+        PArray<Integer> input = new PArray<>(size, TypeFactory.Integer());
+        for (int i = 0; i < size; ++i) {
+            input.put(i, i);
+        }
+
+        Pipeline<Integer, Integer> pipeline = Pipeline.create(64, new MapJavaThreads<Integer, Integer>(3, x -> x + 1), new MapArrayFunction<Integer, Integer>(x -> x * 2),
+                        new MapJavaThreads<Integer, Integer>(x -> x - 1));
+        for (int iteration = 0; iteration < 5; iteration++) {
+            PArray<Integer> output = pipeline.apply(input);
+            for (int i = 0; i < size; ++i) {
+                assertEquals((i + 1) * 2 - 1, (int) output.get(i));
+            }
+        }
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void testPipelineIdleWorkersExit() throws InterruptedException {
+        int idleTimeout = GraalAcceleratorOptions.pipelineIdleTimeout;
+        GraalAcceleratorOptions.pipelineIdleTimeout = 200;
+        int size = 1000;
+        PArray<Integer> input = new PArray<>(size, TypeFactory.Integer());
+        for (int i = 0; i < size; ++i) {
+            input.put(i, i);
+        }
+        Set<Thread> previous = pipelineWorkers();
+        try (Pipeline<Integer, Integer> pipeline = Pipeline.create(64, new MapArrayFunction<Integer, Integer>(x -> x + 1), new MapArrayFunction<Integer, Integer>(x -> x * 2))) {
+            for (int iteration = 0; iteration < 2; iteration++) {
+                PArray<Integer> output = pipeline.apply(input);
+                assertEquals(2 * size, (int) output.get(size - 1));
+
+                // the workers of this pipeline exit after the idle timeout, without shutdown
+                Set<Thread> workers = pipelineWorkers();
+                workers.removeAll(previous);
+                assertTrue(workers.size() <= 2);
+                for (Thread worker : workers) {
+                    worker.join(10000);
+                    assertTrue(!worker.isAlive());
+                }
+            }
+        } finally {
+            GraalAcceleratorOptions.pipelineIdleTimeout = idleTimeout;
+        }
+    }
+
+    @Test
+    public void testPipelineStageFailure() {
+        int size = 1000;
+        PArray<Integer> input = new PArray<>(size, TypeFactory.Integer());
+        for (int i = 0; i < size; ++i) {
+            input.put(i, i);
+        }
+        try (Pipeline<Integer, Integer> pipeline = Pipeline.create(64, new MapArrayFunction<Integer, Integer>(x -> x + 1), new MapArrayFunction<Integer, Integer>(x -> 100 / (x - 500)))) {
+            try {
+                pipeline.apply(input);
+                assertTrue(false);
+            } catch (RuntimeException e) {
+                assertTrue(e.getCause() instanceof ArithmeticException);
+            }
+            // the caller is not interrupted after apply has returned
+            assertTrue(!Thread.interrupted());
+        }
+    }
+
+    private static Set<Thread> pipelineWorkers() {
+        Set<Thread> workers = new HashSet<>();
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().startsWith("marawacc-pipeline-stage")) {
+                workers.add(t);
+            }
+        }
+        return workers;
+    }
+
+    @Test
+    public void testPipelineBuilder() {
+        int size = 1000;
+        PArray<Integer> input = new PArray<>(size, TypeFactory.Integer());
+        for (int i = 0; i < size; ++i) {
+            input.put(i, i);
+        }
+
+        // six stages in a single pipeline
+        Pipeline<Integer, Double> pipeline = Pipeline.builder(100, new MapArrayFunction<Integer, Integer>(x -> x + 1))
+                        .then(new MapJavaThreads<Integer, Integer>(x -> x * 2))
+                        .then(new MapArrayFunction<Integer, Float>(x -> x - 1.0f))
+                        .then(new MapArrayFunction<Float, Float>(x -> x + 3.0f))
+                        .then(new MapJavaThreads<Float, Double>(x -> x * 5.0))
+                        .then(new MapArrayFunction<Double, Double>(x -> x - 7.0))
+                        .queueDepth(4)
+                        .build();
+
+        for (int iteration = 0; iteration < 3; iteration++) {
+            PArray<Double> output = pipeline.apply(input);
+            for (int i = 0; i < size; ++i) {
+                assertEquals((((i + 1) * 2 - 1) + 3) * 5 - 7, output.get(i), 0.0001);
+            }
+        }
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void testPipelineSizeChangingStages() {
+        int size = 1000;
+        PArray<Integer> input = new PArray<>(size, TypeFactory.Integer());
+        for (int i = 0; i < size; ++i) {
+            input.put(i, i);
+        }
+
+        // a reduction in the middle would pass one partial result per chunk to the next stage
+        try {
+            Pipeline.builder(64, new MapArrayFunction<Integer, Integer>(x -> x + 1))
+                            .then(new Reduce<Integer>((x, y) -> x + y, 0))
+                            .then(new MapArrayFunction<Integer, Integer>(x -> x * 2))
+                            .build();
+            assertTrue(false);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // reduction as last stage: the partial results of the chunks are combined, so the result
+        // is the same as the reduction without pipeline for any chunk size
+        int expected = new Reduce<Integer>((x, y) -> x + y, 0).apply(new MapArrayFunction<Integer, Integer>(x -> x + 1).apply(input)).get(0);
+        for (int chunkSize : new int[]{64, 100, 1000, 4096}) {
+            Pipeline<Integer, Integer> reduction = Pipeline.create(chunkSize, new MapJavaThreads<Integer, Integer>(x -> x + 1), new ReduceJavaThreads<Integer>((x, y) -> x + y, 0));
+            Pipeline<Integer, Integer> filterReduction = Pipeline.builder(chunkSize, new FilterJavaThreads<Integer>(x -> x > 2000))
+                            .then(new Reduce<Integer>((x, y) -> x + y, 0))
+                            .build();
+            for (int iteration = 0; iteration < 2; iteration++) {
+                PArray<Integer> output = reduction.apply(input);
+                assertEquals(1, output.size());
+                assertEquals(expected, (int) output.get(0));
+                // every chunk is filtered out: the result is the neutral element
+                assertEquals(0, (int) filterReduction.apply(input).get(0));
+            }
+            reduction.shutdown();
+            filterReduction.shutdown();
+        }
+    }
+
+    @Test
+    public void testFilter() {
+        int size = 1001;
+        PArray<Integer> input = new PArray<>(size, TypeFactory.Integer());
+        for (int i = 0; i < size; ++i) {
+            input.put(i, i);
+        }
+
+        ArrayFunction<Integer, Integer> filter = Marawacc.filter(x -> x % 3 == 0);
+        ArrayFunction<Integer, Integer> filterThreads = new FilterJavaThreads<>(7, x -> x % 3 == 0);
+
+        for (int iteration = 0; iteration < 2; iteration++) {
+            PArray<Integer> output = filter.apply(input);
+            PArray<Integer> outputThreads = filterThreads.apply(input);
+            assertEquals(334, output.size());
+            assertEquals(334, outputThreads.size());
+            for (int i = 0; i < output.size(); ++i) {
+                assertEquals(i * 3, (int) output.get(i));
+                assertEquals(i * 3, (int) outputThreads.get(i));
+            }
+        }
+
+        assertEquals(0, Marawacc.filterJavaThreads((Integer x) -> x < 0).apply(input).size());
+    }
+
+    @Test
+    public void testFilterInPipeline() {
+        int size = 1001;
+        PArray<Integer> input = new PArray<>(size, TypeFactory.Integer());
+        for (int i = 0; i < size; ++i) {
+            input.put(i, i);
+        }
+
+        Pipeline<Integer, Integer> pipeline = Pipeline.builder(64, new MapArrayFunction<Integer, Integer>(x -> x + 1))
+                        .then(new FilterJavaThreads<Integer>(x -> x % 2 == 0))
+                        .then(new MapArrayFunction<Integer, Integer>(x -> x * 10))
+                        .build();
+
+        PArray<Integer> output = pipeline.apply(input);
+        assertEquals(500, output.size());
+        for (int i = 0; i < output.size(); ++i) {
+            assertEquals((2 * i + 2) * 10, (int) output.get(i));
+        }
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void testScan() {
+        int size = 1001;
+        PArray<Integer> input = new PArray<>(size, TypeFactory.Integer());
+        for (int i = 0; i < size; ++i) {
+            input.put(i, i);
+        }
+
+        ArrayFunction<Integer, Integer> inclusive = Marawacc.scan((x, y) -> x + y, 0, true);
+        ArrayFunction<Integer, Integer> exclusive = Marawacc.scan((x, y) -> x + y, 0, false);
+        ArrayFunction<Integer, Integer> inclusiveThreads = new ScanJavaThreads<>(7, (x, y) -> x + y, 0, true);
+        ArrayFunction<Integer, Integer> exclusiveThreads = new ScanJavaThreads<>(7, (x, y) -> x + y, 0, false);
+
+        for (int iteration = 0; iteration < 2; iteration++) {
+            PArray<Integer> outputInclusive = inclusive.apply(input);
+            PArray<Integer> outputExclusive = exclusive.apply(input);
+            PArray<Integer> outputInclusiveThreads = inclusiveThreads.apply(input);
+            PArray<Integer> outputExclusiveThreads = exclusiveThreads.apply(input);
+            for (int i = 0; i < size; ++i) {
+                assertEquals(i * (i + 1) / 2, (int) outputInclusive.get(i));
+                assertEquals(i * (i - 1) / 2, (int) outputExclusive.get(i));
+                assertEquals(i * (i + 1) / 2, (int) outputInclusiveThreads.get(i));
+                assertEquals(i * (i - 1) / 2, (int) outputExclusiveThreads.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testPrimitiveScan() {
+        int size = 1001;
+        PArray<Integer> input = new PArray<>(size, TypeFactory.Integer());
+        PArray<Double> inputDouble = new PArray<>(size, TypeFactory.Double());
+        for (int i = 0; i < size; ++i) {
+            input.put(i, i);
+            inputDouble.put(i, (double) (i % 17));
+        }
+
+        PArray<Integer> outputInclusive = Marawacc.scanJavaThreadsInt(Integer::sum, 0, true).apply(input);
+        PArray<Integer> outputExclusive = Marawacc.scanJavaThreadsInt(Integer::sum, 0, false).apply(input);
+        PArray<Double> outputMax = Marawacc.scanJavaThreadsDouble(Math::max, Double.NEGATIVE_INFINITY, true).apply(inputDouble);
+        for (int i = 0; i < size; ++i) {
+            assertEquals(i * (i + 1) / 2, outputInclusive.getInt(i));
+            assertEquals(i * (i - 1) / 2, outputExclusive.getInt(i));
+            assertEquals(Math.min(i, 16), outputMax.getDouble(i), 0.0);
+        }
+    }
+
+    @Test
+    public void testZipWith() {
+        int size = 1001;
+        PArray<Integer> input0 = new PArray<>(size, TypeFactory.Integer());
+        PArray<Double> input1 = new PArray<>(size, TypeFactory.Double());
+        for (int i = 0; i < size; ++i) {
+            input0.put(i, i);
+            input1.put(i, i * 0.5);
+        }
+
+        ZipWith<Integer, Double, Double> zipWith = Marawacc.zipWith((x, y) -> x + y);
+        ZipWith<Integer, Double, Double> zipWithThreads = new ZipWithJavaThreads<>(7, (x, y) -> x + y);
+
+        for (int iteration = 0; iteration < 2; iteration++) {
+            PArray<Double> output = zipWith.apply(input0, input1);
+            PArray<Double> outputThreads = zipWithThreads.apply(input0, input1);
+            for (int i = 0; i < size; ++i) {
+                assertEquals(i * 1.5, output.get(i), 0.0);
+                assertEquals(i * 1.5, outputThreads.get(i), 0.0);
+            }
+        }
+
+        // the output follows the size of the input across calls
+        for (int smallSize : new int[]{10, 2000}) {
+            PArray<Integer> small0 = new PArray<>(smallSize, TypeFactory.Integer());
+            PArray<Double> small1 = new PArray<>(smallSize, TypeFactory.Double());
+            for (int i = 0; i < smallSize; ++i) {
+                small0.put(i, i);
+                small1.put(i, 1.0);
+            }
+            PArray<Double> output = zipWith.apply(small0, small1);
+            PArray<Double> outputThreads = zipWithThreads.apply(small0, small1);
+            assertEquals(smallSize, output.size());
+            assertEquals(smallSize, outputThreads.size());
+            for (int i = 0; i < smallSize; ++i) {
+                assertEquals(i + 1.0, output.get(i), 0.0);
+                assertEquals(i + 1.0, outputThreads.get(i), 0.0);
+            }
+        }
+
+        // the zipped array uses the inputs as storage
+        PArray<Tuple2<Integer, Double>> zipped = PArray.zip(input0, input1);
+        zipped.put(3, new Tuple2<>(-1, -2.0));
+        assertEquals(-1, (int) input0.get(3));
+        assertEquals(-2.0, input1.get(3), 0.0);
+        assertEquals(-3.0, Marawacc.zipWithJavaThreads((Integer x, Double y) -> x + y).apply(zipped).get(3), 0.0);
+    }
+
+    private static Function<Integer, Integer> addFunction(Object captured) {
+        return x -> x + captured.hashCode();
+    }
+
+    @Test
+    public void testFunctionIdentity() {
+        // Same code and captured types: the kernel can be shared
+        UUID a = UserFunctionCache.INSTANCE.insertFunction(addFunction(1));
+        UUID b = UserFunctionCache.INSTANCE.insertFunction(addFunction(2));
+        assertEquals(a, b);
+
+        // Same code, captured variable of a different type
+        UUID c = UserFunctionCache.INSTANCE.insertFunction(addFunction("2"));
+        assertNotEquals(a, c);
+
+        // Another lambda expression with the same code has its own synthetic method
+        Function<Integer, Integer> f = x -> x + 1;
+        Function<Integer, Integer> g = x -> x + 1;
+        assertNotEquals(UserFunctionCache.INSTANCE.insertFunction(f), UserFunctionCache.INSTANCE.insertFunction(g));
+
+        // Binary functions are found with the same identity used to insert them
+        BiFunction<Integer, Integer, Integer> product = (x, y) -> x * y;
+        UserFunctionCache.INSTANCE.insertFunction(product);
+        assertTrue(UserFunctionCache.INSTANCE.isFunction(product));
+    }
+
+    @Test
+    public void testSequencePArray() {
+        int rows = 30;
+        int columns = 17;
+        PArray<Tuple2<Integer, Integer>> space = SequencePArray.indexSpace(rows, columns);
+        assertEquals(rows * columns, space.size());
+
+        ArrayFunction<Tuple2<Integer, Integer>, Integer> function = new MapJavaThreads<>(t -> t._1() * columns + t._2());
+        PArray<Integer> output = function.apply(space);
+        for (int i = 0; i < output.size(); i++) {
+            assertEquals(i, output.get(i).intValue());
+        }
+
+        PArray<Integer> range = SequencePArray.range(10, 3, 1000);
+        ArrayFunction<Integer, Integer> sum = new ReduceJavaThreads<>((x, y) -> x + y, 0);
+        int expected = 0;
+        for (int i = 0; i < range.size(); i++) {
+            expected += 10 + 3 * i;
+        }
+        assertEquals(expected, sum.apply(range).get(0).intValue());
+    }
+
+    @Test
+    public void testMappedFilePArray() throws IOException {
+        Path path = Files.createTempFile("marawacc-test", ".parray");
+        try {
+            int length = 10000;
+            int chunkSize = 3000;
+            RuntimeObjectTypeInfo type = TypeFactory.Tuple("Tuple2<Float, Integer>");
+            try (MappedPArrayFile<Tuple2<Float, Integer>> file = MappedPArrayFile.create(path, type, length)) {
+                for (int c = 0; c < file.numberOfChunks(chunkSize); c++) {
+                    PArray<Tuple2<Float, Integer>> chunk = file.chunk(c, chunkSize);
+                    assertEquals(StorageMode.MAPPED_FILE, chunk.getStorageMode());
+                    for (int i = 0; i < chunk.size(); i++) {
+                        chunk.put(i, new Tuple2<>(0.5f, c * chunkSize + i));
+                    }
+                    MappedPArrayFile.force(chunk);
+                }
+            }
+
+            try (MappedPArrayFile<Tuple2<Float, Integer>> file = MappedPArrayFile.open(path, type, true)) {
+                assertEquals(length, file.length());
+                ArrayFunction<Tuple2<Float, Integer>, Float> function = new MapJavaThreads<>(t -> t._1() * t._2());
+                for (int c = 0; c < file.numberOfChunks(chunkSize); c++) {
+                    PArray<Tuple2<Float, Integer>> chunk = file.chunk(c, chunkSize);
+                    // the output of the first chunk is reused, the last chunk is smaller
+                    PArray<Float> output = function.apply(chunk);
+                    for (int i = 0; i < chunk.size(); i++) {
+                        assertEquals(0.5f * (c * chunkSize + i), output.get(i), 0.001f);
+                    }
+                }
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testMappedFileCharacterField() throws IOException {
+        Path path = Files.createTempFile("marawacc-test", ".parray");
+        try {
+            int length = 1000;
+            RuntimeObjectTypeInfo type = TypeFactory.Tuple("Tuple2<Character, Integer>");
+            try (MappedPArrayFile<Tuple2<Character, Integer>> file = MappedPArrayFile.create(path, type, length)) {
+                PArray<Tuple2<Character, Integer>> mapped = file.map(0, length);
+                for (int i = 0; i < length; i++) {
+                    mapped.put(i, new Tuple2<>((char) ('a' + i % 26), i));
+                }
+                MappedPArrayFile.force(mapped);
+            }
+            // one byte per character (the OpenCL char) and four per integer
+            assertEquals(length * 5, Files.size(path));
+
+            try (MappedPArrayFile<Tuple2<Character, Integer>> file = MappedPArrayFile.open(path, type, true)) {
+                assertEquals(length, file.length());
+                PArray<Tuple2<Character, Integer>> mapped = file.map(0, length);
+                PArray<Character> inMemory = new PArray<>(length, TypeFactory.Character());
+                for (int i = 0; i < length; i++) {
+                    inMemory.put(i, mapped.get(i)._1());
+                }
+                for (int i = 0; i < length; i++) {
+                    assertEquals((char) ('a' + i % 26), mapped.get(i)._1().charValue());
+                    assertEquals(i, mapped.get(i)._2().intValue());
+                    assertEquals((char) ('a' + i % 26), inMemory.get(i).charValue());
+                }
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testPArraySerializer() throws IOException {
+        Path path = Files.createTempFile("marawacc-test", ".parray");
+        try {
+            int size = 1000;
+            PArray<Tuple3<Float, Integer, Double>> input = new PArray<>(size, TypeFactory.Tuple("Tuple3<Float, Integer, Double>"));
+            for (int i = 0; i < size; i++) {
+                input.put(i, new Tuple3<>(i * 0.5f, i, i * 2.0));
+            }
+            PArraySerializer.write(input, path);
+
+            PArray<Tuple3<Float, Integer, Double>> loaded = PArraySerializer.read(path);
+            PArray<Tuple3<Float, Integer, Double>> mapped = PArraySerializer.map(path, true);
+            assertEquals(size, loaded.size());
+            assertEquals(size, mapped.size());
+            assertEquals(StorageMode.MAPPED_FILE, mapped.getStorageMode());
+            for (int i = 0; i < size; i++) {
+                for (PArray<Tuple3<Float, Integer, Double>> array : new PArray[]{loaded, mapped}) {
+                    Tuple3<Float, Integer, Double> t = array.get(i);
+                    assertEquals(i * 0.5f, t._1(), 0.001f);
+                    assertEquals(i, t._2().intValue());
+                    assertEquals(i * 2.0, t._3(), 0.001);
+                }
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
 }
@@ -21,21 +21,67 @@
 package uk.ac.ed.jpai;
 
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import uk.ac.ed.datastructures.common.PArray;
 import uk.ac.ed.datastructures.common.PArray.StorageMode;
 import uk.ac.ed.datastructures.common.RuntimeObjectTypeInfo;
 
+/**
+ * Stage of a {@link Pipeline}. Each stage runs in its own long-lived worker thread, which is
+ * started in the first call to {@link Pipeline#apply(PArray)} and reused in the following calls.
+ * The worker takes chunks from the input queue until it is interrupted or, after an idle timeout,
+ * the pipeline retires its workers (see {@link Pipeline}).
+ *
+ * @param <inT>
+ * @param <outT>
+ */
 public abstract class AbstractPipelineStage<inT, outT> implements Runnable {
 
     protected ArrayFunction<inT, outT> arrayFunction;
     protected BlockingQueue<PArray<inT>> inputQueue;
+    protected Pipeline<?, ?> pipeline;
 
     protected AbstractPipelineStage(ArrayFunction<inT, outT> f, BlockingQueue<PArray<inT>> inputQueue) {
         this.arrayFunction = f;
         this.inputQueue = inputQueue;
     }
 
+    void setPipeline(Pipeline<?, ?> pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    @Override
+    public void run() {
+        try {
+            long idleTimeout = pipeline.getIdleTimeout();
+            while (!Thread.currentThread().isInterrupted()) {
+                if (idleTimeout <= 0) {
+                    process(inputQueue.take());
+                    continue;
+                }
+                PArray<inT> chunk = inputQueue.poll(idleTimeout, TimeUnit.MILLISECONDS);
+                if (chunk != null) {
+                    process(chunk);
+                } else if (pipeline.retireIfIdle()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException ex) {
+            // return from function == end thread execution
+        } catch (RuntimeException | Error e) {
+            pipeline.stageFailed(e);
+        }
+    }
+
+    /**
+     * It processes one chunk taken from the input queue.
+     *
+     * @param input
+     * @throws InterruptedException
+     */
+    protected abstract void process(PArray<inT> input) throws InterruptedException;
+
     @SuppressWarnings("unchecked")
     public PArray<?> prepareExecution(PArray<?> input) {
         return arrayFunction.prepareExecution((PArray<inT>) input);
@@ -22,6 +22,7 @@ package uk.ac.ed.jpai;
 
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 import uk.ac.ed.datastructures.common.PArray;
 import uk.ac.ed.datastructures.common.PArray.StorageMode;
@@ -82,6 +83,32 @@ public abstract class ArrayFunction<inT, outT> implements Function<PArray<inT>,
 
     public abstract void setOutput(PArray<outT> output);
 
+    /**
+     * It returns true if the output has the same number of elements as the input (e.g. map). The
+     * skeletons that change the size (e.g. reduce) return false and the {@link PArray} returned by
+     * apply has the real output size.
+     */
+    public boolean preservesSize() {
+        return true;
+    }
+
+    /**
+     * Maximum number of output elements for an input of the given size. It is used for allocating
+     * intermediate buffers, for instance in the {@link Pipeline}.
+     */
+    public int maxOutputSize(int inputSize) {
+        return inputSize;
+    }
+
+    /**
+     * For reductions, the function that combines the results of two parts of the input, so the
+     * input can be reduced in chunks (e.g. in the last stage of a {@link Pipeline}) with the same
+     * result as a reduction of the whole input. It returns null for the other functions.
+     */
+    public BiFunction<outT, outT, outT> getPartialCombiner() {
+        return null;
+    }
+
     public abstract boolean isInCache();
 
     // This will return null if inferTypes() has not been called yet
@@ -146,6 +173,38 @@ public abstract class ArrayFunction<inT, outT> implements Function<PArray<inT>,
         return new ArrayFunctionComposition<>(this, new MapAccelerator<>(function));
     }
 
+    /**
+     * Filter skeleton. It keeps the elements for which the predicate is true. The output has the
+     * number of elements kept.
+     *
+     * @param predicate : {@link java.util.function.Predicate}
+     * @return {@link ArrayFunction}
+     */
+    public ArrayFunction<inT, outT> filter(Predicate<outT> predicate) {
+        return new ArrayFunctionComposition<>(this, new Filter<>(predicate));
+    }
+
+    /**
+     * Parallel filter skeleton with Java threads (prefix-sum compaction).
+     *
+     * @param predicate : {@link java.util.function.Predicate}
+     * @return {@link ArrayFunction}
+     */
+    public ArrayFunction<inT, outT> filterJavaThreads(Predicate<outT> predicate) {
+        return new ArrayFunctionComposition<>(this, new FilterJavaThreads<>(predicate));
+    }
+
+    /**
+     * Filter skeleton for the accelerator. The predicate is evaluated in Java and the compaction
+     * uses the scan on the GPU.
+     *
+     * @param predicate : {@link java.util.function.Predicate}
+     * @return {@link ArrayFunction}
+     */
+    public ArrayFunction<inT, outT> filterAccelerator(Predicate<outT> predicate) {
+        return new ArrayFunctionComposition<>(this, new FilterAccelerator<>(predicate));
+    }
+
     /**
      * Reduce skeleton.
      *
@@ -157,6 +216,64 @@ public abstract class ArrayFunction<inT, outT> implements Function<PArray<inT>,
         return new ArrayFunctionComposition<>(this, new Reduce<>(function, neutral));
     }
 
+    /**
+     * Parallel reduce skeleton with Java threads.
+     *
+     * @param function : {@link java.util.function.BiFunction}
+     * @param neutral : neutral element
+     * @return {@link ArrayFunction}
+     */
+    public ArrayFunction<inT, outT> reduceJavaThreads(BiFunction<outT, outT, outT> function, outT neutral) {
+        return new ArrayFunctionComposition<>(this, new ReduceJavaThreads<>(function, neutral));
+    }
+
+    /**
+     * Parallel reduce skeleton with Java threads and a separate combiner for the partial results
+     * of each thread.
+     *
+     * @param function : {@link java.util.function.BiFunction}
+     * @param combiner : {@link java.util.function.BiFunction}
+     * @param neutral : neutral element
+     * @return {@link ArrayFunction}
+     */
+    public ArrayFunction<inT, outT> reduceJavaThreads(BiFunction<outT, outT, outT> function, BiFunction<outT, outT, outT> combiner, outT neutral) {
+        return new ArrayFunctionComposition<>(this, new ReduceJavaThreads<>(function, combiner, neutral));
+    }
+
+    /**
+     * Scan (prefix sum) skeleton.
+     *
+     * @param function : {@link java.util.function.BiFunction}
+     * @param neutral : neutral element
+     * @param inclusive : true for the inclusive scan, false for the exclusive one
+     * @return {@link ArrayFunction}
+     */
+    public ArrayFunction<inT, outT> scan(BiFunction<outT, outT, outT> function, outT neutral, boolean inclusive) {
+        return new ArrayFunctionComposition<>(this, new Scan<>(function, neutral, inclusive));
+    }
+
+    /**
+     * Parallel scan skeleton with Java threads (blocked two-pass).
+     *
+     * @param function : {@link java.util.function.BiFunction}
+     * @param neutral : neutral element
+     * @param inclusive : true for the inclusive scan, false for the exclusive one
+     * @return {@link ArrayFunction}
+     */
+    public ArrayFunction<inT, outT> scanJavaThreads(BiFunction<outT, outT, outT> function, outT neutral, boolean inclusive) {
+        return new ArrayFunctionComposition<>(this, new ScanJavaThreads<>(function, neutral, inclusive));
+    }
+
+    /**
+     * It appends a pipeline with any number of stages (see {@link Pipeline#builder}).
+     *
+     * @param builder
+     * @return {@link ArrayFunction}
+     */
+    public <T> ArrayFunction<inT, T> pipeline(Pipeline.Builder<outT, T> builder) {
+        return new ArrayFunctionComposition<>(this, builder.build());
+    }
+
     /**
      * It builds a pipeline with two stages.
      *
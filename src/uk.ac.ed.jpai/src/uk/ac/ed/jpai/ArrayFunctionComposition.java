@@ -20,6 +20,9 @@
 
 package uk.ac.ed.jpai;
 
+import java.util.function.BiFunction;
+
+import uk.ac.ed.accelerator.common.GraalAcceleratorOptions;
 import uk.ac.ed.datastructures.common.PArray;
 import uk.ac.ed.jpai.cache.UserFunctionCache;
 
@@ -29,8 +32,72 @@ public class ArrayFunctionComposition<T0, T1, T2> extends ArrayFunction<T0, T2>
     private ArrayFunction<T1, T2> arrayFunction1;
 
     public ArrayFunctionComposition(ArrayFunction<T0, T1> f0, ArrayFunction<T1, T2> f1) {
+        this(f0, f1, true);
+    }
+
+    ArrayFunctionComposition(ArrayFunction<T0, T1> f0, ArrayFunction<T1, T2> f1, boolean combineMaps) {
         this.arrayFunction0 = f0;
         this.arrayFunction1 = f1;
+        if (combineMaps) {
+            combineAcceleratorMaps();
+        }
+    }
+
+    private static boolean isAcceleratorMap(ArrayFunction<?, ?> function) {
+        return function.getClass() == MapAccelerator.class || function instanceof FusedMapAccelerator || function instanceof ChainedMapAccelerator;
+    }
+
+    /**
+     * Two adjacent accelerator maps are fused in one kernel ({@link FusedMapAccelerator}) or, if
+     * the lambdas can not be fused, executed as a chain of kernels that keeps the intermediate
+     * array in the device ({@link ChainedMapAccelerator}).
+     *
+     * @return the combined map or null if the maps are executed independently
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static MapAccelerator combine(MapAccelerator first, MapAccelerator second) {
+        if (GraalAcceleratorOptions.fuseMapKernels && FusedFunction.canBeFused(first.function) && FusedFunction.canBeFused(second.function)) {
+            return new FusedMapAccelerator(first, second);
+        } else if (GraalAcceleratorOptions.deviceResidentMaps) {
+            return new ChainedMapAccelerator(first, second);
+        }
+        return null;
+    }
+
+    /**
+     * Compositions are built from left to right (<code>a.mapAccelerator(f).mapAccelerator(g)</code>
+     * is ((a, f), g)), so the accelerator map before the second function is either the first
+     * function or the last function within it.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void combineAcceleratorMaps() {
+        if (!isAcceleratorMap(arrayFunction1)) {
+            return;
+        }
+        if (isAcceleratorMap(arrayFunction0)) {
+            MapAccelerator combined = combine((MapAccelerator) arrayFunction0, (MapAccelerator) arrayFunction1);
+            if (combined != null) {
+                arrayFunction0 = (ArrayFunction) new Identity<T0>();
+                arrayFunction1 = combined;
+            }
+        } else if (arrayFunction0 instanceof ArrayFunctionComposition) {
+            ArrayFunctionComposition inner = (ArrayFunctionComposition) arrayFunction0;
+            if (isAcceleratorMap(inner.arrayFunction1)) {
+                MapAccelerator combined = combine((MapAccelerator) inner.arrayFunction1, (MapAccelerator) arrayFunction1);
+                if (combined != null) {
+                    arrayFunction0 = inner.arrayFunction0;
+                    arrayFunction1 = combined;
+                }
+            }
+        }
+    }
+
+    /**
+     * Function applied last in the composition (the combined map if the last two maps were
+     * combined).
+     */
+    public ArrayFunction<?, T2> getLastFunction() {
+        return arrayFunction1;
     }
 
     @Override
@@ -71,6 +138,21 @@ public class ArrayFunctionComposition<T0, T1, T2> extends ArrayFunction<T0, T2>
         return output;
     }
 
+    @Override
+    public boolean preservesSize() {
+        return arrayFunction0.preservesSize() && arrayFunction1.preservesSize();
+    }
+
+    @Override
+    public int maxOutputSize(int inputSize) {
+        return arrayFunction1.maxOutputSize(arrayFunction0.maxOutputSize(inputSize));
+    }
+
+    @Override
+    public BiFunction<T2, T2, T2> getPartialCombiner() {
+        return arrayFunction1.getPartialCombiner();
+    }
+
     @Override
     public void setOutput(PArray<T2> output) {
         arrayFunction1.setOutput(output);
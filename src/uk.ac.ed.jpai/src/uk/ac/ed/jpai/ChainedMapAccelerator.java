@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package uk.ac.ed.jpai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Accelerator maps executed one after the other without copying the intermediate arrays to the
+ * host. The decomposition is:
+ *
+ * <code>CopyToDevice -> OpenCLMap(f) -> OpenCLMap(g) -> ... -> CopyToHost</code>
+ *
+ * The output of each kernel is an {@link uk.ac.ed.datastructures.common.AcceleratorPArray} that
+ * stays in the device and the next kernel reads its OpenCL buffers. It is created by
+ * {@link ArrayFunctionComposition} for adjacent accelerator maps that can not be fused in one
+ * kernel.
+ *
+ * @param <inT>
+ * @param <outT>
+ */
+public class ChainedMapAccelerator<inT, outT> extends MapAccelerator<inT, outT> {
+
+    private final List<Function<?, ?>> stages;
+
+    public <midT> ChainedMapAccelerator(MapAccelerator<inT, midT> first, MapAccelerator<midT, outT> second) {
+        this(new FusedFunction<>(first.function, second.function), getStages(first, second));
+    }
+
+    private ChainedMapAccelerator(Function<inT, outT> function, List<Function<?, ?>> stages) {
+        super(function, buildDecomposition(stages));
+        this.stages = stages;
+    }
+
+    private static List<Function<?, ?>> getStages(MapAccelerator<?, ?> first, MapAccelerator<?, ?> second) {
+        List<Function<?, ?>> stages = new ArrayList<>();
+        for (MapAccelerator<?, ?> map : new MapAccelerator<?, ?>[]{first, second}) {
+            if (map instanceof ChainedMapAccelerator) {
+                stages.addAll(((ChainedMapAccelerator<?, ?>) map).stages);
+            } else {
+                stages.add(map.function);
+            }
+        }
+        return stages;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <inT, outT> ArrayFunction<inT, outT> buildDecomposition(List<Function<?, ?>> stages) {
+        ArrayFunction chain = new CopyToDevice<inT>();
+        for (Function stage : stages) {
+            chain = chain.andThen(new OpenCLMap<>(stage));
+        }
+        return chain.andThen(new CopyToHost<outT>());
+    }
+
+    public int getNumberOfKernels() {
+        return stages.size();
+    }
+}
@@ -25,6 +25,7 @@ import uk.ac.ed.accelerator.profiler.Profiler;
 import uk.ac.ed.accelerator.profiler.ProfilerType;
 import uk.ac.ed.datastructures.common.PArray;
 import uk.ac.ed.datastructures.common.PArray.StorageMode;
+import uk.ac.ed.datastructures.common.TupleCursor;
 
 /**
  * This is a dummy implementation that simulates Java marshalling. We allocate an output array which
@@ -88,9 +89,7 @@ public class Copy<T> extends Identity<T> {
         }
 
         // Marshal - data type transformation
-        for (int i = 0; i < input.size(); ++i) {
-            output.put(i, input.get(i));
-        }
+        copyElements(input, output);
 
         long end = System.nanoTime();
 
@@ -113,6 +112,34 @@ public class Copy<T> extends Identity<T> {
         return output;
     }
 
+    /**
+     * Element-wise copy. Float, Double and Integer arrays are copied with the primitive accessors
+     * to avoid boxing each element, and arrays of tuples are copied field by field with a
+     * {@link TupleCursor}, so no tuple is allocated.
+     */
+    private static <T> void copyElements(PArray<T> input, PArray<T> output) {
+        Class<?> klass = input.getClassObject();
+        if (klass == Float.class) {
+            for (int i = 0; i < input.size(); ++i) {
+                output.putFloat(i, input.getFloat(i));
+            }
+        } else if (klass == Double.class) {
+            for (int i = 0; i < input.size(); ++i) {
+                output.putDouble(i, input.getDouble(i));
+            }
+        } else if (klass == Integer.class) {
+            for (int i = 0; i < input.size(); ++i) {
+                output.putInt(i, input.getInt(i));
+            }
+        } else {
+            TupleCursor<T> from = input.cursor();
+            TupleCursor<T> to = output.cursor();
+            while (from.next()) {
+                from.copyTo(to.moveTo(from.index()));
+            }
+        }
+    }
+
     @Override
     public void setOutput(PArray<T> output) {
         this.output = output;
@@ -33,9 +33,21 @@ public class CopyToDevice<T> extends Identity<T> {
 
     private AcceleratorPArray<T> acceleratorArray;
     private static int idxCounter = 0;
+    private int[] devicePartition;
+
+    /**
+     * Elements of the input copied to each device when the array is split in several devices (see
+     * {@link AcceleratorPArray#setDevicePartition(int[])}). If it is not set, the input is split
+     * evenly.
+     *
+     * @param bounds
+     */
+    public void setDevicePartition(int[] bounds) {
+        this.devicePartition = bounds;
+    }
 
     @Override
-    public PArray<T> apply(PArray<T> array) {
+    public PArray<T> apply(PArray<T> input) {
 
         long begin = System.nanoTime();
         if (GraalAcceleratorOptions.profileOffload) {
@@ -43,9 +55,12 @@ public class CopyToDevice<T> extends Identity<T> {
         }
 
         if (!preparedExecutionFinish) {
-            prepareExecution(array);
+            prepareExecution(input);
         }
 
+        // Lazy sequences are copied as their descriptor
+        PArray<T> array = input.getSequenceDescriptor();
+
         if (acceleratorArray == null) {
             acceleratorArray = allocateOutputArray(array.size(), array.getStorageMode());
         }
@@ -54,6 +69,9 @@ public class CopyToDevice<T> extends Identity<T> {
 
         acceleratorArray.setSequence(array.isSequence());
         acceleratorArray.setTotalSize(array.getTotalSizeWhenSequence());
+        if (devicePartition != null) {
+            acceleratorArray.setDevicePartition(devicePartition);
+        }
 
         acceleratorArray.allocateOpenCLBuffer(CL.CL_MEM_READ_ONLY);
         acceleratorArray.copyToDevice(idxCounter++);
@@ -26,31 +26,12 @@ import uk.ac.ed.accelerator.profiler.ProfilerType;
 import uk.ac.ed.datastructures.common.AcceleratorPArray;
 import uk.ac.ed.datastructures.common.PArray;
 import uk.ac.ed.datastructures.common.PArray.StorageMode;
-import uk.ac.ed.datastructures.common.RuntimeObjectTypeInfo;
 
 public class CopyToHost<T> extends Identity<T> {
 
     private PArray<T> output = null;
     private static int idx;
 
-    private void setPrimitiveArray(PArray<T> input, RuntimeObjectTypeInfo runtimeTypeInfo, int idx) {
-        if (runtimeTypeInfo.getClassObject() == Integer.class) {
-            output.setIntArray(idx, input.asIntegerArray(idx));
-        } else if (runtimeTypeInfo.getClassObject() == Double.class) {
-            output.setDoubleArray(idx, input.asDoubleArray(idx));
-        } else if (PArray.TUPLESET.contains(runtimeTypeInfo.getClassObject())) {
-            // Inspect nested types
-            RuntimeObjectTypeInfo[] nestedTypes = runtimeTypeInfo.getNestedTypes();
-            int i = idx;
-            for (RuntimeObjectTypeInfo r : nestedTypes) {
-                setPrimitiveArray(input, r, i);
-                i++;
-            }
-        } else {
-            throw new RuntimeException("Data type not supported yet: " + outputType.getClassObject());
-        }
-    }
-
     @Override
     public PArray<T> apply(PArray<T> input) {
 
@@ -67,7 +48,7 @@ public class CopyToHost<T> extends Identity<T> {
         if (output == null) {
             if (input.isPrimitiveArray()) {
                 output = allocateOutputArray(input.size(), input.getStorageMode(), false);
-                setPrimitiveArray(input, outputType, 0);
+                ((AcceleratorPArray<T>) input).linkPrimitiveArrays(output, outputType, 0);
                 output.setPrimitive(true);
             } else {
                 output = allocateOutputArray(input.size(), input.getStorageMode());
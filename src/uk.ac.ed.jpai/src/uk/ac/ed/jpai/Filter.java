@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package uk.ac.ed.jpai;
+
+import java.util.function.Predicate;
+
+import uk.ac.ed.datastructures.common.ArraySlice;
+import uk.ac.ed.datastructures.common.PArray;
+import uk.ac.ed.datastructures.common.PArray.StorageMode;
+import uk.ac.ed.datastructures.common.TypeFactory;
+
+/**
+ * Filter skeleton. It keeps the elements of the input for which the predicate is true, in the same
+ * order. The output is dense: the {@link PArray} returned by apply has exactly the number of
+ * elements kept.
+ *
+ * This is the sequential version. See {@link FilterJavaThreads} and {@link FilterAccelerator} for
+ * the parallel ones.
+ *
+ * @param <T>
+ */
+public class Filter<T> extends ArrayFunction<T, T> {
+
+    protected Predicate<T> predicate;
+
+    protected PArray<T> output;
+
+    private byte[] keep;
+
+    // true if the output has been set from outside (e.g. a pipeline buffer)
+    private boolean externalOutput;
+
+    public Filter(Predicate<T> predicate) {
+        this.predicate = predicate;
+    }
+
+    @Override
+    public PArray<T> apply(PArray<T> input) {
+        if (!preparedExecutionFinish) {
+            prepareExecution(input);
+        }
+
+        // the predicate is evaluated once per element, the flags are kept for the copy
+        int size = input.size();
+        if (keep == null || keep.length < size) {
+            keep = new byte[size];
+        }
+        int count = 0;
+        for (int i = 0; i < size; ++i) {
+            if (predicate.test(input.get(i))) {
+                keep[i] = 1;
+                count++;
+            } else {
+                keep[i] = 0;
+            }
+        }
+
+        PArray<T> out = outputFor(input, count);
+        int position = 0;
+        for (int i = 0; i < size; ++i) {
+            if (keep[i] != 0) {
+                out.put(position++, input.get(i));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * It returns a {@link PArray} of exactly <code>count</code> elements for the output. If the
+     * output has been set from outside and it is larger, a slice of it is returned. Otherwise, it is
+     * allocated again when the number of elements changes.
+     */
+    protected PArray<T> outputFor(PArray<T> input, int count) {
+        if (count == 0) {
+            return new ArraySlice<>(input, 0, 0);
+        }
+        if (output != null && output.size() == count) {
+            return output;
+        }
+        if (output != null && externalOutput && output.size() > count) {
+            return new ArraySlice<>(output, 0, count);
+        }
+        StorageMode mode = input.getStorageMode();
+        output = new PArray<>(count, outputType, mode, true);
+        externalOutput = false;
+        return output;
+    }
+
+    @Override
+    public PArray<T> prepareExecution(PArray<T> input) {
+        inferTypes(input);
+        preparedExecutionFinish = true;
+        return input;
+    }
+
+    @Override
+    public PArray<T> inferTypes(PArray<T> input) {
+        inputType = TypeFactory.inferFromObject(input.get(0));
+        outputType = inputType;
+        return input;
+    }
+
+    @Override
+    public boolean preservesSize() {
+        return false;
+    }
+
+    @Override
+    public void setOutput(PArray<T> output) {
+        this.output = output;
+        this.externalOutput = true;
+    }
+
+    @Override
+    public boolean isInCache() {
+        return false;
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+package uk.ac.ed.jpai;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import org.jocl.CL;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+import org.jocl.cl_mem;
+
+import uk.ac.ed.accelerator.common.GraalAcceleratorOptions;
+import uk.ac.ed.accelerator.common.GraalAcceleratorSystem;
+import uk.ac.ed.accelerator.utils.LoggerMarawacc;
+import uk.ac.ed.accelerator.wocl.OCLGraalAcceleratorDevice;
+import uk.ac.ed.datastructures.common.AcceleratorPArray;
+import uk.ac.ed.datastructures.common.ArraySlice;
+import uk.ac.ed.datastructures.common.PArray;
+import uk.ac.ed.datastructures.common.RuntimeObjectTypeInfo;
+import uk.ac.ed.datastructures.common.TupleCursor;
+
+/**
+ * Filter skeleton for OpenCL devices (stream compaction). All the steps run on the device and only
+ * the elements kept are copied back:
+ *
+ * <ol>
+ * <li>an {@link OpenCLMap} with a {@link FilterFunction} computes the flag of each element (1 if
+ * it is kept): the lambda expression of the predicate is inlined in the kernel;</li>
+ * <li>the inclusive sum of the flags, computed with {@link ScanAccelerator}, gives the position of
+ * each element kept in the output;</li>
+ * <li>the <code>compact</code> kernel of the scan copies the elements kept to their positions,
+ * one buffer per field of the tuple.</li>
+ * </ol>
+ *
+ * The flags and the positions never leave the device. Predicates with captured variables (see
+ * {@link FilterFunction#canBeCompiled(Predicate)}), predicates that can not be compiled and inputs
+ * that can not be used in place (sequences, slices, primitive arrays or several devices) run with
+ * {@link FilterJavaThreads}. If the kernels can not be executed, the skeleton is deoptimized to
+ * {@link FilterJavaThreads} as {@link ScanAccelerator} does.
+ *
+ * @param <T>
+ */
+public class FilterAccelerator<T> extends Filter<T> {
+
+    private static final AtomicInteger copyIdx = new AtomicInteger();
+
+    private FilterJavaThreads<T> fallback;
+
+    private CopyToDevice<T> copyToDevice;
+
+    private OpenCLMap<T, Integer> flagsMap;
+
+    private ScanAccelerator<Integer> positionsScan;
+
+    // Device arrays of the last call, allocated again when the size of the input changes. The
+    // input is copied only if it is not in the device yet
+    private AcceleratorPArray<T> copiedInput;
+    private AcceleratorPArray<Integer> flags;
+
+    private boolean deoptimized;
+
+    public FilterAccelerator(Predicate<T> predicate) {
+        super(predicate);
+        this.fallback = new FilterJavaThreads<>(predicate);
+        if (FilterFunction.canBeCompiled(predicate)) {
+            this.copyToDevice = new CopyToDevice<>();
+            this.flagsMap = new OpenCLMap<>(new FilterFunction<>(predicate));
+            this.positionsScan = new ScanAccelerator.OfInt(ScanAccelerator.Operator.SUM, true);
+        } else if (GraalAcceleratorOptions.printOCLInfo) {
+            LoggerMarawacc.info("[Filter] The predicate captures variables, using FilterJavaThreads");
+        }
+    }
+
+    /**
+     * It returns true if the skeleton has been deoptimized to {@link FilterJavaThreads}.
+     */
+    public boolean isDeoptimized() {
+        return deoptimized;
+    }
+
+    /**
+     * It returns true if the calls run the OpenCL kernels: the predicate has been compiled and the
+     * skeleton has not been deoptimized.
+     */
+    public boolean isKernelInUse() {
+        return flagsMap != null && preparedExecutionFinish && !flagsMap.isKernelCompilationFailed() && !deoptimized;
+    }
+
+    @Override
+    public PArray<T> prepareExecution(PArray<T> input) {
+        super.prepareExecution(input);
+        if (flagsMap != null) {
+            flagsMap.prepareExecution(copyToDevice.prepareExecution(input));
+        }
+        return input;
+    }
+
+    private boolean isDeviceApplicable(PArray<T> input) {
+        if (!isKernelInUse() || input.size() == 0) {
+            return false;
+        }
+        if (input.isSequence() || input.isPrimitiveArray() || input.offset() != 0) {
+            return false;
+        }
+        for (RuntimeObjectTypeInfo field : outputType.getNestedTypesOrSelf()) {
+            if (!field.isScalarType()) {
+                return false;
+            }
+        }
+        return GraalAcceleratorSystem.getInstance().getPlatform().getNumCurrentCurrentDevices() == 1;
+    }
+
+    @Override
+    public PArray<T> apply(PArray<T> input) {
+        if (!preparedExecutionFinish) {
+            prepareExecution(input);
+        }
+        if (!isDeviceApplicable(input)) {
+            return fallback.apply(input);
+        }
+        try {
+            return filterOnDevice(input);
+        } catch (Exception e) {
+            return deoptimize(input, e);
+        }
+    }
+
+    private PArray<T> deoptimize(PArray<T> input, Exception e) {
+        if (MarawaccOptions.DEOPTIMIZE) {
+            System.err.println("[Deptimisation] Using FilterJavaThreads");
+            deoptimized = true;
+            return fallback.apply(input);
+        } else {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private PArray<T> filterOnDevice(PArray<T> input) {
+        int size = input.size();
+        if (flags != null && flags.size() != size) {
+            releaseDeviceArrays();
+        }
+
+        // 1. flags, computed by the kernel of the predicate
+        AcceleratorPArray<T> deviceInput;
+        if (input instanceof AcceleratorPArray) {
+            deviceInput = (AcceleratorPArray<T>) input;
+        } else {
+            copiedInput = (AcceleratorPArray<T>) copyToDevice.apply(input);
+            deviceInput = copiedInput;
+        }
+        flags = (AcceleratorPArray<Integer>) flagsMap.apply(deviceInput);
+
+        // 2. positions of the elements kept
+        cl_mem positions = positionsScan.scanDeviceBuffer(flags.getOpenCLBuffers(0).get(0), size);
+        try {
+            OCLGraalAcceleratorDevice device = (OCLGraalAcceleratorDevice) GraalAcceleratorSystem.getInstance().getPlatform().getDevice();
+            int[] count = new int[1];
+            int status = CL.clEnqueueReadBuffer(device.getCommandQueue(), positions, CL.CL_TRUE, (long) (size - 1) * Sizeof.cl_int, Sizeof.cl_int, Pointer.to(count), 0, null, null);
+            if (status != CL.CL_SUCCESS) {
+                throw new RuntimeException("[OPENCL ERROR] : clEnqueueReadBuffer positions (" + CL.stringFor_errorCode(status) + ")");
+            }
+
+            // 3. compaction of each buffer of the input
+            PArray<T> out = outputFor(input, count[0]);
+            if (count[0] == 0) {
+                return out;
+            }
+            // A larger output set from outside is filled from an array of the exact size
+            PArray<T> host = (out instanceof ArraySlice) ? allocateOutputArray(count[0], input.getStorageMode()) : out;
+            AcceleratorPArray<T> compacted = new AcceleratorPArray<>(count[0], outputType, input.getStorageMode(), false);
+            compacted.setArray(host);
+            compacted.allocateOpenCLBuffer(CL.CL_MEM_READ_WRITE);
+            try {
+                ArrayList<cl_mem> inputBuffers = deviceInput.getOpenCLBuffers(0);
+                ArrayList<cl_mem> outputBuffers = compacted.getOpenCLBuffers(0);
+                RuntimeObjectTypeInfo[] fields = outputType.getNestedTypesOrSelf();
+                for (int i = 0; i < fields.length; i++) {
+                    positionsScan.compact(inputBuffers.get(i), positions, outputBuffers.get(i), size, fields[i].getOCLSize());
+                }
+                compacted.copyToHost(copyIdx.getAndIncrement());
+            } finally {
+                compacted.release();
+            }
+
+            if (host != out) {
+                TupleCursor<T> source = host.cursor();
+                TupleCursor<T> target = out.cursor();
+                for (int i = 0; i < count[0]; ++i) {
+                    source.moveTo(i).copyTo(target.moveTo(i));
+                }
+            }
+            return out;
+        } finally {
+            positionsScan.releaseDeviceBuffer(positions);
+        }
+    }
+
+    /**
+     * It returns the buffers of the arrays of the previous size to the pool of the device.
+     */
+    private void releaseDeviceArrays() {
+        if (copiedInput != null) {
+            copiedInput.release();
+            copyToDevice.setOutput(null);
+        }
+        if (flags != null) {
+            flags.release();
+            flagsMap.setOutput(null);
+        }
+        copiedInput = null;
+        flags = null;
+    }
+
+    @Override
+    public void setOutput(PArray<T> output) {
+        super.setOutput(output);
+        fallback.setOutput(output);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+package uk.ac.ed.jpai;
+
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Flag of the filter skeleton: 1 if the predicate keeps the element and 0 otherwise. The OpenCL
+ * backend does not compile this class: it inlines the lambda expression returned by
+ * {@link #getPredicate()} into a function that returns the flag, as for {@link ZipFunction}.
+ *
+ * @param <T>
+ */
+public final class FilterFunction<T> implements Function<T, Integer> {
+
+    private final Predicate<T> predicate;
+
+    public FilterFunction(Predicate<T> predicate) {
+        this.predicate = predicate;
+    }
+
+    @Override
+    public Integer apply(T t) {
+        return predicate.test(t) ? 1 : 0;
+    }
+
+    public Predicate<T> getPredicate() {
+        return predicate;
+    }
+
+    /**
+     * Only lambda expressions without captured variables can be compiled (see
+     * {@link ZipFunction#canBeCompiled}).
+     *
+     * @param predicate
+     * @return true if the predicate can be compiled to OpenCL
+     */
+    public static boolean canBeCompiled(Predicate<?> predicate) {
+        Class<?> klass = predicate.getClass();
+        return klass.isSynthetic() && klass.getDeclaredFields().length == 0;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package uk.ac.ed.jpai;
+
+import java.util.function.Predicate;
+
+import uk.ac.ed.datastructures.common.PArray;
+import uk.ac.ed.datastructures.common.TupleCursor;
+
+/**
+ * Parallel filter with Java threads (stream compaction). It runs in two passes over one contiguous
+ * range per thread in the shared {@link JavaThreadsExecutor}:
+ *
+ * <ol>
+ * <li>each thread evaluates the predicate on its range, stores one flag per element and counts the
+ * elements kept;</li>
+ * <li>the exclusive prefix sum of the counts gives the position of each range in the output, and
+ * each thread copies its kept elements there.</li>
+ * </ol>
+ *
+ * The predicate is evaluated once per element and the order of the input is kept.
+ *
+ * @param <T>
+ */
+public class FilterJavaThreads<T> extends Filter<T> {
+
+    private int numberOfThreads;
+
+    private byte[] flags;
+
+    public FilterJavaThreads(Predicate<T> predicate) {
+        this(Runtime.getRuntime().availableProcessors(), predicate);
+    }
+
+    public FilterJavaThreads(int numberOfThreads, Predicate<T> predicate) {
+        super(predicate);
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    /**
+     * First pass over [from, to): it sets the flag of the elements kept and returns how many there
+     * are.
+     */
+    private int markRange(PArray<T> input, byte[] keep, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; ++i) {
+            if (predicate.test(input.get(i))) {
+                keep[i] = 1;
+                count++;
+            } else {
+                keep[i] = 0;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public PArray<T> apply(PArray<T> input) {
+        if (!preparedExecutionFinish) {
+            prepareExecution(input);
+        }
+
+        if (numberOfThreads == 0) {
+            // provoked from a deoptimization
+            numberOfThreads = Runtime.getRuntime().availableProcessors();
+        }
+
+        int size = input.size();
+        if (flags == null || flags.length < size) {
+            flags = new byte[size];
+        }
+        byte[] keep = flags;
+        int nThreads = numberOfThreads;
+        int chunk = (size + nThreads - 1) / nThreads;
+
+        // 1. flags and number of elements kept per range
+        int[] offsets = new int[nThreads + 1];
+        JavaThreadsExecutor.getInstance().execute(nThreads, j -> {
+            int from = Math.min(size, j * chunk);
+            int to = Math.min(size, from + chunk);
+            offsets[j + 1] = markRange(input, keep, from, to);
+        });
+
+        // 2. exclusive prefix sum: position of each range in the output
+        for (int j = 0; j < nThreads; ++j) {
+            offsets[j + 1] += offsets[j];
+        }
+
+        // 3. scatter the kept elements
+        PArray<T> out = outputFor(input, offsets[nThreads]);
+        JavaThreadsExecutor.getInstance().execute(nThreads, j -> {
+            int from = Math.min(size, j * chunk);
+            int to = Math.min(size, from + chunk);
+            int position = offsets[j];
+            // the cursors copy tuples field by field, without allocating them
+            TupleCursor<T> source = input.cursor();
+            TupleCursor<T> target = out.cursor();
+            for (int i = from; i < to; ++i) {
+                if (keep[i] != 0) {
+                    source.moveTo(i).copyTo(target.moveTo(position++));
+                }
+            }
+        });
+        return out;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package uk.ac.ed.jpai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Composition of two user functions, <code>second(first(x))</code>, executed by a single map. The
+ * OpenCL backend does not compile this class: it inlines the lambda expressions returned by
+ * {@link #getLambdaClasses()} one after the other in the same kernel.
+ *
+ * @param <T>
+ * @param <U>
+ * @param <R>
+ */
+public final class FusedFunction<T, U, R> implements Function<T, R> {
+
+    private final Function<T, U> first;
+    private final Function<U, R> second;
+
+    public FusedFunction(Function<T, U> first, Function<U, R> second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    @Override
+    public R apply(T t) {
+        return second.apply(first.apply(t));
+    }
+
+    public Function<T, U> getFirst() {
+        return first;
+    }
+
+    public Function<U, R> getSecond() {
+        return second;
+    }
+
+    /**
+     * Classes of the lambda expressions in order of application. Nested fused functions are
+     * flattened.
+     */
+    public List<Class<?>> getLambdaClasses() {
+        List<Class<?>> classes = new ArrayList<>();
+        addLambdaClasses(first, classes);
+        addLambdaClasses(second, classes);
+        return classes;
+    }
+
+    private static void addLambdaClasses(Function<?, ?> function, List<Class<?>> classes) {
+        if (function instanceof FusedFunction) {
+            classes.addAll(((FusedFunction<?, ?, ?>) function).getLambdaClasses());
+        } else {
+            classes.add(function.getClass());
+        }
+    }
+
+    /**
+     * Only lambda expressions without captured variables can be fused, because the variables of
+     * the scope are passed to the kernel from the fields of a single lambda object.
+     *
+     * @param function
+     * @return true if the function can be part of a fused kernel
+     */
+    public static boolean canBeFused(Function<?, ?> function) {
+        if (function instanceof FusedFunction) {
+            FusedFunction<?, ?, ?> fused = (FusedFunction<?, ?, ?>) function;
+            return canBeFused(fused.first) && canBeFused(fused.second);
+        }
+        Class<?> klass = function.getClass();
+        return klass.isSynthetic() && klass.getDeclaredFields().length == 0;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package uk.ac.ed.jpai;
+
+import uk.ac.ed.accelerator.common.GraalAcceleratorOptions;
+import uk.ac.ed.accelerator.utils.LoggerMarawacc;
+import uk.ac.ed.datastructures.common.PArray;
+
+/**
+ * Fusion of two adjacent accelerator maps into one OpenCL kernel that computes
+ * <code>g(f(x))</code>. Compared with two {@link MapAccelerator}s, the intermediate array is not
+ * copied back to the host and copied again to the device, and only one kernel is launched.
+ *
+ * It is created by {@link ArrayFunctionComposition}. If the fused kernel can not be generated, the
+ * two maps are executed one after the other, keeping the intermediate array in the device (see
+ * {@link ChainedMapAccelerator}).
+ *
+ * @param <inT>
+ * @param <outT>
+ */
+public class FusedMapAccelerator<inT, outT> extends MapAccelerator<inT, outT> {
+
+    private ArrayFunction<inT, outT> unfused;
+
+    public <midT> FusedMapAccelerator(MapAccelerator<inT, midT> first, MapAccelerator<midT, outT> second) {
+        super(new FusedFunction<>(first.function, second.function));
+        if (GraalAcceleratorOptions.deviceResidentMaps) {
+            this.unfused = new ChainedMapAccelerator<>(first, second);
+        } else {
+            this.unfused = new ArrayFunctionComposition<>(first, second, false);
+        }
+    }
+
+    @Override
+    public PArray<outT> prepareExecution(PArray<inT> input) {
+        PArray<outT> out = super.prepareExecution(input);
+        if (openclMap.isKernelCompilationFailed()) {
+            if (GraalAcceleratorOptions.printOCLInfo) {
+                LoggerMarawacc.info("[Kernel fusion] Using the maps without fusion");
+            }
+            decomposition = unfused;
+            out = decomposition.prepareExecution(input);
+        }
+        return out;
+    }
+}
@@ -23,6 +23,7 @@ package uk.ac.ed.jpai;
 
 import java.util.concurrent.BlockingQueue;
 
+import uk.ac.ed.datastructures.common.ArraySlice;
 import uk.ac.ed.datastructures.common.PArray;
 import uk.ac.ed.datastructures.common.PArray.StorageMode;
 
@@ -30,57 +31,67 @@ public class IntermediatePipelineStage<inT, outT> extends AbstractPipelineStage<
 
     protected BlockingQueue<PArray<outT>> outputQueue;
 
-    // this assumes, that the blocking queue has a capacity of 1:
-    // one buffer can be used by the producer, one by the consumer, and one can be in the queue
-    private static final int NUMBER_OF_BUFFERS = 3;
+    // Ring of output buffers: one can be used by this stage, one by the consumer and the rest can
+    // be waiting in the output queue. The queue is empty at construction, so its remaining
+    // capacity is the queue depth.
+    private final int numberOfBuffers;
     private PArray<outT>[] buffers;
+    private int whichBuffer;
 
     public IntermediatePipelineStage(ArrayFunction<inT, outT> f, BlockingQueue<PArray<inT>> inputQueue, BlockingQueue<PArray<outT>> outputQueue) {
         super(f, inputQueue);
         this.outputQueue = outputQueue;
+        this.numberOfBuffers = outputQueue.remainingCapacity() + 2;
     }
 
     /**
      * This method allocates the intermediate buffers for this stage. It uses its input to infer the
-     * type information necessary for the allocation
+     * type information necessary for the allocation. The buffers have the maximum output size of
+     * the function for one chunk.
      */
     @SuppressWarnings("unchecked")
     @Override
     public void allocate(int chunkSize, StorageMode mode) {
         assert (getOutputType() != null);
-        buffers = new PArray[NUMBER_OF_BUFFERS];
-        for (int i = 0; i < NUMBER_OF_BUFFERS; ++i) {
-            buffers[i] = arrayFunction.allocateOutputArray(chunkSize, mode);
+        int bufferSize = arrayFunction.maxOutputSize(chunkSize);
+        buffers = new PArray[numberOfBuffers];
+        for (int i = 0; i < numberOfBuffers; ++i) {
+            buffers[i] = arrayFunction.allocateOutputArray(bufferSize, mode);
         }
+        whichBuffer = 0;
     }
 
     @Override
-    public void run() {
-        int whichBuffer = 0;
-        while (!Thread.currentThread().isInterrupted()) {
-            try {
-                // 1. get chunk from prev stage
-                PArray<inT> input = inputQueue.take();
+    protected void process(PArray<inT> input) throws InterruptedException {
+        PArray<outT> buffer = buffers[whichBuffer];
+        PArray<outT> result;
 
-                buffers[whichBuffer].clear();
-
-                // 2. set output
-                arrayFunction.setOutput(buffers[whichBuffer]);
+        if (input.size() == 0) {
+            // an empty chunk (e.g. everything filtered out) is forwarded as an empty chunk, so
+            // every stage emits one chunk per input chunk
+            result = new ArraySlice<>(buffer, 0, 0);
+        } else {
+            if (buffer != null) {
+                buffer.clear();
+                // 1. set output. The last chunk can be smaller than the buffers. The functions
+                // that change the size return a PArray with their real output size
+                if (arrayFunction.preservesSize() && input.size() < buffer.size()) {
+                    buffer = new ArraySlice<>(buffer, 0, input.size());
+                }
+            }
+            arrayFunction.setOutput(buffer);
 
-                // 3. call apply
-                buffers[whichBuffer] = arrayFunction.apply(input);
+            // 2. call apply
+            result = arrayFunction.apply(input);
+        }
 
-                // 4. pass chunks to next stage
-                outputQueue.put(buffers[whichBuffer]);
+        // 3. pass chunks to next stage
+        outputQueue.put(result);
 
-                // 5. swap output buffers
-                whichBuffer++;
-                if (whichBuffer > NUMBER_OF_BUFFERS - 1) {
-                    whichBuffer = 0;
-                }
-            } catch (InterruptedException ex) {
-                return; // return from function == end thread execution
-            }
+        // 4. recycle output buffers
+        whichBuffer++;
+        if (whichBuffer > numberOfBuffers - 1) {
+            whichBuffer = 0;
         }
     }
 }
@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package uk.ac.ed.jpai;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiFunction;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+import uk.ac.ed.accelerator.common.GraalAcceleratorOptions;
+
+/**
+ * Shared executor for the Java threads skeletons ({@link MapJavaThreads} and
+ * {@link ReduceJavaThreads}). The worker threads are created once in a {@link ForkJoinPool} and
+ * reused across calls to apply. The slices of each call are submitted as fork/join tasks, so idle
+ * workers steal the pending slices.
+ *
+ * The number of workers is taken from the option <code>-Dmarawacc.javaThreads</code> and it can be
+ * changed at runtime with {@link #setNumberOfThreads(int)}. The new pool replaces the old one
+ * atomically; calls that still reach the old pool after it has been retired are resubmitted to the
+ * new one.
+ *
+ * Besides the fixed slices, the executor provides a work-stealing mode over index ranges (see
+ * {@link #executeRange(int, int, RangeBody)}). Ranges are split in halves on demand, only while
+ * there are not enough queued tasks to feed idle workers, and never below the grain size.
+ */
+public final class JavaThreadsExecutor {
+
+    /**
+     * Body executed over the range [from, to) of indexes.
+     */
+    @FunctionalInterface
+    public interface RangeBody {
+        void apply(int from, int to);
+    }
+
+    private static final JavaThreadsExecutor INSTANCE = new JavaThreadsExecutor();
+
+    /**
+     * Minimum number of elements per task when the grain size is computed automatically.
+     */
+    private static final int MIN_GRAIN_SIZE = 16;
+
+    /**
+     * Ranges are not split any more if the current worker has more queued tasks than this value.
+     */
+    private static final int SURPLUS_TASKS_THRESHOLD = 3;
+
+    private volatile ForkJoinPool pool;
+
+    private JavaThreadsExecutor() {
+        this.pool = new ForkJoinPool(Math.max(1, GraalAcceleratorOptions.javaThreadsPoolSize));
+    }
+
+    public static JavaThreadsExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * It resizes the pool. The new pool is published first, so new calls go to it, and the old
+     * pool is shut down in the background once the tasks already submitted to it have finished.
+     *
+     * @param nThreads
+     */
+    public synchronized void setNumberOfThreads(int nThreads) {
+        if (nThreads > 0 && nThreads != pool.getParallelism()) {
+            ForkJoinPool old = pool;
+            pool = new ForkJoinPool(nThreads);
+            retire(old);
+        }
+    }
+
+    private static void retire(ForkJoinPool old) {
+        Thread retire = new Thread(() -> {
+            old.awaitQuiescence(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            old.shutdown();
+        }, "marawacc-retire-pool");
+        retire.setDaemon(true);
+        retire.start();
+    }
+
+    /**
+     * It invokes the task in the current pool and waits for the result. If the pool read by the
+     * caller has been retired in between (see {@link #setNumberOfThreads(int)}), the task is
+     * invoked in the new pool.
+     */
+    private <R> R invoke(ForkJoinTask<R> task) {
+        ForkJoinPool current = pool;
+        while (true) {
+            try {
+                return current.invoke(task);
+            } catch (RejectedExecutionException e) {
+                ForkJoinPool latest = pool;
+                if (latest == current) {
+                    throw e;
+                }
+                current = latest;
+            }
+        }
+    }
+
+    /**
+     * It submits an asynchronous task to the current pool (see {@link #invoke}).
+     *
+     * @param task
+     * @return handle of the task
+     */
+    public <R> ForkJoinTask<R> submit(Callable<R> task) {
+        ForkJoinPool current = pool;
+        while (true) {
+            try {
+                return current.submit(task);
+            } catch (RejectedExecutionException e) {
+                ForkJoinPool latest = pool;
+                if (latest == current) {
+                    throw e;
+                }
+                current = latest;
+            }
+        }
+    }
+
+    public int getNumberOfThreads() {
+        return pool.getParallelism();
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * It executes the body for each slice index in [0, numberOfSlices) and waits until all of them
+     * are finished. Exceptions thrown by the body are re-thrown in the caller thread.
+     *
+     * @param numberOfSlices
+     * @param body
+     */
+    public void execute(int numberOfSlices, IntConsumer body) {
+        if (numberOfSlices <= 0) {
+            return;
+        }
+        invoke(new SliceTask(body, 0, numberOfSlices));
+    }
+
+    /**
+     * Tree reduction over the slices [0, numberOfSlices). Each slice computes its partial result
+     * with <code>slice</code> and the partial results are combined in a binary tree of depth
+     * log2(numberOfSlices). The combination keeps the order of the slices (left with right), so
+     * the combiner only needs to be associative.
+     *
+     * @param numberOfSlices
+     * @param slice
+     * @param combiner
+     * @return result of the reduction
+     */
+    public <R> R reduce(int numberOfSlices, IntFunction<R> slice, BiFunction<R, R, R> combiner) {
+        assert numberOfSlices > 0;
+        return invoke(new ReduceTask<>(slice, combiner, 0, numberOfSlices));
+    }
+
+    /**
+     * It executes the body over [0, size) with work-stealing. The range is recursively split in
+     * halves while it is larger than the grain size and there are idle workers. A grain size less
+     * or equal than 0 selects it automatically (see {@link #grainSize(int)}).
+     *
+     * @param size
+     * @param grainSize
+     * @param body
+     */
+    public void executeRange(int size, int grainSize, RangeBody body) {
+        if (size <= 0) {
+            return;
+        }
+        int grain = (grainSize > 0) ? grainSize : grainSize(size);
+        invoke(new RangeTask(body, 0, size, grain, null));
+    }
+
+    /**
+     * Grain size heuristic: around eight tasks per worker, so a slow range can be balanced by the
+     * rest of the workers, but not less than {@link #MIN_GRAIN_SIZE} elements per task.
+     *
+     * @param size
+     * @return grain size
+     */
+    public int grainSize(int size) {
+        int grain = size / (pool.getParallelism() << 3);
+        return Math.max(MIN_GRAIN_SIZE, grain);
+    }
+
+    /**
+     * Binary split over the range of slice indexes. Each leaf is one slice.
+     */
+    private static final class SliceTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final IntConsumer body;
+        private final int from;
+        private final int to;
+
+        SliceTask(IntConsumer body, int from, int to) {
+            this.body = body;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                body.accept(from);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SliceTask(body, from, middle), new SliceTask(body, middle, to));
+            }
+        }
+    }
+
+    private static final class ReduceTask<R> extends RecursiveTask<R> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final IntFunction<R> slice;
+        private final BiFunction<R, R, R> combiner;
+        private final int from;
+        private final int to;
+
+        ReduceTask(IntFunction<R> slice, BiFunction<R, R, R> combiner, int from, int to) {
+            this.slice = slice;
+            this.combiner = combiner;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected R compute() {
+            if (to - from == 1) {
+                return slice.apply(from);
+            }
+            int middle = (from + to) >>> 1;
+            ReduceTask<R> right = new ReduceTask<>(slice, combiner, middle, to);
+            right.fork();
+            R left = new ReduceTask<>(slice, combiner, from, middle).compute();
+            return combiner.apply(left, right.join());
+        }
+    }
+
+    /**
+     * Adaptive split of an index range. The right halves are forked and linked through
+     * <code>next</code>; they are executed locally if nobody has stolen them.
+     */
+    private static final class RangeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RangeBody body;
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final RangeTask next;
+
+        RangeTask(RangeBody body, int from, int to, int grain, RangeTask next) {
+            this.body = body;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.next = next;
+        }
+
+        @Override
+        protected void compute() {
+            int low = from;
+            int high = to;
+            RangeTask forked = null;
+            while ((high - low) > grain && ForkJoinTask.getSurplusQueuedTaskCount() <= SURPLUS_TASKS_THRESHOLD) {
+                int middle = (low + high) >>> 1;
+                forked = new RangeTask(body, middle, high, grain, forked);
+                forked.fork();
+                high = middle;
+            }
+            body.apply(low, high);
+            while (forked != null) {
+                if (forked.tryUnfork()) {
+                    forked.compute();
+                } else {
+                    forked.join();
+                }
+                forked = forked.next;
+            }
+        }
+    }
+}
@@ -21,37 +21,95 @@
 package uk.ac.ed.jpai;
 
 import java.util.concurrent.BlockingQueue;
+import java.util.function.BiFunction;
 
 import uk.ac.ed.datastructures.common.ArraySlice;
 import uk.ac.ed.datastructures.common.PArray;
 import uk.ac.ed.datastructures.common.PArray.StorageMode;
 
+/**
+ * Last stage of a {@link Pipeline}. If all the stages keep the size of the data, the output of the
+ * pipeline is split in advance in one slice per chunk. Otherwise, the chunks are appended to the
+ * output as they arrive, whatever their size. If the function is a reduction, the partial result of
+ * each chunk is combined with the previous ones (see {@link ArrayFunction#getPartialCombiner()})
+ * and the output has a single element.
+ *
+ * @param <inT>
+ * @param <outT>
+ */
 public class LastPipelineStage<inT, outT> extends AbstractPipelineStage<inT, outT> {
 
     private ArraySlice<outT>[] outputChunks;
+    private PArray<outT> appendOutput;
+    private int expectedChunks;
+    private int nextChunk;
+    private int emitted;
+    private outT combined;
 
     public LastPipelineStage(ArrayFunction<inT, outT> f, BlockingQueue<PArray<inT>> inputQueue) {
         super(f, inputQueue);
     }
 
+    /**
+     * Each chunk is written in its own output slice.
+     */
     public void setOutputChunks(ArraySlice<outT>[] outputChunks) {
         this.outputChunks = outputChunks;
+        this.appendOutput = null;
+        this.expectedChunks = outputChunks.length;
+        this.nextChunk = 0;
     }
 
-    @Override
-    public void run() {
-        try {
-            for (ArraySlice<outT> outputChunk : outputChunks) {
-                // 1. get chunk from prev stage
-                PArray<inT> input = inputQueue.take();
+    /**
+     * The output of each chunk is appended to the output, which must have enough space for the
+     * maximum output size of all chunks.
+     */
+    public void setAppendOutput(PArray<outT> output, int numberOfChunks) {
+        this.outputChunks = null;
+        this.appendOutput = output;
+        this.expectedChunks = numberOfChunks;
+        this.nextChunk = 0;
+        this.emitted = 0;
+    }
 
-                arrayFunction.setOutput(outputChunk);
+    /**
+     * Number of elements written in append mode.
+     */
+    public int getEmitted() {
+        return emitted;
+    }
 
-                // 2. call f on chunk
-                arrayFunction.apply(input);
+    @Override
+    protected void process(PArray<inT> input) {
+        BiFunction<outT, outT, outT> combiner = arrayFunction.getPartialCombiner();
+        if (appendOutput != null && combiner != null) {
+            // empty chunks give the neutral element, so the result of an empty input is the same
+            // as in the reduction without pipeline
+            arrayFunction.setOutput(null);
+            outT partial = arrayFunction.apply(input).get(0);
+            combined = (nextChunk == 0) ? partial : combiner.apply(combined, partial);
+            if (nextChunk == expectedChunks - 1) {
+                appendOutput.put(0, combined);
+                emitted = 1;
+            }
+        } else if (appendOutput != null) {
+            if (input.size() > 0) {
+                int capacity = arrayFunction.maxOutputSize(input.size());
+                arrayFunction.setOutput(new ArraySlice<>(appendOutput, emitted, capacity));
+                emitted += arrayFunction.apply(input).size();
             }
-        } catch (InterruptedException ex) {
-            ex.printStackTrace();
+        } else if (input.size() > 0) {
+            arrayFunction.setOutput(outputChunks[nextChunk]);
+
+            // call f on chunk
+            arrayFunction.apply(input);
+        }
+
+        nextChunk++;
+        if (nextChunk == expectedChunks) {
+            // all chunks of the current apply are written
+            nextChunk = 0;
+            pipeline.outputFinished();
         }
     }
 
@@ -22,16 +22,36 @@ package uk.ac.ed.jpai;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Function;
 
+import uk.ac.ed.accelerator.common.DevicePartitioner;
 import uk.ac.ed.accelerator.common.GraalAcceleratorOptions;
+import uk.ac.ed.accelerator.common.GraalAcceleratorSystem;
+import uk.ac.ed.accelerator.profiler.Profiler;
+import uk.ac.ed.accelerator.profiler.ProfilerType;
 import uk.ac.ed.datastructures.common.PArray;
 import uk.ac.ed.jpai.annotations.Cached;
+import uk.ac.ed.jpai.jit.JPAICompileKernelThread;
 
 public class MapAccelerator<inT, outT> extends MapJavaThreads<inT, outT> {
 
     protected ArrayFunction<inT, outT> decomposition;
 
+    protected OpenCLMap<inT, outT> openclMap;
+
+    private CopyToDevice<inT> copyToDevice;
+
+    // Split of the input among the devices (and the host), adapted across calls
+    private DevicePartitioner partitioner;
+
+    private PArray<outT> partitionedOutput;
+
+    // Background compilation of the kernel and the Java threads map used until it is ready
+    private JPAICompileKernelThread<inT, outT> compilation;
+    private MapJavaThreads<inT, outT> threadsMap;
+
     /**
      * Map Parallel Skeleton to execute on an OpenCL device.
      *
@@ -45,13 +65,25 @@ public class MapAccelerator<inT, outT> extends MapJavaThreads<inT, outT> {
             functionCaching = processAnnotation(function);
         }
 
-        CopyToDevice<inT> copyToDevice = new CopyToDevice<>();
-        OpenCLMap<inT, outT> openclMap = new OpenCLMap<>(function);
+        copyToDevice = new CopyToDevice<>();
+        openclMap = new OpenCLMap<>(function);
         CopyToHost<outT> copyToHost = new CopyToHost<>();
 
         decomposition = copyToDevice.andThen(openclMap).andThen(copyToHost);
     }
 
+    /**
+     * Map with a custom decomposition into accelerator stages (e.g. several kernels that keep the
+     * data in the device).
+     *
+     * @param function function equivalent to the decomposition, used for the deoptimisation
+     * @param decomposition
+     */
+    protected MapAccelerator(Function<inT, outT> function, ArrayFunction<inT, outT> decomposition) {
+        super(function);
+        this.decomposition = decomposition;
+    }
+
     // Experimental annotation for caching functions using the name
     // Feature not fully completed yet.
     public boolean processAnnotation(Function<inT, outT> function1) {
@@ -87,6 +119,124 @@ public class MapAccelerator<inT, outT> extends MapJavaThreads<inT, outT> {
         return out;
     }
 
+    /**
+     * It returns true if the calls run the OpenCL kernel: the kernel has been compiled (in the
+     * background with {@link GraalAcceleratorOptions#asyncCompilation}) and the map has not been
+     * deoptimized to Java threads.
+     */
+    public boolean isKernelInUse() {
+        if (!preparedExecutionFinish || decomposition instanceof MapJavaThreads) {
+            return false;
+        }
+        return openclMap == null || !openclMap.isKernelCompilationFailed();
+    }
+
+    /**
+     * Large host inputs are streamed through the device in chunks instead of using the
+     * decomposition (see {@link OpenCLMap#applyStreaming}).
+     */
+    private boolean isStreamingApplicable(PArray<inT> input) {
+        if (openclMap == null || decomposition instanceof MapJavaThreads) {
+            return false;
+        }
+        return openclMap.isStreamingApplicable(input);
+    }
+
+    /**
+     * With several devices, the split of the input is adapted to the kernel time measured in each
+     * device (see {@link GraalAcceleratorOptions#adaptivePartition}).
+     */
+    private boolean isAdaptivePartitionApplicable(PArray<inT> input) {
+        if (!GraalAcceleratorOptions.adaptivePartition || !GraalAcceleratorOptions.multiOpenCLDevice) {
+            return false;
+        }
+        if (openclMap == null || copyToDevice == null || decomposition instanceof MapJavaThreads) {
+            return false;
+        }
+        return !input.isSequence() && !input.isPrimitiveArray();
+    }
+
+    private PArray<outT> applyPartitioned(PArray<inT> input) throws Exception {
+        int size = input.size();
+        if (partitioner == null) {
+            int numDevices = GraalAcceleratorSystem.getInstance().getPlatform().getNumCurrentCurrentDevices();
+            partitioner = new DevicePartitioner(numDevices, GraalAcceleratorOptions.hostAsDevice);
+        }
+        int numDevices = partitioner.getNumberOfDevices();
+        int[] bounds = partitioner.getPartition(size);
+        copyToDevice.setDevicePartition(Arrays.copyOf(bounds, numDevices + 1));
+
+        if (partitionedOutput == null || partitionedOutput.size() != size) {
+            partitionedOutput = new PArray<>(size, decomposition.getOutputType(), input.getStorageMode(), true);
+        }
+        decomposition.setOutput(partitionedOutput);
+
+        // The host computes the last part with the Java threads while the devices compute the rest
+        PArray<outT> out = partitionedOutput;
+        int hostFrom = bounds[numDevices];
+        ForkJoinTask<Long> hostTask = null;
+        if (partitioner.usesHost() && hostFrom < size) {
+            hostTask = JavaThreadsExecutor.getInstance().submit(() -> {
+                long start = System.nanoTime();
+                JavaThreadsExecutor.getInstance().executeRange(size - hostFrom, 0, (from, to) -> {
+                    for (int i = hostFrom + from; i < hostFrom + to; i++) {
+                        out.put(i, function.apply(input.get(i)));
+                    }
+                });
+                return System.nanoTime() - start;
+            });
+        }
+
+        PArray<outT> result = decomposition.apply(input);
+
+        long[] times = Arrays.copyOf(openclMap.getKernelTimes(), partitioner.getNumberOfParts());
+        if (hostTask != null) {
+            times[numDevices] = hostTask.get();
+        }
+        partitioner.update(bounds, times);
+        return result;
+    }
+
+    /**
+     * With {@link GraalAcceleratorOptions#asyncCompilation}, the first call starts the compilation
+     * of the kernel in a background thread and the calls run with Java threads until it is
+     * finished.
+     *
+     * @return the output computed with Java threads, or null if the kernel is ready (or its
+     *         compilation failed and the Java threads map replaced the decomposition)
+     */
+    private PArray<outT> applyWhileCompiling(PArray<inT> input) {
+        if (compilation == null) {
+            compilation = new JPAICompileKernelThread<>(decomposition, input);
+            compilation.start();
+        }
+        if (threadsMap == null) {
+            threadsMap = new MapJavaThreads<>(function);
+        }
+
+        if (!compilation.isCompilationFinished()) {
+            if (output != null) {
+                threadsMap.setOutput(output);
+            }
+            return threadsMap.apply(input);
+        }
+
+        boolean failed = compilation.getError() != null || (openclMap != null && openclMap.isKernelCompilationFailed());
+        if (GraalAcceleratorOptions.profileOffload) {
+            Profiler.getInstance().writeInBuffer(ProfilerType.KERNEL_BACKGROUND_COMPILATION, failed ? "failed" : "switch", System.nanoTime());
+            Profiler.getInstance().put(ProfilerType.KERNEL_BACKGROUND_COMPILATION, compilation.getCompilationTime());
+        }
+        if (failed) {
+            System.err.println("[Deptimisation] Background compilation failed, using MapJavaThreads");
+            if (output != null) {
+                threadsMap.setOutput(output);
+            }
+            decomposition = threadsMap;
+        }
+        preparedExecutionFinish = true;
+        return null;
+    }
+
     private PArray<outT> deoptimize(PArray<inT> input, Exception e) {
         // An exception in the Graal-OpenCL is launched.
         // In this case try the Java multiple-thread map
@@ -107,11 +257,24 @@ public class MapAccelerator<inT, outT> extends MapJavaThreads<inT, outT> {
     @Override
     public PArray<outT> apply(PArray<inT> input) {
 
+        if (GraalAcceleratorOptions.asyncCompilation && !preparedExecutionFinish && !(decomposition instanceof MapJavaThreads)) {
+            PArray<outT> result = applyWhileCompiling(input);
+            if (result != null) {
+                return result;
+            }
+        }
+
         if (!preparedExecutionFinish) {
             prepareExecution(input);
         }
 
         try {
+            if (isStreamingApplicable(input)) {
+                return openclMap.applyStreaming(input, output);
+            }
+            if (isAdaptivePartitionApplicable(input)) {
+                return applyPartitioned(input);
+            }
             return decomposition.apply(input);
         } catch (Exception e) {
             return deoptimize(input, e);
@@ -33,16 +33,59 @@ import uk.ac.ed.jpai.jit.JPAICompileFunctionThread;
 
 public class MapJavaThreads<inT, outT> extends MapArrayFunction<inT, outT> {
 
+    /**
+     * Scheduling of the iteration space among the Java threads.
+     */
+    public enum Schedule {
+        /**
+         * One contiguous slice per thread ({@link PArray#splitInFixedNumberOfChunks(int)}).
+         */
+        FIXED_CHUNKS,
+        /**
+         * Ranges are split on demand and idle threads steal pending ranges. Recommended for
+         * irregular functions.
+         */
+        WORK_STEALING
+    }
+
     private int numberOfThreads;
 
+    private Schedule schedule;
+
+    private int grainSize;
+
     public MapJavaThreads(Function<inT, outT> f) {
         // as default: get number of available cores
         this(Runtime.getRuntime().availableProcessors(), f);
     }
 
     public MapJavaThreads(int numberOfThreads, Function<inT, outT> f) {
+        this(numberOfThreads, GraalAcceleratorOptions.javaThreadsWorkStealing ? Schedule.WORK_STEALING : Schedule.FIXED_CHUNKS, f);
+    }
+
+    public MapJavaThreads(Schedule schedule, Function<inT, outT> f) {
+        this(Runtime.getRuntime().availableProcessors(), schedule, f);
+    }
+
+    public MapJavaThreads(int numberOfThreads, Schedule schedule, Function<inT, outT> f) {
         super(f);
         this.numberOfThreads = numberOfThreads;
+        this.schedule = schedule;
+        this.grainSize = GraalAcceleratorOptions.javaThreadsGrainSize;
+    }
+
+    public Schedule getSchedule() {
+        return schedule;
+    }
+
+    /**
+     * Minimum number of elements per task for {@link Schedule#WORK_STEALING}. If it is 0, it is
+     * computed for each input.
+     *
+     * @param grainSize
+     */
+    public void setGrainSize(int grainSize) {
+        this.grainSize = grainSize;
     }
 
     // Class for Graal compilation when running a user function (UDF) with Java threads in JPAI
@@ -110,53 +153,37 @@ public class MapJavaThreads<inT, outT> extends MapArrayFunction<inT, outT> {
         AtomicInteger atomicCounter = new AtomicInteger(0);
         AtomicBoolean compiling = new AtomicBoolean(false);
 
-        // each thread executes a sequential map
-        Thread[] threads = new Thread[numberOfThreads];
-        for (int t = 0; t < numberOfThreads; t++) {
-            int j = t;
-            threads[t] = new Thread(() -> {
-
-                // Logic per thread
-                for (int i = 0; i < inputSlices[j].size(); ++i) {
-
-                    synchronized (compiling) {
-                        int incrementAndGet = 0;
-                        if (!compiling.get()) {
-                            incrementAndGet = atomicCounter.incrementAndGet();
-                        }
-                        if (!compiling.get() && incrementAndGet >= GraalAcceleratorOptions.threadsGraalCompilationThreshold) {
-                            compiling.set(true);
-                            MethodCompilation.getInstance().compileMethod(function);
-                        }
-                    }
+        // each slice executes a sequential map in the shared pool
+        JavaThreadsExecutor.getInstance().execute(numberOfThreads, j -> {
+            // Logic per slice
+            for (int i = 0; i < inputSlices[j].size(); ++i) {
 
-                    outT result = null;
-                    if (MethodCompilation.getInstance().isCompilationFinished()) {
-                        try {
-                            result = (outT) MethodCompilation.getInstance().getCompileFunction().executeVarargs(inputSlices[j].get(i));
-                        } catch (InvalidInstalledCodeException e) {
-                            System.out.println("Error when compiling with Graal");
-                            result = function.apply(inputSlices[j].get(i));
-                        }
+                synchronized (compiling) {
+                    int incrementAndGet = 0;
+                    if (!compiling.get()) {
+                        incrementAndGet = atomicCounter.incrementAndGet();
+                    }
+                    if (!compiling.get() && incrementAndGet >= GraalAcceleratorOptions.threadsGraalCompilationThreshold) {
+                        compiling.set(true);
+                        MethodCompilation.getInstance().compileMethod(function);
+                    }
+                }
 
-                    } else {
+                outT result = null;
+                if (MethodCompilation.getInstance().isCompilationFinished()) {
+                    try {
+                        result = (outT) MethodCompilation.getInstance().getCompileFunction().executeVarargs(inputSlices[j].get(i));
+                    } catch (InvalidInstalledCodeException e) {
+                        System.out.println("Error when compiling with Graal");
                         result = function.apply(inputSlices[j].get(i));
                     }
-                    outputSlices[j].put(i, result);
-                }
-            });
-            threads[t].start();
-        }
 
-        try {
-            for (Thread thread : threads) {
-                thread.join();
+                } else {
+                    result = function.apply(inputSlices[j].get(i));
+                }
+                outputSlices[j].put(i, result);
             }
-        } catch (InterruptedException e) {
-            System.err.println("Error in MapJavaThreads map execution (join) operation");
-            e.printStackTrace();
-            System.exit(-1);
-        }
+        });
         MethodCompilation.getInstance().clean();
         return output;
     }
@@ -179,28 +206,31 @@ public class MapJavaThreads<inT, outT> extends MapArrayFunction<inT, outT> {
         ArraySlice<inT>[] inputSlices = input.splitInFixedNumberOfChunks(numberOfThreads);
         ArraySlice<outT>[] outputSlices = output.splitInFixedNumberOfChunks(numberOfThreads);
 
-        // each thread executes a sequential map
-        Thread[] threads = new Thread[numberOfThreads];
-        for (int t = 0; t < numberOfThreads; t++) {
-            int j = t;
-            threads[t] = new Thread(() -> {
-                // Logic per thread
-                for (int i = 0; i < inputSlices[j].size(); ++i) {
-                    outputSlices[j].put(i, function.apply(inputSlices[j].get(i)));
-                }
-            });
-            threads[t].start();
+        // each slice executes a sequential map in the shared pool
+        JavaThreadsExecutor.getInstance().execute(numberOfThreads, j -> {
+            for (int i = 0; i < inputSlices[j].size(); ++i) {
+                outputSlices[j].put(i, function.apply(inputSlices[j].get(i)));
+            }
+        });
+        return output;
+    }
+
+    public PArray<outT> applyWorkStealing(PArray<inT> input) {
+
+        if (!preparedExecutionFinish) {
+            prepareExecution(input);
         }
 
-        try {
-            for (Thread thread : threads) {
-                thread.join();
-            }
-        } catch (InterruptedException e) {
-            System.err.println("Error in MapJavaThreads map execution (join) operation");
-            e.printStackTrace();
-            System.exit(-1);
+        if (output == null) {
+            output = allocateOutputArray(input.size(), input.getStorageMode());
         }
+
+        PArray<outT> out = output;
+        JavaThreadsExecutor.getInstance().executeRange(input.size(), grainSize, (from, to) -> {
+            for (int i = from; i < to; ++i) {
+                out.put(i, function.apply(input.get(i)));
+            }
+        });
         return output;
     }
 
@@ -208,6 +238,8 @@ public class MapJavaThreads<inT, outT> extends MapArrayFunction<inT, outT> {
     public PArray<outT> apply(PArray<inT> input) {
         if (GraalAcceleratorOptions.threadsGraalCompilation) {
             return applyAndCompilation(input);
+        } else if (schedule == Schedule.WORK_STEALING) {
+            return applyWorkStealing(input);
         } else {
             return applyUsingC2(input);
         }
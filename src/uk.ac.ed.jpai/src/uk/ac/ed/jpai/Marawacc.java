@@ -21,7 +21,12 @@
 package uk.ac.ed.jpai;
 
 import java.util.function.BiFunction;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
 import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Predicate;
 
 import uk.ac.ed.datastructures.tuples.Tuple2;
 import uk.ac.ed.datastructures.tuples.Tuple3;
@@ -46,6 +51,37 @@ public class Marawacc {
         return new Identity<>();
     }
 
+    /**
+     * Map over two arrays. The arrays are passed to the two-argument apply of {@link ZipWith}
+     * directly, without building an array of tuples first.
+     *
+     * @param f
+     * @return {@link ZipWith}
+     */
+    public static <T0, T1, R> ZipWith<T0, T1, R> zipWith(BiFunction<T0, T1, R> f) {
+        return new ZipWith<>(f);
+    }
+
+    /**
+     * Java thread version for the zipWith skeleton.
+     *
+     * @param f
+     * @return {@link ZipWith}
+     */
+    public static <T0, T1, R> ZipWith<T0, T1, R> zipWithJavaThreads(BiFunction<T0, T1, R> f) {
+        return new ZipWithJavaThreads<>(f);
+    }
+
+    /**
+     * Accelerator (GPU) version for the zipWith skeleton.
+     *
+     * @param f
+     * @return {@link ZipWith}
+     */
+    public static <T0, T1, R> ZipWith<T0, T1, R> zipWithAccelerator(BiFunction<T0, T1, R> f) {
+        return new ZipWithAccelerator<>(f);
+    }
+
     /**
      * Basic map skeleton
      *
@@ -67,6 +103,47 @@ public class Marawacc {
         return new MapJavaThreads<>(numberOfThreads, f);
     }
 
+    /**
+     * Java thread version for the map skeleton with work-stealing. Use it for irregular functions
+     * where one fixed slice per thread is unbalanced.
+     *
+     * @param f
+     * @return {@link ArrayFunction}
+     */
+    public static <T0, T1> ArrayFunction<T0, T1> mapJavaThreadsWorkStealing(Function<T0, T1> f) {
+        return new MapJavaThreads<>(MapJavaThreads.Schedule.WORK_STEALING, f);
+    }
+
+    /**
+     * Java thread version for the map skeleton over float values. The elements are not boxed.
+     *
+     * @param f
+     * @return {@link ArrayFunction}
+     */
+    public static ArrayFunction<Float, Float> mapJavaThreadsFloat(FloatUnaryOperator f) {
+        return new PrimitiveMapJavaThreads.OfFloat(f);
+    }
+
+    /**
+     * Java thread version for the map skeleton over double values. The elements are not boxed.
+     *
+     * @param f
+     * @return {@link ArrayFunction}
+     */
+    public static ArrayFunction<Double, Double> mapJavaThreadsDouble(DoubleUnaryOperator f) {
+        return new PrimitiveMapJavaThreads.OfDouble(f);
+    }
+
+    /**
+     * Java thread version for the map skeleton over int values. The elements are not boxed.
+     *
+     * @param f
+     * @return {@link ArrayFunction}
+     */
+    public static ArrayFunction<Integer, Integer> mapJavaThreadsInt(IntUnaryOperator f) {
+        return new PrimitiveMapJavaThreads.OfInt(f);
+    }
+
     /**
      * Accelerator (GPU) version for the map parallel skeleton.
      *
@@ -77,6 +154,38 @@ public class Marawacc {
         return new MapAccelerator<>(f);
     }
 
+    /**
+     * Filter skeleton. The output has the elements for which the predicate is true.
+     *
+     * @param predicate
+     * @return {@link ArrayFunction}
+     */
+    public static <T> ArrayFunction<T, T> filter(Predicate<T> predicate) {
+        return new Filter<>(predicate);
+    }
+
+    /**
+     * Parallel filter with Java threads.
+     *
+     * @param predicate
+     * @return {@link ArrayFunction}
+     */
+    public static <T> ArrayFunction<T, T> filterJavaThreads(Predicate<T> predicate) {
+        return new FilterJavaThreads<>(predicate);
+    }
+
+    /**
+     * Filter on the accelerator (GPU). The predicate is compiled to OpenCL and the flags, the
+     * positions and the compaction are computed on the device. Predicates with captured variables
+     * run with the Java threads.
+     *
+     * @param predicate
+     * @return {@link ArrayFunction}
+     */
+    public static <T> ArrayFunction<T, T> filterAccelerator(Predicate<T> predicate) {
+        return new FilterAccelerator<>(predicate);
+    }
+
     /**
      * General parallel skeleton for reduction.
      *
@@ -88,6 +197,169 @@ public class Marawacc {
         return new Reduce<>(f, init);
     }
 
+    /**
+     * Parallel reduction with Java threads.
+     *
+     * @param f
+     * @param init
+     * @return {@link ArrayFunction}
+     */
+    public static <T> ArrayFunction<T, T> reduceJavaThreads(BiFunction<T, T, T> f, T init) {
+        return new ReduceJavaThreads<>(f, init);
+    }
+
+    /**
+     * Parallel reduction with Java threads and a combiner for the partial results.
+     *
+     * @param f
+     * @param combiner
+     * @param init
+     * @return {@link ArrayFunction}
+     */
+    public static <T> ArrayFunction<T, T> reduceJavaThreads(BiFunction<T, T, T> f, BiFunction<T, T, T> combiner, T init) {
+        return new ReduceJavaThreads<>(f, combiner, init);
+    }
+
+    /**
+     * Parallel reduction with Java threads over float values. The elements are not boxed.
+     *
+     * @param f
+     * @param init
+     * @return {@link ArrayFunction}
+     */
+    public static ArrayFunction<Float, Float> reduceJavaThreadsFloat(FloatBinaryOperator f, float init) {
+        return new PrimitiveReduceJavaThreads.OfFloat(f, init);
+    }
+
+    /**
+     * Parallel reduction with Java threads over double values. The elements are not boxed.
+     *
+     * @param f
+     * @param init
+     * @return {@link ArrayFunction}
+     */
+    public static ArrayFunction<Double, Double> reduceJavaThreadsDouble(DoubleBinaryOperator f, double init) {
+        return new PrimitiveReduceJavaThreads.OfDouble(f, init);
+    }
+
+    /**
+     * Parallel reduction with Java threads over int values. The elements are not boxed.
+     *
+     * @param f
+     * @param init
+     * @return {@link ArrayFunction}
+     */
+    public static ArrayFunction<Integer, Integer> reduceJavaThreadsInt(IntBinaryOperator f, int init) {
+        return new PrimitiveReduceJavaThreads.OfInt(f, init);
+    }
+
+    /**
+     * Scan (prefix sum) skeleton. The inclusive scan combines the elements [0, i] in position i and
+     * the exclusive one the elements [0, i).
+     *
+     * @param f
+     * @param neutral
+     * @param inclusive
+     * @return {@link ArrayFunction}
+     */
+    public static <T> ArrayFunction<T, T> scan(BiFunction<T, T, T> f, T neutral, boolean inclusive) {
+        return new Scan<>(f, neutral, inclusive);
+    }
+
+    /**
+     * Parallel scan with Java threads.
+     *
+     * @param f
+     * @param neutral
+     * @param inclusive
+     * @return {@link ArrayFunction}
+     */
+    public static <T> ArrayFunction<T, T> scanJavaThreads(BiFunction<T, T, T> f, T neutral, boolean inclusive) {
+        return new ScanJavaThreads<>(f, neutral, inclusive);
+    }
+
+    /**
+     * Parallel scan with Java threads over float values. The elements are not boxed.
+     *
+     * @param f
+     * @param neutral
+     * @param inclusive
+     * @return {@link ArrayFunction}
+     */
+    public static ArrayFunction<Float, Float> scanJavaThreadsFloat(FloatBinaryOperator f, float neutral, boolean inclusive) {
+        return new PrimitiveScanJavaThreads.OfFloat(f, neutral, inclusive);
+    }
+
+    /**
+     * Parallel scan with Java threads over double values. The elements are not boxed.
+     *
+     * @param f
+     * @param neutral
+     * @param inclusive
+     * @return {@link ArrayFunction}
+     */
+    public static ArrayFunction<Double, Double> scanJavaThreadsDouble(DoubleBinaryOperator f, double neutral, boolean inclusive) {
+        return new PrimitiveScanJavaThreads.OfDouble(f, neutral, inclusive);
+    }
+
+    /**
+     * Parallel scan with Java threads over int values. The elements are not boxed.
+     *
+     * @param f
+     * @param neutral
+     * @param inclusive
+     * @return {@link ArrayFunction}
+     */
+    public static ArrayFunction<Integer, Integer> scanJavaThreadsInt(IntBinaryOperator f, int neutral, boolean inclusive) {
+        return new PrimitiveScanJavaThreads.OfInt(f, neutral, inclusive);
+    }
+
+    /**
+     * Scan on the accelerator (GPU) over float values.
+     *
+     * @param operator
+     * @param inclusive
+     * @return {@link ArrayFunction}
+     */
+    public static ArrayFunction<Float, Float> scanAcceleratorFloat(ScanAccelerator.Operator operator, boolean inclusive) {
+        return new ScanAccelerator.OfFloat(operator, inclusive);
+    }
+
+    /**
+     * Scan on the accelerator (GPU) over double values.
+     *
+     * @param operator
+     * @param inclusive
+     * @return {@link ArrayFunction}
+     */
+    public static ArrayFunction<Double, Double> scanAcceleratorDouble(ScanAccelerator.Operator operator, boolean inclusive) {
+        return new ScanAccelerator.OfDouble(operator, inclusive);
+    }
+
+    /**
+     * Scan on the accelerator (GPU) over int values.
+     *
+     * @param operator
+     * @param inclusive
+     * @return {@link ArrayFunction}
+     */
+    public static ArrayFunction<Integer, Integer> scanAcceleratorInt(ScanAccelerator.Operator operator, boolean inclusive) {
+        return new ScanAccelerator.OfInt(operator, inclusive);
+    }
+
+    /**
+     * Builder for a pipeline with any number of stages. Stages are appended with
+     * {@link Pipeline.Builder#then(ArrayFunction)} and the pipeline is created with
+     * {@link Pipeline.Builder#build()}.
+     *
+     * @param chunkSize
+     * @param stage0
+     * @return {@link Pipeline.Builder}
+     */
+    public static <T0, T1> Pipeline.Builder<T0, T1> pipelineBuilder(int chunkSize, ArrayFunction<T0, T1> stage0) {
+        return Pipeline.builder(chunkSize, stage0);
+    }
+
     /**
      * Pipeline for two {@link ArrayFunction}.
      *
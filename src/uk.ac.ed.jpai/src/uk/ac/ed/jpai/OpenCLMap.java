@@ -28,6 +28,7 @@ import java.util.Arrays;
 import java.util.Deque;
 import java.util.LinkedList;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
 import jdk.vm.ci.meta.MetaAccessProvider;
@@ -45,6 +46,7 @@ import org.jocl.cl_kernel;
 import org.jocl.cl_mem;
 
 import uk.ac.ed.accelerator.cache.OCLKernelCache;
+import uk.ac.ed.accelerator.cache.OCLKernelPackage;
 import uk.ac.ed.accelerator.common.GraalAcceleratorOptions;
 import uk.ac.ed.accelerator.common.GraalAcceleratorPlatform;
 import uk.ac.ed.accelerator.common.GraalAcceleratorSystem;
@@ -56,12 +58,15 @@ import uk.ac.ed.accelerator.ocl.runtime.AcceleratorOCLInfo;
 import uk.ac.ed.accelerator.ocl.runtime.FunctionalPatternTemplate;
 import uk.ac.ed.accelerator.ocl.runtime.GraalIRConversion;
 import uk.ac.ed.accelerator.ocl.runtime.GraalIRUtilities;
+import uk.ac.ed.accelerator.ocl.runtime.KernelOffloadException;
 import uk.ac.ed.accelerator.ocl.scope.PArrayScopeManager;
 import uk.ac.ed.accelerator.profiler.Profiler;
 import uk.ac.ed.accelerator.profiler.ProfilerType;
+import uk.ac.ed.accelerator.utils.LoggerMarawacc;
 import uk.ac.ed.accelerator.utils.OpenCLUtils;
 import uk.ac.ed.accelerator.wocl.OCLGraalAcceleratorDevice;
 import uk.ac.ed.datastructures.common.AcceleratorPArray;
+import uk.ac.ed.datastructures.common.ArraySlice;
 import uk.ac.ed.datastructures.common.JavaDataTypeSizes;
 import uk.ac.ed.datastructures.common.PArray;
 import uk.ac.ed.datastructures.common.PArray.StorageMode;
@@ -87,6 +92,27 @@ public class OpenCLMap<inT, outT> extends MapJavaThreads<inT, outT> {
 
     private ArrayList<ScalarVarInfo> scalarVariableList = new ArrayList<>();
 
+    /**
+     * Chunks in flight in the streaming mode: while the kernel of chunk n is running, chunk n+1 is
+     * copied to the device and chunk n-1 is copied back to the host.
+     */
+    private static final int STREAMING_SLOTS = 3;
+
+    private static final int WRITE_QUEUE = 0;
+    private static final int KERNEL_QUEUE = 1;
+    private static final int READ_QUEUE = 2;
+
+    private static final AtomicInteger idxRead = new AtomicInteger();
+
+    // Last kernel launched in each device
+    private cl_event[] kernelEvents;
+
+    private ArrayList<AcceleratorPArray<inT>> streamingInput = new ArrayList<>();
+    private ArrayList<AcceleratorPArray<outT>> streamingOutput = new ArrayList<>();
+    private AcceleratorPArray<inT> streamingTailInput;
+    private AcceleratorPArray<outT> streamingTailOutput;
+    private PArray<outT> streamingHostOutput;
+
     public OpenCLMap(Function<inT, outT> f) {
         super(f);
         uuidKernel = UserFunctionCache.INSTANCE.insertFunction(f);
@@ -186,7 +212,13 @@ public class OpenCLMap<inT, outT> extends MapJavaThreads<inT, outT> {
             deoptBufferFlag = new AcceleratorPArray<>(1, TypeFactory.Integer(), StorageMode.OPENCL_BYTE_BUFFER, false);
         }
 
-        ((AcceleratorPArray<outT>) output).allocateOpenCLBuffer(CL.CL_MEM_WRITE_ONLY);
+        // Each device writes the part of the output that corresponds to its part of the input
+        if (GraalAcceleratorOptions.multiOpenCLDevice && !input.isSequence()) {
+            ((AcceleratorPArray<outT>) output).setDevicePartition(((AcceleratorPArray<inT>) input).getDevicePartition());
+        }
+
+        // Read and write: the output can be the input of the next kernel in a chain of maps
+        ((AcceleratorPArray<outT>) output).allocateOpenCLBuffer(CL.CL_MEM_READ_WRITE);
         ((AcceleratorPArray<outT>) output).copyMetaDataToDevice(idxWrite++);
 
         deoptBufferFlag.allocateOpenCLBuffer(CL.CL_MEM_WRITE_ONLY);
@@ -196,6 +228,7 @@ public class OpenCLMap<inT, outT> extends MapJavaThreads<inT, outT> {
         }
 
         executeOpenCLKernel((AcceleratorPArray<inT>) input, scopedVariableBuffers, (AcceleratorPArray<outT>) output);
+        ((AcceleratorPArray<outT>) output).setHostOutOfDate();
 
         long end = System.nanoTime();
 
@@ -395,25 +428,14 @@ public class OpenCLMap<inT, outT> extends MapJavaThreads<inT, outT> {
         return localWorkSize;
     }
 
-    private void executeKernelIntoDevice(int deviceIndex, cl_kernel kernel, AcceleratorPArray<inT> input, ArrayList<ArrayList<cl_mem>> scope, AcceleratorPArray<outT> outputLocal) {
-
-        setArguments(kernel, deviceIndex, input, scope, scalarVariableList, outputLocal);
-
-        long size = input.isSequence() ? input.getTotalSizeWhenSequence() : input.size();
-        if (GraalAcceleratorOptions.multiOpenCLDevice) {
-            int numMaxDevices = GraalAcceleratorSystem.getInstance().getPlatform().getNumCurrentCurrentDevices();
-            if (deviceIndex > 0) {
-                size = (size / numMaxDevices) + (size % numMaxDevices);
-            } else {
-                size = (size / numMaxDevices);
-            }
-        }
-
+    /**
+     * It enqueues the kernel with <code>size</code> threads. The kernel is executed when all the
+     * events in the wait list (it can be null) have finished.
+     */
+    private static cl_event enqueueKernel(cl_command_queue commandQueue, cl_kernel kernel, int deviceIndex, long size, cl_event[] waitList) {
         long[] globalWorkSize = new long[]{size};
         long[] localWorkSize = computeLocalWorkSize(kernel, deviceIndex, size);
 
-        cl_command_queue commandQueue = getOpenCLDevice(deviceIndex).getCommandQueue();
-
         if (GraalAcceleratorOptions.printOCLkernelInfo) {
             System.out.println("[OpenCL] Running kernel with #" + size + " threads");
             System.out.println("[OpenCL] Local Group Size with #" + localWorkSize[0] + " threads");
@@ -421,14 +443,45 @@ public class OpenCLMap<inT, outT> extends MapJavaThreads<inT, outT> {
 
         // Run the kernel
         cl_event kernelEvent = new cl_event();
+        int numEvents = (waitList == null) ? 0 : waitList.length;
         int status;
         if ((size % localWorkSize[0]) != 0) {
-            status = CL.clEnqueueNDRangeKernel(commandQueue, kernel, 1, null, globalWorkSize, null, 0, null, kernelEvent);
+            status = CL.clEnqueueNDRangeKernel(commandQueue, kernel, 1, null, globalWorkSize, null, numEvents, waitList, kernelEvent);
         } else {
-            status = CL.clEnqueueNDRangeKernel(commandQueue, kernel, 1, null, globalWorkSize, localWorkSize, 0, null, kernelEvent);
+            status = CL.clEnqueueNDRangeKernel(commandQueue, kernel, 1, null, globalWorkSize, localWorkSize, numEvents, waitList, kernelEvent);
         }
 
         checkStatus(status, "clEnqueueNDRangeKernel");
+        return kernelEvent;
+    }
+
+    private void executeKernelIntoDevice(int deviceIndex, cl_kernel kernel, AcceleratorPArray<inT> input, ArrayList<ArrayList<cl_mem>> scope, AcceleratorPArray<outT> outputLocal) {
+
+        setArguments(kernel, deviceIndex, input, scope, scalarVariableList, outputLocal);
+
+        long size = input.isSequence() ? input.getTotalSizeWhenSequence() : input.size();
+        if (GraalAcceleratorOptions.multiOpenCLDevice) {
+            if (input.isSequence()) {
+                int numMaxDevices = GraalAcceleratorSystem.getInstance().getPlatform().getNumCurrentCurrentDevices();
+                if (deviceIndex > 0) {
+                    size = (size / numMaxDevices) + (size % numMaxDevices);
+                } else {
+                    size = (size / numMaxDevices);
+                }
+            } else {
+                size = input.getDeviceSize(deviceIndex);
+            }
+        }
+
+        if (size == 0) {
+            // No elements for this device
+            kernelEvents[deviceIndex] = null;
+            return;
+        }
+
+        cl_command_queue commandQueue = getOpenCLDevice(deviceIndex).getCommandQueue();
+        cl_event kernelEvent = enqueueKernel(commandQueue, kernel, deviceIndex, size, null);
+        kernelEvents[deviceIndex] = kernelEvent;
 
         if (GraalAcceleratorOptions.profileOffload) {
             CL.clSetEventCallback(kernelEvent, CL.CL_COMPLETE, OpenCLUtils.makeCallBackFunction(ProfilerType.OCL_KERNEL, idxKernel++, deviceIndex), null);
@@ -437,14 +490,338 @@ public class OpenCLMap<inT, outT> extends MapJavaThreads<inT, outT> {
 
     private void executeOpenCLKernel(AcceleratorPArray<inT> input, ArrayList<ArrayList<cl_mem>> scope, AcceleratorPArray<outT> outputLocal) {
         int numKernels = getNumberOfCurrentDevices();
+        if (kernelEvents == null || kernelEvents.length != numKernels) {
+            kernelEvents = new cl_event[numKernels];
+        }
         for (int i = 0; i < numKernels; i++) {
-            cl_kernel kernel = OCLKernelCache.getInstance().get(uuidKernel, i).getKernelBinary();
-            executeKernelIntoDevice(i, kernel, input, scope, outputLocal);
+            cl_kernel kernel = getKernel(input, i);
+            try {
+                executeKernelIntoDevice(i, kernel, input, scope, outputLocal);
+            } finally {
+                // The kernel is retained by the queue once it is enqueued
+                OCLKernelCache.getInstance().unpin(uuidKernel);
+            }
+        }
+    }
+
+    /**
+     * Kernel of the function for the device. If it was evicted from the {@link OCLKernelCache}, it
+     * is generated and compiled again. The function is pinned in the cache when it returns, so the
+     * caller has to unpin it after enqueuing the kernel.
+     */
+    private cl_kernel getKernel(PArray<inT> input, int deviceIndex) {
+        OCLKernelCache cache = OCLKernelCache.getInstance();
+        OCLKernelPackage kernelPackage = cache.pin(uuidKernel, deviceIndex);
+        if (kernelPackage == null || kernelPackage.getKernelBinary() == null) {
+            cache.unpin(uuidKernel);
+            generateAndCompileOpenCLKernel(input);
+            kernelPackage = cache.pin(uuidKernel, deviceIndex);
+            if (kernelPackage == null || kernelPackage.getKernelBinary() == null) {
+                cache.unpin(uuidKernel);
+                throw new RuntimeException("[OPENCL ERROR] : kernel not available for the device " + deviceIndex);
+            }
+        }
+        return kernelPackage.getKernelBinary();
+    }
+
+    private static long getOCLSize(RuntimeObjectTypeInfo type) {
+        long bytes = 0;
+        for (RuntimeObjectTypeInfo t : type.getNestedTypesOrSelf()) {
+            bytes += t.getOCLSize();
+        }
+        return bytes;
+    }
+
+    private static int getMaxOCLFieldSize(RuntimeObjectTypeInfo type) {
+        int bytes = 1;
+        for (RuntimeObjectTypeInfo t : type.getNestedTypesOrSelf()) {
+            bytes = Math.max(bytes, t.getOCLSize());
+        }
+        return bytes;
+    }
+
+    /**
+     * Number of elements per chunk in the streaming mode. If it is not set with
+     * <code>-Dmarawacc.streamingChunkSize</code>, the buffers of all the chunks in flight use at
+     * most half of the global memory of the device.
+     */
+    private int getStreamingChunkSize(int size) {
+        long chunk = GraalAcceleratorOptions.streamingChunkSize;
+        if (chunk <= 0) {
+            OCLGraalAcceleratorDevice device = getOpenCLDevice(0);
+            long bytesPerElement = getOCLSize(inputType) + getOCLSize(outputType);
+            chunk = (device.getDeviceInfo().getGlobalMemSize() / 2) / (STREAMING_SLOTS * bytesPerElement);
+            chunk = Math.min(chunk, device.getDeviceInfo().getMaxMemAllocSize() / Math.max(getMaxOCLFieldSize(inputType), getMaxOCLFieldSize(outputType)));
+        }
+        return (int) Math.max(1, Math.min(chunk, size));
+    }
+
+    /**
+     * The map is executed in streaming mode (see {@link #applyStreaming}) if the input is in the
+     * host, it is executed in one device, and either the streaming option is enabled and the input
+     * has more than one chunk, or the input and the output do not fit in the device memory.
+     *
+     * It must be called after {@link #prepareExecution}.
+     */
+    boolean isStreamingApplicable(PArray<inT> input) {
+        if (isKernelCompilationFailed() || (input instanceof AcceleratorPArray) || input.isSequence() || input.isPrimitiveArray() || getNumberOfCurrentDevices() > 1) {
+            return false;
+        }
+        StorageMode mode = input.getStorageMode();
+        if (mode != StorageMode.DEFAULT && mode != StorageMode.OPENCL_BYTE_BUFFER && mode != StorageMode.MAPPED_FILE) {
+            // Non-blocking copies need buffers allocated outside the Java heap (direct or mapped)
+            return false;
+        }
+        int size = input.size();
+        if (GraalAcceleratorOptions.streamingMaps) {
+            return size > getStreamingChunkSize(size);
+        }
+        long footprint = size * (getOCLSize(inputType) + getOCLSize(outputType));
+        return footprint > getOpenCLDevice(0).getDeviceInfo().getGlobalMemSize();
+    }
+
+    private <T> AcceleratorPArray<T> allocateChunk(int size, RuntimeObjectTypeInfo type, long flags) {
+        AcceleratorPArray<T> chunk = new AcceleratorPArray<>(size, type, StorageMode.OPENCL_BYTE_BUFFER, false);
+        chunk.allocateOpenCLBuffer(flags);
+        chunk.copyMetaDataToDevice(idxWrite++);
+        return chunk;
+    }
+
+    /**
+     * The buffers of the chunks are allocated once and reused while the chunk size does not
+     * change. The last chunk, if it is smaller, has its own buffers.
+     */
+    private void allocateStreamingBuffers(int chunkSize, int tailSize) {
+        if (streamingInput.isEmpty() || streamingInput.get(0).size() != chunkSize) {
+            // The buffers of the previous chunk size go back to the buffer pool
+            releaseChunks(streamingInput);
+            releaseChunks(streamingOutput);
+            for (int i = 0; i < STREAMING_SLOTS; i++) {
+                streamingInput.add(allocateChunk(chunkSize, inputType, CL.CL_MEM_READ_ONLY));
+                streamingOutput.add(allocateChunk(chunkSize, outputType, CL.CL_MEM_READ_WRITE));
+            }
+        }
+        if (tailSize > 0 && (streamingTailInput == null || streamingTailInput.size() != tailSize)) {
+            if (streamingTailInput != null) {
+                streamingTailInput.release();
+                streamingTailOutput.release();
+            }
+            streamingTailInput = allocateChunk(tailSize, inputType, CL.CL_MEM_READ_ONLY);
+            streamingTailOutput = allocateChunk(tailSize, outputType, CL.CL_MEM_READ_WRITE);
+        }
+    }
+
+    private static <T> void releaseChunks(ArrayList<AcceleratorPArray<T>> chunks) {
+        for (AcceleratorPArray<T> chunk : chunks) {
+            chunk.release();
+        }
+        chunks.clear();
+    }
+
+    private static void releaseEvents(cl_event[] events) {
+        for (cl_event event : events) {
+            if (event != null) {
+                CL.clReleaseEvent(event);
+            }
+        }
+    }
+
+    /**
+     * It copies the elements [start, start + length) of the host array into the device buffers of
+     * the chunk. It returns the event of the last copy; the queue is in-order, so the previous
+     * copies have finished when it is complete.
+     */
+    private static <T> cl_event writeChunk(cl_command_queue queue, PArray<T> host, AcceleratorPArray<T> chunk, RuntimeObjectTypeInfo[] types, int start, int length, cl_event[] waitList) {
+        ArrayList<cl_mem> buffers = chunk.getOpenCLBuffers(0);
+        int numEvents = (waitList == null) ? 0 : waitList.length;
+        cl_event lastEvent = null;
+        for (int i = 0; i < buffers.size(); i++) {
+            Pointer pointer = Pointer.to(host.getArrayReference(i)).withByteOffset((long) types[i].getOCLSize() * (host.offset() + start));
+            cl_event event = new cl_event();
+            int status = CL.clEnqueueWriteBuffer(queue, buffers.get(i), CL.CL_FALSE, 0, (long) types[i].getOCLSize() * length, pointer, numEvents, waitList, event);
+            checkStatus(status, "clEnqueueWriteBuffer for streaming");
+            if (GraalAcceleratorOptions.profileOffload) {
+                CL.clSetEventCallback(event, CL.CL_COMPLETE, OpenCLUtils.makeCallBackFunction(ProfilerType.OCL_WRITE_BUFFER, idxWrite++, 0), null);
+            }
+            if (lastEvent != null) {
+                CL.clReleaseEvent(lastEvent);
+            }
+            lastEvent = event;
+        }
+        return lastEvent;
+    }
+
+    /**
+     * It copies the output of the chunk into the elements [start, start + length) of the host
+     * array, once the kernel of the chunk has finished.
+     */
+    private static <T> cl_event readChunk(cl_command_queue queue, AcceleratorPArray<T> chunk, PArray<T> host, RuntimeObjectTypeInfo[] types, int start, int length, cl_event kernelEvent) {
+        ArrayList<cl_mem> buffers = chunk.getOpenCLBuffers(0);
+        cl_event lastEvent = null;
+        for (int i = 0; i < buffers.size(); i++) {
+            Pointer pointer = Pointer.to(host.getArrayReference(i)).withByteOffset((long) types[i].getOCLSize() * (host.offset() + start));
+            cl_event event = new cl_event();
+            int status = CL.clEnqueueReadBuffer(queue, buffers.get(i), CL.CL_FALSE, 0, (long) types[i].getOCLSize() * length, pointer, 1, new cl_event[]{kernelEvent}, event);
+            checkStatus(status, "clEnqueueReadBuffer for streaming");
+            if (GraalAcceleratorOptions.profileOffload) {
+                CL.clSetEventCallback(event, CL.CL_COMPLETE, OpenCLUtils.makeCallBackFunction(ProfilerType.OCL_READ_BUFFER, idxRead.getAndIncrement(), 0), null);
+            }
+            if (lastEvent != null) {
+                CL.clReleaseEvent(lastEvent);
+            }
+            lastEvent = event;
         }
+        host.markDirty(start, start + length);
+        return lastEvent;
+    }
+
+    /**
+     * Streaming execution of the map for a host input. The input is split in chunks and each chunk
+     * is copied to the device, computed and copied back in three command queues, synchronised with
+     * events:
+     * <ul>
+     * <li>the copy of chunk n waits for the kernel of the previous chunk that used the same input
+     * buffers</li>
+     * <li>the kernel of chunk n waits for its copy and for the copy back of the previous chunk
+     * that used the same output buffers</li>
+     * <li>the copy back of chunk n waits for its kernel</li>
+     * </ul>
+     * The transfers and the computation overlap and the input does not need to fit in the device
+     * memory. The time of each phase is reported to the {@link Profiler} per chunk.
+     *
+     * @param input host array
+     * @param hostOutput array for the result; if it is null, the output is allocated once and reused
+     * @return output in the host
+     */
+    PArray<outT> applyStreaming(PArray<inT> input, PArray<outT> hostOutput) {
+
+        long begin = System.nanoTime();
+
+        if (GraalAcceleratorOptions.profileOffload) {
+            Profiler.getInstance().writeInBuffer(ProfilerType.STREAMING_MAP, "begin", begin);
+        }
+
+        if (!preparedExecutionFinish) {
+            prepareExecution(input);
+        }
+
+        if (!scopeVarList.isEmpty()) {
+            writeScopeVars(scopeWrites++);
+        }
+
+        int size = input.size();
+        PArray<outT> out = hostOutput;
+        if (out == null) {
+            if (streamingHostOutput == null || streamingHostOutput.size() != size) {
+                streamingHostOutput = new PArray<>(size, outputType, input.getStorageMode(), true);
+            }
+            out = streamingHostOutput;
+        }
+
+        if (GraalAcceleratorOptions.deoptGuardsEnabled && deoptBufferFlag == null) {
+            deoptBufferFlag = new AcceleratorPArray<>(1, TypeFactory.Integer(), StorageMode.OPENCL_BYTE_BUFFER, false);
+        }
+        if (deoptBufferFlag != null) {
+            deoptBufferFlag.allocateOpenCLBuffer(CL.CL_MEM_WRITE_ONLY);
+        }
+
+        int chunkSize = getStreamingChunkSize(size);
+        int numChunks = (size + chunkSize - 1) / chunkSize;
+        allocateStreamingBuffers(chunkSize, size % chunkSize);
+
+        // The queues are shared by the streaming maps of the device
+        cl_command_queue[] queues = getOpenCLDevice(0).getStreamingQueues();
+
+        // The metadata and the scope variables are written with the queue of the device
+        CL.clFinish(getOpenCLDevice(0).getCommandQueue());
+
+        cl_kernel kernel = getKernel(input, 0);
+        // The kernel stays pinned in the cache until all the chunks have finished
+        try {
+            RuntimeObjectTypeInfo[] inTypes = inputType.getNestedTypesOrSelf();
+            RuntimeObjectTypeInfo[] outTypes = outputType.getNestedTypesOrSelf();
+
+            cl_event[] writeEvents = new cl_event[numChunks];
+            cl_event[] kernelEvents = new cl_event[numChunks];
+            cl_event[] readEvents = new cl_event[numChunks];
+
+            for (int chunk = 0; chunk < numChunks; chunk++) {
+                int start = chunk * chunkSize;
+                int length = Math.min(chunkSize, size - start);
+                int slot = chunk % STREAMING_SLOTS;
+                int previous = chunk - STREAMING_SLOTS;
+
+                AcceleratorPArray<inT> in = (length == chunkSize) ? streamingInput.get(slot) : streamingTailInput;
+                AcceleratorPArray<outT> result = (length == chunkSize) ? streamingOutput.get(slot) : streamingTailOutput;
+
+                cl_event[] inputFree = (previous >= 0) ? new cl_event[]{kernelEvents[previous]} : null;
+                writeEvents[chunk] = writeChunk(queues[WRITE_QUEUE], input, in, inTypes, start, length, inputFree);
+
+                // The arguments are captured when the kernel is enqueued
+                setArguments(kernel, 0, in, scopedVariableBuffers, scalarVariableList, result);
+                cl_event[] kernelWaitList = (previous >= 0) ? new cl_event[]{writeEvents[chunk], readEvents[previous]} : new cl_event[]{writeEvents[chunk]};
+                kernelEvents[chunk] = enqueueKernel(queues[KERNEL_QUEUE], kernel, 0, length, kernelWaitList);
+                if (GraalAcceleratorOptions.profileOffload) {
+                    CL.clSetEventCallback(kernelEvents[chunk], CL.CL_COMPLETE, OpenCLUtils.makeCallBackFunction(ProfilerType.OCL_KERNEL, idxKernel++, 0), null);
+                }
+
+                readEvents[chunk] = readChunk(queues[READ_QUEUE], result, out, outTypes, start, length, kernelEvents[chunk]);
+
+                for (cl_command_queue queue : queues) {
+                    CL.clFlush(queue);
+                }
+            }
+
+            for (cl_command_queue queue : queues) {
+                CL.clFinish(queue);
+            }
+            releaseEvents(writeEvents);
+            releaseEvents(kernelEvents);
+            releaseEvents(readEvents);
+        } finally {
+            OCLKernelCache.getInstance().unpin(uuidKernel);
+        }
+
+        long end = System.nanoTime();
+
+        if (GraalAcceleratorOptions.profileOffload) {
+            Profiler.getInstance().writeInBuffer(ProfilerType.STREAMING_MAP, "end", end);
+            Profiler.getInstance().put(ProfilerType.STREAMING_MAP, end - begin);
+        }
+
+        return (out.size() == size) ? out : new ArraySlice<>(out, 0, size);
+    }
+
+    /**
+     * Execution time of the last kernel in each device, in nanoseconds (0 if the device had no
+     * elements). It waits for the kernels to finish.
+     */
+    long[] getKernelTimes() {
+        long[] times = new long[getNumberOfCurrentDevices()];
+        if (kernelEvents != null) {
+            for (int i = 0; i < kernelEvents.length && i < times.length; i++) {
+                if (kernelEvents[i] != null) {
+                    times[i] = OpenCLUtils.getTimeEvent(kernelEvents[i]);
+                }
+            }
+        }
+        return times;
+    }
+
+    /**
+     * Captured variables of the lambda expression. A {@link FusedFunction}, a {@link ZipFunction}
+     * or a {@link FilterFunction} is built only from lambda expressions without scope, so its fields
+     * (the user functions) are not passed to the kernel.
+     */
+    private Field[] getScopeFields() {
+        if (function instanceof FusedFunction || function instanceof ZipFunction || function instanceof FilterFunction) {
+            return new Field[0];
+        }
+        return function.getClass().getDeclaredFields();
     }
 
     private Deque<Object> getParametersFromTheScope() throws IllegalArgumentException, IllegalAccessException {
-        Field[] functionFields = function.getClass().getDeclaredFields();
+        Field[] functionFields = getScopeFields();
         Deque<Object> lambdaParameters = new LinkedList<>();
         for (int i = 0; i < functionFields.length; i++) {
             functionFields[i].setAccessible(true);
@@ -462,7 +839,7 @@ public class OpenCLMap<inT, outT> extends MapJavaThreads<inT, outT> {
      * @throws IllegalAccessException
      */
     private Deque<Object> getParametersFromTheScopeWithFilter(PArray<inT> input) throws IllegalArgumentException, IllegalAccessException {
-        Field[] functionFields = function.getClass().getDeclaredFields();
+        Field[] functionFields = getScopeFields();
         Deque<Object> lambdaParameters = new LinkedList<>();
         for (int i = 0; i < functionFields.length; i++) {
             functionFields[i].setAccessible(true);
@@ -489,6 +866,37 @@ public class OpenCLMap<inT, outT> extends MapJavaThreads<inT, outT> {
         return getParametersFromTheScopeWithFilter(input).toArray();
     }
 
+    /**
+     * Class of the (first) lambda expression compiled into the kernel.
+     */
+    private Class<?> getLambdaClass() {
+        if (function instanceof FusedFunction) {
+            return ((FusedFunction<?, ?, ?>) function).getLambdaClasses().get(0);
+        } else if (function instanceof ZipFunction) {
+            return ((ZipFunction<?, ?, ?>) function).getBiFunction().getClass();
+        } else if (function instanceof FilterFunction) {
+            return ((FilterFunction<?>) function).getPredicate().getClass();
+        }
+        return function.getClass();
+    }
+
+    /**
+     * Graal IR of the user function. For a {@link FusedFunction}, the lambda expressions are
+     * inlined one after the other in the same graph. For a {@link ZipFunction}, the binary lambda
+     * expression is inlined into a function that reads the fields of the tuple, and for a
+     * {@link FilterFunction}, the predicate into a function that returns the flag.
+     */
+    private StructuredGraph getOptimizedGraalIRLambda() throws KernelOffloadException {
+        if (function instanceof FusedFunction) {
+            return GraalIRConversion.getOptimizedGraalIRFusedLambda(((FusedFunction<?, ?, ?>) function).getLambdaClasses());
+        } else if (function instanceof ZipFunction) {
+            return GraalIRConversion.getOptimizedGraalIRZipLambda(((ZipFunction<?, ?, ?>) function).getBiFunction());
+        } else if (function instanceof FilterFunction) {
+            return GraalIRConversion.getOptimizedGraalIRFilterLambda(((FilterFunction<?>) function).getPredicate());
+        }
+        return GraalIRConversion.getOptimizedGraalIRLambda(function.getClass());
+    }
+
     /**
      * It compiles a lambda expression in Java into OpenCL C source code. Then, the backend it will
      * install the binary into a cache. If the same expression is executed again, the library will
@@ -500,7 +908,16 @@ public class OpenCLMap<inT, outT> extends MapJavaThreads<inT, outT> {
 
         long start = System.nanoTime();
 
-        StructuredGraph graphLambda = GraalIRConversion.getOptimizedGraalIRLambda(function.getClass());
+        StructuredGraph graphLambda = null;
+        try {
+            graphLambda = getOptimizedGraalIRLambda();
+        } catch (KernelOffloadException e) {
+            if (GraalAcceleratorOptions.printOCLInfo) {
+                LoggerMarawacc.info("[Kernel fusion failed] " + e.getMessage());
+            }
+            compilationFailed = true;
+            return;
+        }
 
         if (GraalAcceleratorOptions.printGraalIR) {
             GraalIRUtilities.printGraph(graphLambda, false);
@@ -521,7 +938,7 @@ public class OpenCLMap<inT, outT> extends MapJavaThreads<inT, outT> {
             GraalIRUtilities.dumpGraph(skeletonGraph, "Skeleton Graph");
 
             System.out.println("\n\nBytecode for the lambda expression");
-            ResolvedJavaMethod resolvedJavaMethodForUserFunction = GraalIRConversion.getResolvedJavaMethodForUserFunction(function.getClass());
+            ResolvedJavaMethod resolvedJavaMethodForUserFunction = GraalIRConversion.getResolvedJavaMethodForUserFunction(getLambdaClass());
             GraalIRUtilities.printByteCodes(resolvedJavaMethodForUserFunction);
 
         }
@@ -831,7 +1248,7 @@ public class OpenCLMap<inT, outT> extends MapJavaThreads<inT, outT> {
         }
     }
 
-    private boolean isKernelCompilationFailed() {
+    boolean isKernelCompilationFailed() {
         return this.compilationFailed;
     }
 
@@ -22,106 +22,439 @@ package uk.ac.ed.jpai;
 
 import java.util.ArrayList;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BiFunction;
 
+import uk.ac.ed.accelerator.common.GraalAcceleratorOptions;
+import uk.ac.ed.datastructures.common.ArraySlice;
 import uk.ac.ed.datastructures.common.PArray;
 import uk.ac.ed.datastructures.common.PArray.StorageMode;
 
-public final class Pipeline<inT, outT> extends ArrayFunction<inT, outT> {
+/**
+ * Pipeline of {@link ArrayFunction}. The input is split in chunks which flow through the stages
+ * via bounded queues of depth <code>-Dmarawacc.pipelineQueueDepth</code>. Each stage runs in a
+ * long-lived worker thread that is started in the first call to apply and reused in the following
+ * calls. The thread calling apply produces the chunks for the first stage and waits until the last
+ * stage has written all of them.
+ *
+ * The workers exit when they have been idle for <code>-Dmarawacc.pipelineIdleTimeout</code>
+ * milliseconds and no apply is running, so a pipeline that is not used any more does not keep its
+ * threads (and, through them, its buffers). The next call to apply starts them again. They can also
+ * be released explicitly with {@link #close()}.
+ *
+ * Pipelines with any number of stages are created with {@link #builder(int, ArrayFunction)}.
+ *
+ * A reduction can only be the last stage: its partial results (one per chunk) are combined in the
+ * last stage, so the result does not depend on the chunk size and is the same as the reduction of
+ * the whole input. A reduction in another stage would pass one partial result per chunk to the
+ * next stage, so it is rejected when the pipeline is built.
+ *
+ * @param <inT>
+ * @param <outT>
+ */
+public final class Pipeline<inT, outT> extends ArrayFunction<inT, outT> implements AutoCloseable {
 
     private int chunkSize;
 
+    private final int queueDepth;
+
     private ArrayBlockingQueue<PArray<inT>> inputQueue;
 
     private ArrayList<AbstractPipelineStage<?, ?>> stages;
 
     private PArray<outT> output;
 
-    private Pipeline(int chunkSize) {
+    private int allocatedChunkSize;
+
+    private volatile Thread[] workers;
+
+    private Thread producer;
+
+    private final Object producerLock = new Object();
+
+    /**
+     * True while a call to apply is running. Guarded by this.
+     */
+    private boolean applying;
+
+    private volatile CountDownLatch outputFinished;
+
+    private volatile Throwable failure;
+
+    private Pipeline(int chunkSize, int queueDepth) {
         this.chunkSize = chunkSize;
-        this.inputQueue = new ArrayBlockingQueue<>(1);
+        this.queueDepth = Math.max(1, queueDepth);
+        this.inputQueue = newQueue();
         this.stages = new ArrayList<>();
         this.output = null;
     }
 
-    public static <T0, T1, T2> Pipeline<T0, T2> create(int chunkSize, ArrayFunction<T0, T1> stage0, ArrayFunction<T1, T2> stage1) {
-        Pipeline<T0, T2> p = new Pipeline<>(chunkSize);
-        ArrayBlockingQueue<PArray<T1>> queue1 = new ArrayBlockingQueue<>(1);
+    private <T> ArrayBlockingQueue<PArray<T>> newQueue() {
+        return new ArrayBlockingQueue<>(queueDepth);
+    }
 
-        p.stages.add(new IntermediatePipelineStage<>(stage0, p.inputQueue, queue1));
-        p.stages.add(new LastPipelineStage<>(stage1, queue1));
-        return p;
+    private void addStage(AbstractPipelineStage<?, ?> stage) {
+        stage.setPipeline(this);
+        stages.add(stage);
     }
 
-    public static <T0, T1, T2, T3> Pipeline<T0, T3> create(int chunkSize, ArrayFunction<T0, T1> stage0, ArrayFunction<T1, T2> stage1, ArrayFunction<T2, T3> stage2) {
-        Pipeline<T0, T3> pipeline = new Pipeline<>(chunkSize);
-        ArrayBlockingQueue<PArray<T1>> queue1 = new ArrayBlockingQueue<>(1);
-        ArrayBlockingQueue<PArray<T2>> queue2 = new ArrayBlockingQueue<>(1);
+    /**
+     * Builder for a pipeline with any number of stages. The output type of each stage is the input
+     * type of the next one:
+     *
+     * <pre>
+     * Pipeline&lt;Float, Double&gt; p = Pipeline.builder(chunkSize, stage0).then(stage1).then(stage2).build();
+     * </pre>
+     *
+     * @param <inT> input type of the pipeline
+     * @param <outT> output type of the last stage added
+     */
+    public static final class Builder<inT, outT> {
+
+        private final int chunkSize;
+        private int queueDepth;
+        private final ArrayList<ArrayFunction<?, ?>> functions;
+
+        private Builder(int chunkSize, ArrayList<ArrayFunction<?, ?>> functions, int queueDepth) {
+            this.chunkSize = chunkSize;
+            this.functions = functions;
+            this.queueDepth = queueDepth;
+        }
+
+        /**
+         * It appends a stage to the pipeline.
+         *
+         * @param stage
+         * @return {@link Builder}
+         */
+        public <T> Builder<inT, T> then(ArrayFunction<outT, T> stage) {
+            ArrayList<ArrayFunction<?, ?>> next = new ArrayList<>(functions);
+            next.add(stage);
+            return new Builder<>(chunkSize, next, queueDepth);
+        }
+
+        /**
+         * Capacity of the queues between stages. By default it is
+         * <code>-Dmarawacc.pipelineQueueDepth</code>.
+         *
+         * @param depth
+         * @return {@link Builder}
+         */
+        public Builder<inT, outT> queueDepth(int depth) {
+            this.queueDepth = depth;
+            return this;
+        }
 
-        pipeline.stages.add(new IntermediatePipelineStage<>(stage0, pipeline.inputQueue, queue1));
-        pipeline.stages.add(new IntermediatePipelineStage<>(stage1, queue1, queue2));
-        pipeline.stages.add(new LastPipelineStage<>(stage2, queue2));
-        return pipeline;
+        /**
+         * It wires one {@link IntermediatePipelineStage} per stage and a {@link LastPipelineStage}
+         * for the last one.
+         *
+         * @return {@link Pipeline}
+         * @throws IllegalArgumentException if a stage other than the last one is a reduction
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public Pipeline<inT, outT> build() {
+            Pipeline<inT, outT> pipeline = new Pipeline<>(chunkSize, queueDepth);
+            ArrayBlockingQueue queue = pipeline.inputQueue;
+            int last = functions.size() - 1;
+            for (int i = 0; i < last; ++i) {
+                if (functions.get(i).getPartialCombiner() != null) {
+                    throw new IllegalArgumentException("Stage " + i + " of the pipeline is a reduction: a reduction can only be the last stage");
+                }
+            }
+            for (int i = 0; i < last; ++i) {
+                ArrayBlockingQueue next = pipeline.newQueue();
+                pipeline.addStage(new IntermediatePipelineStage(functions.get(i), queue, next));
+                queue = next;
+            }
+            pipeline.addStage(new LastPipelineStage(functions.get(last), queue));
+            return pipeline;
+        }
     }
 
-    public static <T0, T1, T2, T3, T4> Pipeline<T0, T4> create(int chunkSize, ArrayFunction<T0, T1> stage0, ArrayFunction<T1, T2> stage1, ArrayFunction<T2, T3> stage2, ArrayFunction<T3, T4> stage3) {
-        Pipeline<T0, T4> pipeline = new Pipeline<>(chunkSize);
-        ArrayBlockingQueue<PArray<T1>> queue1 = new ArrayBlockingQueue<>(1);
-        ArrayBlockingQueue<PArray<T2>> queue2 = new ArrayBlockingQueue<>(1);
-        ArrayBlockingQueue<PArray<T3>> queue3 = new ArrayBlockingQueue<>(1);
+    /**
+     * It starts a {@link Builder} with the first stage of the pipeline.
+     *
+     * @param chunkSize
+     * @param stage0
+     * @return {@link Builder}
+     */
+    public static <T0, T1> Builder<T0, T1> builder(int chunkSize, ArrayFunction<T0, T1> stage0) {
+        ArrayList<ArrayFunction<?, ?>> functions = new ArrayList<>();
+        functions.add(stage0);
+        return new Builder<>(chunkSize, functions, GraalAcceleratorOptions.pipelineQueueDepth);
+    }
+
+    public static <T0, T1, T2> Pipeline<T0, T2> create(int chunkSize, ArrayFunction<T0, T1> stage0, ArrayFunction<T1, T2> stage1) {
+        return builder(chunkSize, stage0).then(stage1).build();
+    }
+
+    public static <T0, T1, T2, T3> Pipeline<T0, T3> create(int chunkSize, ArrayFunction<T0, T1> stage0, ArrayFunction<T1, T2> stage1, ArrayFunction<T2, T3> stage2) {
+        return builder(chunkSize, stage0).then(stage1).then(stage2).build();
+    }
 
-        pipeline.stages.add(new IntermediatePipelineStage<>(stage0, pipeline.inputQueue, queue1));
-        pipeline.stages.add(new IntermediatePipelineStage<>(stage1, queue1, queue2));
-        pipeline.stages.add(new IntermediatePipelineStage<>(stage2, queue2, queue3));
-        pipeline.stages.add(new LastPipelineStage<>(stage3, queue3));
-        return pipeline;
+    public static <T0, T1, T2, T3, T4> Pipeline<T0, T4> create(int chunkSize, ArrayFunction<T0, T1> stage0, ArrayFunction<T1, T2> stage1, ArrayFunction<T2, T3> stage2, ArrayFunction<T3, T4> stage3) {
+        return builder(chunkSize, stage0).then(stage1).then(stage2).then(stage3).build();
     }
 
     @Override
     public PArray<outT> apply(PArray<inT> input) {
-        if (!preparedExecutionFinish) {
+        startWorkers();
+        try {
+            return applyWithWorkers(input);
+        } finally {
+            applyFinished();
+        }
+    }
+
+    private PArray<outT> applyWithWorkers(PArray<inT> input) {
+
+        // this catches the case, where the input size is smaller than the chunkSize
+        int chunkSizeLocal = Math.min(this.chunkSize, input.size());
+
+        // the intermediate buffers are allocated again if the chunks are larger than in the
+        // previous calls (e.g. a nested pipeline that receives a larger chunk)
+        if (!preparedExecutionFinish || chunkSizeLocal > allocatedChunkSize) {
             prepareExecution(input);
         }
 
+        PArray<inT>[] inputSlices = input.splitInChunksOfSize(chunkSizeLocal);
+        boolean preservesSize = preservesSize();
+        if (preservesSize) {
+            // output slices for the last stage. The output can be set from outside (e.g. by an
+            // outer pipeline), so they are computed in every call
+            PArray<outT> target = output;
+            if (output.size() > input.size()) {
+                target = new ArraySlice<>(output, 0, input.size());
+            }
+            getLastStage().setOutputChunks(target.splitInChunksOfSize(chunkSizeLocal));
+        } else {
+            // the chunks have different sizes after some stage (e.g. filter or reduce): the last
+            // stage appends them to the output as they arrive
+            int capacity = maxOutputSize(input.size());
+            if (output == null || output.size() < capacity) {
+                output = new PArray<>(capacity, outputType);
+            }
+            getLastStage().setAppendOutput(output, inputSlices.length);
+        }
+
+        CountDownLatch finished = new CountDownLatch(1);
+        outputFinished = finished;
+        synchronized (producerLock) {
+            producer = Thread.currentThread();
+        }
+
         try {
-            // this catches the case, where the input size is smaller than the chunkSize
-            int chunkSizeLocal = Math.min(this.chunkSize, input.size());
-
-            ArrayList<Thread> threads = new ArrayList<>(stages.size() + 1);
-
-            // producer pushing results into the first stage in its own thread ...
-            threads.add(new Thread(() -> {
-                try {
-                    PArray<inT>[] inputSlices = input.splitInChunksOfSize(chunkSizeLocal);
-                    for (PArray<inT> inputSlice : inputSlices) {
-                        inputQueue.put(inputSlice);
-                    }
-                } catch (InterruptedException ex) {
-                    ex.printStackTrace();
-                }
-            }));
-            // ... and one thread per stage
-            for (Runnable s : stages) {
-                threads.add(new Thread(s));
+            // the calling thread produces the chunks for the first stage ...
+            for (PArray<inT> inputSlice : inputSlices) {
+                inputQueue.put(inputSlice);
             }
 
-            // launch all threads
-            for (Thread t : threads) {
-                t.start();
+            // ... and waits until the last stage has written all of them
+            finished.await();
+            if (!preservesSize) {
+                int emitted = getLastStage().getEmitted();
+                return (emitted == output.size()) ? output : new ArraySlice<>(output, 0, emitted);
             }
+            return output;
+        } catch (InterruptedException e) {
+            Throwable stageFailure = failure;
+            if (stageFailure != null) {
+                throw new RuntimeException("Pipeline stage failed", stageFailure);
+            }
+            // interrupted from outside: the chunks in flight are discarded and the workers are
+            // started again in the next call
+            failure = e;
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Pipeline interrupted", e);
+        } finally {
+            synchronized (producerLock) {
+                producer = null;
+            }
+        }
+    }
 
-            // wait for the last thread to finish
-            threads.get(threads.size() - 1).join();
+    /**
+     * A pipeline keeps the size of the data if all its stages keep it.
+     */
+    @Override
+    public boolean preservesSize() {
+        for (AbstractPipelineStage<?, ?> stage : stages) {
+            if (!stage.arrayFunction.preservesSize()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sum of the maximum output size of each chunk through all the stages.
+     */
+    @Override
+    public int maxOutputSize(int inputSize) {
+        if (getPartialCombiner() != null) {
+            // the partial results are combined in one element
+            return 1;
+        }
+        if (inputSize == 0) {
+            return 0;
+        }
+        int chunkSizeLocal = Math.min(this.chunkSize, inputSize);
+        int remainder = inputSize % chunkSizeLocal;
+        int size = (inputSize / chunkSizeLocal) * maxChunkOutputSize(chunkSizeLocal);
+        if (remainder != 0) {
+            size += maxChunkOutputSize(remainder);
+        }
+        return size;
+    }
 
-            // interrupt and join all (other) threads
-            for (Thread t : threads) {
+    /**
+     * A pipeline whose last stage is a reduction is a reduction of its input.
+     */
+    @Override
+    public BiFunction<outT, outT, outT> getPartialCombiner() {
+        return getLastStage().arrayFunction.getPartialCombiner();
+    }
+
+    private int maxChunkOutputSize(int chunkSizeLocal) {
+        int size = chunkSizeLocal;
+        for (AbstractPipelineStage<?, ?> stage : stages) {
+            size = stage.arrayFunction.maxOutputSize(size);
+        }
+        return size;
+    }
+
+    /**
+     * It starts a worker thread for each stage that does not have one running (the first call or
+     * workers that exited after the idle timeout). After a failure, the previous workers are joined
+     * and new ones are started.
+     */
+    private synchronized void startWorkers() {
+        applying = true;
+        if (failure != null) {
+            if (workers != null) {
+                joinWorkers();
+            }
+            // buffers and output chunks are set up again
+            preparedExecutionFinish = false;
+            failure = null;
+            inputQueue.clear();
+            for (AbstractPipelineStage<?, ?> stage : stages) {
+                stage.inputQueue.clear();
+            }
+        }
+        if (workers == null) {
+            workers = new Thread[stages.size()];
+        }
+        for (int i = 0; i < workers.length; ++i) {
+            if (workers[i] == null) {
+                workers[i] = new Thread(stages.get(i), "marawacc-pipeline-stage-" + i);
+                workers[i].setDaemon(true);
+                workers[i].start();
+            }
+        }
+    }
+
+    private void joinWorkers() {
+        for (Thread t : workers) {
+            if (t != null) {
                 t.interrupt();
-                t.join();
             }
+        }
+        for (Thread t : workers) {
+            try {
+                if (t != null) {
+                    t.join();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        workers = null;
+    }
 
-            return output;
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-            return null;
+    private synchronized void applyFinished() {
+        applying = false;
+    }
+
+    /**
+     * Called by a worker that has been idle for {@link #getIdleTimeout()} milliseconds. If no apply
+     * is running, the worker releases its slot and exits; the next call to apply starts a new one.
+     * The decision is taken with the lock held, so apply never puts chunks for a worker that is
+     * exiting.
+     *
+     * @return true if the calling worker must exit
+     */
+    synchronized boolean retireIfIdle() {
+        if (applying) {
+            return false;
+        }
+        Thread[] running = workers;
+        if (running != null) {
+            for (int i = 0; i < running.length; ++i) {
+                if (running[i] == Thread.currentThread()) {
+                    running[i] = null;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Time in milliseconds that the workers wait for a chunk before exiting (0 or less: they wait
+     * until {@link #close()}).
+     */
+    long getIdleTimeout() {
+        return GraalAcceleratorOptions.pipelineIdleTimeout;
+    }
+
+    /**
+     * It stops the worker threads of the stages. A following call to apply starts them again.
+     */
+    public synchronized void shutdown() {
+        if (workers != null) {
+            joinWorkers();
+        }
+    }
+
+    /**
+     * It stops the worker threads of the stages (see {@link #shutdown()}).
+     */
+    @Override
+    public void close() {
+        shutdown();
+    }
+
+    /**
+     * Called by the last stage when all the output chunks of the current apply are written.
+     */
+    void outputFinished() {
+        outputFinished.countDown();
+    }
+
+    /**
+     * Called by a stage whose function threw an exception. The other workers are stopped and the
+     * exception is re-thrown in the thread that called apply.
+     */
+    void stageFailed(Throwable t) {
+        // not synchronized: startWorkers and shutdown join the workers while holding the lock
+        if (failure == null) {
+            failure = t;
+        }
+        Thread[] running = workers;
+        if (running != null) {
+            for (Thread w : running) {
+                if (w != null && w != Thread.currentThread()) {
+                    w.interrupt();
+                }
+            }
+        }
+        // the caller is only interrupted while it is inside apply
+        synchronized (producerLock) {
+            if (producer != null) {
+                producer.interrupt();
+            }
         }
     }
 
@@ -168,11 +501,12 @@ public final class Pipeline<inT, outT> extends ArrayFunction<inT, outT> {
         if (!stagesKnowTheirTypes()) {
             inferTypes(input);
         }
+        inputType = stages.get(0).getInputType();
+        outputType = getLastStage().getOutputType();
 
-        // TODO: this assumes that input has already the proper size!
-        if (output == null) {
-            // TODO: this assumes the input and output sizes are the same ...
-            output = new PArray<>(input.size(), getLastStage().getOutputType());
+        // if the size changes in any stage, the output is allocated in apply
+        if (preservesSize() && (output == null || output.size() < input.size())) {
+            output = new PArray<>(input.size(), outputType);
         }
 
         // this catches the case, where the input size is smaller than the chunkSize
@@ -180,9 +514,7 @@ public final class Pipeline<inT, outT> extends ArrayFunction<inT, outT> {
 
         // allocate all intermediate buffers
         allocateIntermediateBuffers(chunkSizeLocal, input.getStorageMode());
-
-        // get last stage and set output slices to write to
-        getLastStage().setOutputChunks(output.splitInChunksOfSize(chunkSizeLocal));
+        allocatedChunkSize = chunkSizeLocal;
 
         preparedExecutionFinish = true;
         return (PArray<outT>) tmp;
@@ -195,6 +527,8 @@ public final class Pipeline<inT, outT> extends ArrayFunction<inT, outT> {
         for (AbstractPipelineStage<?, ?> stage : stages) {
             tmp = stage.inferTypes(tmp);
         }
+        inputType = stages.get(0).getInputType();
+        outputType = getLastStage().getOutputType();
         return (PArray<outT>) tmp;
     }
 
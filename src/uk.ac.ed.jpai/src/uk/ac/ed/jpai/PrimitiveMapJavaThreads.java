@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package uk.ac.ed.jpai;
+
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.IntUnaryOperator;
+
+import uk.ac.ed.accelerator.common.GraalAcceleratorOptions;
+import uk.ac.ed.datastructures.common.PArray;
+import uk.ac.ed.datastructures.common.RuntimeObjectTypeInfo;
+import uk.ac.ed.datastructures.common.TypeFactory;
+import uk.ac.ed.jpai.MapJavaThreads.Schedule;
+
+/**
+ * Map skeleton with Java threads specialized for primitive types ({@link OfFloat}, {@link OfDouble}
+ * and {@link OfInt}). The user function receives and returns primitive values and the elements are
+ * read and written with the primitive accessors of the {@link PArray} (e.g.
+ * {@link PArray#getFloat(int)}), so no object is allocated per element.
+ *
+ * The scheduling is the same as in {@link MapJavaThreads}: one contiguous range per thread or
+ * work-stealing over the shared {@link JavaThreadsExecutor}.
+ *
+ * @param <T>
+ */
+public abstract class PrimitiveMapJavaThreads<T> extends ArrayFunction<T, T> {
+
+    private int numberOfThreads;
+
+    private Schedule schedule;
+
+    private int grainSize;
+
+    protected PArray<T> output;
+
+    protected PrimitiveMapJavaThreads(int numberOfThreads, Schedule schedule, RuntimeObjectTypeInfo type) {
+        this.numberOfThreads = numberOfThreads;
+        this.schedule = schedule;
+        this.grainSize = GraalAcceleratorOptions.javaThreadsGrainSize;
+        this.inputType = type;
+        this.outputType = type;
+    }
+
+    protected static Schedule defaultSchedule() {
+        return GraalAcceleratorOptions.javaThreadsWorkStealing ? Schedule.WORK_STEALING : Schedule.FIXED_CHUNKS;
+    }
+
+    public Schedule getSchedule() {
+        return schedule;
+    }
+
+    /**
+     * Minimum number of elements per task for {@link Schedule#WORK_STEALING}. If it is 0, it is
+     * computed for each input.
+     *
+     * @param grainSize
+     */
+    public void setGrainSize(int grainSize) {
+        this.grainSize = grainSize;
+    }
+
+    /**
+     * Sequential map over the range [from, to).
+     */
+    protected abstract void mapRange(PArray<T> input, PArray<T> out, int from, int to);
+
+    @Override
+    public PArray<T> apply(PArray<T> input) {
+
+        if (!preparedExecutionFinish) {
+            prepareExecution(input);
+        }
+
+        if (numberOfThreads == 0) {
+            // provoked from a deoptimization
+            numberOfThreads = Runtime.getRuntime().availableProcessors();
+        }
+
+        if (output == null) {
+            output = allocateOutputArray(input.size(), input.getStorageMode());
+        }
+
+        PArray<T> out = output;
+        int size = input.size();
+        if (schedule == Schedule.WORK_STEALING) {
+            JavaThreadsExecutor.getInstance().executeRange(size, grainSize, (from, to) -> mapRange(input, out, from, to));
+        } else {
+            // one contiguous range per thread, without ArraySlice indirection
+            int chunk = (size + numberOfThreads - 1) / numberOfThreads;
+            JavaThreadsExecutor.getInstance().execute(numberOfThreads, j -> {
+                int from = Math.min(size, j * chunk);
+                int to = Math.min(size, from + chunk);
+                mapRange(input, out, from, to);
+            });
+        }
+        return output;
+    }
+
+    @Override
+    public PArray<T> prepareExecution(PArray<T> input) {
+        PArray<T> out = inferTypes(input);
+        preparedExecutionFinish = true;
+        return out;
+    }
+
+    @Override
+    public PArray<T> inferTypes(PArray<T> input) {
+        // input and output types are fixed by the specialization
+        return new PArray<>(1, outputType);
+    }
+
+    @Override
+    public void setOutput(PArray<T> output) {
+        this.output = output;
+    }
+
+    @Override
+    public boolean isInCache() {
+        return false;
+    }
+
+    public static final class OfFloat extends PrimitiveMapJavaThreads<Float> {
+
+        private final FloatUnaryOperator function;
+
+        public OfFloat(FloatUnaryOperator function) {
+            this(Runtime.getRuntime().availableProcessors(), defaultSchedule(), function);
+        }
+
+        public OfFloat(int numberOfThreads, Schedule schedule, FloatUnaryOperator function) {
+            super(numberOfThreads, schedule, TypeFactory.Float());
+            this.function = function;
+        }
+
+        @Override
+        protected void mapRange(PArray<Float> input, PArray<Float> out, int from, int to) {
+            for (int i = from; i < to; ++i) {
+                out.putFloat(i, function.applyAsFloat(input.getFloat(i)));
+            }
+        }
+    }
+
+    public static final class OfDouble extends PrimitiveMapJavaThreads<Double> {
+
+        private final DoubleUnaryOperator function;
+
+        public OfDouble(DoubleUnaryOperator function) {
+            this(Runtime.getRuntime().availableProcessors(), defaultSchedule(), function);
+        }
+
+        public OfDouble(int numberOfThreads, Schedule schedule, DoubleUnaryOperator function) {
+            super(numberOfThreads, schedule, TypeFactory.Double());
+            this.function = function;
+        }
+
+        @Override
+        protected void mapRange(PArray<Double> input, PArray<Double> out, int from, int to) {
+            for (int i = from; i < to; ++i) {
+                out.putDouble(i, function.applyAsDouble(input.getDouble(i)));
+            }
+        }
+    }
+
+    public static final class OfInt extends PrimitiveMapJavaThreads<Integer> {
+
+        private final IntUnaryOperator function;
+
+        public OfInt(IntUnaryOperator function) {
+            this(Runtime.getRuntime().availableProcessors(), defaultSchedule(), function);
+        }
+
+        public OfInt(int numberOfThreads, Schedule schedule, IntUnaryOperator function) {
+            super(numberOfThreads, schedule, TypeFactory.Integer());
+            this.function = function;
+        }
+
+        @Override
+        protected void mapRange(PArray<Integer> input, PArray<Integer> out, int from, int to) {
+            for (int i = from; i < to; ++i) {
+                out.putInt(i, function.applyAsInt(input.getInt(i)));
+            }
+        }
+    }
+}
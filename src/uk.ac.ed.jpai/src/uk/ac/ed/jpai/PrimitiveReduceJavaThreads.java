@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+
+package uk.ac.ed.jpai;
+
+import java.util.function.BiFunction;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.IntBinaryOperator;
+
+import uk.ac.ed.datastructures.common.ArraySlice;
+import uk.ac.ed.datastructures.common.PArray;
+import uk.ac.ed.datastructures.common.RuntimeObjectTypeInfo;
+import uk.ac.ed.datastructures.common.TypeFactory;
+
+/**
+ * Parallel reduction with Java threads specialized for primitive types ({@link OfFloat},
+ * {@link OfDouble} and {@link OfInt}). Each thread reduces one contiguous range with the primitive
+ * accessors of the {@link PArray} and stores its partial result in a primitive array. The partial
+ * results are combined in order by the caller thread, so the function only needs to be
+ * associative.
+ *
+ * @param <T>
+ */
+public abstract class PrimitiveReduceJavaThreads<T> extends ArrayFunction<T, T> {
+
+    protected int numberOfThreads;
+
+    protected PArray<T> output;
+
+    protected PrimitiveReduceJavaThreads(int numberOfThreads, RuntimeObjectTypeInfo type) {
+        this.numberOfThreads = numberOfThreads;
+        this.inputType = type;
+        this.outputType = type;
+    }
+
+    /**
+     * It reduces the input in <code>numberOfThreads</code> ranges and writes the result in position
+     * 0 of the output.
+     */
+    protected abstract void reduce(PArray<T> input, PArray<T> out, int nThreads, int chunk);
+
+    @Override
+    public PArray<T> apply(PArray<T> input) {
+        if (numberOfThreads == 0) {
+            // provoked from a deoptimization
+            numberOfThreads = Runtime.getRuntime().availableProcessors();
+        }
+        // A new result for each call unless an output has been set, as in Reduce
+        PArray<T> out = (output == null) ? new PArray<>(1, outputType) : output;
+        int chunk = (input.size() + numberOfThreads - 1) / numberOfThreads;
+        reduce(input, out, numberOfThreads, chunk);
+        return (out.size() == 1) ? out : new ArraySlice<>(out, 0, 1);
+    }
+
+    @Override
+    public boolean preservesSize() {
+        return false;
+    }
+
+    @Override
+    public int maxOutputSize(int inputSize) {
+        return 1;
+    }
+
+    @Override
+    public PArray<T> prepareExecution(PArray<T> input) {
+        preparedExecutionFinish = true;
+        return input;
+    }
+
+    @Override
+    public PArray<T> inferTypes(PArray<T> input) {
+        return input;
+    }
+
+    @Override
+    public void setOutput(PArray<T> output) {
+        this.output = output;
+    }
+
+    @Override
+    public boolean isInCache() {
+        return false;
+    }
+
+    public static final class OfFloat extends PrimitiveReduceJavaThreads<Float> {
+
+        private final FloatBinaryOperator function;
+        private final float neutral;
+
+        public OfFloat(FloatBinaryOperator function, float neutral) {
+            this(Runtime.getRuntime().availableProcessors(), function, neutral);
+        }
+
+        public OfFloat(int numberOfThreads, FloatBinaryOperator function, float neutral) {
+            super(numberOfThreads, TypeFactory.Float());
+            this.function = function;
+            this.neutral = neutral;
+        }
+
+        @Override
+        public BiFunction<Float, Float, Float> getPartialCombiner() {
+            return (a, b) -> function.applyAsFloat(a, b);
+        }
+
+        @Override
+        protected void reduce(PArray<Float> input, PArray<Float> out, int nThreads, int chunk) {
+            int size = input.size();
+            float[] partials = new float[nThreads];
+            JavaThreadsExecutor.getInstance().execute(nThreads, j -> {
+                int to = Math.min(size, (j + 1) * chunk);
+                float acc = neutral;
+                for (int i = j * chunk; i < to; ++i) {
+                    acc = function.applyAsFloat(acc, input.getFloat(i));
+                }
+                partials[j] = acc;
+            });
+            float result = partials[0];
+            for (int j = 1; j < nThreads; ++j) {
+                result = function.applyAsFloat(result, partials[j]);
+            }
+            out.putFloat(0, result);
+        }
+    }
+
+    public static final class OfDouble extends PrimitiveReduceJavaThreads<Double> {
+
+        private final DoubleBinaryOperator function;
+        private final double neutral;
+
+        public OfDouble(DoubleBinaryOperator function, double neutral) {
+            this(Runtime.getRuntime().availableProcessors(), function, neutral);
+        }
+
+        public OfDouble(int numberOfThreads, DoubleBinaryOperator function, double neutral) {
+            super(numberOfThreads, TypeFactory.Double());
+            this.function = function;
+            this.neutral = neutral;
+        }
+
+        @Override
+        public BiFunction<Double, Double, Double> getPartialCombiner() {
+            return (a, b) -> function.applyAsDouble(a, b);
+        }
+
+        @Override
+        protected void reduce(PArray<Double> input, PArray<Double> out, int nThreads, int chunk) {
+            int size = input.size();
+            double[] partials = new double[nThreads];
+            JavaThreadsExecutor.getInstance().execute(nThreads, j -> {
+                int to = Math.min(size, (j + 1) * chunk);
+                double acc = neutral;
+                for (int i = j * chunk; i < to; ++i) {
+                    acc = function.applyAsDouble(acc, input.getDouble(i));
+                }
+                partials[j] = acc;
+            });
+            double result = partials[0];
+            for (int j = 1; j < nThreads; ++j) {
+                result = function.applyAsDouble(result, partials[j]);
+            }
+            out.putDouble(0, result);
+        }
+    }
+
+    public static final class OfInt extends PrimitiveReduceJavaThreads<Integer> {
+
+        private final IntBinaryOperator function;
+        private final int neutral;
+
+        public OfInt(IntBinaryOperator function, int neutral) {
+            this(Runtime.getRuntime().availableProcessors(), function, neutral);
+        }
+
+        public OfInt(int numberOfThreads, IntBinaryOperator function, int neutral) {
+            super(numberOfThreads, TypeFactory.Integer());
+            this.function = function;
+            this.neutral = neutral;
+        }
+
+        @Override
+        public BiFunction<Integer, Integer, Integer> getPartialCombiner() {
+            return (a, b) -> function.applyAsInt(a, b);
+        }
+
+        @Override
+        protected void reduce(PArray<Integer> input, PArray<Integer> out, int nThreads, int chunk) {
+            int size = input.size();
+            int[] partials = new int[nThreads];
+            JavaThreadsExecutor.getInstance().execute(nThreads, j -> {
+                int to = Math.min(size, (j + 1) * chunk);
+                int acc = neutral;
+                for (int i = j * chunk; i < to; ++i) {
+                    acc = function.applyAsInt(acc, input.getInt(i));
+                }
+                partials[j] = acc;
+            });
+            int result = partials[0];
+            for (int j = 1; j < nThreads; ++j) {
+                result = function.applyAsInt(result, partials[j]);
+            }
+            out.putInt(0, result);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+package uk.ac.ed.jpai;
+
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.IntBinaryOperator;
+
+import uk.ac.ed.datastructures.common.ArraySlice;
+import uk.ac.ed.datastructures.common.PArray;
+import uk.ac.ed.datastructures.common.RuntimeObjectTypeInfo;
+import uk.ac.ed.datastructures.common.TypeFactory;
+
+/**
+ * Parallel scan with Java threads specialized for primitive types ({@link OfFloat},
+ * {@link OfDouble} and {@link OfInt}). It is the blocked two-pass scheme of
+ * {@link ScanJavaThreads}, but the elements are read and written with the primitive accessors of
+ * the {@link PArray} and the block results are kept in a primitive array, so no object is allocated
+ * per element.
+ *
+ * @param <T>
+ */
+public abstract class PrimitiveScanJavaThreads<T> extends ArrayFunction<T, T> {
+
+    protected int numberOfThreads;
+
+    protected final boolean inclusive;
+
+    protected PArray<T> output;
+
+    protected PrimitiveScanJavaThreads(int numberOfThreads, boolean inclusive, RuntimeObjectTypeInfo type) {
+        this.numberOfThreads = numberOfThreads;
+        this.inclusive = inclusive;
+        this.inputType = type;
+        this.outputType = type;
+    }
+
+    public boolean isInclusive() {
+        return inclusive;
+    }
+
+    /**
+     * It scans the input in <code>nBlocks</code> contiguous blocks of <code>chunk</code> elements.
+     */
+    protected abstract void scan(PArray<T> input, PArray<T> out, int nBlocks, int chunk);
+
+    @Override
+    public PArray<T> apply(PArray<T> input) {
+        if (numberOfThreads == 0) {
+            // provoked from a deoptimization
+            numberOfThreads = Runtime.getRuntime().availableProcessors();
+        }
+        if (output == null || output.size() < input.size()) {
+            output = allocateOutputArray(input.size(), input.getStorageMode());
+        }
+        PArray<T> out = (output.size() == input.size()) ? output : new ArraySlice<>(output, 0, input.size());
+        int chunk = (input.size() + numberOfThreads - 1) / numberOfThreads;
+        scan(input, out, numberOfThreads, chunk);
+        return out;
+    }
+
+    @Override
+    public PArray<T> prepareExecution(PArray<T> input) {
+        preparedExecutionFinish = true;
+        return input;
+    }
+
+    @Override
+    public PArray<T> inferTypes(PArray<T> input) {
+        return input;
+    }
+
+    @Override
+    public void setOutput(PArray<T> output) {
+        this.output = output;
+    }
+
+    @Override
+    public boolean isInCache() {
+        return false;
+    }
+
+    public static final class OfFloat extends PrimitiveScanJavaThreads<Float> {
+
+        private final FloatBinaryOperator function;
+        private final float neutral;
+
+        public OfFloat(FloatBinaryOperator function, float neutral, boolean inclusive) {
+            this(Runtime.getRuntime().availableProcessors(), function, neutral, inclusive);
+        }
+
+        public OfFloat(int numberOfThreads, FloatBinaryOperator function, float neutral, boolean inclusive) {
+            super(numberOfThreads, inclusive, TypeFactory.Float());
+            this.function = function;
+            this.neutral = neutral;
+        }
+
+        @Override
+        protected void scan(PArray<Float> input, PArray<Float> out, int nBlocks, int chunk) {
+            int size = input.size();
+            float[] partials = new float[nBlocks];
+            JavaThreadsExecutor.getInstance().execute(nBlocks, j -> {
+                int to = Math.min(size, (j + 1) * chunk);
+                float acc = neutral;
+                for (int i = j * chunk; i < to; ++i) {
+                    acc = function.applyAsFloat(acc, input.getFloat(i));
+                }
+                partials[j] = acc;
+            });
+            float acc = neutral;
+            for (int j = 0; j < nBlocks; ++j) {
+                float blockResult = partials[j];
+                partials[j] = acc;
+                acc = function.applyAsFloat(acc, blockResult);
+            }
+            JavaThreadsExecutor.getInstance().execute(nBlocks, j -> {
+                int to = Math.min(size, (j + 1) * chunk);
+                float current = partials[j];
+                for (int i = j * chunk; i < to; ++i) {
+                    float next = function.applyAsFloat(current, input.getFloat(i));
+                    out.putFloat(i, inclusive ? next : current);
+                    current = next;
+                }
+            });
+        }
+    }
+
+    public static final class OfDouble extends PrimitiveScanJavaThreads<Double> {
+
+        private final DoubleBinaryOperator function;
+        private final double neutral;
+
+        public OfDouble(DoubleBinaryOperator function, double neutral, boolean inclusive) {
+            this(Runtime.getRuntime().availableProcessors(), function, neutral, inclusive);
+        }
+
+        public OfDouble(int numberOfThreads, DoubleBinaryOperator function, double neutral, boolean inclusive) {
+            super(numberOfThreads, inclusive, TypeFactory.Double());
+            this.function = function;
+            this.neutral = neutral;
+        }
+
+        @Override
+        protected void scan(PArray<Double> input, PArray<Double> out, int nBlocks, int chunk) {
+            int size = input.size();
+            double[] partials = new double[nBlocks];
+            JavaThreadsExecutor.getInstance().execute(nBlocks, j -> {
+                int to = Math.min(size, (j + 1) * chunk);
+                double acc = neutral;
+                for (int i = j * chunk; i < to; ++i) {
+                    acc = function.applyAsDouble(acc, input.getDouble(i));
+                }
+                partials[j] = acc;
+            });
+            double acc = neutral;
+            for (int j = 0; j < nBlocks; ++j) {
+                double blockResult = partials[j];
+                partials[j] = acc;
+                acc = function.applyAsDouble(acc, blockResult);
+            }
+            JavaThreadsExecutor.getInstance().execute(nBlocks, j -> {
+                int to = Math.min(size, (j + 1) * chunk);
+                double current = partials[j];
+                for (int i = j * chunk; i < to; ++i) {
+                    double next = function.applyAsDouble(current, input.getDouble(i));
+                    out.putDouble(i, inclusive ? next : current);
+                    current = next;
+                }
+            });
+        }
+    }
+
+    public static final class OfInt extends PrimitiveScanJavaThreads<Integer> {
+
+        private final IntBinaryOperator function;
+        private final int neutral;
+
+        public OfInt(IntBinaryOperator function, int neutral, boolean inclusive) {
+            this(Runtime.getRuntime().availableProcessors(), function, neutral, inclusive);
+        }
+
+        public OfInt(int numberOfThreads, IntBinaryOperator function, int neutral, boolean inclusive) {
+            super(numberOfThreads, inclusive, TypeFactory.Integer());
+            this.function = function;
+            this.neutral = neutral;
+        }
+
+        @Override
+        protected void scan(PArray<Integer> input, PArray<Integer> out, int nBlocks, int chunk) {
+            int size = input.size();
+            int[] partials = new int[nBlocks];
+            JavaThreadsExecutor.getInstance().execute(nBlocks, j -> {
+                int to = Math.min(size, (j + 1) * chunk);
+                int acc = neutral;
+                for (int i = j * chunk; i < to; ++i) {
+                    acc = function.applyAsInt(acc, input.getInt(i));
+                }
+                partials[j] = acc;
+            });
+            int acc = neutral;
+            for (int j = 0; j < nBlocks; ++j) {
+                int blockResult = partials[j];
+                partials[j] = acc;
+                acc = function.applyAsInt(acc, blockResult);
+            }
+            JavaThreadsExecutor.getInstance().execute(nBlocks, j -> {
+                int to = Math.min(size, (j + 1) * chunk);
+                int current = partials[j];
+                for (int i = j * chunk; i < to; ++i) {
+                    int next = function.applyAsInt(current, input.getInt(i));
+                    out.putInt(i, inclusive ? next : current);
+                    current = next;
+                }
+            });
+        }
+    }
+}
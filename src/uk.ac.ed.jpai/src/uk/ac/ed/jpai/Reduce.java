@@ -22,6 +22,7 @@ package uk.ac.ed.jpai;
 
 import java.util.function.BiFunction;
 
+import uk.ac.ed.datastructures.common.ArraySlice;
 import uk.ac.ed.datastructures.common.PArray;
 import uk.ac.ed.datastructures.common.TypeFactory;
 import uk.ac.ed.jpai.cache.UserFunctionCache;
@@ -29,8 +30,15 @@ import uk.ac.ed.jpai.cache.UserFunctionCache;
 public class Reduce<T> extends ArrayFunction<T, T> {
 
     protected BiFunction<T, T, T> biFunction;
+
+    /**
+     * Neutral element of the reduction. It is not modified by apply, so the same instance can be
+     * reused across calls.
+     */
     protected T accumulator;
 
+    protected PArray<T> output;
+
     public Reduce(BiFunction<T, T, T> f, T init) {
         this.biFunction = f;
         this.accumulator = init;
@@ -39,13 +47,42 @@ public class Reduce<T> extends ArrayFunction<T, T> {
 
     @Override
     public PArray<T> apply(PArray<T> input) {
+        T acc = accumulator;
         for (int i = 0; i < input.size(); ++i) {
-            T acc = accumulator;
-            accumulator = biFunction.apply(acc, input.get(i));
+            acc = biFunction.apply(acc, input.get(i));
+        }
+        return writeResult(acc);
+    }
+
+    /**
+     * It stores the result of the reduction in a new {@link PArray} of size one, so the results
+     * returned by previous calls are not modified. If an output has been set with
+     * {@link #setOutput(PArray)} (e.g. a pipeline buffer), the result is written there instead and a
+     * slice with the first element is returned when the output is larger.
+     */
+    protected PArray<T> writeResult(T result) {
+        if (output == null) {
+            PArray<T> resultArray = new PArray<>(1, outputType);
+            resultArray.put(0, result);
+            return resultArray;
         }
-        PArray<T> output = new PArray<>(1, outputType);
-        output.put(0, accumulator);
-        return output;
+        output.put(0, result);
+        return (output.size() == 1) ? output : new ArraySlice<>(output, 0, 1);
+    }
+
+    @Override
+    public BiFunction<T, T, T> getPartialCombiner() {
+        return biFunction;
+    }
+
+    @Override
+    public boolean preservesSize() {
+        return false;
+    }
+
+    @Override
+    public int maxOutputSize(int inputSize) {
+        return 1;
     }
 
     @Override
@@ -63,7 +100,7 @@ public class Reduce<T> extends ArrayFunction<T, T> {
 
     @Override
     public void setOutput(PArray<T> output) {
-
+        this.output = output;
     }
 
     @Override
@@ -25,59 +25,64 @@ import java.util.function.BiFunction;
 import uk.ac.ed.datastructures.common.ArraySlice;
 import uk.ac.ed.datastructures.common.PArray;
 
+/**
+ * Parallel reduction with Java threads. The input is split in one slice per thread, each slice is
+ * reduced in the shared {@link JavaThreadsExecutor} pool and the partial results are combined in a
+ * tree of depth log2(numberOfThreads).
+ *
+ * The partial results are combined in the order of the slices, so the functions only need to be
+ * associative. A separate combiner can be passed when the function that merges two partial results
+ * is not the same as the one that accumulates the elements of a slice.
+ *
+ * @param <T>
+ */
 public class ReduceJavaThreads<T> extends Reduce<T> {
 
     private int numberOfThreads;
 
+    private BiFunction<T, T, T> combiner;
+
     public ReduceJavaThreads(BiFunction<T, T, T> f, T init) {
+        this(Runtime.getRuntime().availableProcessors(), f, f, init);
+    }
+
+    public ReduceJavaThreads(int numberOfThreads, BiFunction<T, T, T> f, T init) {
+        this(numberOfThreads, f, f, init);
+    }
+
+    public ReduceJavaThreads(BiFunction<T, T, T> f, BiFunction<T, T, T> combiner, T init) {
+        this(Runtime.getRuntime().availableProcessors(), f, combiner, init);
+    }
+
+    public ReduceJavaThreads(int numberOfThreads, BiFunction<T, T, T> f, BiFunction<T, T, T> combiner, T init) {
         super(f, init);
-        numberOfThreads = Runtime.getRuntime().availableProcessors();
+        this.numberOfThreads = numberOfThreads;
+        this.combiner = combiner;
     }
 
     @Override
     public PArray<T> apply(PArray<T> input) {
 
-        PArray<T> output = new PArray<>(numberOfThreads, outputType);
+        if (numberOfThreads == 0) {
+            // provoked from a deoptimization
+            numberOfThreads = Runtime.getRuntime().availableProcessors();
+        }
 
         ArraySlice<T>[] inputSlices = input.splitInFixedNumberOfChunks(numberOfThreads);
 
-        Thread[] threads = new Thread[numberOfThreads];
-
-        for (int t = 0; t < numberOfThreads; t++) {
-            int j = t;
-            threads[t] = new Thread(() -> {
-                T acc = accumulator;
-                for (int i = 0; i < inputSlices[j].size(); ++i) {
-                    acc = biFunction.apply(acc, inputSlices[j].get(i));
-                }
-                output.put(j, acc);
-            });
-
-            threads[t].start();
-        }
-
-        try {
-            for (Thread thread : threads) {
-                thread.join();
+        T result = JavaThreadsExecutor.getInstance().reduce(numberOfThreads, j -> {
+            T acc = accumulator;
+            for (int i = 0; i < inputSlices[j].size(); ++i) {
+                acc = biFunction.apply(acc, inputSlices[j].get(i));
             }
+            return acc;
+        }, combiner);
 
-        } catch (InterruptedException e) {
-            System.err.println("Error in MapJavaThreads map execution (join) operation");
-            e.printStackTrace();
-            System.exit(-1);
-        }
-
-        System.out.println(output);
-
-        // Final reduction (sequentially)
-        accumulator = output.get(0);
-        for (int i = 1; i < numberOfThreads; ++i) {
-            T acc = accumulator;
-            accumulator = biFunction.apply(acc, output.get(i));
-        }
-        PArray<T> outputReduce = new PArray<>(1, outputType);
-        outputReduce.put(0, accumulator);
+        return writeResult(result);
+    }
 
-        return outputReduce;
+    @Override
+    public BiFunction<T, T, T> getPartialCombiner() {
+        return combiner;
     }
 }
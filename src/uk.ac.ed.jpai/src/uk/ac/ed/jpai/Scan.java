@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+package uk.ac.ed.jpai;
+
+import java.util.function.BiFunction;
+
+import uk.ac.ed.datastructures.common.ArraySlice;
+import uk.ac.ed.datastructures.common.PArray;
+import uk.ac.ed.datastructures.common.TypeFactory;
+
+/**
+ * Scan (prefix sum) skeleton. Position i of the output is the combination of the input elements
+ * [0, i] for the inclusive scan, or [0, i) for the exclusive scan, where the exclusive scan starts
+ * with the neutral element. The function has to be associative and the neutral element has to be
+ * its identity.
+ *
+ * This is the sequential version. See {@link ScanJavaThreads}, {@link PrimitiveScanJavaThreads}
+ * and {@link ScanAccelerator} for the parallel ones.
+ *
+ * @param <T>
+ */
+public class Scan<T> extends ArrayFunction<T, T> {
+
+    protected BiFunction<T, T, T> biFunction;
+
+    protected T neutral;
+
+    protected boolean inclusive;
+
+    protected PArray<T> output;
+
+    public Scan(BiFunction<T, T, T> f, T neutral, boolean inclusive) {
+        this.biFunction = f;
+        this.neutral = neutral;
+        this.inclusive = inclusive;
+    }
+
+    public boolean isInclusive() {
+        return inclusive;
+    }
+
+    @Override
+    public PArray<T> apply(PArray<T> input) {
+        if (!preparedExecutionFinish) {
+            prepareExecution(input);
+        }
+        PArray<T> out = outputFor(input);
+        scanRange(input, out, 0, input.size(), neutral);
+        return out;
+    }
+
+    /**
+     * Sequential scan over [from, to) starting from <code>acc</code>. It returns the combination of
+     * <code>acc</code> with all the elements of the range.
+     */
+    protected T scanRange(PArray<T> input, PArray<T> out, int from, int to, T acc) {
+        T current = acc;
+        for (int i = from; i < to; ++i) {
+            T element = input.get(i);
+            T next = biFunction.apply(current, element);
+            out.put(i, inclusive ? next : current);
+            current = next;
+        }
+        return current;
+    }
+
+    /**
+     * It returns a {@link PArray} with the size of the input for the output. A larger output set
+     * from outside (e.g. a pipeline buffer) is returned as a slice.
+     */
+    protected PArray<T> outputFor(PArray<T> input) {
+        if (output == null || output.size() < input.size()) {
+            output = allocateOutputArray(input.size(), input.getStorageMode());
+        }
+        return (output.size() == input.size()) ? output : new ArraySlice<>(output, 0, input.size());
+    }
+
+    @Override
+    public PArray<T> prepareExecution(PArray<T> input) {
+        inferTypes(input);
+        preparedExecutionFinish = true;
+        return input;
+    }
+
+    @Override
+    public PArray<T> inferTypes(PArray<T> input) {
+        inputType = TypeFactory.inferFromObject(input.get(0));
+        outputType = inputType;
+        return input;
+    }
+
+    @Override
+    public void setOutput(PArray<T> output) {
+        this.output = output;
+    }
+
+    @Override
+    public boolean isInCache() {
+        return false;
+    }
+}
@@ -0,0 +1,819 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+package uk.ac.ed.jpai;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.IntBinaryOperator;
+
+import org.jocl.CL;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+import org.jocl.cl_command_queue;
+import org.jocl.cl_context;
+import org.jocl.cl_kernel;
+import org.jocl.cl_mem;
+import org.jocl.cl_program;
+
+import uk.ac.ed.accelerator.cache.OCLKernelCache;
+import uk.ac.ed.accelerator.cache.OCLKernelPackage;
+import uk.ac.ed.accelerator.common.GraalAcceleratorOptions;
+import uk.ac.ed.accelerator.common.GraalAcceleratorSystem;
+import uk.ac.ed.accelerator.wocl.OCLDeviceBufferPool;
+import uk.ac.ed.accelerator.wocl.OCLGraalAcceleratorDevice;
+import uk.ac.ed.datastructures.common.ArraySlice;
+import uk.ac.ed.datastructures.common.PArray;
+import uk.ac.ed.datastructures.common.RuntimeObjectTypeInfo;
+import uk.ac.ed.datastructures.common.TypeFactory;
+
+/**
+ * Scan skeleton for OpenCL devices over primitive types ({@link OfFloat}, {@link OfDouble} and
+ * {@link OfInt}). The operation is one of the predefined {@link Operator}s, since the OpenCL kernel
+ * is written by hand instead of being compiled from a Java lambda. The device reads and writes the
+ * storage of the {@link PArray} directly, either its buffer or the primitive array that backs it.
+ *
+ * It runs in three steps:
+ *
+ * <ol>
+ * <li>the kernel <code>scanBlocks</code> scans each work-group block in local memory and stores the
+ * result of each block;</li>
+ * <li>the host computes the exclusive scan of the block results (one value per work-group);</li>
+ * <li>the kernel <code>addOffsets</code> combines each element with the offset of its block.</li>
+ * </ol>
+ *
+ * The program also has the kernel <code>compact</code>, used by {@link FilterAccelerator} to copy
+ * the elements kept with the positions computed by the scan without leaving the device.
+ *
+ * The program is built once per device and source, through the {@link OCLKernelCache} (and the
+ * persistent binary cache), and it is shared by all the skeletons with the same type and operator.
+ * The cache releases it when it is evicted.
+ *
+ * If the kernel can not be executed, the skeleton is deoptimized to
+ * {@link PrimitiveScanJavaThreads}, as {@link MapAccelerator} does with {@link MapJavaThreads}.
+ *
+ * @param <T>
+ */
+public abstract class ScanAccelerator<T> extends ArrayFunction<T, T> {
+
+    /**
+     * Associative operations supported by the OpenCL scan.
+     */
+    public enum Operator {
+        SUM("((a) + (b))"),
+        PRODUCT("((a) * (b))"),
+        MIN("min((a), (b))"),
+        MAX("max((a), (b))");
+
+        private final String expression;
+
+        Operator(String expression) {
+            this.expression = expression;
+        }
+
+        public String getOpenCLExpression() {
+            return expression;
+        }
+    }
+
+    private static final int MAX_WORK_GROUP_SIZE = 256;
+
+    // Index of the kernels in the OCLKernelCache: the scan runs on the first device
+    private static final int DEVICE_INDEX = 0;
+
+    // Kernels of the program, in the order of the packages returned by pinKernels
+    private static final String[] KERNEL_NAMES = {"scanBlocks", "addOffsets", "compact"};
+    private static final int SCAN_BLOCKS = 0;
+    private static final int ADD_OFFSETS = 1;
+    private static final int COMPACT = 2;
+
+    // @formatter:off
+    private static final String KERNELS =
+          "#define OP(a, b) %s\n"
+        + "__kernel void scanBlocks(__global const T* input, __global T* output, __global T* blockResults,\n"
+        + "                         const int n, const int inclusive, __local T* tmp) {\n"
+        + "    int lid = get_local_id(0);\n"
+        + "    int gid = get_global_id(0);\n"
+        + "    int lsize = get_local_size(0);\n"
+        + "    tmp[lid] = (gid < n) ? input[gid] : NEUTRAL;\n"
+        + "    barrier(CLK_LOCAL_MEM_FENCE);\n"
+        + "    for (int offset = 1; offset < lsize; offset <<= 1) {\n"
+        + "        T previous = (lid >= offset) ? tmp[lid - offset] : NEUTRAL;\n"
+        + "        barrier(CLK_LOCAL_MEM_FENCE);\n"
+        + "        tmp[lid] = OP(previous, tmp[lid]);\n"
+        + "        barrier(CLK_LOCAL_MEM_FENCE);\n"
+        + "    }\n"
+        + "    if (gid < n) {\n"
+        + "        output[gid] = inclusive ? tmp[lid] : ((lid > 0) ? tmp[lid - 1] : NEUTRAL);\n"
+        + "    }\n"
+        + "    if (lid == lsize - 1) {\n"
+        + "        blockResults[get_group_id(0)] = tmp[lid];\n"
+        + "    }\n"
+        + "}\n"
+        + "__kernel void addOffsets(__global T* output, __global const T* blockOffsets, const int n) {\n"
+        + "    int gid = get_global_id(0);\n"
+        + "    if (gid < n) {\n"
+        + "        output[gid] = OP(blockOffsets[get_group_id(0)], output[gid]);\n"
+        + "    }\n"
+        + "}\n"
+        + "__kernel void compact(__global const uchar* input, __global const int* positions, __global uchar* output,\n"
+        + "                      const int n, const int elementSize) {\n"
+        + "    int gid = get_global_id(0);\n"
+        + "    if (gid < n) {\n"
+        + "        int position = positions[gid];\n"
+        + "        if (position != ((gid > 0) ? positions[gid - 1] : 0)) {\n"
+        + "            size_t from = (size_t) gid * elementSize;\n"
+        + "            size_t to = (size_t) (position - 1) * elementSize;\n"
+        + "            for (int b = 0; b < elementSize; b++) {\n"
+        + "                output[to + b] = input[from + b];\n"
+        + "            }\n"
+        + "        }\n"
+        + "    }\n"
+        + "}\n";
+    // @formatter:on
+
+    protected final Operator operator;
+
+    protected final boolean inclusive;
+
+    protected final int elementSize;
+
+    protected PrimitiveScanJavaThreads<T> fallback;
+
+    private boolean deoptimized;
+
+    private PArray<T> output;
+
+    private String kernelSource;
+    private UUID[] kernelUUIDs;
+    private int workGroupSize;
+
+    protected ScanAccelerator(Operator operator, boolean inclusive, RuntimeObjectTypeInfo type, int elementSize) {
+        this.operator = operator;
+        this.inclusive = inclusive;
+        this.elementSize = elementSize;
+        this.inputType = type;
+        this.outputType = type;
+    }
+
+    /**
+     * OpenCL scalar type of the elements.
+     */
+    protected abstract String openCLType();
+
+    /**
+     * OpenCL literal of the neutral element of the operator.
+     */
+    protected abstract String openCLNeutral();
+
+    /**
+     * Host array for the results of the blocks. It is reused across calls.
+     */
+    protected abstract Pointer blockPointer(int nBlocks);
+
+    /**
+     * It replaces the results of the first <code>nBlocks</code> blocks in the host array by their
+     * exclusive scan, which is the offset of each block.
+     */
+    protected abstract void exclusiveScanOfBlocks(int nBlocks);
+
+    /**
+     * It returns true if the skeleton has been deoptimized to {@link PrimitiveScanJavaThreads}.
+     */
+    public boolean isDeoptimized() {
+        return deoptimized;
+    }
+
+    public String getKernelSource() {
+        StringBuilder source = new StringBuilder();
+        if ("double".equals(openCLType())) {
+            source.append("#pragma OPENCL EXTENSION cl_khr_fp64 : enable\n");
+        }
+        source.append("#define T ").append(openCLType()).append("\n");
+        source.append("#define NEUTRAL ").append(openCLNeutral()).append("\n");
+        source.append(String.format(KERNELS, operator.getOpenCLExpression()));
+        return source.toString();
+    }
+
+    private static OCLGraalAcceleratorDevice getOpenCLDevice() {
+        return (OCLGraalAcceleratorDevice) GraalAcceleratorSystem.getInstance().getPlatform().getDevice();
+    }
+
+    private static void checkStatus(int status, String message) {
+        if (status != CL.CL_SUCCESS) {
+            throw new RuntimeException("[OPENCL ERROR] : " + message + " (" + CL.stringFor_errorCode(status) + ")");
+        }
+    }
+
+    /**
+     * The key of each kernel in the {@link OCLKernelCache} is derived from the source, so the
+     * skeletons with the same source share the program.
+     */
+    private static UUID kernelUUID(String source, String kernelName) {
+        return UUID.nameUUIDFromBytes((kernelName + "\n" + source).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public PArray<T> prepareExecution(PArray<T> input) {
+        kernelSource = getKernelSource();
+        UUID[] uuids = new UUID[KERNEL_NAMES.length];
+        for (int i = 0; i < KERNEL_NAMES.length; i++) {
+            uuids[i] = kernelUUID(kernelSource, KERNEL_NAMES[i]);
+        }
+        kernelUUIDs = uuids;
+
+        OCLGraalAcceleratorDevice device = getOpenCLDevice();
+        try {
+            OCLKernelPackage[] kernels = pinKernels(device);
+            // largest power of two supported by the kernel, up to MAX_WORK_GROUP_SIZE
+            long[] kernelWorkGroupSize = new long[1];
+            CL.clGetKernelWorkGroupInfo(kernels[SCAN_BLOCKS].getKernelBinary(), device.getDevice(), CL.CL_KERNEL_WORK_GROUP_SIZE, Sizeof.size_t, Pointer.to(kernelWorkGroupSize), null);
+            workGroupSize = Integer.highestOneBit((int) Math.max(1, Math.min(MAX_WORK_GROUP_SIZE, kernelWorkGroupSize[0])));
+        } finally {
+            unpinKernels();
+        }
+
+        preparedExecutionFinish = true;
+        return input;
+    }
+
+    /**
+     * It returns the packages of the kernels of the program (see {@link #KERNEL_NAMES}) from the
+     * {@link OCLKernelCache}, building them if they are not in the cache. The kernels are pinned
+     * when it returns, also if it throws, so the caller has to call {@link #unpinKernels}.
+     */
+    private OCLKernelPackage[] pinKernels(OCLGraalAcceleratorDevice device) {
+        OCLKernelCache cache = OCLKernelCache.getInstance();
+        OCLKernelPackage[] kernels = new OCLKernelPackage[KERNEL_NAMES.length];
+        for (int i = 0; i < KERNEL_NAMES.length; i++) {
+            kernels[i] = cache.pin(kernelUUIDs[i], DEVICE_INDEX);
+        }
+        if (areBuilt(kernels)) {
+            return kernels;
+        }
+        // One skeleton builds the program, the others wait for it
+        synchronized (ScanAccelerator.class) {
+            kernels[0] = cache.get(kernelUUIDs[0], DEVICE_INDEX);
+            if (!isBuilt(kernels[0])) {
+                kernels[0] = buildProgram(device);
+            }
+            for (int i = 1; i < KERNEL_NAMES.length; i++) {
+                kernels[i] = cache.get(kernelUUIDs[i], DEVICE_INDEX);
+                if (!isBuilt(kernels[i]) || kernels[i].getKernelProgram() != kernels[0].getKernelProgram()) {
+                    kernels[i] = createKernel(kernels[0], i);
+                }
+            }
+        }
+        return kernels;
+    }
+
+    private void unpinKernels() {
+        for (UUID uuid : kernelUUIDs) {
+            OCLKernelCache.getInstance().unpin(uuid);
+        }
+    }
+
+    private static boolean isBuilt(OCLKernelPackage kernelPackage) {
+        return kernelPackage != null && kernelPackage.getKernelBinary() != null;
+    }
+
+    private static boolean areBuilt(OCLKernelPackage[] kernels) {
+        for (OCLKernelPackage kernel : kernels) {
+            if (!isBuilt(kernel) || kernel.getKernelProgram() != kernels[0].getKernelProgram()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * It builds the program with the device, as the kernels generated by Graal, so the binary is
+     * stored in the persistent cache and loaded from it the next time. The package is the one of
+     * the first kernel.
+     */
+    private OCLKernelPackage buildProgram(OCLGraalAcceleratorDevice device) {
+        UUID uuid = kernelUUIDs[0];
+        OCLKernelPackage kernelPackage = new OCLKernelPackage();
+        kernelPackage.setKernelCode(kernelSource);
+        kernelPackage.setKernelName(KERNEL_NAMES[0]);
+        OCLKernelCache.getInstance().insert(uuid, DEVICE_INDEX, kernelPackage);
+        try {
+            device.createProgram(uuid, DEVICE_INDEX);
+            device.buildProgram(uuid, DEVICE_INDEX);
+        } catch (Exception e) {
+            throw new RuntimeException("[OPENCL ERROR] : build program " + KERNEL_NAMES[0], e);
+        }
+        if (device.createKernel(uuid, DEVICE_INDEX) == null || !kernelPackage.isBinaryCreated()) {
+            throw new RuntimeException("[OPENCL ERROR] : clCreateKernel " + KERNEL_NAMES[0]);
+        }
+        return kernelPackage;
+    }
+
+    /**
+     * The other kernels are created from the program of the first one. Each package retains the
+     * program, so the cache releases it once for each package.
+     */
+    private OCLKernelPackage createKernel(OCLKernelPackage first, int index) {
+        cl_program program = first.getKernelProgram();
+        int[] status = new int[1];
+        cl_kernel kernel = CL.clCreateKernel(program, KERNEL_NAMES[index], status);
+        checkStatus(status[0], "clCreateKernel " + KERNEL_NAMES[index]);
+        CL.clRetainProgram(program);
+
+        OCLKernelPackage kernelPackage = new OCLKernelPackage();
+        kernelPackage.setKernelCode(kernelSource);
+        kernelPackage.setKernelName(KERNEL_NAMES[index]);
+        kernelPackage.setKernelProgram(program);
+        kernelPackage.setKernelBinary(kernel);
+        kernelPackage.setBinaryCreated();
+        OCLKernelCache.getInstance().insert(kernelUUIDs[index], DEVICE_INDEX, kernelPackage);
+        return kernelPackage;
+    }
+
+    private PArray<T> deoptimize(PArray<T> input, Exception e) {
+        if (MarawaccOptions.DEOPTIMIZE) {
+            System.err.println("[Deptimisation] Using PrimitiveScanJavaThreads");
+            deoptimized = true;
+            return fallback.apply(input);
+        } else {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+        return null;
+    }
+
+    @Override
+    public PArray<T> apply(PArray<T> input) {
+        if (deoptimized) {
+            return fallback.apply(input);
+        }
+        try {
+            if (!preparedExecutionFinish) {
+                prepareExecution(input);
+            }
+            return scanOnDevice(input);
+        } catch (Exception e) {
+            return deoptimize(input, e);
+        }
+    }
+
+    private PArray<T> scanOnDevice(PArray<T> input) {
+        int size = input.size();
+        if (output == null || output.size() < size) {
+            output = allocateOutputArray(size, input.getStorageMode());
+        }
+        PArray<T> out = (output.size() == size) ? output : new ArraySlice<>(output, 0, size);
+        if (size == 0) {
+            return out;
+        }
+
+        OCLGraalAcceleratorDevice device = getOpenCLDevice();
+        cl_command_queue queue = device.getCommandQueue();
+        long bytes = (long) size * elementSize;
+
+        // The buffers are taken from the pool of the device and returned after the scan
+        OCLDeviceBufferPool pool = getBufferPool(device);
+        int[] status = new int[1];
+        cl_mem inputBuffer = createBuffer(pool, device.getContext(), CL.CL_MEM_READ_ONLY, bytes, status);
+        checkStatus(status[0], "clCreateBuffer input");
+        cl_mem outputBuffer = createBuffer(pool, device.getContext(), CL.CL_MEM_READ_WRITE, bytes, status);
+        checkStatus(status[0], "clCreateBuffer output");
+
+        try {
+            // The queue is in-order, so the kernel starts after the copy. A Java array can be moved
+            // by the garbage collector, so its copy is blocking.
+            boolean blocking = input.isPrimitiveArray();
+            checkStatus(CL.clEnqueueWriteBuffer(queue, inputBuffer, blocking, 0, bytes, hostPointer(input), 0, null, null), "clEnqueueWriteBuffer input");
+            scanBuffers(device, inputBuffer, outputBuffer, size);
+            checkStatus(CL.clEnqueueReadBuffer(queue, outputBuffer, CL.CL_TRUE, 0, bytes, hostPointer(out), 0, null, null), "clEnqueueReadBuffer output");
+            out.markDirty();
+        } finally {
+            releaseBuffer(pool, CL.CL_MEM_READ_ONLY, inputBuffer);
+            releaseBuffer(pool, CL.CL_MEM_READ_WRITE, outputBuffer);
+        }
+        return out;
+    }
+
+    /**
+     * Scan of <code>size</code> elements that are already in a buffer of the device, e.g. the
+     * output of an {@link OpenCLMap}. The result stays in the device: the caller reads it and
+     * returns the buffer with {@link #releaseDeviceBuffer}.
+     *
+     * @return buffer with the result of the scan
+     */
+    cl_mem scanDeviceBuffer(cl_mem input, int size) {
+        if (!preparedExecutionFinish) {
+            prepareExecution(null);
+        }
+        OCLGraalAcceleratorDevice device = getOpenCLDevice();
+        int[] status = new int[1];
+        cl_mem outputBuffer = createBuffer(getBufferPool(device), device.getContext(), CL.CL_MEM_READ_WRITE, (long) size * elementSize, status);
+        checkStatus(status[0], "clCreateBuffer output");
+        try {
+            scanBuffers(device, input, outputBuffer, size);
+        } catch (RuntimeException e) {
+            releaseDeviceBuffer(outputBuffer);
+            throw e;
+        }
+        return outputBuffer;
+    }
+
+    /**
+     * It returns a buffer of {@link #scanDeviceBuffer} to the pool of the device.
+     */
+    void releaseDeviceBuffer(cl_mem buffer) {
+        releaseBuffer(getBufferPool(getOpenCLDevice()), CL.CL_MEM_READ_WRITE, buffer);
+    }
+
+    /**
+     * Stream compaction in the device: the element <code>i</code> of the input is copied to the
+     * output if <code>positions[i]</code> differs from <code>positions[i - 1]</code>, at the index
+     * <code>positions[i] - 1</code>. The positions are the inclusive sum of the flags of the
+     * elements kept (a {@link OfInt} scan with {@link Operator#SUM}). The elements are copied as
+     * <code>elementBytes</code> bytes, so one call compacts one buffer of any type.
+     */
+    void compact(cl_mem input, cl_mem positions, cl_mem compacted, int size, int elementBytes) {
+        if (!preparedExecutionFinish) {
+            prepareExecution(null);
+        }
+        OCLGraalAcceleratorDevice device = getOpenCLDevice();
+        int nBlocks = (size + workGroupSize - 1) / workGroupSize;
+        try {
+            OCLKernelPackage[] kernels = pinKernels(device);
+            cl_kernel kernel = kernels[COMPACT].getKernelBinary();
+            // The kernels are shared by the skeletons with the same source: the arguments are set
+            // and the kernel enqueued while holding its package
+            synchronized (kernels[COMPACT]) {
+                int s = CL.clSetKernelArg(kernel, 0, Sizeof.cl_mem, Pointer.to(input));
+                s |= CL.clSetKernelArg(kernel, 1, Sizeof.cl_mem, Pointer.to(positions));
+                s |= CL.clSetKernelArg(kernel, 2, Sizeof.cl_mem, Pointer.to(compacted));
+                s |= CL.clSetKernelArg(kernel, 3, Sizeof.cl_int, Pointer.to(new int[]{size}));
+                s |= CL.clSetKernelArg(kernel, 4, Sizeof.cl_int, Pointer.to(new int[]{elementBytes}));
+                checkStatus(s, "clSetKernelArg compact");
+                checkStatus(CL.clEnqueueNDRangeKernel(device.getCommandQueue(), kernel, 1, null, new long[]{(long) nBlocks * workGroupSize}, new long[]{workGroupSize}, 0, null, null),
+                                "clEnqueueNDRangeKernel compact");
+            }
+        } finally {
+            // The kernels are retained by the queue once they are enqueued
+            unpinKernels();
+        }
+    }
+
+    /**
+     * It scans the <code>size</code> elements of the input buffer into the output buffer. The
+     * kernels are enqueued in the queue of the device after the commands already in it.
+     */
+    private void scanBuffers(OCLGraalAcceleratorDevice device, cl_mem inputBuffer, cl_mem outputBuffer, int size) {
+        cl_command_queue queue = device.getCommandQueue();
+        int nBlocks = (size + workGroupSize - 1) / workGroupSize;
+        long blockBytes = (long) nBlocks * elementSize;
+        Pointer hostBlocks = blockPointer(nBlocks);
+
+        OCLDeviceBufferPool pool = getBufferPool(device);
+        int[] status = new int[1];
+        cl_mem blocksBuffer = createBuffer(pool, device.getContext(), CL.CL_MEM_READ_WRITE, blockBytes, status);
+        checkStatus(status[0], "clCreateBuffer blocks");
+
+        try {
+            OCLKernelPackage[] kernels = pinKernels(device);
+            cl_kernel scanBlocksKernel = kernels[SCAN_BLOCKS].getKernelBinary();
+            cl_kernel addOffsetsKernel = kernels[ADD_OFFSETS].getKernelBinary();
+
+            long[] globalWorkSize = new long[]{(long) nBlocks * workGroupSize};
+            long[] localWorkSize = new long[]{workGroupSize};
+
+            // The kernels are shared by the skeletons with the same source: the arguments are set
+            // and the kernel enqueued while holding its package
+            synchronized (kernels[SCAN_BLOCKS]) {
+                int s = CL.clSetKernelArg(scanBlocksKernel, 0, Sizeof.cl_mem, Pointer.to(inputBuffer));
+                s |= CL.clSetKernelArg(scanBlocksKernel, 1, Sizeof.cl_mem, Pointer.to(outputBuffer));
+                s |= CL.clSetKernelArg(scanBlocksKernel, 2, Sizeof.cl_mem, Pointer.to(blocksBuffer));
+                s |= CL.clSetKernelArg(scanBlocksKernel, 3, Sizeof.cl_int, Pointer.to(new int[]{size}));
+                s |= CL.clSetKernelArg(scanBlocksKernel, 4, Sizeof.cl_int, Pointer.to(new int[]{inclusive ? 1 : 0}));
+                s |= CL.clSetKernelArg(scanBlocksKernel, 5, (long) workGroupSize * elementSize, null);
+                checkStatus(s, "clSetKernelArg scanBlocks");
+                checkStatus(CL.clEnqueueNDRangeKernel(queue, scanBlocksKernel, 1, null, globalWorkSize, localWorkSize, 0, null, null), "clEnqueueNDRangeKernel scanBlocks");
+            }
+
+            if (nBlocks > 1) {
+                checkStatus(CL.clEnqueueReadBuffer(queue, blocksBuffer, CL.CL_TRUE, 0, blockBytes, hostBlocks, 0, null, null), "clEnqueueReadBuffer blocks");
+                exclusiveScanOfBlocks(nBlocks);
+                checkStatus(CL.clEnqueueWriteBuffer(queue, blocksBuffer, CL.CL_TRUE, 0, blockBytes, hostBlocks, 0, null, null), "clEnqueueWriteBuffer blocks");
+
+                synchronized (kernels[ADD_OFFSETS]) {
+                    int s = CL.clSetKernelArg(addOffsetsKernel, 0, Sizeof.cl_mem, Pointer.to(outputBuffer));
+                    s |= CL.clSetKernelArg(addOffsetsKernel, 1, Sizeof.cl_mem, Pointer.to(blocksBuffer));
+                    s |= CL.clSetKernelArg(addOffsetsKernel, 2, Sizeof.cl_int, Pointer.to(new int[]{size}));
+                    checkStatus(s, "clSetKernelArg addOffsets");
+                    checkStatus(CL.clEnqueueNDRangeKernel(queue, addOffsetsKernel, 1, null, globalWorkSize, localWorkSize, 0, null, null), "clEnqueueNDRangeKernel addOffsets");
+                }
+            }
+        } finally {
+            // The kernels are retained by the queue once they are enqueued
+            unpinKernels();
+            releaseBuffer(pool, CL.CL_MEM_READ_WRITE, blocksBuffer);
+        }
+    }
+
+    private static OCLDeviceBufferPool getBufferPool(OCLGraalAcceleratorDevice device) {
+        return GraalAcceleratorOptions.bufferPool ? device.getBufferPool() : null;
+    }
+
+    /**
+     * It returns the pointer to the first element of the array in the host. As in
+     * {@link uk.ac.ed.datastructures.common.AcceleratorPArray}, it is the primitive array when the
+     * {@link PArray} is backed by one and its buffer otherwise. The slices of a PArray share the
+     * storage of their parent.
+     */
+    private Pointer hostPointer(PArray<T> array) {
+        Pointer base = array.isPrimitiveArray() ? primitiveArrayPointer(array) : Pointer.to(array.getArrayReference());
+        return base.withByteOffset((long) array.offset() * elementSize);
+    }
+
+    /**
+     * Pointer to the primitive array that backs the {@link PArray}.
+     */
+    protected Pointer primitiveArrayPointer(PArray<T> array) {
+        throw new UnsupportedOperationException("PArray backed by a primitive array not supported for " + openCLType());
+    }
+
+    private static cl_mem createBuffer(OCLDeviceBufferPool pool, cl_context context, long flags, long bytes, int[] status) {
+        if (pool != null) {
+            return pool.allocate(flags, bytes, status);
+        }
+        return CL.clCreateBuffer(context, flags, bytes, null, status);
+    }
+
+    private static void releaseBuffer(OCLDeviceBufferPool pool, long flags, cl_mem buffer) {
+        if (pool != null) {
+            pool.release(flags, buffer);
+        } else {
+            CL.clReleaseMemObject(buffer);
+        }
+    }
+
+    @Override
+    public PArray<T> inferTypes(PArray<T> input) {
+        return input;
+    }
+
+    @Override
+    public void setOutput(PArray<T> output) {
+        this.output = output;
+        fallback.setOutput(output);
+    }
+
+    @Override
+    public boolean isInCache() {
+        return false;
+    }
+
+    public static final class OfFloat extends ScanAccelerator<Float> {
+
+        private float[] blocks;
+
+        public OfFloat(Operator operator, boolean inclusive) {
+            super(operator, inclusive, TypeFactory.Float(), Sizeof.cl_float);
+            this.fallback = new PrimitiveScanJavaThreads.OfFloat(javaOperator(operator), neutral(operator), inclusive);
+        }
+
+        private static FloatBinaryOperator javaOperator(Operator operator) {
+            switch (operator) {
+                case PRODUCT:
+                    return (a, b) -> a * b;
+                case MIN:
+                    return Math::min;
+                case MAX:
+                    return Math::max;
+                default:
+                    return (a, b) -> a + b;
+            }
+        }
+
+        private static float neutral(Operator operator) {
+            switch (operator) {
+                case PRODUCT:
+                    return 1.0f;
+                case MIN:
+                    return Float.POSITIVE_INFINITY;
+                case MAX:
+                    return Float.NEGATIVE_INFINITY;
+                default:
+                    return 0.0f;
+            }
+        }
+
+        @Override
+        protected String openCLType() {
+            return "float";
+        }
+
+        @Override
+        protected String openCLNeutral() {
+            switch (operator) {
+                case PRODUCT:
+                    return "1.0f";
+                case MIN:
+                    return "INFINITY";
+                case MAX:
+                    return "(-INFINITY)";
+                default:
+                    return "0.0f";
+            }
+        }
+
+        @Override
+        protected Pointer blockPointer(int nBlocks) {
+            if (blocks == null || blocks.length < nBlocks) {
+                blocks = new float[nBlocks];
+            }
+            return Pointer.to(blocks);
+        }
+
+        @Override
+        protected void exclusiveScanOfBlocks(int nBlocks) {
+            FloatBinaryOperator f = javaOperator(operator);
+            float acc = neutral(operator);
+            for (int j = 0; j < nBlocks; ++j) {
+                float blockResult = blocks[j];
+                blocks[j] = acc;
+                acc = f.applyAsFloat(acc, blockResult);
+            }
+        }
+    }
+
+    public static final class OfDouble extends ScanAccelerator<Double> {
+
+        private double[] blocks;
+
+        public OfDouble(Operator operator, boolean inclusive) {
+            super(operator, inclusive, TypeFactory.Double(), Sizeof.cl_double);
+            this.fallback = new PrimitiveScanJavaThreads.OfDouble(javaOperator(operator), neutral(operator), inclusive);
+        }
+
+        private static DoubleBinaryOperator javaOperator(Operator operator) {
+            switch (operator) {
+                case PRODUCT:
+                    return (a, b) -> a * b;
+                case MIN:
+                    return Math::min;
+                case MAX:
+                    return Math::max;
+                default:
+                    return (a, b) -> a + b;
+            }
+        }
+
+        private static double neutral(Operator operator) {
+            switch (operator) {
+                case PRODUCT:
+                    return 1.0;
+                case MIN:
+                    return Double.POSITIVE_INFINITY;
+                case MAX:
+                    return Double.NEGATIVE_INFINITY;
+                default:
+                    return 0.0;
+            }
+        }
+
+        @Override
+        protected String openCLType() {
+            return "double";
+        }
+
+        @Override
+        protected String openCLNeutral() {
+            switch (operator) {
+                case PRODUCT:
+                    return "1.0";
+                case MIN:
+                    return "INFINITY";
+                case MAX:
+                    return "(-INFINITY)";
+                default:
+                    return "0.0";
+            }
+        }
+
+        @Override
+        protected Pointer primitiveArrayPointer(PArray<Double> array) {
+            return Pointer.to(array.asDoubleArray(0));
+        }
+
+        @Override
+        protected Pointer blockPointer(int nBlocks) {
+            if (blocks == null || blocks.length < nBlocks) {
+                blocks = new double[nBlocks];
+            }
+            return Pointer.to(blocks);
+        }
+
+        @Override
+        protected void exclusiveScanOfBlocks(int nBlocks) {
+            DoubleBinaryOperator f = javaOperator(operator);
+            double acc = neutral(operator);
+            for (int j = 0; j < nBlocks; ++j) {
+                double blockResult = blocks[j];
+                blocks[j] = acc;
+                acc = f.applyAsDouble(acc, blockResult);
+            }
+        }
+    }
+
+    public static final class OfInt extends ScanAccelerator<Integer> {
+
+        private int[] blocks;
+
+        public OfInt(Operator operator, boolean inclusive) {
+            super(operator, inclusive, TypeFactory.Integer(), Sizeof.cl_int);
+            this.fallback = new PrimitiveScanJavaThreads.OfInt(javaOperator(operator), neutral(operator), inclusive);
+        }
+
+        private static IntBinaryOperator javaOperator(Operator operator) {
+            switch (operator) {
+                case PRODUCT:
+                    return (a, b) -> a * b;
+                case MIN:
+                    return Math::min;
+                case MAX:
+                    return Math::max;
+                default:
+                    return Integer::sum;
+            }
+        }
+
+        private static int neutral(Operator operator) {
+            switch (operator) {
+                case PRODUCT:
+                    return 1;
+                case MIN:
+                    return Integer.MAX_VALUE;
+                case MAX:
+                    return Integer.MIN_VALUE;
+                default:
+                    return 0;
+            }
+        }
+
+        @Override
+        protected String openCLType() {
+            return "int";
+        }
+
+        @Override
+        protected String openCLNeutral() {
+            switch (operator) {
+                case PRODUCT:
+                    return "1";
+                case MIN:
+                    return "INT_MAX";
+                case MAX:
+                    return "INT_MIN";
+                default:
+                    return "0";
+            }
+        }
+
+        @Override
+        protected Pointer primitiveArrayPointer(PArray<Integer> array) {
+            return Pointer.to(array.asIntegerArray(0));
+        }
+
+        @Override
+        protected Pointer blockPointer(int nBlocks) {
+            if (blocks == null || blocks.length < nBlocks) {
+                blocks = new int[nBlocks];
+            }
+            return Pointer.to(blocks);
+        }
+
+        @Override
+        protected void exclusiveScanOfBlocks(int nBlocks) {
+            IntBinaryOperator f = javaOperator(operator);
+            int acc = neutral(operator);
+            for (int j = 0; j < nBlocks; ++j) {
+                int blockResult = blocks[j];
+                blocks[j] = acc;
+                acc = f.applyAsInt(acc, blockResult);
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+package uk.ac.ed.jpai;
+
+import java.util.function.BiFunction;
+
+import uk.ac.ed.datastructures.common.PArray;
+
+/**
+ * Parallel scan with Java threads (blocked two-pass). The input is split in one contiguous block
+ * per thread and it runs in the shared {@link JavaThreadsExecutor}:
+ *
+ * <ol>
+ * <li>each thread reduces its block;</li>
+ * <li>the caller thread computes the exclusive scan of the block results, which gives the initial
+ * value of each block;</li>
+ * <li>each thread scans its block starting from that value.</li>
+ * </ol>
+ *
+ * The function is applied about twice per element, so it only pays off with several threads. See
+ * {@link PrimitiveScanJavaThreads} for the version without boxing.
+ *
+ * @param <T>
+ */
+public class ScanJavaThreads<T> extends Scan<T> {
+
+    private int numberOfThreads;
+
+    public ScanJavaThreads(BiFunction<T, T, T> f, T neutral, boolean inclusive) {
+        this(Runtime.getRuntime().availableProcessors(), f, neutral, inclusive);
+    }
+
+    public ScanJavaThreads(int numberOfThreads, BiFunction<T, T, T> f, T neutral, boolean inclusive) {
+        super(f, neutral, inclusive);
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public PArray<T> apply(PArray<T> input) {
+        if (!preparedExecutionFinish) {
+            prepareExecution(input);
+        }
+
+        if (numberOfThreads == 0) {
+            // provoked from a deoptimization
+            numberOfThreads = Runtime.getRuntime().availableProcessors();
+        }
+
+        PArray<T> out = outputFor(input);
+        int size = input.size();
+        int nBlocks = numberOfThreads;
+        int chunk = (size + nBlocks - 1) / nBlocks;
+
+        // First pass: reduction of each block
+        Object[] partials = new Object[nBlocks];
+        JavaThreadsExecutor.getInstance().execute(nBlocks, j -> {
+            int from = Math.min(size, j * chunk);
+            int to = Math.min(size, from + chunk);
+            T acc = neutral;
+            for (int i = from; i < to; ++i) {
+                acc = biFunction.apply(acc, input.get(i));
+            }
+            partials[j] = acc;
+        });
+
+        // Exclusive scan of the block results
+        T acc = neutral;
+        for (int j = 0; j < nBlocks; ++j) {
+            T blockResult = (T) partials[j];
+            partials[j] = acc;
+            acc = biFunction.apply(acc, blockResult);
+        }
+
+        // Second pass: scan of each block from its offset
+        JavaThreadsExecutor.getInstance().execute(nBlocks, j -> {
+            int from = Math.min(size, j * chunk);
+            int to = Math.min(size, from + chunk);
+            scanRange(input, out, from, to, (T) partials[j]);
+        });
+        return out;
+    }
+}
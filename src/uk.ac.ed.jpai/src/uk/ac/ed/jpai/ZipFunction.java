@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+package uk.ac.ed.jpai;
+
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import uk.ac.ed.datastructures.tuples.Tuple2;
+
+/**
+ * Binary function applied to the fields of a {@link Tuple2}, used to execute zipWith as a map. The
+ * OpenCL backend does not compile this class: it inlines the lambda expression returned by
+ * {@link #getBiFunction()} into a function that reads the two fields of the tuple, so the kernel
+ * receives one buffer per input array.
+ *
+ * @param <T0>
+ * @param <T1>
+ * @param <R>
+ */
+public final class ZipFunction<T0, T1, R> implements Function<Tuple2<T0, T1>, R> {
+
+    private final BiFunction<T0, T1, R> function;
+
+    public ZipFunction(BiFunction<T0, T1, R> function) {
+        this.function = function;
+    }
+
+    @Override
+    public R apply(Tuple2<T0, T1> t) {
+        return function.apply(t._1(), t._2());
+    }
+
+    public BiFunction<T0, T1, R> getBiFunction() {
+        return function;
+    }
+
+    /**
+     * Only lambda expressions without captured variables can be compiled, because the lambda
+     * expression is inlined as a constant and the kernel would keep the values of the first call.
+     *
+     * @param function
+     * @return true if the function can be compiled to OpenCL
+     */
+    public static boolean canBeCompiled(BiFunction<?, ?, ?> function) {
+        Class<?> klass = function.getClass();
+        return klass.isSynthetic() && klass.getDeclaredFields().length == 0;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+package uk.ac.ed.jpai;
+
+import java.util.function.BiFunction;
+
+import uk.ac.ed.datastructures.common.ArraySlice;
+import uk.ac.ed.datastructures.common.PArray;
+import uk.ac.ed.datastructures.common.TypeFactory;
+import uk.ac.ed.datastructures.tuples.Tuple2;
+
+/**
+ * Map over two arrays (zipWith). The user function receives one element of each array and the
+ * elements are read from the fields of the input, so no {@link Tuple2} is built per element.
+ *
+ * The input is a {@link PArray} of {@link Tuple2}. Two separate arrays are combined with
+ * {@link PArray#zip(PArray, PArray)}, which uses them as the storage of the fields without copying
+ * (see {@link #apply(PArray, PArray)}).
+ *
+ * This is the sequential version. See {@link ZipWithJavaThreads} for the parallel one and
+ * {@link ZipWithAccelerator} for OpenCL devices.
+ *
+ * @param <T0>
+ * @param <T1>
+ * @param <R>
+ */
+public class ZipWith<T0, T1, R> extends ArrayFunction<Tuple2<T0, T1>, R> {
+
+    protected BiFunction<T0, T1, R> function;
+
+    protected PArray<R> output;
+
+    public ZipWith(BiFunction<T0, T1, R> function) {
+        this.function = function;
+    }
+
+    /**
+     * It applies the function to the elements of both arrays, which must have the same size.
+     *
+     * @param input0
+     * @param input1
+     * @return {@link PArray}
+     */
+    public PArray<R> apply(PArray<T0> input0, PArray<T1> input1) {
+        return apply(PArray.zip(input0, input1));
+    }
+
+    @Override
+    public PArray<R> apply(PArray<Tuple2<T0, T1>> input) {
+        if (!preparedExecutionFinish) {
+            prepareExecution(input);
+        }
+
+        PArray<R> out = outputFor(input);
+        PArray<T0> input0 = input.getField(0);
+        PArray<T1> input1 = input.getField(1);
+        for (int i = 0; i < input.size(); ++i) {
+            out.put(i, function.apply(input0.get(i), input1.get(i)));
+        }
+        return out;
+    }
+
+    /**
+     * It returns a {@link PArray} with the size of the input for the output. A larger output set
+     * from outside (e.g. a pipeline buffer) is returned as a slice.
+     */
+    protected PArray<R> outputFor(PArray<Tuple2<T0, T1>> input) {
+        if (output == null || output.size() < input.size()) {
+            output = allocateOutputArray(input.size(), input.getStorageMode());
+        }
+        return (output.size() == input.size()) ? output : new ArraySlice<>(output, 0, input.size());
+    }
+
+    @Override
+    public PArray<R> prepareExecution(PArray<Tuple2<T0, T1>> input) {
+        PArray<R> out = inferTypes(input);
+        preparedExecutionFinish = true;
+        return out;
+    }
+
+    @Override
+    public PArray<R> inferTypes(PArray<Tuple2<T0, T1>> input) {
+        inputType = input.getRuntimeObjectTypeInfo();
+        T0 first0 = input.<T0> getField(0).get(0);
+        T1 first1 = input.<T1> getField(1).get(0);
+        outputType = TypeFactory.inferFromObject(function.apply(first0, first1));
+        return new PArray<>(1, outputType);
+    }
+
+    @Override
+    public void setOutput(PArray<R> output) {
+        this.output = output;
+    }
+
+    @Override
+    public boolean isInCache() {
+        return false;
+    }
+}
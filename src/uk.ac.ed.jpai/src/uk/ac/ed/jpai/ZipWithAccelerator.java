@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+package uk.ac.ed.jpai;
+
+import java.util.function.BiFunction;
+
+import uk.ac.ed.accelerator.common.GraalAcceleratorOptions;
+import uk.ac.ed.accelerator.utils.LoggerMarawacc;
+import uk.ac.ed.datastructures.common.PArray;
+import uk.ac.ed.datastructures.tuples.Tuple2;
+
+/**
+ * ZipWith skeleton for OpenCL devices. It is executed as a {@link MapAccelerator} over the
+ * {@link Tuple2} input with a {@link ZipFunction}: the lambda expression of the binary function is
+ * inlined in the OpenCL function and the kernel receives one buffer per field of the tuple. With an
+ * input built by {@link PArray#zip(PArray, PArray)}, the buffers of both arrays are copied to the
+ * device directly, without an intermediate array of tuples.
+ *
+ * Functions with captured variables (see {@link ZipFunction#canBeCompiled(BiFunction)}) and
+ * functions that can not be compiled run with {@link ZipWithJavaThreads}.
+ *
+ * @param <T0>
+ * @param <T1>
+ * @param <R>
+ */
+public class ZipWithAccelerator<T0, T1, R> extends ZipWithJavaThreads<T0, T1, R> {
+
+    private MapAccelerator<Tuple2<T0, T1>, R> map;
+
+    public ZipWithAccelerator(BiFunction<T0, T1, R> function) {
+        super(function);
+        if (ZipFunction.canBeCompiled(function)) {
+            this.map = new MapAccelerator<>(new ZipFunction<>(function));
+        } else if (GraalAcceleratorOptions.printOCLInfo) {
+            LoggerMarawacc.info("[ZipWith] The function captures variables, using ZipWithJavaThreads");
+        }
+    }
+
+    /**
+     * It returns true if the calls run the OpenCL kernel.
+     */
+    public boolean isKernelInUse() {
+        return map != null && map.isKernelInUse();
+    }
+
+    @Override
+    public PArray<R> apply(PArray<Tuple2<T0, T1>> input) {
+        if (map == null) {
+            return super.apply(input);
+        }
+        return map.apply(input);
+    }
+
+    @Override
+    public void setOutput(PArray<R> output) {
+        super.setOutput(output);
+        if (map != null) {
+            map.setOutput(output);
+        }
+    }
+}
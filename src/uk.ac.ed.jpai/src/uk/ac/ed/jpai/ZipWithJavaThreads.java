@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+package uk.ac.ed.jpai;
+
+import java.util.function.BiFunction;
+
+import uk.ac.ed.datastructures.common.PArray;
+import uk.ac.ed.datastructures.tuples.Tuple2;
+
+/**
+ * Parallel zipWith with Java threads. Each thread processes one contiguous range of both arrays in
+ * the shared {@link JavaThreadsExecutor}.
+ *
+ * @param <T0>
+ * @param <T1>
+ * @param <R>
+ */
+public class ZipWithJavaThreads<T0, T1, R> extends ZipWith<T0, T1, R> {
+
+    private int numberOfThreads;
+
+    public ZipWithJavaThreads(BiFunction<T0, T1, R> function) {
+        this(Runtime.getRuntime().availableProcessors(), function);
+    }
+
+    public ZipWithJavaThreads(int numberOfThreads, BiFunction<T0, T1, R> function) {
+        super(function);
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    @Override
+    public PArray<R> apply(PArray<Tuple2<T0, T1>> input) {
+        if (!preparedExecutionFinish) {
+            prepareExecution(input);
+        }
+
+        if (numberOfThreads == 0) {
+            // provoked from a deoptimization
+            numberOfThreads = Runtime.getRuntime().availableProcessors();
+        }
+
+        PArray<R> out = outputFor(input);
+        PArray<T0> input0 = input.getField(0);
+        PArray<T1> input1 = input.getField(1);
+        int size = input.size();
+        int chunk = (size + numberOfThreads - 1) / numberOfThreads;
+        JavaThreadsExecutor.getInstance().execute(numberOfThreads, j -> {
+            int to = Math.min(size, (j + 1) * chunk);
+            for (int i = j * chunk; i < to; ++i) {
+                out.put(i, function.apply(input0.get(i), input1.get(i)));
+            }
+        });
+        return out;
+    }
+}
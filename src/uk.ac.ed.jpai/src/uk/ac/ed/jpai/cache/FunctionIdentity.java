@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+package uk.ac.ed.jpai.cache;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+import jdk.vm.ci.meta.ConstantPool;
+import jdk.vm.ci.meta.JavaMethod;
+import jdk.vm.ci.meta.MetaAccessProvider;
+import jdk.vm.ci.meta.ResolvedJavaMethod;
+import jdk.vm.ci.runtime.JVMCI;
+import uk.ac.ed.datastructures.common.PArray;
+import uk.ac.ed.jpai.FilterFunction;
+import uk.ac.ed.jpai.FusedFunction;
+import uk.ac.ed.jpai.ZipFunction;
+
+/**
+ * Content-based identity of the user functions (lambda expressions). Two functions have the same
+ * identity if they execute the same code and capture variables of the same types, so they can share
+ * the generated OpenCL kernel (the values of the captured variables are kernel arguments).
+ *
+ * The code is the bytecode of the functional method and of the methods it calls in the class where
+ * the lambda is declared, together with the holder class and name of each invoked method. The body
+ * of a lambda expression is compiled to its own synthetic method (e.g. <code>lambda$main$0</code>),
+ * so the instances created by the same lambda expression share the identity, but two different
+ * lambda expressions with the same code do not. The class names of the lambda expressions are not
+ * used because they are not stable across runs.
+ */
+public final class FunctionIdentity {
+
+    // Hash of the code of each function class
+    private static final ClassValue<String> CODE_HASH = new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            return computeCodeHash(type);
+        }
+    };
+
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKEINTERFACE = 0xb9;
+
+    private FunctionIdentity() {
+        // No instances
+    }
+
+    /**
+     * Identity of a function (Function, BiFunction, ...). A {@link FusedFunction} is identified by
+     * the functions it composes, a {@link ZipFunction} by its binary function and a
+     * {@link FilterFunction} by its predicate.
+     *
+     * @param function
+     * @return key
+     */
+    public static String of(Object function) {
+        if (function instanceof FusedFunction) {
+            FusedFunction<?, ?, ?> fused = (FusedFunction<?, ?, ?>) function;
+            return "fused(" + of(fused.getFirst()) + "," + of(fused.getSecond()) + ")";
+        } else if (function instanceof ZipFunction) {
+            return "zip(" + of(((ZipFunction<?, ?, ?>) function).getBiFunction()) + ")";
+        } else if (function instanceof FilterFunction) {
+            return "filter(" + of(((FilterFunction<?>) function).getPredicate()) + ")";
+        }
+        return CODE_HASH.get(function.getClass()) + capturedTypes(function);
+    }
+
+    /**
+     * UUID derived from the identity. It is the same for the same identity in every run, so it can
+     * be used as the key of the OpenCL kernels.
+     *
+     * @param identity
+     * @return UUID
+     */
+    public static UUID toUUID(String identity) {
+        return UUID.nameUUIDFromBytes(identity.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Runtime types of the captured variables (the instance fields of the lambda expression).
+     */
+    private static String capturedTypes(Object function) {
+        StringBuilder types = new StringBuilder("[");
+        for (Field field : function.getClass().getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            Object value = null;
+            try {
+                field.setAccessible(true);
+                value = field.get(function);
+            } catch (Exception e) {
+                // Use the declared type
+            }
+            if (value == null) {
+                types.append(field.getType().getName());
+            } else {
+                types.append(value.getClass().getName());
+                if (value instanceof PArray) {
+                    types.append('<').append(((PArray<?>) value).getRuntimeObjectTypeInfo()).append('>');
+                }
+            }
+            types.append(';');
+        }
+        return types.append(']').toString();
+    }
+
+    private static Method getFunctionalMethod(Class<?> klass) {
+        for (Method m : klass.getDeclaredMethods()) {
+            if (m.getName().equals("apply") && !m.isBridge() && !m.isSynthetic()) {
+                return m;
+            }
+        }
+        for (Method m : klass.getMethods()) {
+            if (m.getName().equals("apply")) {
+                return m;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * SHA-256 of the bytecode of the functional method and of the methods it invokes. If the
+     * bytecode is not available (no JVMCI), the name of the class is used.
+     */
+    private static String computeCodeHash(Class<?> klass) {
+        try {
+            Method apply = getFunctionalMethod(klass);
+            if (apply == null) {
+                return klass.getName();
+            }
+            MetaAccessProvider metaAccess = JVMCI.getRuntime().getHostJVMCIBackend().getMetaAccess();
+            ResolvedJavaMethod method = metaAccess.lookupJavaMethod(apply);
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(method.getSignature().toMethodDescriptor().getBytes(StandardCharsets.UTF_8));
+            hashMethod(method, digest, true);
+            StringBuilder hash = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hash.append(String.format("%02x", b));
+            }
+            return hash.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (Throwable e) {
+            // JVMCI is not available or the constant pool can not be resolved
+            return klass.getName();
+        }
+    }
+
+    /**
+     * It adds the invoked methods and their bytecode. The bytecode of the lambda class itself only
+     * reads the captured variables and calls the method with the body of the lambda expression.
+     */
+    private static void hashMethod(ResolvedJavaMethod method, MessageDigest digest, boolean followInvokes) {
+        byte[] code = method.getCode();
+        if (code == null) {
+            return;
+        }
+        if (!followInvokes) {
+            digest.update(code);
+            return;
+        }
+        ConstantPool constantPool = method.getConstantPool();
+        int bci = 0;
+        while (bci < code.length) {
+            int opcode = code[bci] & 0xff;
+            int length = instructionLength(opcode);
+            if (length <= 0 || bci + length > code.length) {
+                // Unsupported instruction: use the whole bytecode of the method
+                digest.update(code);
+                return;
+            }
+            if (opcode >= INVOKEVIRTUAL && opcode <= INVOKEINTERFACE) {
+                int cpi = ((code[bci + 1] & 0xff) << 8) | (code[bci + 2] & 0xff);
+                JavaMethod target = constantPool.lookupMethod(cpi, opcode);
+                digest.update(target.format("%H.%n(%P)%R").getBytes(StandardCharsets.UTF_8));
+                if (target instanceof ResolvedJavaMethod && !isLibraryMethod((ResolvedJavaMethod) target)) {
+                    hashMethod((ResolvedJavaMethod) target, digest, false);
+                }
+            } else {
+                digest.update(code, bci, length);
+            }
+            bci += length;
+        }
+    }
+
+    private static boolean isLibraryMethod(ResolvedJavaMethod method) {
+        String holder = method.getDeclaringClass().toJavaName();
+        return holder.startsWith("java.") || holder.startsWith("javax.") || holder.startsWith("jdk.") || holder.startsWith("sun.");
+    }
+
+    /**
+     * Length in bytes of the instruction, or 0 for the instructions with variable length
+     * (tableswitch, lookupswitch and wide).
+     */
+    private static int instructionLength(int opcode) {
+        if (opcode <= 0x0f) {
+            return 1;
+        } else if (opcode == 0x10 || opcode == 0x12) {
+            return 2;
+        } else if (opcode == 0x11 || opcode == 0x13 || opcode == 0x14) {
+            return 3;
+        } else if (opcode <= 0x19) {
+            return 2;
+        } else if (opcode <= 0x35) {
+            return 1;
+        } else if (opcode <= 0x3a) {
+            return 2;
+        } else if (opcode <= 0x83) {
+            return 1;
+        } else if (opcode == 0x84) {
+            return 3;
+        } else if (opcode <= 0x98) {
+            return 1;
+        } else if (opcode <= 0xa8) {
+            return 3;
+        } else if (opcode == 0xa9) {
+            return 2;
+        } else if (opcode <= 0xab) {
+            return 0;
+        } else if (opcode <= 0xb1) {
+            return 1;
+        } else if (opcode <= 0xb8) {
+            return 3;
+        } else if (opcode <= 0xba) {
+            return 5;
+        } else if (opcode == 0xbb || opcode == 0xbd || opcode == 0xc0 || opcode == 0xc1) {
+            return 3;
+        } else if (opcode == 0xbc) {
+            return 2;
+        } else if (opcode <= 0xc3) {
+            return 1;
+        } else if (opcode == 0xc5) {
+            return 4;
+        } else if (opcode == 0xc6 || opcode == 0xc7) {
+            return 3;
+        } else if (opcode == 0xc8 || opcode == 0xc9) {
+            return 5;
+        }
+        return 0;
+    }
+}
@@ -19,30 +19,42 @@
  */
 package uk.ac.ed.jpai.cache;
 
-import java.util.HashMap;
 import java.util.UUID;
 
+import uk.ac.ed.accelerator.cache.BoundedCache;
+import uk.ac.ed.accelerator.common.GraalAcceleratorOptions;
+
 import com.oracle.graal.nodes.StructuredGraph;
 
+/**
+ * UUIDs of the graphs compiled to OpenCL. The graphs come from partial evaluation, so they have no
+ * stable content identity and are identified by the instance. The number of graphs is bounded by
+ * {@link GraalAcceleratorOptions#functionCacheSize}.
+ */
 public class GraphCache {
 
-    private HashMap<StructuredGraph, UUID> cache;
+    private BoundedCache<StructuredGraph, UUID> cache;
 
     public static final GraphCache INSTANCE = new GraphCache();
 
     private GraphCache() {
-        this.cache = new HashMap<>();
+        this.cache = new BoundedCache<>("GraphCache", GraalAcceleratorOptions.functionCacheSize);
     }
 
-    public UUID insertGraph(StructuredGraph graph) {
-        if (!cache.containsKey(graph)) {
-            UUID uuid = UUID.randomUUID();
+    public synchronized UUID insertGraph(StructuredGraph graph) {
+        UUID uuid = cache.get(graph);
+        if (uuid == null) {
+            uuid = UUID.randomUUID();
             cache.put(graph, uuid);
         }
-        return cache.get(graph);
+        return uuid;
     }
 
     public UUID getUUID(StructuredGraph graph) {
         return cache.get(graph);
     }
+
+    public String getStatistics() {
+        return cache.getStatistics();
+    }
 }
@@ -19,61 +19,62 @@
  */
 package uk.ac.ed.jpai.cache;
 
-import java.lang.reflect.Field;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.UUID;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
+import uk.ac.ed.accelerator.cache.BoundedCache;
+import uk.ac.ed.accelerator.common.GraalAcceleratorOptions;
+
 /**
- * Insert into cache the Function or the BiFunction. It creates an UUID for each function. This UUID
- * is the unique number passed to the Graal-OpenCL runtime, which is used for cache code generation
- * and OpenCL binaries.
+ * Insert into cache the Function or the BiFunction. Functions are identified by their content (see
+ * {@link FunctionIdentity}) and the UUID is derived from the identity. This UUID is the unique
+ * number passed to the Graal-OpenCL runtime, which is used for cache code generation and OpenCL
+ * binaries.
  *
+ * The number of functions is bounded by {@link GraalAcceleratorOptions#functionCacheSize}. An
+ * evicted function gets the same UUID when it is inserted again.
  */
 public final class UserFunctionCache {
 
     public static final UserFunctionCache INSTANCE = new UserFunctionCache();
-    private HashMap<String, UUID> cache;
-    private HashMap<BiFunction<?, ?, ?>, UUID> cachebi;
+    private BoundedCache<String, UUID> cache;
 
-    private static UUID lastUUID;
+    private static volatile UUID lastUUID;
 
     private UserFunctionCache() {
-        cache = new HashMap<>();
-        cachebi = new HashMap<>();
+        cache = new BoundedCache<>("UserFunctionCache", GraalAcceleratorOptions.functionCacheSize);
     }
 
-    public UUID insertFunction(Function<?, ?> function) {
-        if (!cache.containsKey(function.getClass().getName())) {
-            lastUUID = UUID.randomUUID();
-            cache.put(function.getClass().getName(), lastUUID);
-            return lastUUID;
+    private UUID insert(Object function) {
+        String key = FunctionIdentity.of(function);
+        UUID uuid = cache.get(key);
+        if (uuid == null) {
+            uuid = FunctionIdentity.toUUID(key);
+            cache.put(key, uuid);
         }
-        return cache.get(function.getClass().getName());
+        lastUUID = uuid;
+        return uuid;
+    }
+
+    public UUID insertFunction(Function<?, ?> function) {
+        return insert(function);
     }
 
     public <T, R> void insertFunction(BiFunction<R, R, R> f) {
-        if (!cachebi.containsKey(f)) {
-            lastUUID = UUID.randomUUID();
-            cachebi.put(f, lastUUID);
-        }
+        insert(f);
     }
 
     public <T, R> void insertBiFunction(BiFunction<T, R, R> f) {
-        if (!cachebi.containsKey(f)) {
-            lastUUID = UUID.randomUUID();
-            cachebi.put(f, lastUUID);
-        }
+        insert(f);
     }
 
     public <T, R> boolean isFunction(Function<T, R> function) {
-        return cache.containsKey(function.getClass().getName());
+        return cache.containsKey(FunctionIdentity.of(function));
     }
 
     public <T, R> boolean isFunction(BiFunction<R, R, R> biFunction) {
-        return cachebi.containsKey(biFunction.getClass().getName());
+        return cache.containsKey(FunctionIdentity.of(biFunction));
     }
 
     public static UUID getLastUUID() {
@@ -81,10 +82,11 @@ public final class UserFunctionCache {
     }
 
     public <T, R> UUID getUUID(Function<T, R> f) {
-        String functionName = f.getClass().getName();
-        if (cache.containsKey(functionName)) {
-            return cache.get(functionName);
-        }
-        return null;
+        String key = FunctionIdentity.of(f);
+        return cache.containsKey(key) ? FunctionIdentity.toUUID(key) : null;
+    }
+
+    public String getStatistics() {
+        return cache.getStatistics();
     }
 }
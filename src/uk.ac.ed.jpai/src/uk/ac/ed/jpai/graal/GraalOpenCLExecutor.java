@@ -36,6 +36,7 @@ import org.jocl.cl_mem;
 
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 import uk.ac.ed.accelerator.cache.OCLKernelCache;
+import uk.ac.ed.accelerator.cache.OCLKernelPackage;
 import uk.ac.ed.accelerator.common.GraalAcceleratorOptions;
 import uk.ac.ed.accelerator.common.GraalAcceleratorPlatform;
 import uk.ac.ed.accelerator.common.GraalAcceleratorSystem;
@@ -78,7 +79,8 @@ public class GraalOpenCLExecutor {
     }
 
     public <T> AcceleratorPArray<T> copyToDevice(PArray<T> input, RuntimeObjectTypeInfo inputType) {
-        return copyToDevice(input, inputType, input.size(), 0);
+        PArray<T> array = input.getSequenceDescriptor();
+        return copyToDevice(array, inputType, array.size(), 0);
     }
 
     @SuppressWarnings("unchecked")
@@ -265,14 +267,22 @@ public class GraalOpenCLExecutor {
 
         long size = input.isSequence() ? input.getTotalSizeWhenSequence() : input.size();
         if (GraalAcceleratorOptions.multiOpenCLDevice) {
-            int numMaxDevices = GraalAcceleratorSystem.getInstance().getPlatform().getNumCurrentCurrentDevices();
-            if (deviceIndex > 0) {
-                size = (size / numMaxDevices) + (size % numMaxDevices);
+            if (input.isSequence()) {
+                int numMaxDevices = GraalAcceleratorSystem.getInstance().getPlatform().getNumCurrentCurrentDevices();
+                if (deviceIndex > 0) {
+                    size = (size / numMaxDevices) + (size % numMaxDevices);
+                } else {
+                    size = (size / numMaxDevices);
+                }
             } else {
-                size = (size / numMaxDevices);
+                size = input.getDeviceSize(deviceIndex);
             }
         }
 
+        if (size == 0) {
+            return;
+        }
+
         long[] globalWorkSize = new long[]{size};
         long[] localWorkSize = computeLocalWorkSize(kernel, deviceIndex, size);
 
@@ -308,8 +318,17 @@ public class GraalOpenCLExecutor {
 
         for (int i = 0; i < numKernels; i++) {
             // System.out.println("Running kernel: " + i);
-            cl_kernel kernel = OCLKernelCache.getInstance().get(uuidKernel, i).getKernelBinary();
-            executeKernelIntoDevice(kernelIndex, i, kernel, input, outputLocal);
+            OCLKernelPackage kernelPackage = OCLKernelCache.getInstance().pin(uuidKernel, i);
+            try {
+                if (kernelPackage == null) {
+                    // The graph has to be compiled again
+                    throw new RuntimeException("[OpenCL] Kernel evicted from the cache: " + uuidKernel);
+                }
+                cl_kernel kernel = kernelPackage.getKernelBinary();
+                executeKernelIntoDevice(kernelIndex, i, kernel, input, outputLocal);
+            } finally {
+                OCLKernelCache.getInstance().unpin(uuidKernel);
+            }
         }
     }
 
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2013, 2017, The University of Edinburgh. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ */
+package uk.ac.ed.jpai.jit;
+
+import uk.ac.ed.datastructures.common.PArray;
+import uk.ac.ed.jpai.ArrayFunction;
+
+/**
+ * Background compilation of an accelerator skeleton: it prepares the execution of the
+ * decomposition (Graal IR to OpenCL C and driver build) while the caller runs with Java threads.
+ */
+public class JPAICompileKernelThread<inT, outT> extends Thread {
+
+    private final ArrayFunction<inT, outT> decomposition;
+    private final PArray<inT> input;
+    private volatile boolean compilationFinished = false;
+    private volatile Throwable error = null;
+    private long compilationTime;
+
+    /**
+     * @param decomposition skeleton to prepare
+     * @param input first input, used for the type inference
+     */
+    public JPAICompileKernelThread(ArrayFunction<inT, outT> decomposition, PArray<inT> input) {
+        super("marawacc-kernel-compiler");
+        this.decomposition = decomposition;
+        this.input = input;
+        setDaemon(true);
+    }
+
+    public boolean isCompilationFinished() {
+        return compilationFinished;
+    }
+
+    /**
+     * @return the exception thrown during the compilation, or null
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * @return compilation time in nanoseconds (valid after the compilation is finished)
+     */
+    public long getCompilationTime() {
+        return compilationTime;
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        try {
+            decomposition.prepareExecution(input);
+        } catch (Throwable e) {
+            error = e;
+        }
+        compilationTime = System.nanoTime() - start;
+        compilationFinished = true;
+    }
+}